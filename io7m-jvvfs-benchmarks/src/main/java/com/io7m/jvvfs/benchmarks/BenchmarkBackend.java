@@ -0,0 +1,50 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jvvfs.benchmarks;
+
+/**
+ * The kinds of archive against which benchmarks run.
+ */
+
+public enum BenchmarkBackend
+{
+  /**
+   * Directories in the host filesystem.
+   */
+
+  BACKEND_DIRECTORY,
+
+  /**
+   * Directories in the host filesystem, indexed when mounted, as with
+   * {@link com.io7m.jvvfs.MountOption#MOUNT_OPTION_DIRECTORY_IMMUTABLE}.
+   */
+
+  BACKEND_DIRECTORY_IMMUTABLE,
+
+  /**
+   * Zip archives read with {@link java.util.zip.ZipFile}.
+   */
+
+  BACKEND_ZIP,
+
+  /**
+   * Zip archives read through a memory mapping, as with
+   * {@link com.io7m.jvvfs.MountOption#MOUNT_OPTION_ZIP_MAPPED}.
+   */
+
+  BACKEND_ZIP_MAPPED
+}
@@ -0,0 +1,415 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jvvfs.benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import com.io7m.jlog.Log;
+import com.io7m.jlog.LogLevel;
+import com.io7m.jlog.LogPolicyAllOn;
+import com.io7m.jlog.LogUsableType;
+import com.io7m.jnull.NullCheck;
+import com.io7m.junreachable.UnreachableCodeException;
+import com.io7m.jvvfs.Filesystem;
+import com.io7m.jvvfs.FilesystemType;
+import com.io7m.jvvfs.MountOption;
+import com.io7m.jvvfs.PathReal;
+
+/**
+ * <p>
+ * Functions to create the archives against which benchmarks run.
+ * </p>
+ * <p>
+ * An archive is described by a <i>depth</i>, a <i>layer</i>, and a number
+ * of files. File <code>i</code> of layer <code>l</code> is placed below
+ * <code>depth</code> directories, each chosen by successive digits of
+ * <code>i</code> in base {@link #FANOUT}, so that files are spread evenly
+ * over the tree and archives of different layers share directories but not
+ * files. The contents of files are pseudo-random but repeatable, and
+ * compress to roughly half of their size.
+ * </p>
+ */
+
+public final class BenchmarkFixtures
+{
+  /**
+   * The number of subdirectories of each directory.
+   */
+
+  public static final int FANOUT = 4;
+
+  private static LogUsableType makeLog()
+  {
+    return Log.newLog(LogPolicyAllOn.newPolicy(LogLevel.LOG_ERROR), "bench");
+  }
+
+  private static byte[] contents(
+    final int layer,
+    final int index,
+    final int size)
+  {
+    final Random r = new Random((((long) layer) << 32) | index);
+    final byte[] data = new byte[size];
+    for (int i = 0; i < size; ++i) {
+      data[i] = (byte) ('a' + r.nextInt(16));
+    }
+    return data;
+  }
+
+  /**
+   * Recursively delete <code>file</code>.
+   * 
+   * @param file
+   *          The file or directory
+   */
+
+  public static void delete(
+    final File file)
+  {
+    final File[] children = file.listFiles();
+    if (children != null) {
+      for (final File c : children) {
+        assert c != null;
+        BenchmarkFixtures.delete(c);
+      }
+    }
+    file.delete();
+  }
+
+  /**
+   * @param backend
+   *          The backend
+   * @param name
+   *          The name of an archive, without any suffix
+   * @return The name of the archive file or directory for the given backend
+   */
+
+  public static String fileName(
+    final BenchmarkBackend backend,
+    final String name)
+  {
+    switch (backend) {
+      case BACKEND_DIRECTORY:
+      case BACKEND_DIRECTORY_IMMUTABLE:
+      {
+        return name;
+      }
+      case BACKEND_ZIP:
+      case BACKEND_ZIP_MAPPED:
+      {
+        return name + ".zip";
+      }
+    }
+
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * @param depth
+   *          The number of directories above each file
+   * @param index
+   *          The index of a file
+   * @return The path of the directory that contains file <code>index</code>
+   *         in archives of the given depth, without a leading slash
+   */
+
+  public static String directoryPath(
+    final int depth,
+    final int index)
+  {
+    final StringBuilder b = new StringBuilder();
+    int digits = index;
+    for (int d = 0; d < depth; ++d) {
+      if (d > 0) {
+        b.append("/");
+      }
+      b.append("d");
+      b.append(digits % BenchmarkFixtures.FANOUT);
+      digits = digits / BenchmarkFixtures.FANOUT;
+    }
+    return NullCheck.notNull(b.toString());
+  }
+
+  /**
+   * @param depth
+   *          The number of directories above each file
+   * @param layer
+   *          The layer
+   * @param index
+   *          The index of the file
+   * @return The path of file <code>index</code> in archives of the given
+   *         depth and layer, without a leading slash
+   */
+
+  public static String filePath(
+    final int depth,
+    final int layer,
+    final int index)
+  {
+    final StringBuilder b = new StringBuilder();
+    if (depth > 0) {
+      b.append(BenchmarkFixtures.directoryPath(depth, index));
+      b.append("/");
+    }
+    b.append("f");
+    b.append(layer);
+    b.append("-");
+    b.append(index);
+    b.append(".bin");
+    return NullCheck.notNull(b.toString());
+  }
+
+  /**
+   * @param archives
+   *          The archive directory
+   * @return A new filesystem that logs only errors
+   */
+
+  public static FilesystemType makeFilesystem(
+    final File archives)
+  {
+    return Filesystem.makeWithArchiveDirectory(
+      BenchmarkFixtures.makeLog(),
+      new PathReal(archives.toString()));
+  }
+
+  /**
+   * @return A new, empty, temporary directory
+   * @throws IOException
+   *           If the directory cannot be created
+   */
+
+  public static File makeTemporaryDirectory()
+    throws IOException
+  {
+    final File f = File.createTempFile("jvvfs-benchmarks-", "");
+    if ((f.delete() == false) || (f.mkdir() == false)) {
+      throw new IOException("Could not create directory " + f);
+    }
+    return f;
+  }
+
+  /**
+   * @param backend
+   *          The backend
+   * @return The mount options that select the given backend
+   */
+
+  public static Set<MountOption> mountOptions(
+    final BenchmarkBackend backend)
+  {
+    switch (backend) {
+      case BACKEND_DIRECTORY:
+      case BACKEND_ZIP:
+      {
+        return NullCheck.notNull(EnumSet.noneOf(MountOption.class));
+      }
+      case BACKEND_DIRECTORY_IMMUTABLE:
+      {
+        return NullCheck.notNull(EnumSet
+          .of(MountOption.MOUNT_OPTION_DIRECTORY_IMMUTABLE));
+      }
+      case BACKEND_ZIP_MAPPED:
+      {
+        return NullCheck.notNull(EnumSet
+          .of(MountOption.MOUNT_OPTION_ZIP_MAPPED));
+      }
+    }
+
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Write an archive for the given backend.
+   * 
+   * @param backend
+   *          The backend
+   * @param directory
+   *          The directory that will contain the archive
+   * @param name
+   *          The name of the archive, without any suffix
+   * @param depth
+   *          The number of directories above each file
+   * @param layer
+   *          The layer
+   * @param count
+   *          The number of files
+   * @param size
+   *          The size of each file
+   * @param compressed
+   *          <code>true</code> if files in zip archives should be compressed
+   * @return The archive
+   * @throws IOException
+   *           On I/O errors
+   */
+
+  public static File writeArchive(
+    final BenchmarkBackend backend,
+    final File directory,
+    final String name,
+    final int depth,
+    final int layer,
+    final int count,
+    final int size,
+    final boolean compressed)
+    throws IOException
+  {
+    final File f =
+      new File(directory, BenchmarkFixtures.fileName(backend, name));
+
+    switch (backend) {
+      case BACKEND_DIRECTORY:
+      case BACKEND_DIRECTORY_IMMUTABLE:
+      {
+        for (int index = 0; index < count; ++index) {
+          BenchmarkFixtures.writeFile(
+            new File(f, BenchmarkFixtures.filePath(depth, layer, index)),
+            BenchmarkFixtures.contents(layer, index, size));
+        }
+        return f;
+      }
+      case BACKEND_ZIP:
+      case BACKEND_ZIP_MAPPED:
+      {
+        final ZipOutputStream z =
+          new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(
+            f)));
+        try {
+          for (int index = 0; index < count; ++index) {
+            BenchmarkFixtures.writeEntry(
+              z,
+              BenchmarkFixtures.filePath(depth, layer, index),
+              BenchmarkFixtures.contents(layer, index, size),
+              compressed);
+          }
+        } finally {
+          z.close();
+        }
+        return f;
+      }
+    }
+
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Write an archive for the given backend that contains a single file.
+   * 
+   * @param backend
+   *          The backend
+   * @param directory
+   *          The directory that will contain the archive
+   * @param name
+   *          The name of the archive, without any suffix
+   * @param path
+   *          The path of the file, without a leading slash
+   * @return The archive
+   * @throws IOException
+   *           On I/O errors
+   */
+
+  public static File writeArchiveSingle(
+    final BenchmarkBackend backend,
+    final File directory,
+    final String name,
+    final String path)
+    throws IOException
+  {
+    final File f =
+      new File(directory, BenchmarkFixtures.fileName(backend, name));
+    final byte[] data = BenchmarkFixtures.contents(0, 0, 16);
+
+    switch (backend) {
+      case BACKEND_DIRECTORY:
+      case BACKEND_DIRECTORY_IMMUTABLE:
+      {
+        BenchmarkFixtures.writeFile(new File(f, path), data);
+        return f;
+      }
+      case BACKEND_ZIP:
+      case BACKEND_ZIP_MAPPED:
+      {
+        final ZipOutputStream z =
+          new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(
+            f)));
+        try {
+          BenchmarkFixtures.writeEntry(z, path, data, true);
+        } finally {
+          z.close();
+        }
+        return f;
+      }
+    }
+
+    throw new UnreachableCodeException();
+  }
+
+  private static void writeEntry(
+    final ZipOutputStream z,
+    final String name,
+    final byte[] data,
+    final boolean compressed)
+    throws IOException
+  {
+    final ZipEntry e = new ZipEntry(name);
+    if (compressed) {
+      e.setMethod(ZipEntry.DEFLATED);
+    } else {
+      final CRC32 crc = new CRC32();
+      crc.update(data);
+      e.setMethod(ZipEntry.STORED);
+      e.setSize(data.length);
+      e.setCompressedSize(data.length);
+      e.setCrc(crc.getValue());
+    }
+    z.putNextEntry(e);
+    z.write(data);
+    z.closeEntry();
+  }
+
+  private static void writeFile(
+    final File file,
+    final byte[] data)
+    throws IOException
+  {
+    final File parent = file.getParentFile();
+    if ((parent.isDirectory() == false) && (parent.mkdirs() == false)) {
+      throw new IOException("Could not create directory " + parent);
+    }
+    final OutputStream s = new FileOutputStream(file);
+    try {
+      s.write(data);
+    } finally {
+      s.close();
+    }
+  }
+
+  private BenchmarkFixtures()
+  {
+    throw new UnreachableCodeException();
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jvvfs.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+
+import com.io7m.junreachable.UnreachableCodeException;
+
+/**
+ * <p>
+ * The entry point of the benchmarks jar.
+ * </p>
+ * <p>
+ * Accepts exactly the same arguments as the JMH runner, but unless told
+ * otherwise, writes the results in JSON format to
+ * <code>jvvfs-benchmarks-VERSION.json</code> in the current directory, so
+ * that the results of different versions can be compared.
+ * </p>
+ */
+
+public final class BenchmarkMain
+{
+  /**
+   * Run the benchmarks.
+   * 
+   * @param args
+   *          Command-line arguments
+   * @throws CommandLineOptionException
+   *           On malformed arguments
+   * @throws RunnerException
+   *           If the benchmarks fail
+   * @throws IOException
+   *           On I/O errors
+   */
+
+  public static void main(
+    final String[] args)
+    throws CommandLineOptionException,
+      RunnerException,
+      IOException
+  {
+    final CommandLineOptions options = new CommandLineOptions(args);
+    final List<String> actual = new ArrayList<String>(Arrays.asList(args));
+
+    if (options.getResultFormat().hasValue() == false) {
+      actual.add("-rf");
+      actual.add("json");
+    }
+    if (options.getResult().hasValue() == false) {
+      final String version =
+        BenchmarkMain.class.getPackage().getImplementationVersion();
+      actual.add("-rff");
+      if (version == null) {
+        actual.add("jvvfs-benchmarks-unknown.json");
+      } else {
+        actual.add("jvvfs-benchmarks-" + version + ".json");
+      }
+    }
+
+    org.openjdk.jmh.Main.main(actual.toArray(new String[actual.size()]));
+  }
+
+  private BenchmarkMain()
+  {
+    throw new UnreachableCodeException();
+  }
+}
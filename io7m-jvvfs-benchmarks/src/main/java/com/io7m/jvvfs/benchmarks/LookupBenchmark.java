@@ -0,0 +1,298 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jvvfs.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.io7m.jvvfs.FileStat;
+import com.io7m.jvvfs.FilesystemError;
+import com.io7m.jvvfs.FilesystemType;
+import com.io7m.jvvfs.MountOption;
+import com.io7m.jvvfs.PathVirtual;
+
+/**
+ * <p>
+ * Lookups and listings through a stack of archives mounted at the root.
+ * </p>
+ * <p>
+ * Each archive in the stack holds a distinct set of files below a shared
+ * directory tree, so lookups of files in lower archives must first miss in
+ * each of the archives above them. A proportion of lookups are of files that
+ * do not exist in any archive. If the stack is shadowed, an additional
+ * archive on top of the stack holds a file in place of one of the top-level
+ * directories, hiding a quarter of the files below it.
+ * </p>
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LookupBenchmark
+{
+  /**
+   * The position of each thread in the sequence of queries.
+   */
+
+  @State(Scope.Thread) public static class Cursor
+  {
+    private int index;
+
+    int next(
+      final int count)
+    {
+      final int r = this.index;
+      this.index = (r + 1) % count;
+      return r;
+    }
+  }
+
+  private static final int FILES   = 256;
+  private static final int QUERIES = 1024;
+
+  /**
+   * The kind of archives in the stack.
+   */
+
+  @Param public BenchmarkBackend backend;
+
+  /**
+   * The percentage of lookups that are of nonexistent files.
+   */
+
+  @Param({ "0", "50" }) public int miss_percent;
+
+  /**
+   * The number of directories above each file.
+   */
+
+  @Param({ "1", "8" }) public int path_depth;
+
+  /**
+   * Whether a file in the topmost archive shadows a directory.
+   */
+
+  @Param({ "false", "true" }) public boolean shadowed;
+
+  /**
+   * The number of archives in the stack.
+   */
+
+  @Param({ "1", "16" }) public int stack_depth;
+
+  private File           directory;
+  private FilesystemType fs;
+  private PathVirtual[]  hits;
+  private PathVirtual    listed;
+  private PathVirtual[]  queries;
+
+  /**
+   * @param c
+   *          The cursor
+   * @return <code>true</code> iff the next queried path exists.
+   * @throws FilesystemError
+   *           Never
+   */
+
+  @Benchmark public boolean exists(
+    final Cursor c)
+    throws FilesystemError
+  {
+    return this.fs.exists(this.queries[c.next(LookupBenchmark.QUERIES)]);
+  }
+
+  /**
+   * @param c
+   *          The cursor
+   * @return The size of the next existing file.
+   * @throws FilesystemError
+   *           Never
+   */
+
+  @Benchmark public long getFileSize(
+    final Cursor c)
+    throws FilesystemError
+  {
+    return this.fs.getFileSize(this.hits[c.next(LookupBenchmark.QUERIES)]);
+  }
+
+  /**
+   * @return The names in a directory to which every archive contributes.
+   * @throws FilesystemError
+   *           Never
+   */
+
+  @Benchmark public SortedSet<String> listDirectory()
+    throws FilesystemError
+  {
+    return this.fs.listDirectory(this.listed);
+  }
+
+  /**
+   * @return The entries of a directory to which every archive contributes.
+   * @throws FilesystemError
+   *           Never
+   */
+
+  @Benchmark public SortedMap<String, FileStat> listDirectoryDetailed()
+    throws FilesystemError
+  {
+    return this.fs.listDirectoryDetailed(this.listed);
+  }
+
+  /**
+   * @return A random path below a file of one of the archives, ending with
+   *         <code>suffix</code>, that the shadowing file does not hide.
+   */
+
+  private PathVirtual makePath(
+    final Random r,
+    final String suffix)
+    throws FilesystemError
+  {
+    for (;;) {
+      final int layer = r.nextInt(this.stack_depth);
+      final int index = r.nextInt(LookupBenchmark.FILES);
+      final String p =
+        BenchmarkFixtures.filePath(this.path_depth, layer, index);
+      if (this.shadowed && p.startsWith("d0/")) {
+        continue;
+      }
+      return PathVirtual.ofString("/" + p + suffix);
+    }
+  }
+
+  /**
+   * Create and mount the archives, and choose the queried paths.
+   * 
+   * @throws IOException
+   *           On I/O errors
+   * @throws FilesystemError
+   *           If the archives cannot be mounted
+   */
+
+  @Setup public void setup()
+    throws IOException,
+      FilesystemError
+  {
+    this.directory = BenchmarkFixtures.makeTemporaryDirectory();
+    this.fs = BenchmarkFixtures.makeFilesystem(this.directory);
+
+    final Set<MountOption> options =
+      BenchmarkFixtures.mountOptions(this.backend);
+
+    for (int layer = 0; layer < this.stack_depth; ++layer) {
+      final String name = "layer" + layer;
+      BenchmarkFixtures.writeArchive(
+        this.backend,
+        this.directory,
+        name,
+        this.path_depth,
+        layer,
+        LookupBenchmark.FILES,
+        16,
+        true);
+      this.fs.mountArchive(
+        BenchmarkFixtures.fileName(this.backend, name),
+        PathVirtual.ROOT,
+        options);
+    }
+
+    if (this.shadowed) {
+      BenchmarkFixtures.writeArchiveSingle(
+        this.backend,
+        this.directory,
+        "shadow",
+        "d0");
+      this.fs.mountArchive(
+        BenchmarkFixtures.fileName(this.backend, "shadow"),
+        PathVirtual.ROOT,
+        options);
+    }
+
+    final Random r = new Random(0x6a767666L);
+    this.hits = new PathVirtual[LookupBenchmark.QUERIES];
+    this.queries = new PathVirtual[LookupBenchmark.QUERIES];
+    for (int index = 0; index < LookupBenchmark.QUERIES; ++index) {
+      this.hits[index] = this.makePath(r, "");
+      if (r.nextInt(100) < this.miss_percent) {
+        this.queries[index] = this.makePath(r, ".missing");
+      } else {
+        this.queries[index] = this.makePath(r, "");
+      }
+    }
+
+    /**
+     * File 85 is placed below the directories d1/d1/d1/d1/d0/..., which
+     * every archive populates, and which the shadowing file does not hide.
+     */
+
+    this.listed =
+      PathVirtual.ofString("/"
+        + BenchmarkFixtures.directoryPath(this.path_depth, 85));
+  }
+
+  /**
+   * @param c
+   *          The cursor
+   * @return The attributes of the next existing file.
+   * @throws FilesystemError
+   *           Never
+   */
+
+  @Benchmark public FileStat stat(
+    final Cursor c)
+    throws FilesystemError
+  {
+    return this.fs.stat(this.hits[c.next(LookupBenchmark.QUERIES)]);
+  }
+
+  /**
+   * Unmount and delete the archives.
+   * 
+   * @throws FilesystemError
+   *           If the filesystem cannot be closed
+   */
+
+  @TearDown public void tearDown()
+    throws FilesystemError
+  {
+    this.fs.close();
+    BenchmarkFixtures.delete(this.directory);
+  }
+}
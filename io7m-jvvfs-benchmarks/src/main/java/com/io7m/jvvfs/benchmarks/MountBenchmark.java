@@ -0,0 +1,271 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jvvfs.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.Pair;
+import com.io7m.junreachable.UnreachableCodeException;
+import com.io7m.jvvfs.FilesystemError;
+import com.io7m.jvvfs.FilesystemType;
+import com.io7m.jvvfs.MountOption;
+import com.io7m.jvvfs.PathReal;
+import com.io7m.jvvfs.PathVirtual;
+
+/**
+ * <p>
+ * Mounting a number of archives at the root of a new filesystem, one at a
+ * time or as a single batch opened in parallel.
+ * </p>
+ * <p>
+ * The index cache may be disabled, populated with the entries of every
+ * archive (so that mounting never reads the central directory of a zip
+ * archive), or empty (so that every mount reads the central directory and
+ * then writes a cache file).
+ * </p>
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MountBenchmark
+{
+  /**
+   * The state of the index cache.
+   */
+
+  public enum IndexCacheMode
+  {
+    /**
+     * The index cache is disabled.
+     */
+
+    INDEX_CACHE_DISABLED,
+
+    /**
+     * The index cache holds the entries of every archive.
+     */
+
+    INDEX_CACHE_HIT,
+
+    /**
+     * The index cache is empty.
+     */
+
+    INDEX_CACHE_MISS
+  }
+
+  /**
+   * The number of archives mounted.
+   */
+
+  @Param({ "1", "8" }) public int archives;
+
+  /**
+   * The kind of archives.
+   */
+
+  @Param public BenchmarkBackend backend;
+
+  /**
+   * The number of files in each archive.
+   */
+
+  @Param({ "100", "10000" }) public int entries;
+
+  /**
+   * The state of the index cache.
+   */
+
+  @Param public IndexCacheMode index_cache;
+
+  private File                            directory;
+  private File                            directory_archives;
+  private File                            directory_cache;
+  private ExecutorService                 executor;
+  private FilesystemType                  fs;
+  private List<Pair<String, PathVirtual>> mounts;
+  private Set<MountOption>                options;
+
+  /**
+   * Unmount the archives.
+   * 
+   * @throws FilesystemError
+   *           If the filesystem cannot be closed
+   */
+
+  @TearDown(Level.Invocation) public void afterInvocation()
+    throws FilesystemError
+  {
+    this.fs.close();
+  }
+
+  /**
+   * Create a new filesystem, and empty the index cache if necessary.
+   * 
+   * @throws FilesystemError
+   *           If the index cache cannot be enabled
+   */
+
+  @Setup(Level.Invocation) public void beforeInvocation()
+    throws FilesystemError
+  {
+    this.fs = this.makeFilesystem();
+    if (this.index_cache == IndexCacheMode.INDEX_CACHE_MISS) {
+      final File[] files = this.directory_cache.listFiles();
+      if (files != null) {
+        for (final File f : files) {
+          f.delete();
+        }
+      }
+    }
+  }
+
+  private FilesystemType makeFilesystem()
+    throws FilesystemError
+  {
+    final FilesystemType f =
+      BenchmarkFixtures.makeFilesystem(this.directory_archives);
+
+    switch (this.index_cache) {
+      case INDEX_CACHE_DISABLED:
+      {
+        return f;
+      }
+      case INDEX_CACHE_HIT:
+      case INDEX_CACHE_MISS:
+      {
+        f.setIndexCacheDirectory(Option.some(new PathReal(
+          this.directory_cache.toString())));
+        return f;
+      }
+    }
+
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Mount the archives as a single batch.
+   * 
+   * @throws FilesystemError
+   *           If the archives cannot be mounted
+   */
+
+  @Benchmark public void mountBatch()
+    throws FilesystemError
+  {
+    this.fs.mountArchives(this.mounts, this.options, this.executor);
+  }
+
+  /**
+   * Mount the archives one at a time.
+   * 
+   * @throws FilesystemError
+   *           If the archives cannot be mounted
+   */
+
+  @Benchmark public void mountSerial()
+    throws FilesystemError
+  {
+    for (final Pair<String, PathVirtual> p : this.mounts) {
+      this.fs.mountArchive(p.getLeft(), p.getRight(), this.options);
+    }
+  }
+
+  /**
+   * Create the archives, and populate the index cache if necessary.
+   * 
+   * @throws IOException
+   *           On I/O errors
+   * @throws FilesystemError
+   *           If the archives cannot be mounted
+   */
+
+  @Setup(Level.Trial) public void setup()
+    throws IOException,
+      FilesystemError
+  {
+    this.directory = BenchmarkFixtures.makeTemporaryDirectory();
+    this.directory_archives = new File(this.directory, "archives");
+    this.directory_cache = new File(this.directory, "cache");
+    if (this.directory_archives.mkdir() == false) {
+      throw new IOException("Could not create " + this.directory_archives);
+    }
+
+    this.executor =
+      Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    this.options = BenchmarkFixtures.mountOptions(this.backend);
+    this.mounts = new ArrayList<Pair<String, PathVirtual>>();
+
+    for (int layer = 0; layer < this.archives; ++layer) {
+      final String name = "layer" + layer;
+      BenchmarkFixtures.writeArchive(
+        this.backend,
+        this.directory_archives,
+        name,
+        3,
+        layer,
+        this.entries,
+        16,
+        true);
+      this.mounts.add(Pair.pair(
+        BenchmarkFixtures.fileName(this.backend, name),
+        PathVirtual.ROOT));
+    }
+
+    if (this.index_cache == IndexCacheMode.INDEX_CACHE_HIT) {
+      final FilesystemType f = this.makeFilesystem();
+      f.mountArchives(this.mounts, this.options, this.executor);
+      f.close();
+    }
+  }
+
+  /**
+   * Delete the archives.
+   */
+
+  @TearDown(Level.Trial) public void tearDown()
+  {
+    this.executor.shutdown();
+    BenchmarkFixtures.delete(this.directory);
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jvvfs.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.io7m.jvvfs.FilesystemError;
+import com.io7m.jvvfs.PathVirtual;
+
+/**
+ * <p>
+ * Parsing and manipulation of virtual paths of varying depth.
+ * </p>
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PathVirtualBenchmark
+{
+  /**
+   * The number of names in each path.
+   */
+
+  @Param({ "1", "4", "16" }) public int path_depth;
+
+  private PathVirtual parent;
+  private PathVirtual path;
+  private PathVirtual path_copy;
+  private String      text;
+  private String      text_lax;
+
+  /**
+   * @return The result of appending a name to a path.
+   * @throws FilesystemError
+   *           Never
+   */
+
+  @Benchmark public PathVirtual appendName()
+    throws FilesystemError
+  {
+    return this.parent.appendName("x");
+  }
+
+  /**
+   * @return The result of comparing distinct but equal paths.
+   */
+
+  @Benchmark public boolean equals()
+  {
+    return this.path.equals(this.path_copy);
+  }
+
+  /**
+   * @return The interned path.
+   */
+
+  @Benchmark public PathVirtual intern()
+  {
+    return this.path.intern();
+  }
+
+  /**
+   * @return The result of an ancestor check.
+   */
+
+  @Benchmark public boolean isAncestorOf()
+  {
+    return this.parent.isAncestorOf(this.path);
+  }
+
+  /**
+   * @return The parsed path.
+   * @throws FilesystemError
+   *           Never
+   */
+
+  @Benchmark public PathVirtual ofString()
+    throws FilesystemError
+  {
+    return PathVirtual.ofString(this.text);
+  }
+
+  /**
+   * @return The parsed path.
+   * @throws FilesystemError
+   *           Never
+   */
+
+  @Benchmark public PathVirtual ofStringLax()
+    throws FilesystemError
+  {
+    return PathVirtual.ofStringLax(this.text_lax);
+  }
+
+  /**
+   * Construct the paths.
+   * 
+   * @throws FilesystemError
+   *           Never
+   */
+
+  @Setup public void setup()
+    throws FilesystemError
+  {
+    final StringBuilder b = new StringBuilder();
+    final StringBuilder b_lax = new StringBuilder();
+    for (int index = 0; index < this.path_depth; ++index) {
+      b.append("/name");
+      b.append(index);
+      b_lax.append("//name");
+      b_lax.append(index);
+    }
+    b_lax.append("/");
+
+    this.text = b.toString();
+    this.text_lax = b_lax.toString();
+    this.path = PathVirtual.ofString(this.text);
+    this.path_copy = PathVirtual.ofString(this.text);
+
+    final int last = this.text.lastIndexOf('/');
+    if (last == 0) {
+      this.parent = PathVirtual.ROOT;
+    } else {
+      this.parent = PathVirtual.ofString(this.text.substring(0, last));
+    }
+  }
+}
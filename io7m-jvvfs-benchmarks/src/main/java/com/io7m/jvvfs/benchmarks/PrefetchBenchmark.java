@@ -0,0 +1,238 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jvvfs.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.io7m.jvvfs.ContentCacheStorage;
+import com.io7m.jvvfs.FilesystemError;
+import com.io7m.jvvfs.FilesystemType;
+import com.io7m.jvvfs.PathReal;
+import com.io7m.jvvfs.PathVirtual;
+
+/**
+ * <p>
+ * A simulated application start, reading every file listed in an access
+ * profile, in order, from a zip archive of compressed files.
+ * </p>
+ * <p>
+ * The files may be read with no prefetching, after a prefetch of the
+ * profile into the content cache has completed, or while a prefetch that
+ * was started at the same time is still in progress.
+ * </p>
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PrefetchBenchmark
+{
+  /**
+   * The extent to which files are prefetched.
+   */
+
+  public enum PrefetchMode
+  {
+    /**
+     * The prefetch completes before the files are read.
+     */
+
+    PREFETCH_COMPLETE,
+
+    /**
+     * The prefetch starts as the files are read.
+     */
+
+    PREFETCH_CONCURRENT,
+
+    /**
+     * No files are prefetched.
+     */
+
+    PREFETCH_NONE
+  }
+
+  private static final int FILES = 128;
+
+  /**
+   * The size of each file.
+   */
+
+  @Param({ "65536" }) public int file_size;
+
+  /**
+   * The extent to which files are prefetched.
+   */
+
+  @Param public PrefetchMode prefetch;
+
+  private File                directory;
+  private ThreadPoolExecutor  executor;
+  private PathVirtual[]       files;
+  private FilesystemType      fs;
+  private PathReal            profile;
+
+  /**
+   * Close the filesystem once any prefetch in progress has finished.
+   * 
+   * @throws FilesystemError
+   *           If the filesystem cannot be closed
+   * @throws InterruptedException
+   *           If interrupted
+   */
+
+  @TearDown(Level.Invocation) public void afterInvocation()
+    throws FilesystemError,
+      InterruptedException
+  {
+    this.executor.shutdown();
+    this.executor.awaitTermination(1, TimeUnit.MINUTES);
+    this.fs.close();
+  }
+
+  /**
+   * Create a new filesystem with an empty content cache, and run the
+   * prefetch to completion if necessary.
+   * 
+   * @throws FilesystemError
+   *           If the archive cannot be mounted
+   * @throws InterruptedException
+   *           If interrupted
+   */
+
+  @Setup(Level.Invocation) public void beforeInvocation()
+    throws FilesystemError,
+      InterruptedException
+  {
+    this.fs = BenchmarkFixtures.makeFilesystem(this.directory);
+    this.fs.setContentCache(
+      ((long) this.file_size) * PrefetchBenchmark.FILES * 2,
+      ContentCacheStorage.STORAGE_HEAP);
+    this.fs.mountArchive("app.zip", PathVirtual.ROOT);
+
+    final int threads = Runtime.getRuntime().availableProcessors();
+    this.executor =
+      new ThreadPoolExecutor(
+        threads,
+        threads,
+        0,
+        TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<Runnable>());
+    this.executor.prestartAllCoreThreads();
+
+    if (this.prefetch == PrefetchMode.PREFETCH_COMPLETE) {
+      this.fs.prefetchAccessProfile(this.profile, this.executor);
+      this.executor.shutdown();
+      this.executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+  }
+
+  /**
+   * Create the archive, and record a profile of reading every file.
+   * 
+   * @throws IOException
+   *           On I/O errors
+   * @throws FilesystemError
+   *           If the archive cannot be mounted
+   */
+
+  @Setup(Level.Trial) public void setup()
+    throws IOException,
+      FilesystemError
+  {
+    this.directory = BenchmarkFixtures.makeTemporaryDirectory();
+    this.profile =
+      new PathReal(new File(this.directory, "profile").toString());
+
+    BenchmarkFixtures.writeArchive(
+      BenchmarkBackend.BACKEND_ZIP,
+      this.directory,
+      "app",
+      2,
+      0,
+      PrefetchBenchmark.FILES,
+      this.file_size,
+      true);
+
+    this.files = new PathVirtual[PrefetchBenchmark.FILES];
+    for (int index = 0; index < PrefetchBenchmark.FILES; ++index) {
+      this.files[index] =
+        PathVirtual.ofString("/" + BenchmarkFixtures.filePath(2, 0, index));
+    }
+
+    final FilesystemType f = BenchmarkFixtures.makeFilesystem(this.directory);
+    f.mountArchive("app.zip", PathVirtual.ROOT);
+    f.startAccessProfile();
+    for (final PathVirtual p : this.files) {
+      f.readFileAsByteBuffer(p);
+    }
+    f.stopAccessProfile(this.profile);
+    f.close();
+  }
+
+  /**
+   * Read every file in the profile.
+   * 
+   * @return The total size of the files
+   * @throws FilesystemError
+   *           Never
+   */
+
+  @Benchmark public long startup()
+    throws FilesystemError
+  {
+    if (this.prefetch == PrefetchMode.PREFETCH_CONCURRENT) {
+      this.fs.prefetchAccessProfile(this.profile, this.executor);
+    }
+
+    long total = 0;
+    for (final PathVirtual p : this.files) {
+      total += this.fs.readFileAsByteBuffer(p).remaining();
+    }
+    return total;
+  }
+
+  /**
+   * Delete the archive.
+   */
+
+  @TearDown(Level.Trial) public void tearDown()
+  {
+    BenchmarkFixtures.delete(this.directory);
+  }
+}
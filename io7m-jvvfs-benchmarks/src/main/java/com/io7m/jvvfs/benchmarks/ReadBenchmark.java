@@ -0,0 +1,265 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jvvfs.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.io7m.junreachable.UnreachableCodeException;
+import com.io7m.jvvfs.ContentCacheStorage;
+import com.io7m.jvvfs.FilesystemError;
+import com.io7m.jvvfs.FilesystemType;
+import com.io7m.jvvfs.PathVirtual;
+
+/**
+ * <p>
+ * Steady-state reads of whole files from a single mounted archive.
+ * </p>
+ * <p>
+ * Each invocation reads the next of a fixed set of files, either through
+ * a stream or as a single buffer, with the content cache disabled, large
+ * enough to hold every file, or holding only a quarter of the files (so
+ * that most reads miss the cache and displace another file).
+ * </p>
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReadBenchmark
+{
+  /**
+   * The configuration of the content cache.
+   */
+
+  public enum CacheMode
+  {
+    /**
+     * The content cache is disabled.
+     */
+
+    CACHE_DISABLED,
+
+    /**
+     * The content cache holds every file.
+     */
+
+    CACHE_HIT,
+
+    /**
+     * The content cache holds a quarter of the files.
+     */
+
+    CACHE_THRASH
+  }
+
+  /**
+   * The position of each thread in the sequence of files, and a buffer
+   * into which to read streams.
+   */
+
+  @State(Scope.Thread) public static class Cursor
+  {
+    private final byte[] buffer = new byte[8192];
+    private int          index;
+
+    int next(
+      final int count)
+    {
+      final int r = this.index;
+      this.index = (r + 1) % count;
+      return r;
+    }
+  }
+
+  private static final int FILES = 32;
+
+  /**
+   * The kind of archive.
+   */
+
+  @Param public BenchmarkBackend backend;
+
+  /**
+   * The configuration of the content cache.
+   */
+
+  @Param public CacheMode cache;
+
+  /**
+   * Whether files in zip archives are compressed.
+   */
+
+  @Param({ "true", "false" }) public boolean compressed;
+
+  /**
+   * The size of each file.
+   */
+
+  @Param({ "1024", "65536", "1048576" }) public int file_size;
+
+  private File           directory;
+  private PathVirtual[]  files;
+  private FilesystemType fs;
+
+  /**
+   * @return The size of the content cache. The cache does not hold files
+   *         larger than an eighth of its size.
+   */
+
+  private long cacheSize()
+  {
+    final long size = this.file_size;
+    switch (this.cache) {
+      case CACHE_DISABLED:
+      {
+        return 0;
+      }
+      case CACHE_HIT:
+      {
+        return size * ReadBenchmark.FILES * 2;
+      }
+      case CACHE_THRASH:
+      {
+        return size * (ReadBenchmark.FILES / 4);
+      }
+    }
+
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * @param c
+   *          The cursor
+   * @return The number of bytes read.
+   * @throws FilesystemError
+   *           Never
+   * @throws IOException
+   *           Never
+   */
+
+  @Benchmark public long openFile(
+    final Cursor c)
+    throws FilesystemError,
+      IOException
+  {
+    final InputStream s =
+      this.fs.openFile(this.files[c.next(ReadBenchmark.FILES)]);
+    try {
+      long total = 0;
+      for (;;) {
+        final int r = s.read(c.buffer);
+        if (r == -1) {
+          return total;
+        }
+        total += r;
+      }
+    } finally {
+      s.close();
+    }
+  }
+
+  /**
+   * @param c
+   *          The cursor
+   * @return The contents of the file.
+   * @throws FilesystemError
+   *           Never
+   */
+
+  @Benchmark public ByteBuffer readFileAsByteBuffer(
+    final Cursor c)
+    throws FilesystemError
+  {
+    return this.fs.readFileAsByteBuffer(this.files[c
+      .next(ReadBenchmark.FILES)]);
+  }
+
+  /**
+   * Create and mount the archive, and configure the content cache.
+   * 
+   * @throws IOException
+   *           On I/O errors
+   * @throws FilesystemError
+   *           If the archive cannot be mounted
+   */
+
+  @Setup public void setup()
+    throws IOException,
+      FilesystemError
+  {
+    this.directory = BenchmarkFixtures.makeTemporaryDirectory();
+    this.fs = BenchmarkFixtures.makeFilesystem(this.directory);
+
+    BenchmarkFixtures.writeArchive(
+      this.backend,
+      this.directory,
+      "files",
+      2,
+      0,
+      ReadBenchmark.FILES,
+      this.file_size,
+      this.compressed);
+    this.fs.mountArchive(
+      BenchmarkFixtures.fileName(this.backend, "files"),
+      PathVirtual.ROOT,
+      BenchmarkFixtures.mountOptions(this.backend));
+
+    this.files = new PathVirtual[ReadBenchmark.FILES];
+    for (int index = 0; index < ReadBenchmark.FILES; ++index) {
+      this.files[index] =
+        PathVirtual.ofString("/" + BenchmarkFixtures.filePath(2, 0, index));
+    }
+
+    this.fs.setContentCache(
+      this.cacheSize(),
+      ContentCacheStorage.STORAGE_HEAP);
+  }
+
+  /**
+   * Unmount and delete the archive.
+   * 
+   * @throws FilesystemError
+   *           If the filesystem cannot be closed
+   */
+
+  @TearDown public void tearDown()
+    throws FilesystemError
+  {
+    this.fs.close();
+    BenchmarkFixtures.delete(this.directory);
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jvvfs;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.io7m.jnull.NullCheck;
+
+/**
+ * <p>
+ * A record of the files read from a filesystem, in the order in which each
+ * was first read.
+ * </p>
+ * <p>
+ * Profiles are written as a magic number and version, followed by the
+ * number of paths and then each path as a length-prefixed UTF-8 string (as
+ * names may contain any character other than those excluded by
+ * {@link Name#isValid(String)}, including line terminators).
+ * </p>
+ * <p>
+ * Values of this type are thread-safe.
+ * </p>
+ */
+
+final class AccessProfile
+{
+  private static final int     MAGIC   = 0x4a565650;
+  private static final Charset UTF8;
+  private static final int     VERSION = 1;
+
+  static {
+    UTF8 = NullCheck.notNull(Charset.forName("UTF-8"));
+  }
+
+  /**
+   * @return The paths recorded in the profile at <code>file</code>.
+   * @throws FilesystemError
+   *           If the profile cannot be read, or is not a valid profile
+   */
+
+  static List<PathVirtual> read(
+    final PathReal file)
+    throws FilesystemError
+  {
+    try {
+      final DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(
+          file.toFile())));
+      try {
+        if ((in.readInt() != AccessProfile.MAGIC)
+          || (in.readInt() != AccessProfile.VERSION)) {
+          throw new IOException("Not an access profile: " + file);
+        }
+
+        final int count = in.readInt();
+        if (count < 0) {
+          throw new IOException("Invalid access profile: " + file);
+        }
+
+        final List<PathVirtual> paths =
+          new ArrayList<PathVirtual>(Math.min(count, 1 << 16));
+        for (int index = 0; index < count; ++index) {
+          final int length = in.readInt();
+          if ((length < 0) || (length > (1 << 24))) {
+            throw new IOException("Invalid access profile: " + file);
+          }
+          final byte[] data = new byte[length];
+          in.readFully(data);
+          paths.add(PathVirtual.ofString(new String(data, AccessProfile.UTF8)));
+        }
+
+        if (in.read() != -1) {
+          throw new IOException("Invalid access profile: " + file);
+        }
+        return paths;
+      } finally {
+        in.close();
+      }
+    } catch (final EOFException e) {
+      throw FilesystemError.ioError(new IOException(
+        "Truncated access profile: " + file));
+    } catch (final IOException e) {
+      throw FilesystemError.ioError(e);
+    }
+  }
+
+  private final Set<PathVirtual> paths;
+
+  AccessProfile()
+  {
+    this.paths = new LinkedHashSet<PathVirtual>();
+  }
+
+  /**
+   * @return The recorded paths, in the order in which each was first read.
+   */
+
+  synchronized List<PathVirtual> getPaths()
+  {
+    final List<PathVirtual> r =
+      Collections.unmodifiableList(new ArrayList<PathVirtual>(this.paths));
+    assert r != null;
+    return r;
+  }
+
+  /**
+   * Record a read of the file at <code>path</code>.
+   */
+
+  synchronized void record(
+    final PathVirtual path)
+  {
+    this.paths.add(path);
+  }
+
+  /**
+   * Write the recorded paths to <code>file</code>, replacing any existing
+   * file.
+   * 
+   * @throws FilesystemError
+   *           If an I/O error occurs
+   * @see FileReplacement
+   */
+
+  void write(
+    final PathReal file)
+    throws FilesystemError
+  {
+    final List<PathVirtual> recorded = this.getPaths();
+
+    try {
+      FileReplacement.replace(
+        file.toFile(),
+        "profile",
+        new FileReplacement.WriterType() {
+          @Override public void write(
+            final OutputStream stream)
+            throws IOException
+          {
+            final DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(AccessProfile.MAGIC);
+            out.writeInt(AccessProfile.VERSION);
+            out.writeInt(recorded.size());
+            for (final PathVirtual p : recorded) {
+              final byte[] data = p.toString().getBytes(AccessProfile.UTF8);
+              out.writeInt(data.length);
+              out.write(data);
+            }
+            out.flush();
+          }
+        });
+    } catch (final IOException e) {
+      throw FilesystemError.ioError(e);
+    }
+  }
+}
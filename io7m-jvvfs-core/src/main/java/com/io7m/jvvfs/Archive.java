@@ -17,8 +17,12 @@
 package com.io7m.jvvfs;
 
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Calendar;
+import java.util.Map;
+import java.util.SortedMap;
 import java.util.SortedSet;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.io7m.jfunctional.None;
 import com.io7m.jfunctional.Option;
@@ -28,6 +32,7 @@ import com.io7m.jfunctional.Some;
 import com.io7m.jlog.LogUsableType;
 import com.io7m.jnull.Nullable;
 import com.io7m.junreachable.UnreachableCodeException;
+import com.io7m.jvvfs.FileReference.Type;
 
 /**
  * <p>
@@ -46,14 +51,56 @@ import com.io7m.junreachable.UnreachableCodeException;
  * responsible for translating that to <code>/x/y/z/file.txt</code> before
  * passing the path to the archive interface.
  * </p>
+ * <p>
+ * Archives are reference counted. The filesystem holds a reference to each
+ * archive for as long as the archive is mounted, and each open stream and
+ * each snapshot of the filesystem holds a further reference. The archive is
+ * closed when the last reference is released, and so unmounting an archive
+ * never invalidates streams that are still being read.
+ * </p>
  */
 
 abstract class Archive<T extends ArchiveKind>
 {
+  /**
+   * The number of references held to the archive. The reference held by the
+   * filesystem on behalf of the mount is counted from construction.
+   */
+
+  private final AtomicInteger references = new AtomicInteger(1);
+
+  /**
+   * <p>
+   * Acquire a reference to the archive, preventing it from being closed
+   * until the reference is released.
+   * </p>
+   * 
+   * @return <code>false</code> if the archive has already been closed.
+   * @see #release()
+   */
+
+  final boolean acquire()
+  {
+    for (;;) {
+      final int r = this.references.get();
+      if (r == 0) {
+        return false;
+      }
+      if (this.references.compareAndSet(r, r + 1)) {
+        return true;
+      }
+    }
+  }
+
   /**
    * <p>
    * Close the archive, freeing any resources used.
    * </p>
+   * <p>
+   * This function is called when the last reference to the archive is
+   * released, and should not otherwise be called on archives that have been
+   * mounted.
+   * </p>
    */
 
   abstract void close()
@@ -131,6 +178,42 @@ abstract class Archive<T extends ArchiveKind>
     final FileReference<T> r)
     throws FilesystemError;
 
+  /**
+   * <p>
+   * Retrieve the number of bytes that the file at the given reference
+   * <code>r</code> occupies in the archive. For archives that do not compress
+   * files, this is equal to the size of the file.
+   * </p>
+   * 
+   * @throws FilesystemError
+   *           If an I/O error occurs.
+   */
+
+  abstract protected long getCompressedSizeActual(
+    final FileReference<T> r)
+    throws FilesystemError;
+
+  /**
+   * <p>
+   * Retrieve the complete contents of the archive, if the archive is capable
+   * of enumerating its contents ahead of time. The root directory of the
+   * archive is not included.
+   * </p>
+   * <p>
+   * An archive that returns <code>None</code> is assumed to have contents
+   * that may change at any time, and will be queried directly on every
+   * lookup.
+   * </p>
+   *
+   * @return A reference to every object in the archive, keyed by
+   *         archive-relative path, if available.
+   * @throws FilesystemError
+   *           If an I/O error occurs.
+   */
+
+  abstract OptionType<Map<PathVirtual, FileReference<T>>> getContents()
+    throws FilesystemError;
+
   abstract protected LogUsableType getLogLookup();
 
   /**
@@ -203,6 +286,16 @@ abstract class Archive<T extends ArchiveKind>
 
   abstract PathReal getRealPath();
 
+  /**
+   * <p>
+   * Return <code>true</code> iff the contents of the archive cannot change
+   * while it is mounted. The contents of files read from such archives may
+   * safely be cached.
+   * </p>
+   */
+
+  abstract boolean isImmutable();
+
   /**
    * <p>
    * List the contents of the directory at <code>path</code>.
@@ -217,10 +310,66 @@ abstract class Archive<T extends ArchiveKind>
    *           </ul>
    */
 
-  abstract SortedSet<String> listDirectory(
+  final SortedSet<String> listDirectory(
     final PathVirtual path)
+    throws FilesystemError
+  {
+    return this.listDirectoryActual(this.lookupDirectory(path));
+  }
+
+  /**
+   * <p>
+   * List the contents of the directory at the given reference <code>r</code>.
+   * </p>
+   * 
+   * @throws FilesystemError
+   *           If an I/O error occurs.
+   */
+
+  abstract protected SortedSet<String> listDirectoryActual(
+    final FileReference<T> r)
     throws FilesystemError;
 
+  /**
+   * <p>
+   * List the contents of the directory at <code>path</code>, along with a
+   * reference to each object in the directory. Objects with names that are
+   * not valid virtual path names are omitted, as they cannot be addressed in
+   * the virtual filesystem.
+   * </p>
+   * 
+   * @throws FilesystemError
+   *           If:
+   *           <ul>
+   *           <li>No object exists at <code>path</code>.</li>
+   *           <li>The object at <code>path</code> is not a directory</li>
+   *           <li>An I/O error occurs</li>
+   *           </ul>
+   */
+
+  final SortedMap<String, FileReference<T>> listDirectoryDetailed(
+    final PathVirtual path)
+    throws FilesystemError
+  {
+    return this.listDirectoryDetailedActual(this.lookupDirectory(path));
+  }
+
+  /**
+   * <p>
+   * List the contents of the directory at the given reference
+   * <code>r</code>, along with a reference to each object in the directory.
+   * </p>
+   * 
+   * @see #listDirectoryDetailed(PathVirtual)
+   * @throws FilesystemError
+   *           If an I/O error occurs.
+   */
+
+  abstract protected SortedMap<String, FileReference<T>>
+    listDirectoryDetailedActual(
+      final FileReference<T> r)
+      throws FilesystemError;
+
   /**
    * <p>
    * Retrieve a reference to the object at the given path. This is a
@@ -236,33 +385,13 @@ abstract class Archive<T extends ArchiveKind>
     final PathVirtual path)
     throws FilesystemError
   {
-    final LogUsableType log = this.getLogLookup();
-    log.debug(path.toString());
-
-    final PathVirtualEnum e = PathVirtualEnum.enumerate(path);
-    while (e.hasMoreElements()) {
-      final PathVirtual p = e.nextElement();
-      final FileReference<T> r = this.lookupActual(p);
-      if (r == null) {
-        return Option.none();
-      }
-      switch (r.getType()) {
-        case TYPE_DIRECTORY:
-        {
-          break;
-        }
-        case TYPE_FILE:
-        {
-          throw FilesystemError.notDirectory(p.toString());
-        }
-      }
-    }
-
-    final FileReference<T> r = this.lookupActual(path);
+    final FileReference<T> r = this.lookupNearest(path);
     if (r == null) {
       return Option.none();
     }
-
+    if (r.getPath().length() < path.length()) {
+      throw FilesystemError.notDirectory(r.getPath().toString());
+    }
     return Option.some(r);
   }
 
@@ -282,6 +411,74 @@ abstract class Archive<T extends ArchiveKind>
     final PathVirtual path)
     throws FilesystemError;
 
+  private FileReference<T> lookupDirectory(
+    final PathVirtual path)
+    throws FilesystemError
+  {
+    final FileReference<T> r = this.lookupNearest(path);
+    if (r == null) {
+      throw FilesystemError.fileNotFound(path.toString());
+    }
+    if (r.getType() != Type.TYPE_DIRECTORY) {
+      throw FilesystemError.notDirectory(r.getPath().toString());
+    }
+    return r;
+  }
+
+  /**
+   * <p>
+   * Retrieve a reference to the object at the given path, checking that each
+   * ancestor of the path exists and is a directory.
+   * </p>
+   * <p>
+   * Unlike {@link #lookup(PathVirtual)}, an ancestor that is a file is
+   * reported by returning a reference to that ancestor, rather than by
+   * raising an error. This allows the archive stack to be probed for
+   * shadowed paths without constructing exceptions.
+   * </p>
+   * <p>
+   * Archives that can resolve paths more cheaply than by looking up each
+   * ancestor in turn may override this function, provided that the result
+   * is the same.
+   * </p>
+   * 
+   * @return <code>null</code> if no object exists at <code>path</code> or
+   *         any of its ancestors, a reference to the nearest ancestor of
+   *         <code>path</code> that is a file, or a reference to the object
+   *         at <code>path</code>.
+   * @throws FilesystemError
+   *           If an I/O error occurs.
+   */
+
+  @Nullable FileReference<T> lookupNearest(
+    final PathVirtual path)
+    throws FilesystemError
+  {
+    final LogUsableType log = this.getLogLookup();
+    log.debug(path.toString());
+
+    final PathVirtualEnum e = PathVirtualEnum.enumerate(path);
+    while (e.hasMoreElements()) {
+      final PathVirtual p = e.nextElement();
+      final FileReference<T> r = this.lookupActual(p);
+      if (r == null) {
+        return null;
+      }
+      switch (r.getType()) {
+        case TYPE_DIRECTORY:
+        {
+          break;
+        }
+        case TYPE_FILE:
+        {
+          return r;
+        }
+      }
+    }
+
+    return this.lookupActual(path);
+  }
+
   /**
    * <p>
    * Open the file at <code>path</code>.
@@ -349,4 +546,80 @@ abstract class Archive<T extends ArchiveKind>
   abstract protected InputStream openFileActual(
     final FileReference<T> r)
     throws FilesystemError;
+
+  /**
+   * <p>
+   * Read the entire contents of the file at <code>path</code> into a
+   * read-only buffer.
+   * </p>
+   * 
+   * @throws FilesystemError
+   *           If:
+   *           <ul>
+   *           <li>No object exists at <code>path</code>.</li>
+   *           <li>The object at <code>path</code> is not a file</li>
+   *           <li>An I/O error occurs</li>
+   *           </ul>
+   * @see FSCapabilityReadType#readFileAsByteBuffer(PathVirtual)
+   */
+
+  final ByteBuffer readFileAsByteBuffer(
+    final PathVirtual path)
+    throws FilesystemError
+  {
+    final OptionType<FileReference<T>> ro = this.lookup(path);
+    if (ro.isNone()) {
+      throw FilesystemError.fileNotFound(path.toString());
+    }
+
+    final FileReference<T> r = ((Some<FileReference<T>>) ro).get();
+    switch (r.getType()) {
+      case TYPE_DIRECTORY:
+      {
+        throw FilesystemError.notFile(path.toString());
+      }
+      case TYPE_FILE:
+      {
+        return this.readFileAsByteBufferActual(r);
+      }
+    }
+
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * <p>
+   * Read the entire contents of the file at the given reference
+   * <code>r</code> into a read-only buffer.
+   * </p>
+   * 
+   * @throws FilesystemError
+   *           If the file is too large to be held in a buffer, or an I/O
+   *           error occurs
+   */
+
+  abstract protected ByteBuffer readFileAsByteBufferActual(
+    final FileReference<T> r)
+    throws FilesystemError;
+
+  /**
+   * <p>
+   * Release a reference to the archive, closing the archive if the reference
+   * was the last.
+   * </p>
+   * 
+   * @throws FilesystemError
+   *           If the archive is closed, and an error occurs whilst closing
+   * @see #acquire()
+   */
+
+  final void release()
+    throws FilesystemError
+  {
+    final int r = this.references.decrementAndGet();
+    assert r >= 0;
+    if (r == 0) {
+      this.close();
+    }
+  }
 }
@@ -19,30 +19,41 @@ package com.io7m.jvvfs;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.util.Calendar;
+import java.util.Map;
+import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TimeZone;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Executor;
 
-import com.io7m.jfunctional.None;
-import com.io7m.jfunctional.OptionPartialVisitorType;
+import com.io7m.jfunctional.Option;
 import com.io7m.jfunctional.OptionType;
-import com.io7m.jfunctional.Some;
 import com.io7m.jlog.LogUsableType;
 import com.io7m.jnull.NullCheck;
 import com.io7m.jnull.Nullable;
-import com.io7m.junreachable.UnreachableCodeException;
 import com.io7m.jvvfs.FileReference.Type;
 
 /**
  * <p>
  * Archive based on standard filesystem/directory operations.
  * </p>
- * 
  * <p>
- * Values of this type cannot be accessed safely from multiple threads without
- * explicit synchronization.
+ * An archive is either mutable, in which case every operation consults the
+ * operating system filesystem, or immutable, in which case the directory
+ * tree is read into an {@link ArchiveDirectoryIndex} when the archive is
+ * created, and only the contents of files are read thereafter.
+ * </p>
+ * <p>
+ * Values of this type can be accessed safely from multiple threads: the
+ * archive holds no mutable state.
  * </p>
  */
 
@@ -51,7 +62,10 @@ final class ArchiveDirectory extends Archive<ArchiveDirectoryKind>
   static final class ArchiveDirectoryReference extends
     FileReference<ArchiveDirectoryKind>
   {
-    private final File actual;
+    private final File    actual;
+    private final boolean recorded;
+    private final long    size;
+    private final long    time;
 
     ArchiveDirectoryReference(
       final Archive<ArchiveDirectoryKind> in_archive,
@@ -61,18 +75,70 @@ final class ArchiveDirectory extends Archive<ArchiveDirectoryKind>
     {
       super(in_archive, in_path, in_type);
       this.actual = in_actual;
+      this.recorded = false;
+      this.size = 0;
+      this.time = 0;
+    }
+
+    /**
+     * Construct a reference that records the size and modification time of
+     * the object, so that they are not read from the filesystem again.
+     */
+
+    ArchiveDirectoryReference(
+      final Archive<ArchiveDirectoryKind> in_archive,
+      final PathVirtual in_path,
+      final Type in_type,
+      final File in_actual,
+      final long in_size,
+      final long in_time)
+    {
+      super(in_archive, in_path, in_type);
+      this.actual = in_actual;
+      this.recorded = true;
+      this.size = in_size;
+      this.time = in_time;
     }
 
     File getActual()
     {
       return this.actual;
     }
+
+    long getSize()
+    {
+      if (this.recorded) {
+        return this.size;
+      }
+      return this.actual.length();
+    }
+
+    long getTime()
+    {
+      if (this.recorded) {
+        return this.time;
+      }
+      return this.actual.lastModified();
+    }
   }
 
-  private final File          base;
-  private final LogUsableType log;
-  private final PathVirtual   mount;
-  private final PathReal      real;
+  /**
+   * Files at least this large are memory-mapped by
+   * {@link #readFileAsByteBufferActual(FileReference)}. Smaller files are
+   * cheaper to read onto the heap than to map.
+   */
+
+  static final int                              MAP_THRESHOLD = 64 * 1024;
+
+  private final File                            base;
+  private final @Nullable ArchiveDirectoryIndex index;
+  private final LogUsableType                   log;
+  private final PathVirtual                     mount;
+  private final PathReal                        real;
+
+  /**
+   * Construct a mutable archive.
+   */
 
   ArchiveDirectory(
     final LogUsableType in_log,
@@ -85,6 +151,56 @@ final class ArchiveDirectory extends Archive<ArchiveDirectoryKind>
     final String r = this.base.toString();
     assert r != null;
     this.real = new PathReal(r);
+    this.index = null;
+  }
+
+  /**
+   * Construct an immutable archive, reading the directory tree in parallel
+   * on <code>executor</code>.
+   */
+
+  ArchiveDirectory(
+    final LogUsableType in_log,
+    final PathReal base_path,
+    final PathVirtual in_mount,
+    final Executor executor)
+    throws FilesystemError
+  {
+    this.log = NullCheck.notNull(in_log, "Log").with("directory");
+    this.mount = NullCheck.notNull(in_mount, "Mount path");
+    this.base = new File(base_path.toString());
+    final String r = this.base.toString();
+    assert r != null;
+    this.real = new PathReal(r);
+    this.index =
+      ArchiveDirectoryIndex.read(
+        this.log,
+        this,
+        this.base,
+        NullCheck.notNull(executor, "Executor"));
+  }
+
+  /**
+   * Determine the type of the object <code>f</code>. A directory is
+   * identified with a single query of the filesystem, and a file with two.
+   * Objects that are neither, such as devices, pipes and broken symbolic
+   * links, are not visible in the archive, whether it is mutable or
+   * immutable.
+   * 
+   * @return The type of <code>f</code>, or <code>null</code> if
+   *         <code>f</code> is not visible in the archive
+   */
+
+  static @Nullable Type typeOf(
+    final File f)
+  {
+    if (f.isDirectory()) {
+      return Type.TYPE_DIRECTORY;
+    }
+    if (f.isFile()) {
+      return Type.TYPE_FILE;
+    }
+    return null;
   }
 
   @Override void close()
@@ -93,12 +209,36 @@ final class ArchiveDirectory extends Archive<ArchiveDirectoryKind>
     // Nothing required
   }
 
+  @Override protected long getCompressedSizeActual(
+    final FileReference<ArchiveDirectoryKind> r)
+    throws FilesystemError
+  {
+    return this.getFileSizeActual(r);
+  }
+
+  @Override
+    OptionType<Map<PathVirtual, FileReference<ArchiveDirectoryKind>>>
+    getContents()
+  {
+    final ArchiveDirectoryIndex i = this.index;
+    if (i != null) {
+      return Option.some(i.getContents());
+    }
+
+    /**
+     * The contents of a mutable directory may be changed by other processes
+     * at any time, and so cannot be enumerated ahead of time.
+     */
+
+    return Option.none();
+  }
+
   @Override protected long getFileSizeActual(
     final FileReference<ArchiveDirectoryKind> r)
     throws FilesystemError
   {
     final ArchiveDirectoryReference ra = (ArchiveDirectoryReference) r;
-    return ra.getActual().length();
+    return ra.getSize();
   }
 
   @Override protected LogUsableType getLogLookup()
@@ -111,7 +251,7 @@ final class ArchiveDirectory extends Archive<ArchiveDirectoryKind>
   {
     final ArchiveDirectoryReference ra = (ArchiveDirectoryReference) r;
     final Calendar c = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
-    c.setTimeInMillis(ra.getActual().lastModified());
+    c.setTimeInMillis(ra.getTime());
     return c;
   }
 
@@ -125,47 +265,79 @@ final class ArchiveDirectory extends Archive<ArchiveDirectoryKind>
     return this.real;
   }
 
-  @Override SortedSet<String> listDirectory(
-    final PathVirtual path)
-    throws FilesystemError
+  @Override boolean isImmutable()
   {
-    final OptionType<FileReference<ArchiveDirectoryKind>> r =
-      this.lookup(path);
-    return r
-      .acceptPartial(new OptionPartialVisitorType<FileReference<ArchiveDirectoryKind>, SortedSet<String>, FilesystemError>() {
-        @Override public SortedSet<String> none(
-          final None<FileReference<ArchiveDirectoryKind>> n)
-          throws FilesystemError
-        {
-          throw FilesystemError.fileNotFound(path.toString());
-        }
+    return this.index != null;
+  }
 
-        @Override public SortedSet<String> some(
-          final Some<FileReference<ArchiveDirectoryKind>> s)
-          throws FilesystemError
-        {
-          final FileReference<ArchiveDirectoryKind> ar = s.get();
-          final ArchiveDirectoryReference ra = (ArchiveDirectoryReference) ar;
-
-          switch (ra.getType()) {
-            case TYPE_DIRECTORY:
-            {
-              final String[] fs = ra.getActual().list();
-              final SortedSet<String> ts = new TreeSet<String>();
-              for (final String f : fs) {
-                ts.add(f);
-              }
-              return ts;
-            }
-            case TYPE_FILE:
-            {
-              throw FilesystemError.notDirectory(path.toString());
-            }
-          }
+  @Override protected SortedSet<String> listDirectoryActual(
+    final FileReference<ArchiveDirectoryKind> r)
+  {
+    final ArchiveDirectoryReference ra = (ArchiveDirectoryReference) r;
+    assert ra.getType() == Type.TYPE_DIRECTORY;
+
+    final ArchiveDirectoryIndex i = this.index;
+    if (i != null) {
+      return new TreeSet<String>(this.lookupIndexed(i, ra).keySet());
+    }
 
-          throw new UnreachableCodeException();
+    final SortedSet<String> ts = new TreeSet<String>();
+    final File[] fs = ra.getActual().listFiles();
+    if (fs != null) {
+      for (final File f : fs) {
+        if (ArchiveDirectory.typeOf(f) != null) {
+          ts.add(f.getName());
         }
-      });
+      }
+    }
+    return ts;
+  }
+
+  @Override protected
+    SortedMap<String, FileReference<ArchiveDirectoryKind>>
+    listDirectoryDetailedActual(
+      final FileReference<ArchiveDirectoryKind> r)
+      throws FilesystemError
+  {
+    final ArchiveDirectoryReference ra = (ArchiveDirectoryReference) r;
+    assert ra.getType() == Type.TYPE_DIRECTORY;
+
+    final ArchiveDirectoryIndex i = this.index;
+    if (i != null) {
+      return new TreeMap<String, FileReference<ArchiveDirectoryKind>>(
+        this.lookupIndexed(i, ra));
+    }
+
+    /**
+     * The directory is read once, and the type of each object is determined
+     * from the resulting list, rather than by looking up each object by name.
+     */
+
+    final PathVirtual path = ra.getPath();
+    final SortedMap<String, FileReference<ArchiveDirectoryKind>> items =
+      new TreeMap<String, FileReference<ArchiveDirectoryKind>>();
+    final File[] fs = ra.getActual().listFiles();
+    if (fs == null) {
+      return items;
+    }
+
+    for (final File f : fs) {
+      final String name = f.getName();
+      if (Name.isValid(name) == false) {
+        continue;
+      }
+
+      final Type t = ArchiveDirectory.typeOf(f);
+      if (t == null) {
+        continue;
+      }
+      items.put(name, new ArchiveDirectoryReference(
+        this,
+        path.appendName(name),
+        t,
+        f));
+    }
+    return items;
   }
 
   @Override protected @Nullable
@@ -173,14 +345,68 @@ final class ArchiveDirectory extends Archive<ArchiveDirectoryKind>
     lookupActual(
       final PathVirtual path)
   {
+    final ArchiveDirectoryIndex i = this.index;
+    if (i != null) {
+      final ArchiveDirectoryIndex.Entry e = i.get(path);
+      if (e != null) {
+        return e.getReference();
+      }
+      return null;
+    }
+
     final File f = new File(this.base, path.toString());
-    if (f.exists()) {
-      final FileReference<ArchiveDirectoryKind> r =
-        new ArchiveDirectoryReference(this, path, f.isDirectory()
-          ? Type.TYPE_DIRECTORY
-          : Type.TYPE_FILE, f);
+    final Type t = ArchiveDirectory.typeOf(f);
+    if (t == null) {
+      return null;
+    }
+    return new ArchiveDirectoryReference(this, path, t, f);
+  }
+
+  /**
+   * @return The objects within the indexed directory <code>r</code>.
+   */
+
+  private SortedMap<String, ArchiveDirectoryReference> lookupIndexed(
+    final ArchiveDirectoryIndex i,
+    final ArchiveDirectoryReference r)
+  {
+    final ArchiveDirectoryIndex.Entry e = i.get(r.getPath());
+    assert e != null;
+    return e.getChildren();
+  }
+
+  /**
+   * <p>
+   * Every ancestor of an object that exists is necessarily a directory, so
+   * the object at <code>path</code> is looked up first, and the ancestors of
+   * <code>path</code> are examined only if it does not exist. They are
+   * examined from the nearest upwards, as the nearest ancestor that exists
+   * determines the result. A lookup of an object that exists therefore
+   * queries the filesystem once, rather than once for each ancestor.
+   * </p>
+   */
+
+  @Override @Nullable FileReference<ArchiveDirectoryKind> lookupNearest(
+    final PathVirtual path)
+    throws FilesystemError
+  {
+    this.log.debug(path.toString());
+
+    final FileReference<ArchiveDirectoryKind> r = this.lookupActual(path);
+    if (r != null) {
       return r;
     }
+
+    for (int count = path.length() - 1; count >= 0; --count) {
+      final FileReference<ArchiveDirectoryKind> a =
+        this.lookupActual(path.prefix(count));
+      if (a != null) {
+        if (a.getType() == Type.TYPE_FILE) {
+          return a;
+        }
+        return null;
+      }
+    }
     return null;
   }
 
@@ -196,6 +422,52 @@ final class ArchiveDirectory extends Archive<ArchiveDirectoryKind>
     }
   }
 
+  @Override protected ByteBuffer readFileAsByteBufferActual(
+    final FileReference<ArchiveDirectoryKind> r)
+    throws FilesystemError
+  {
+    final ArchiveDirectoryReference ra = (ArchiveDirectoryReference) r;
+    try {
+      final RandomAccessFile file = new RandomAccessFile(ra.getActual(), "r");
+      try {
+        final FileChannel channel = file.getChannel();
+        final long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+          throw new IOException("File size not representable in a buffer: "
+            + size);
+        }
+
+        /**
+         * The mapping remains valid after the channel is closed.
+         */
+
+        if (size >= ArchiveDirectory.MAP_THRESHOLD) {
+          final ByteBuffer b = channel.map(MapMode.READ_ONLY, 0, size);
+          assert b != null;
+          return b;
+        }
+
+        final ByteBuffer b = ByteBuffer.allocate((int) size);
+        while (b.hasRemaining()) {
+          if (channel.read(b) == -1) {
+            break;
+          }
+        }
+        b.flip();
+
+        final ByteBuffer ro = b.asReadOnlyBuffer();
+        assert ro != null;
+        return ro;
+      } finally {
+        file.close();
+      }
+    } catch (final FileNotFoundException e) {
+      throw FilesystemError.fileNotFound(ra.getPath().toString());
+    } catch (final IOException e) {
+      throw FilesystemError.ioError(e);
+    }
+  }
+
   @Override public String toString()
   {
     final StringBuilder builder = new StringBuilder();
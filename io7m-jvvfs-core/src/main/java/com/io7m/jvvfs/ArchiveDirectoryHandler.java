@@ -17,8 +17,10 @@
 package com.io7m.jvvfs;
 
 import java.io.File;
+import java.util.concurrent.Executor;
 
 import com.io7m.jlog.LogUsableType;
+import com.io7m.jnull.Nullable;
 
 /**
  * The handler responsible for loading directory archives.
@@ -27,9 +29,18 @@ import com.io7m.jlog.LogUsableType;
 final class ArchiveDirectoryHandler extends
   ArchiveHandler<ArchiveDirectoryKind>
 {
+  private final boolean immutable;
+
   ArchiveDirectoryHandler()
+  {
+    this(false);
+  }
+
+  ArchiveDirectoryHandler(
+    final boolean in_immutable)
   {
     super();
+    this.immutable = in_immutable;
   }
 
   @Override boolean canHandle(
@@ -41,9 +52,14 @@ final class ArchiveDirectoryHandler extends
   @Override Archive<ArchiveDirectoryKind> load(
     final LogUsableType log,
     final PathReal name,
-    final PathVirtual mount)
+    final PathVirtual mount,
+    final @Nullable ArchiveZipIndexCache cache,
+    final Executor executor)
     throws FilesystemError
   {
+    if (this.immutable) {
+      return new ArchiveDirectory(log, name, mount, executor);
+    }
     return new ArchiveDirectory(log, name, mount);
   }
 }
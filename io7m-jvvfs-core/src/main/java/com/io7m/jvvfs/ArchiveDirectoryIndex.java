@@ -0,0 +1,444 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jvvfs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.io7m.jlog.LogUsableType;
+import com.io7m.jnull.Nullable;
+import com.io7m.junreachable.UnreachableCodeException;
+import com.io7m.jvvfs.ArchiveDirectory.ArchiveDirectoryReference;
+import com.io7m.jvvfs.FileReference.Type;
+
+/**
+ * <p>
+ * An index of every object in a directory tree, read once when an immutable
+ * directory archive is created.
+ * </p>
+ * <p>
+ * The tree is read by any number of threads at once. The directories that
+ * remain to be read are held in a shared queue: each thread repeatedly takes
+ * a directory from the queue, reads it, and adds its subdirectories to the
+ * queue. Helpers are submitted to the executor as directories are queued,
+ * and return as soon as they find the queue empty, so that they never block
+ * a thread of the executor. The thread that requests the index reads
+ * directories as well, and only ever waits for directories that another
+ * thread is already reading, so the tree is read completely even if the
+ * executor never runs any of the helpers submitted to it.
+ * </p>
+ * <p>
+ * Values of this type are immutable once created, and may be accessed
+ * safely from multiple threads.
+ * </p>
+ */
+
+final class ArchiveDirectoryIndex
+{
+  /**
+   * The state of a read of a directory tree, shared by all of the threads
+   * reading it.
+   */
+
+  private static final class Crawl implements Runnable
+  {
+    private final ArchiveDirectory           archive;
+    private final Map<PathVirtual, Entry>    entries;
+    private final AtomicReference<Throwable> error;
+    private final Executor                   executor;
+    private final AtomicInteger              helpers;
+    private final int                        helpers_limit;
+    private final LogUsableType              log;
+    private final AtomicInteger              pending;
+    private final Queue<Item>                queue;
+
+    Crawl(
+      final LogUsableType in_log,
+      final ArchiveDirectory in_archive,
+      final Executor in_executor,
+      final int in_helpers_limit)
+    {
+      this.log = in_log;
+      this.archive = in_archive;
+      this.executor = in_executor;
+      this.helpers_limit = in_helpers_limit;
+      this.entries = new ConcurrentHashMap<PathVirtual, Entry>();
+      this.error = new AtomicReference<Throwable>();
+      this.helpers = new AtomicInteger();
+      this.pending = new AtomicInteger();
+      this.queue = new ConcurrentLinkedQueue<Item>();
+    }
+
+    void add(
+      final Item item)
+    {
+      this.pending.incrementAndGet();
+      this.queue.add(item);
+    }
+
+    private void fail(
+      final Throwable e)
+    {
+      this.error.compareAndSet(null, e);
+    }
+
+    /**
+     * Submit up to <code>count</code> helpers to the executor, without
+     * exceeding the limit on the number of helpers running at once.
+     */
+
+    private void help(
+      final int count)
+    {
+      for (int index = 0; index < count; ++index) {
+        final int running = this.helpers.get();
+        if (running >= this.helpers_limit) {
+          return;
+        }
+        if (this.helpers.compareAndSet(running, running + 1)) {
+          try {
+            this.executor.execute(this);
+          } catch (final RejectedExecutionException e) {
+            this.helpers.decrementAndGet();
+            return;
+          }
+        }
+      }
+    }
+
+    private void process(
+      final Item item)
+    {
+      try {
+        if (this.error.get() == null) {
+          this.read(item);
+        }
+      } catch (final FilesystemError e) {
+        this.fail(e);
+      } catch (final IOException e) {
+        this.fail(FilesystemError.ioError(e));
+      } catch (final RuntimeException e) {
+        this.fail(e);
+      } catch (final Error e) {
+        this.fail(e);
+      } finally {
+        if (this.pending.decrementAndGet() == 0) {
+          synchronized (this) {
+            this.notifyAll();
+          }
+        }
+      }
+    }
+
+    private void read(
+      final Item item)
+      throws FilesystemError,
+        IOException
+    {
+      final File[] files = item.file.listFiles();
+      if (files == null) {
+        this.log.error("could not list " + item.file);
+        return;
+      }
+
+      final SortedMap<String, ArchiveDirectoryReference> children =
+        item.entry.getChildren();
+
+      int queued = 0;
+      for (final File f : files) {
+        final String name = f.getName();
+        if (Name.isValid(name) == false) {
+          continue;
+        }
+
+        final Type type = ArchiveDirectory.typeOf(f);
+        if (type == null) {
+          continue;
+        }
+
+        final PathVirtual path = item.path.appendName(name);
+        final Entry e;
+        if (type == Type.TYPE_DIRECTORY) {
+          final String canonical = f.getCanonicalPath();
+          if (item.isWithin(canonical)) {
+            this.log.error("cycle: " + f);
+            continue;
+          }
+          e =
+            new Entry(new ArchiveDirectoryReference(
+              this.archive,
+              path,
+              Type.TYPE_DIRECTORY,
+              f,
+              0,
+              f.lastModified()));
+          this.add(new Item(item, path, f, canonical, e));
+          ++queued;
+        } else {
+          e =
+            new Entry(new ArchiveDirectoryReference(
+              this.archive,
+              path,
+              Type.TYPE_FILE,
+              f,
+              f.length(),
+              f.lastModified()));
+        }
+
+        children.put(name, e.getReference());
+        this.entries.put(path, e);
+      }
+
+      if (queued > 0) {
+        synchronized (this) {
+          this.notifyAll();
+        }
+        this.help(queued);
+      }
+    }
+
+    /**
+     * Read directories until the queue is empty, and then return without
+     * waiting for directories that other threads are still reading.
+     */
+
+    @Override public void run()
+    {
+      try {
+        for (;;) {
+          final Item item = this.queue.poll();
+          if (item == null) {
+            return;
+          }
+          this.process(item);
+        }
+      } finally {
+        this.helpers.decrementAndGet();
+      }
+    }
+
+    /**
+     * Read directories until none remain, waiting for directories that other
+     * threads are still reading.
+     */
+
+    void work()
+    {
+      boolean interrupted = false;
+      for (;;) {
+        final Item item = this.queue.poll();
+        if (item != null) {
+          this.process(item);
+          continue;
+        }
+
+        synchronized (this) {
+          while (this.queue.isEmpty() && (this.pending.get() > 0)) {
+            try {
+              this.wait();
+            } catch (final InterruptedException e) {
+              interrupted = true;
+            }
+          }
+        }
+
+        if (this.pending.get() == 0) {
+          break;
+        }
+      }
+
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * An object in the tree, and the objects within it if it is a directory.
+   */
+
+  static final class Entry
+  {
+    private final SortedMap<String, ArchiveDirectoryReference> children;
+    private final ArchiveDirectoryReference                    reference;
+
+    Entry(
+      final ArchiveDirectoryReference in_reference)
+    {
+      this.reference = in_reference;
+      this.children = new TreeMap<String, ArchiveDirectoryReference>();
+    }
+
+    /**
+     * @return The objects within the directory, by name, or an empty map if
+     *         the object is a file.
+     */
+
+    SortedMap<String, ArchiveDirectoryReference> getChildren()
+    {
+      return this.children;
+    }
+
+    ArchiveDirectoryReference getReference()
+    {
+      return this.reference;
+    }
+  }
+
+  /**
+   * A directory that remains to be read, and the canonical paths of the
+   * directories above it, which must not be read again within it.
+   */
+
+  private static final class Item
+  {
+    private final String         canonical;
+    private final Entry          entry;
+    private final File           file;
+    private final @Nullable Item parent;
+    private final PathVirtual    path;
+
+    Item(
+      final @Nullable Item in_parent,
+      final PathVirtual in_path,
+      final File in_file,
+      final String in_canonical,
+      final Entry in_entry)
+    {
+      this.parent = in_parent;
+      this.path = in_path;
+      this.file = in_file;
+      this.canonical = in_canonical;
+      this.entry = in_entry;
+    }
+
+    /**
+     * @return <code>true</code> iff the directory with the canonical path
+     *         <code>c</code> is this directory or one of its ancestors.
+     */
+
+    boolean isWithin(
+      final String c)
+    {
+      for (Item i = this; i != null; i = i.parent) {
+        if (i.canonical.equals(c)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Read the tree below <code>base</code> into an index of references
+   * belonging to <code>archive</code>, reading directories in parallel on
+   * <code>executor</code>.
+   */
+
+  static ArchiveDirectoryIndex read(
+    final LogUsableType log,
+    final ArchiveDirectory archive,
+    final File base,
+    final Executor executor)
+    throws FilesystemError
+  {
+    final int helpers = Runtime.getRuntime().availableProcessors() - 1;
+    final Crawl c = new Crawl(log, archive, executor, helpers);
+    try {
+      final Entry root =
+        new Entry(new ArchiveDirectoryReference(
+          archive,
+          PathVirtual.ROOT,
+          Type.TYPE_DIRECTORY,
+          base,
+          0,
+          base.lastModified()));
+      c.entries.put(PathVirtual.ROOT, root);
+      c.add(new Item(null, PathVirtual.ROOT, base, base
+        .getCanonicalPath(), root));
+    } catch (final IOException e) {
+      throw FilesystemError.ioError(e);
+    }
+
+    c.work();
+
+    final Throwable error = c.error.get();
+    if (error != null) {
+      if (error instanceof FilesystemError) {
+        throw (FilesystemError) error;
+      }
+      if (error instanceof RuntimeException) {
+        throw (RuntimeException) error;
+      }
+      if (error instanceof Error) {
+        throw (Error) error;
+      }
+      throw new UnreachableCodeException(error);
+    }
+
+    log.debug("indexed " + c.entries.size() + " objects in " + base);
+    return new ArchiveDirectoryIndex(c.entries);
+  }
+
+  private final Map<PathVirtual, Entry> entries;
+
+  private ArchiveDirectoryIndex(
+    final Map<PathVirtual, Entry> in_entries)
+  {
+    this.entries = in_entries;
+  }
+
+  /**
+   * @return The entry for the object at <code>path</code>, or
+   *         <code>null</code> if there is no such object.
+   */
+
+  @Nullable Entry get(
+    final PathVirtual path)
+  {
+    return this.entries.get(path);
+  }
+
+  /**
+   * @return References to every object in the tree other than the root.
+   */
+
+  Map<PathVirtual, FileReference<ArchiveDirectoryKind>> getContents()
+  {
+    final Map<PathVirtual, FileReference<ArchiveDirectoryKind>> contents =
+      new HashMap<PathVirtual, FileReference<ArchiveDirectoryKind>>(
+        this.entries.size());
+    for (final Entry e : this.entries.values()) {
+      final ArchiveDirectoryReference r = e.getReference();
+      if (r.getPath().isRoot() == false) {
+        contents.put(r.getPath(), r);
+      }
+    }
+    return contents;
+  }
+}
@@ -16,7 +16,10 @@
 
 package com.io7m.jvvfs;
 
+import java.util.concurrent.Executor;
+
 import com.io7m.jlog.LogUsableType;
+import com.io7m.jnull.Nullable;
 
 /**
  * The interface exposed by archive handlers.
@@ -35,12 +38,17 @@ abstract class ArchiveHandler<T extends ArchiveKind>
 
   /**
    * Load the archive at <code>name</code>, setting the mount path of the
-   * archive to <code>mount</code>.
+   * archive to <code>mount</code>. Handlers for archives that have indexes
+   * may use <code>cache</code>, if it is not <code>null</code>, to avoid
+   * rebuilding them. Handlers may run parts of the load in parallel on
+   * <code>executor</code>, which runs rejected tasks on the calling thread.
    */
 
   abstract Archive<T> load(
     final LogUsableType log,
     final PathReal name,
-    final PathVirtual mount)
+    final PathVirtual mount,
+    final @Nullable ArchiveZipIndexCache cache,
+    final Executor executor)
     throws FilesystemError;
 }
@@ -0,0 +1,67 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jvvfs;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>
+ * A stream that holds a reference to the archive from which it was opened,
+ * releasing the reference when the stream is closed.
+ * </p>
+ * 
+ * @see Archive#acquire()
+ */
+
+final class ArchiveInputStream extends FilterInputStream
+{
+  private final Archive<?>    archive;
+  private final AtomicBoolean closed;
+
+  /**
+   * Construct a stream. The caller must already hold a reference to
+   * <code>in_archive</code>, which is transferred to the stream.
+   */
+
+  ArchiveInputStream(
+    final Archive<?> in_archive,
+    final InputStream in_stream)
+  {
+    super(in_stream);
+    this.archive = in_archive;
+    this.closed = new AtomicBoolean(false);
+  }
+
+  @Override public void close()
+    throws IOException
+  {
+    if (this.closed.compareAndSet(false, true)) {
+      try {
+        super.close();
+      } finally {
+        try {
+          this.archive.release();
+        } catch (final FilesystemError e) {
+          throw new IOException(e);
+        }
+      }
+    }
+  }
+}
@@ -16,17 +16,25 @@
 
 package com.io7m.jvvfs;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TimeZone;
+import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
-import java.util.zip.ZipFile;
 
 import com.io7m.jfunctional.None;
 import com.io7m.jfunctional.Option;
@@ -49,8 +57,15 @@ import com.io7m.jvvfs.FilesystemError.Code;
  * </p>
  * 
  * <p>
- * Values of this type cannot be accessed safely from multiple threads without
- * explicit synchronization.
+ * The contents of the zip file are read by one of the
+ * {@link ArchiveZipBackendType} implementations, chosen by {@link Backend}
+ * when the archive is opened.
+ * </p>
+ * 
+ * <p>
+ * Values of this type can be accessed safely from multiple threads: the index
+ * of the zip file is not modified after construction, and all backends are
+ * themselves thread-safe.
  * </p>
  */
 
@@ -96,11 +111,37 @@ final class ArchiveZip extends Archive<ArchiveZipKind>
     }
   }
 
-  private final LogType     log;
-  private final LogType     log_lookup;
-  private final PathVirtual mount;
-  private final PathReal    real;
-  private final ZipFile     zip;
+  /**
+   * The implementations available for reading zip files.
+   */
+
+  static enum Backend
+  {
+    /**
+     * Map the zip file into memory.
+     * 
+     * @see ArchiveZipBackendMapped
+     */
+
+    BACKEND_MAPPED,
+
+    /**
+     * Read the zip file with {@link java.util.zip.ZipFile}.
+     * 
+     * @see ArchiveZipBackendZipFile
+     */
+
+    BACKEND_ZIP_FILE
+  }
+
+  private final Backend                               backend;
+  private final Map<PathVirtual, SortedSet<String>>   children;
+  private final Map<PathVirtual, ArchiveZipReference> index;
+  private final LogType                               log;
+  private final LogType                               log_lookup;
+  private final PathVirtual                           mount;
+  private final PathReal                              real;
+  private final ArchiveZipBackendType                 zip;
 
   ArchiveZip(
     final LogUsableType in_log,
@@ -108,13 +149,100 @@ final class ArchiveZip extends Archive<ArchiveZipKind>
     final PathVirtual in_mount)
     throws IOException,
       FilesystemError
+  {
+    this(in_log, base_path, in_mount, Backend.BACKEND_ZIP_FILE);
+  }
+
+  ArchiveZip(
+    final LogUsableType in_log,
+    final PathReal base_path,
+    final PathVirtual in_mount,
+    final Backend in_backend)
+    throws IOException,
+      FilesystemError
+  {
+    this(in_log, base_path, in_mount, in_backend, null);
+  }
+
+  /**
+   * Open the zip file at <code>base_path</code> with the given backend. If
+   * <code>cache</code> is not <code>null</code>, the index of the zip file
+   * is taken from the cache if it holds an up-to-date copy of it, and is
+   * recorded in the cache otherwise.
+   */
+
+  ArchiveZip(
+    final LogUsableType in_log,
+    final PathReal base_path,
+    final PathVirtual in_mount,
+    final Backend in_backend,
+    final @Nullable ArchiveZipIndexCache cache)
+    throws IOException,
+      FilesystemError
   {
     try {
       this.log = NullCheck.notNull(in_log, "Log").with("zip");
       this.log_lookup = this.log.with("lookup");
       this.mount = NullCheck.notNull(in_mount, "Mount path");
-      this.zip = new ZipFile(base_path.toString());
+      this.backend = NullCheck.notNull(in_backend, "Backend");
       this.real = new PathReal(base_path.toString());
+      this.index = new HashMap<PathVirtual, ArchiveZipReference>();
+
+      /**
+       * The archive is examined before it is opened, so that a cache file is
+       * never recorded against the state of an archive that was modified
+       * after it was read.
+       */
+
+      final File file = base_path.toFile();
+      final long size = file.length();
+      final long time = file.lastModified();
+
+      final ArchiveZipIndexCache.Index cached =
+        ArchiveZip.loadCached(base_path, size, time, this.backend, cache);
+      if (cached != null) {
+        this.zip =
+          ArchiveZip.openBackendWithEntries(
+            base_path,
+            this.backend,
+            cached.getEntries(),
+            size,
+            time);
+      } else {
+        this.zip = ArchiveZip.openBackend(base_path, this.backend);
+      }
+
+      /**
+       * The backend is closed if the archive cannot be indexed, as the
+       * archive is never returned to the caller to be closed.
+       */
+
+      boolean completed = false;
+      try {
+        if (cached != null) {
+          this.children = cached.getChildren();
+          ArchiveZip.makeIndexCached(this, cached, this.index);
+        } else {
+          this.children = new HashMap<PathVirtual, SortedSet<String>>();
+
+          final List<ZipEntry> entries = this.zip.getEntries();
+          ArchiveZip.makeIndex(this, entries, this.index, this.children);
+          if (cache != null) {
+            cache.save(
+              base_path,
+              size,
+              time,
+              entries,
+              this.index,
+              this.children);
+          }
+        }
+        completed = true;
+      } finally {
+        if (completed == false) {
+          this.closeBackendQuietly();
+        }
+      }
     } catch (final ZipException e) {
       throw FilesystemError.archiveDamaged(
         base_path.toFile().getName(),
@@ -122,6 +250,250 @@ final class ArchiveZip extends Archive<ArchiveZipKind>
     }
   }
 
+  private static @Nullable ArchiveZipIndexCache.Index loadCached(
+    final PathReal path,
+    final long size,
+    final long time,
+    final Backend backend,
+    final @Nullable ArchiveZipIndexCache cache)
+  {
+    if (cache == null) {
+      return null;
+    }
+
+    /**
+     * Only the mapped backend requires the offsets of local headers, which
+     * are not recorded for entries read by {@link java.util.zip.ZipFile}.
+     */
+
+    return cache.load(path, size, time, backend == Backend.BACKEND_MAPPED);
+  }
+
+  /**
+   * <p>
+   * Build an index of every object in the zip entries <code>entries</code>,
+   * keyed
+   * by archive-relative path. The root directory is not included. The names
+   * of the objects in each directory are recorded in <code>children</code>,
+   * keyed by the archive-relative path of the directory.
+   * </p>
+   * <p>
+   * An entry with a trailing slash is a directory. An entry without a
+   * trailing slash is a file, unless a directory entry with the same name
+   * exists. All ancestors of an entry are directories, unless entries exist
+   * for them. Implicit directories refer to the first entry in the zip file
+   * that is contained within them.
+   * </p>
+   */
+
+  private static void makeIndex(
+    final ArchiveZip archive,
+    final List<ZipEntry> entries,
+    final Map<PathVirtual, ArchiveZipReference> result,
+    final Map<PathVirtual, SortedSet<String>> result_children)
+    throws FilesystemError
+  {
+    final Set<PathVirtual> explicit = new HashSet<PathVirtual>();
+    final List<String> names = new ArrayList<String>();
+
+    for (final ZipEntry e : entries) {
+      assert e != null;
+      ArchiveZip.makeIndexEntry(
+        archive,
+        result,
+        result_children,
+        explicit,
+        names,
+        e);
+    }
+  }
+
+  /**
+   * Create a reference to each object in the cached index
+   * <code>cached</code>. The paths, types and entries of the objects were
+   * recorded by {@link #makeIndex(ArchiveZip, List, Map, Map)} when the
+   * cache file was written, and so are used as they are.
+   */
+
+  private static void makeIndexCached(
+    final ArchiveZip archive,
+    final ArchiveZipIndexCache.Index cached,
+    final Map<PathVirtual, ArchiveZipReference> result)
+    throws FilesystemError
+  {
+    final int count = cached.getObjectCount();
+    for (int index = 0; index < count; ++index) {
+      final PathVirtual p = cached.getObjectPath(index);
+      result.put(p, new ArchiveZipReference(
+        archive,
+        p,
+        cached.getObjectType(index),
+        cached.getObjectEntry(index)));
+    }
+  }
+
+  private static void makeIndexEntry(
+    final ArchiveZip archive,
+    final Map<PathVirtual, ArchiveZipReference> result,
+    final Map<PathVirtual, SortedSet<String>> result_children,
+    final Set<PathVirtual> explicit,
+    final List<String> names,
+    final ZipEntry e)
+    throws FilesystemError
+  {
+    final String name = e.getName();
+    final boolean directory = name.endsWith("/");
+    final String[] segments = name.split("/");
+
+    names.clear();
+    PathVirtual parent = PathVirtual.ROOT;
+    for (int index = 0; index < segments.length; ++index) {
+      final String segment = segments[index];
+
+      /**
+       * Entries with names that cannot be represented as virtual paths can
+       * never be looked up, but their valid ancestors can.
+       */
+
+      if (Name.isValid(segment) == false) {
+        return;
+      }
+
+      names.add(segment);
+      final PathVirtual p = PathVirtual.ofNamesTrusted(names).intern();
+
+      if (result.containsKey(p) == false) {
+        SortedSet<String> siblings = result_children.get(parent);
+        if (siblings == null) {
+          siblings = new TreeSet<String>();
+          result_children.put(parent, siblings);
+        }
+        siblings.add(segment);
+      }
+      parent = p;
+
+      if (index < (segments.length - 1)) {
+        if (result.containsKey(p) == false) {
+          result.put(p, new ArchiveZipReference(
+            archive,
+            p,
+            Type.TYPE_DIRECTORY,
+            e));
+        }
+      } else if (directory) {
+        result.put(p, new ArchiveZipReference(
+          archive,
+          p,
+          Type.TYPE_DIRECTORY,
+          e));
+        explicit.add(p);
+      } else if (explicit.contains(p) == false) {
+        result.put(p, new ArchiveZipReference(archive, p, Type.TYPE_FILE, e));
+      }
+    }
+  }
+
+  private static ArchiveZipBackendType openBackend(
+    final PathReal path,
+    final Backend backend)
+    throws IOException
+  {
+    switch (backend) {
+      case BACKEND_MAPPED:
+      {
+        return new ArchiveZipBackendMapped(path);
+      }
+      case BACKEND_ZIP_FILE:
+      {
+        return new ArchiveZipBackendZipFile(path);
+      }
+    }
+
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Open a backend for the zip file at <code>path</code> that uses the
+   * previously read entries <code>entries</code>, rather than reading them
+   * from the zip file. The entries were read when the zip file had size
+   * <code>size</code> and modification time <code>time</code>.
+   */
+
+  private static ArchiveZipBackendType openBackendWithEntries(
+    final PathReal path,
+    final Backend backend,
+    final List<ZipEntry> entries,
+    final long size,
+    final long time)
+    throws IOException
+  {
+    switch (backend) {
+      case BACKEND_MAPPED:
+      {
+        return new ArchiveZipBackendMapped(path, entries, size, time);
+      }
+      case BACKEND_ZIP_FILE:
+      {
+        return new ArchiveZipBackendZipFile(path, entries, size, time);
+      }
+    }
+
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Read exactly <code>size</code> bytes from <code>stream</code> into a new
+   * read-only heap buffer, closing the stream afterwards.
+   */
+
+  static ByteBuffer readFully(
+    final InputStream stream,
+    final long size)
+    throws IOException
+  {
+    try {
+      if ((size < 0) || (size > Integer.MAX_VALUE)) {
+        throw new IOException("File size not representable in a buffer: "
+          + size);
+      }
+
+      final byte[] data = new byte[(int) size];
+      int offset = 0;
+      while (offset < data.length) {
+        final int r = stream.read(data, offset, data.length - offset);
+        if (r == -1) {
+          throw new EOFException("Unexpected end of file after "
+            + offset
+            + " of "
+            + size
+            + " bytes");
+        }
+        offset += r;
+      }
+
+      final ByteBuffer b = ByteBuffer.wrap(data).asReadOnlyBuffer();
+      assert b != null;
+      return b;
+    } finally {
+      stream.close();
+    }
+  }
+
+  /**
+   * Close the backend after a failure, logging and otherwise ignoring
+   * errors: the error that caused the backend to be closed takes
+   * precedence.
+   */
+
+  private void closeBackendQuietly()
+  {
+    try {
+      this.zip.close();
+    } catch (final IOException e) {
+      this.log.error("could not close " + this.real + ": " + e.getMessage());
+    }
+  }
+
   @Override void close()
     throws FilesystemError
   {
@@ -132,20 +504,36 @@ final class ArchiveZip extends Archive<ArchiveZipKind>
     }
   }
 
-  private @Nullable ZipEntry expensiveDirectoryLookup(
-    final String name)
+  /**
+   * @return The backend used to read the zip file.
+   */
+
+  Backend getBackend()
   {
-    final Enumeration<? extends ZipEntry> entries = this.zip.entries();
+    return this.backend;
+  }
 
-    while (entries.hasMoreElements()) {
-      final ZipEntry e = entries.nextElement();
-      final String entry_name = e.getName();
-      if (entry_name.startsWith(name)) {
-        return e;
-      }
+  @Override protected long getCompressedSizeActual(
+    final FileReference<ArchiveZipKind> r)
+    throws FilesystemError
+  {
+    final ArchiveZipReference ra = (ArchiveZipReference) r;
+    assert ra.getType() == Type.TYPE_FILE;
+
+    final OptionType<ZipEntry> eo = ra.getZipEntryOption();
+    if (eo.isNone()) {
+      throw new UnreachableCodeException();
     }
+    return ((Some<ZipEntry>) eo).get().getCompressedSize();
+  }
 
-    return null;
+  @Override
+    OptionType<Map<PathVirtual, FileReference<ArchiveZipKind>>>
+    getContents()
+  {
+    final Map<PathVirtual, FileReference<ArchiveZipKind>> contents =
+      new HashMap<PathVirtual, FileReference<ArchiveZipKind>>(this.index);
+    return Option.some(contents);
   }
 
   @Override protected long getFileSizeActual(
@@ -155,32 +543,18 @@ final class ArchiveZip extends Archive<ArchiveZipKind>
     final ArchiveZipReference ra = (ArchiveZipReference) r;
     assert ra.getType() == Type.TYPE_FILE;
 
-    return ra
-      .getZipEntryOption()
-      .accept(new OptionVisitorType<ZipEntry, Long>() {
-        @Override public Long none(
-          final None<ZipEntry> n)
-        {
-          /**
-           * The zip entry can only be <code>None</code> if the given path was
-           * root. If the given path is root, it must be a directory, and
-           * <code>getFileSizeActual</code> will never be called by
-           * <code>Archive#getFileSize(PathVirtual)</code> with a reference to
-           * a directory.
-           */
-
-          throw new UnreachableCodeException();
-        }
+    /**
+     * The zip entry can only be <code>None</code> if the given path was root.
+     * If the given path is root, it must be a directory, and
+     * <code>getFileSizeActual</code> will never be called with a reference
+     * to a directory.
+     */
 
-        @Override public Long some(
-          final Some<ZipEntry> s)
-        {
-          final Long rs = Long.valueOf(s.get().getSize());
-          assert rs != null;
-          return rs;
-        }
-      })
-      .longValue();
+    final OptionType<ZipEntry> eo = ra.getZipEntryOption();
+    if (eo.isNone()) {
+      throw new UnreachableCodeException();
+    }
+    return ((Some<ZipEntry>) eo).get().getSize();
   }
 
   @Override protected LogType getLogLookup()
@@ -223,74 +597,47 @@ final class ArchiveZip extends Archive<ArchiveZipKind>
     return this.real;
   }
 
-  @Override SortedSet<String> listDirectory(
-    final PathVirtual path)
-    throws FilesystemError
+  @Override boolean isImmutable()
   {
-    final OptionType<FileReference<ArchiveZipKind>> r = this.lookup(path);
-    return r
-      .acceptPartial(new OptionPartialVisitorType<FileReference<ArchiveZipKind>, SortedSet<String>, FilesystemError>() {
-        @Override public SortedSet<String> none(
-          final None<FileReference<ArchiveZipKind>> n)
-          throws FilesystemError
-        {
-          throw FilesystemError.fileNotFound(path.toString());
-        }
-
-        @SuppressWarnings("synthetic-access") @Override public
-          SortedSet<String>
-          some(
-            final Some<FileReference<ArchiveZipKind>> s)
-            throws FilesystemError
-        {
-          final FileReference<ArchiveZipKind> ar = s.get();
-          final ArchiveZipReference ra = (ArchiveZipReference) ar;
-
-          switch (ra.getType()) {
-            case TYPE_DIRECTORY:
-            {
-              return ArchiveZip.this.listDirectoryInternal(ra);
-            }
-            case TYPE_FILE:
-            {
-              throw FilesystemError.notDirectory(path.toString());
-            }
-          }
-
-          throw new UnreachableCodeException();
-        }
-      });
+    return true;
   }
 
-  private SortedSet<String> listDirectoryInternal(
-    final ArchiveZipReference ra)
+  @Override protected SortedSet<String> listDirectoryActual(
+    final FileReference<ArchiveZipKind> r)
   {
-    final SortedSet<String> items = new TreeSet<String>();
-    final Enumeration<? extends ZipEntry> entries = this.zip.entries();
-    final String ps =
-      ra.getPath().toString() + (ra.getPath().isRoot() ? "" : "/");
+    assert r.getType() == Type.TYPE_DIRECTORY;
 
-    while (entries.hasMoreElements()) {
-      final ZipEntry e = entries.nextElement();
-      final String en0 = "/" + e.getName();
+    final SortedSet<String> items = this.children.get(r.getPath());
+    if (items != null) {
+      return new TreeSet<String>(items);
+    }
+    return new TreeSet<String>();
+  }
 
-      if (en0.startsWith(ps)) {
-        final String en1 = en0.substring(ps.length());
-        final String en2 = en1.replaceFirst("^/", "");
+  @Override protected
+    SortedMap<String, FileReference<ArchiveZipKind>>
+    listDirectoryDetailedActual(
+      final FileReference<ArchiveZipKind> r)
+      throws FilesystemError
+  {
+    assert r.getType() == Type.TYPE_DIRECTORY;
 
-        if (en2.length() == 0) {
-          continue;
-        }
+    /**
+     * The references to the children of the directory were created from the
+     * central directory when the archive was opened.
+     */
 
-        if (en2.contains("/")) {
-          final String en3 = en2.substring(0, en2.indexOf('/'));
-          items.add(en3);
-        } else {
-          items.add(en2);
-        }
+    final PathVirtual path = r.getPath();
+    final SortedMap<String, FileReference<ArchiveZipKind>> items =
+      new TreeMap<String, FileReference<ArchiveZipKind>>();
+    final SortedSet<String> names = this.children.get(path);
+    if (names != null) {
+      for (final String name : names) {
+        final ArchiveZipReference c = this.index.get(path.appendName(name));
+        assert c != null;
+        items.put(name, c);
       }
     }
-
     return items;
   }
 
@@ -312,32 +659,9 @@ final class ArchiveZip extends Archive<ArchiveZipKind>
       return new ArchiveZipReference(this, path, Type.TYPE_DIRECTORY, null);
     }
 
-    final String name_minus_slash = path.toString().replaceFirst("^/", "");
-    assert name_minus_slash.length() > 0;
-
-    final String name_slash = name_minus_slash + "/";
-
-    {
-      final ZipEntry entry_name = this.zip.getEntry(name_minus_slash);
-      final ZipEntry entry_slash = this.zip.getEntry(name_slash);
-
-      if ((entry_slash != null) && (entry_name != null)) {
-        return new ArchiveZipReference(
-          this,
-          path,
-          Type.TYPE_DIRECTORY,
-          entry_slash);
-      }
-      if ((entry_slash == null) && (entry_name != null)) {
-        return new ArchiveZipReference(this, path, Type.TYPE_FILE, entry_name);
-      }
-    }
-
-    {
-      final ZipEntry entry = this.expensiveDirectoryLookup(name_slash);
-      if (entry != null) {
-        return new ArchiveZipReference(this, path, Type.TYPE_DIRECTORY, entry);
-      }
+    final ArchiveZipReference ref = this.index.get(path);
+    if (ref != null) {
+      return ref;
     }
 
     if (this.log_lookup.wouldLog(LogLevel.LOG_DEBUG)) {
@@ -383,8 +707,7 @@ final class ArchiveZip extends Archive<ArchiveZipKind>
               final Some<ZipEntry> s)
               throws IOException
           {
-            final InputStream ri =
-              ArchiveZip.this.zip.getInputStream(s.get());
+            final InputStream ri = ArchiveZip.this.zip.openEntry(s.get());
             assert ri != null;
             return ri;
           }
@@ -394,6 +717,25 @@ final class ArchiveZip extends Archive<ArchiveZipKind>
     }
   }
 
+  @Override protected ByteBuffer readFileAsByteBufferActual(
+    final FileReference<ArchiveZipKind> r)
+    throws FilesystemError
+  {
+    final ArchiveZipReference ra = (ArchiveZipReference) r;
+    assert ra.getType() == Type.TYPE_FILE;
+
+    final OptionType<ZipEntry> eo = ra.getZipEntryOption();
+    if (eo.isNone()) {
+      throw new UnreachableCodeException();
+    }
+
+    try {
+      return this.zip.readEntry(((Some<ZipEntry>) eo).get());
+    } catch (final IOException e) {
+      throw FilesystemError.ioError(e);
+    }
+  }
+
   @Override public String toString()
   {
     final StringBuilder builder = new StringBuilder();
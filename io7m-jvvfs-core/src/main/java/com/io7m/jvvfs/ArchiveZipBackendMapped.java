@@ -0,0 +1,639 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.jvvfs;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import com.io7m.jnull.NullCheck;
+
+/**
+ * <p>
+ * A zip backend that maps the entire zip file into memory and parses the
+ * central directory directly from the mapped region.
+ * </p>
+ * <p>
+ * Entries stored without compression are read from read-only slices of the
+ * mapped region, and compressed entries are inflated from the mapped region
+ * by a private {@link java.util.zip.Inflater} per stream. As the mapped
+ * region is never modified after construction, and each stream has its own
+ * view of it, values of this type can be accessed from multiple threads
+ * without synchronization.
+ * </p>
+ * <p>
+ * The mapping is released by the garbage collector once the backend and
+ * all streams opened from it are unreachable; the underlying file is closed
+ * as soon as the mapping has been established.
+ * </p>
+ */
+
+final class ArchiveZipBackendMapped implements ArchiveZipBackendType
+{
+  /**
+   * An entry parsed from the central directory.
+   */
+
+  static final class Entry extends ZipEntry
+  {
+    private final long offset;
+    private final long time;
+
+    Entry(
+      final String in_name,
+      final int in_method,
+      final long in_size,
+      final long in_size_compressed,
+      final long in_crc,
+      final long in_time,
+      final long in_offset)
+    {
+      super(in_name);
+      this.setMethod(in_method);
+      this.setSize(in_size);
+      this.setCompressedSize(in_size_compressed);
+      this.setCrc(in_crc);
+      this.time = in_time;
+      this.offset = in_offset;
+    }
+
+    /**
+     * @return The offset of the local header of the entry.
+     */
+
+    long getOffset()
+    {
+      return this.offset;
+    }
+
+    /**
+     * The modification time is decoded exactly as
+     * {@link java.util.zip.ZipFile} decodes it, and is not converted to an
+     * MS-DOS time and back again as {@link ZipEntry#setTime(long)} would.
+     */
+
+    @Override public long getTime()
+    {
+      return this.time;
+    }
+  }
+
+  /**
+   * A stream that inflates a region of the mapped zip file.
+   */
+
+  private static final class InflatingStream extends InputStream
+  {
+    private static final int CHUNK_SIZE = 8192;
+
+    private final byte[]     chunk;
+    private boolean          closed;
+    private final ByteBuffer input;
+    private final Inflater   inflater;
+    private boolean          padded;
+    private final byte[]     single;
+    private final long       size;
+
+    InflatingStream(
+      final ByteBuffer in_input,
+      final long in_size)
+    {
+      this.input = in_input;
+      this.size = in_size;
+      this.inflater = new Inflater(true);
+      this.chunk =
+        new byte[Math.max(
+          1,
+          Math.min(InflatingStream.CHUNK_SIZE, in_input.remaining()))];
+      this.single = new byte[1];
+      this.closed = false;
+      this.padded = false;
+    }
+
+    @Override public int available()
+      throws IOException
+    {
+      this.checkOpen();
+      final long remaining = this.size - this.inflater.getBytesWritten();
+      return (int) Math.max(0, Math.min(Integer.MAX_VALUE, remaining));
+    }
+
+    private void checkOpen()
+      throws IOException
+    {
+      if (this.closed) {
+        throw new IOException("Stream closed");
+      }
+    }
+
+    @Override public void close()
+    {
+      if (this.closed == false) {
+        this.closed = true;
+        this.inflater.end();
+      }
+    }
+
+    /**
+     * Pass the next chunk of compressed data to the inflater. An inflater
+     * in <code>nowrap</code> mode requires an extra byte of padding after
+     * the end of the compressed data.
+     */
+
+    private void fill()
+      throws EOFException
+    {
+      final int remaining = this.input.remaining();
+      if (remaining > 0) {
+        final int count = Math.min(remaining, this.chunk.length);
+        this.input.get(this.chunk, 0, count);
+        this.inflater.setInput(this.chunk, 0, count);
+        return;
+      }
+
+      if (this.padded == false) {
+        this.padded = true;
+        this.chunk[0] = 0;
+        this.inflater.setInput(this.chunk, 0, 1);
+        return;
+      }
+
+      throw new EOFException("Unexpected end of compressed data");
+    }
+
+    @Override public int read()
+      throws IOException
+    {
+      if (this.read(this.single, 0, 1) == -1) {
+        return -1;
+      }
+      return this.single[0] & 0xff;
+    }
+
+    @Override public int read(
+      final byte[] b,
+      final int off,
+      final int len)
+      throws IOException
+    {
+      this.checkOpen();
+      if ((off < 0) || (len < 0) || (len > (b.length - off))) {
+        throw new IndexOutOfBoundsException();
+      }
+      if (len == 0) {
+        return 0;
+      }
+
+      try {
+        for (;;) {
+          final int count = this.inflater.inflate(b, off, len);
+          if (count > 0) {
+            return count;
+          }
+          if (this.inflater.finished() || this.inflater.needsDictionary()) {
+            return -1;
+          }
+          if (this.inflater.needsInput()) {
+            this.fill();
+          }
+        }
+      } catch (final DataFormatException e) {
+        throw new ZipException(e.getMessage());
+      }
+    }
+  }
+
+  private static final int     CEN_HEADER_SIZE        = 46;
+  private static final int     CEN_SIGNATURE          = 0x02014b50;
+  private static final int     END_HEADER_SIZE        = 22;
+  private static final int     END_SIGNATURE          = 0x06054b50;
+  private static final int     END_ZIP64_LOCATOR      = 0x07064b50;
+  private static final int     END_ZIP64_LOCATOR_SIZE = 20;
+  private static final int     EXTRA_EXTENDED_TIME    = 0x5455;
+  private static final int     EXTRA_NTFS             = 0x000a;
+  private static final int     FLAG_ENCRYPTED         = 0x1;
+  private static final int     LOC_HEADER_SIZE        = 30;
+  private static final int     LOC_SIGNATURE          = 0x04034b50;
+  private static final int     MAXIMUM_COMMENT_SIZE   = 0xffff;
+  private static final long    NTFS_EPOCH_OFFSET      = 11644473600000L;
+  private static final Charset UTF8;
+  private static final long    ZIP64_MAGIC            = 0xffffffffL;
+
+  static {
+    UTF8 = NullCheck.notNull(Charset.forName("UTF-8"));
+  }
+
+  /**
+   * Decode an MS-DOS date and time in the local time zone, in the same
+   * manner as {@link java.util.zip.ZipEntry#getTime()}.
+   */
+
+  private static long decodeDOSTime(
+    final int dostime)
+  {
+    final Calendar c = Calendar.getInstance();
+    c.clear();
+    c.set(
+      ((dostime >> 25) & 0x7f) + 1980,
+      ((dostime >> 21) & 0x0f) - 1,
+      (dostime >> 16) & 0x1f,
+      (dostime >> 11) & 0x1f,
+      (dostime >> 5) & 0x3f,
+      (dostime << 1) & 0x3e);
+    return c.getTimeInMillis();
+  }
+
+  /**
+   * Decode the modification time of an entry from the extended timestamp
+   * and NTFS extra fields, if either is present, falling back to the MS-DOS
+   * time otherwise.
+   */
+
+  private static long decodeTime(
+    final ByteBuffer map,
+    final int extra,
+    final int extra_size,
+    final int dostime)
+  {
+    final int end = extra + extra_size;
+    int pos = extra;
+    long time = -1;
+    boolean found = false;
+
+    while ((pos + 4) < end) {
+      final int tag = ArchiveZipBackendMapped.getU16(map, pos);
+      final int size = ArchiveZipBackendMapped.getU16(map, pos + 2);
+      pos += 4;
+      if ((pos + size) > end) {
+        break;
+      }
+
+      switch (tag) {
+        case EXTRA_EXTENDED_TIME:
+        {
+          if (size >= 5) {
+            final int flags = map.get(pos) & 0xff;
+            if ((flags & 0x1) != 0) {
+              time = map.getInt(pos + 1) * 1000L;
+              found = true;
+            }
+          }
+          break;
+        }
+        case EXTRA_NTFS:
+        {
+          if (size >= 32) {
+            final int attr = pos + 4;
+            if ((ArchiveZipBackendMapped.getU16(map, attr) == 0x0001)
+              && (ArchiveZipBackendMapped.getU16(map, attr + 2) == 24)) {
+              final long wtime = map.getLong(attr + 4);
+              if (wtime != Long.MIN_VALUE) {
+                time =
+                  (wtime / 10000L) - ArchiveZipBackendMapped.NTFS_EPOCH_OFFSET;
+                found = true;
+              }
+            }
+          }
+          break;
+        }
+        default:
+        {
+          break;
+        }
+      }
+
+      pos += size;
+    }
+
+    if (found) {
+      return time;
+    }
+    return ArchiveZipBackendMapped.decodeDOSTime(dostime);
+  }
+
+  /**
+   * Find the offset of the end of central directory record.
+   */
+
+  private static int findEnd(
+    final ByteBuffer map)
+    throws ZipException
+  {
+    final int size = map.capacity();
+    final int last = size - ArchiveZipBackendMapped.END_HEADER_SIZE;
+    final int first =
+      Math.max(0, last - ArchiveZipBackendMapped.MAXIMUM_COMMENT_SIZE);
+
+    for (int pos = last; pos >= first; --pos) {
+      if (map.getInt(pos) == ArchiveZipBackendMapped.END_SIGNATURE) {
+        final int comment = ArchiveZipBackendMapped.getU16(map, pos + 20);
+        if ((pos + ArchiveZipBackendMapped.END_HEADER_SIZE + comment) == size) {
+          return pos;
+        }
+      }
+    }
+
+    throw new ZipException("zip END header not found");
+  }
+
+  private static int getU16(
+    final ByteBuffer map,
+    final int pos)
+  {
+    return map.getShort(pos) & 0xffff;
+  }
+
+  private static long getU32(
+    final ByteBuffer map,
+    final int pos)
+  {
+    return map.getInt(pos) & 0xffffffffL;
+  }
+
+  /**
+   * Map the zip file at <code>path</code>. If <code>expected_size</code> is
+   * not negative, the zip file must have size <code>expected_size</code> and
+   * modification time <code>expected_time</code> once it has been mapped.
+   */
+
+  private static MappedByteBuffer map(
+    final PathReal path,
+    final long expected_size,
+    final long expected_time)
+    throws IOException
+  {
+    final File f = path.toFile();
+    final RandomAccessFile file = new RandomAccessFile(f, "r");
+    try {
+      final FileChannel channel = file.getChannel();
+      final long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new ZipException("Zip file too large to map: " + size);
+      }
+
+      final MappedByteBuffer map = channel.map(MapMode.READ_ONLY, 0, size);
+      assert map != null;
+      map.order(ByteOrder.LITTLE_ENDIAN);
+
+      /**
+       * The file is examined after it has been mapped, so that a file
+       * replaced before it was mapped is always detected.
+       */
+
+      if ((expected_size >= 0)
+        && ((size != expected_size) || (f.lastModified() != expected_time))) {
+        throw new ZipException("Zip file modified since it was mounted: "
+          + path);
+      }
+      return map;
+    } finally {
+      file.close();
+    }
+  }
+
+  /**
+   * Parse every entry in the central directory.
+   */
+
+  private static List<ZipEntry> parseCentralDirectory(
+    final ByteBuffer map)
+    throws ZipException
+  {
+    final int end = ArchiveZipBackendMapped.findEnd(map);
+
+    final int locator = end - ArchiveZipBackendMapped.END_ZIP64_LOCATOR_SIZE;
+    if ((locator >= 0)
+      && (map.getInt(locator) == ArchiveZipBackendMapped.END_ZIP64_LOCATOR)) {
+      throw new ZipException("ZIP64 zip files are not supported");
+    }
+
+    final int count = ArchiveZipBackendMapped.getU16(map, end + 10);
+    final long cen_size = ArchiveZipBackendMapped.getU32(map, end + 12);
+    final long cen_offset = ArchiveZipBackendMapped.getU32(map, end + 16);
+    if ((cen_offset + cen_size) > end) {
+      throw new ZipException("invalid END header (bad central directory)");
+    }
+
+    final List<ZipEntry> entries = new ArrayList<ZipEntry>(count);
+    final int cen_end = (int) (cen_offset + cen_size);
+    int pos = (int) cen_offset;
+    for (int index = 0; index < count; ++index) {
+      if ((pos + ArchiveZipBackendMapped.CEN_HEADER_SIZE) > cen_end) {
+        throw new ZipException("invalid CEN header (truncated)");
+      }
+      if (map.getInt(pos) != ArchiveZipBackendMapped.CEN_SIGNATURE) {
+        throw new ZipException("invalid CEN header (bad signature)");
+      }
+      entries.add(ArchiveZipBackendMapped.parseEntry(map, pos, cen_end));
+
+      pos +=
+        ArchiveZipBackendMapped.CEN_HEADER_SIZE
+          + ArchiveZipBackendMapped.getU16(map, pos + 28)
+          + ArchiveZipBackendMapped.getU16(map, pos + 30)
+          + ArchiveZipBackendMapped.getU16(map, pos + 32);
+    }
+
+    return entries;
+  }
+
+  private static Entry parseEntry(
+    final ByteBuffer map,
+    final int pos,
+    final int cen_end)
+    throws ZipException
+  {
+    final int flags = ArchiveZipBackendMapped.getU16(map, pos + 8);
+    final int method = ArchiveZipBackendMapped.getU16(map, pos + 10);
+    final int dostime = map.getInt(pos + 12);
+    final long crc = ArchiveZipBackendMapped.getU32(map, pos + 16);
+    final long size_c = ArchiveZipBackendMapped.getU32(map, pos + 20);
+    final long size_u = ArchiveZipBackendMapped.getU32(map, pos + 24);
+    final int name_size = ArchiveZipBackendMapped.getU16(map, pos + 28);
+    final int extra_size = ArchiveZipBackendMapped.getU16(map, pos + 30);
+    final int comment_size = ArchiveZipBackendMapped.getU16(map, pos + 32);
+    final long offset = ArchiveZipBackendMapped.getU32(map, pos + 42);
+
+    final int name = pos + ArchiveZipBackendMapped.CEN_HEADER_SIZE;
+    final int extra = name + name_size;
+    if ((extra + extra_size + comment_size) > cen_end) {
+      throw new ZipException("invalid CEN header (bad header size)");
+    }
+    if ((flags & ArchiveZipBackendMapped.FLAG_ENCRYPTED) != 0) {
+      throw new ZipException("invalid CEN header (encrypted entry)");
+    }
+    if ((method != ZipEntry.STORED) && (method != ZipEntry.DEFLATED)) {
+      throw new ZipException("invalid CEN header (bad compression method: "
+        + method
+        + ")");
+    }
+    if ((size_c == ArchiveZipBackendMapped.ZIP64_MAGIC)
+      || (size_u == ArchiveZipBackendMapped.ZIP64_MAGIC)
+      || (offset == ArchiveZipBackendMapped.ZIP64_MAGIC)) {
+      throw new ZipException("ZIP64 zip files are not supported");
+    }
+
+    final byte[] name_bytes = new byte[name_size];
+    final ByteBuffer view = map.duplicate();
+    view.position(name);
+    view.get(name_bytes);
+
+    return new Entry(
+      new String(name_bytes, ArchiveZipBackendMapped.UTF8),
+      method,
+      size_u,
+      size_c,
+      crc,
+      ArchiveZipBackendMapped.decodeTime(map, extra, extra_size, dostime),
+      offset);
+  }
+
+  private final List<ZipEntry> entries;
+  private final ByteBuffer     map;
+
+  ArchiveZipBackendMapped(
+    final PathReal in_path)
+    throws IOException
+  {
+    NullCheck.notNull(in_path, "Path");
+    this.map = ArchiveZipBackendMapped.map(in_path, -1, -1);
+    this.entries =
+      Collections.unmodifiableList(ArchiveZipBackendMapped
+        .parseCentralDirectory(this.map));
+  }
+
+  /**
+   * Map the zip file at <code>in_path</code>, using the previously parsed
+   * entries <code>in_entries</code> instead of parsing the central
+   * directory. Each entry must be an {@link Entry}. The entries were parsed
+   * when the zip file had size <code>in_size</code> and modification time
+   * <code>in_time</code>, and the zip file is rejected if it no longer
+   * matches them, as the offsets recorded in the entries would otherwise be
+   * applied to different contents.
+   */
+
+  ArchiveZipBackendMapped(
+    final PathReal in_path,
+    final List<ZipEntry> in_entries,
+    final long in_size,
+    final long in_time)
+    throws IOException
+  {
+    NullCheck.notNull(in_path, "Path");
+    this.entries = NullCheck.notNull(in_entries, "Entries");
+    this.map = ArchiveZipBackendMapped.map(in_path, in_size, in_time);
+  }
+
+  /**
+   * The mapping cannot be released explicitly, so closing the backend has
+   * no effect.
+   */
+
+  @Override public void close()
+  {
+    // Nothing to do.
+  }
+
+  @Override public List<ZipEntry> getEntries()
+  {
+    return this.entries;
+  }
+
+  @Override public InputStream openEntry(
+    final ZipEntry e)
+    throws IOException
+  {
+    final ByteBuffer data = this.slice((Entry) e);
+    if (e.getMethod() == ZipEntry.STORED) {
+      return new ByteBufferInputStream(data);
+    }
+    return new InflatingStream(data, e.getSize());
+  }
+
+  /**
+   * Entries stored without compression are returned as slices of the mapped
+   * region; compressed entries are inflated onto the heap.
+   */
+
+  @Override public ByteBuffer readEntry(
+    final ZipEntry e)
+    throws IOException
+  {
+    final ByteBuffer data = this.slice((Entry) e);
+    if (e.getMethod() == ZipEntry.STORED) {
+      return data;
+    }
+    return ArchiveZip.readFully(
+      new InflatingStream(data, e.getSize()),
+      e.getSize());
+  }
+
+  /**
+   * @return A read-only view of the (possibly compressed) data of the entry
+   *         <code>e</code>, located by reading the local header of the
+   *         entry.
+   */
+
+  private ByteBuffer slice(
+    final Entry e)
+    throws ZipException
+  {
+    final int limit = this.map.capacity();
+    final long offset = e.getOffset();
+    if ((offset + ArchiveZipBackendMapped.LOC_HEADER_SIZE) > limit) {
+      throw new ZipException("invalid LOC header (bad offset)");
+    }
+
+    final int loc = (int) offset;
+    if (this.map.getInt(loc) != ArchiveZipBackendMapped.LOC_SIGNATURE) {
+      throw new ZipException("invalid LOC header (bad signature)");
+    }
+
+    final long start =
+      offset
+        + ArchiveZipBackendMapped.LOC_HEADER_SIZE
+        + ArchiveZipBackendMapped.getU16(this.map, loc + 26)
+        + ArchiveZipBackendMapped.getU16(this.map, loc + 28);
+    final long end = start + e.getCompressedSize();
+    if (end > limit) {
+      throw new ZipException("invalid LOC header (bad data size)");
+    }
+
+    final ByteBuffer view = this.map.asReadOnlyBuffer();
+    view.limit((int) end);
+    view.position((int) start);
+    final ByteBuffer s = view.slice();
+    assert s != null;
+    return s;
+  }
+}
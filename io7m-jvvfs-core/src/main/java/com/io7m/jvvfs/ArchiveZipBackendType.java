@@ -0,0 +1,72 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.jvvfs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.zip.ZipEntry;
+
+/**
+ * <p>
+ * The interface exposed by the implementations that read the contents of
+ * zip files on behalf of {@link ArchiveZip}.
+ * </p>
+ * <p>
+ * Implementations must be safe to access from multiple threads.
+ * </p>
+ */
+
+interface ArchiveZipBackendType
+{
+  /**
+   * Close the zip file. Streams opened from the zip file are not usable
+   * after the zip file is closed.
+   */
+
+  void close()
+    throws IOException;
+
+  /**
+   * @return The entries in the zip file, in the order that they appear in
+   *         the central directory.
+   */
+
+  List<ZipEntry> getEntries();
+
+  /**
+   * @return A stream that yields the uncompressed contents of the entry
+   *         <code>e</code>, which must have been returned by
+   *         {@link #getEntries()}.
+   */
+
+  InputStream openEntry(
+    final ZipEntry e)
+    throws IOException;
+
+  /**
+   * @return A read-only buffer holding the uncompressed contents of the entry
+   *         <code>e</code>, which must have been returned by
+   *         {@link #getEntries()}.
+   */
+
+  ByteBuffer readEntry(
+    final ZipEntry e)
+    throws IOException;
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.jvvfs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+
+/**
+ * <p>
+ * A zip backend that delegates to {@link java.util.zip.ZipFile}, which is
+ * itself thread-safe.
+ * </p>
+ * <p>
+ * If the entries of the zip file are supplied when the backend is
+ * constructed (typically from an {@link ArchiveZipIndexCache}), the zip file
+ * is not opened until the first entry is read. The entries are only valid
+ * for the zip file as it was when they were recorded, so the zip file is
+ * rejected if its size or modification time no longer match the values
+ * recorded alongside the entries.
+ * </p>
+ */
+
+final class ArchiveZipBackendZipFile implements ArchiveZipBackendType
+{
+  private boolean                    closed;
+  private final List<ZipEntry>       entries;
+  private final long                 expected_size;
+  private final long                 expected_time;
+  private final PathReal             path;
+  private volatile @Nullable ZipFile zip;
+
+  ArchiveZipBackendZipFile(
+    final PathReal in_path)
+    throws IOException
+  {
+    this.path = NullCheck.notNull(in_path, "Path");
+
+    final ZipFile z = new ZipFile(in_path.toString());
+    boolean completed = false;
+    try {
+      final List<ZipEntry> es = new ArrayList<ZipEntry>(z.size());
+      final Enumeration<? extends ZipEntry> e = z.entries();
+      while (e.hasMoreElements()) {
+        es.add(e.nextElement());
+      }
+      this.entries = Collections.unmodifiableList(es);
+      completed = true;
+    } finally {
+      if (completed == false) {
+        ArchiveZipBackendZipFile.closeQuietly(z);
+      }
+    }
+
+    this.expected_size = -1;
+    this.expected_time = -1;
+    this.zip = z;
+    this.closed = false;
+  }
+
+  /**
+   * Construct a backend for the zip file at <code>in_path</code> that uses
+   * the previously read entries <code>in_entries</code>. The entries were
+   * read when the zip file had size <code>in_size</code> and modification
+   * time <code>in_time</code>.
+   */
+
+  ArchiveZipBackendZipFile(
+    final PathReal in_path,
+    final List<ZipEntry> in_entries,
+    final long in_size,
+    final long in_time)
+  {
+    this.path = NullCheck.notNull(in_path, "Path");
+    this.entries = NullCheck.notNull(in_entries, "Entries");
+    this.expected_size = in_size;
+    this.expected_time = in_time;
+    this.zip = null;
+    this.closed = false;
+  }
+
+  private static void closeQuietly(
+    final ZipFile z)
+  {
+    try {
+      z.close();
+    } catch (final IOException e) {
+      // Ignored: the original error is more useful.
+    }
+  }
+
+  @Override public void close()
+    throws IOException
+  {
+    synchronized (this) {
+      this.closed = true;
+      final ZipFile z = this.zip;
+      if (z != null) {
+        z.close();
+      }
+    }
+  }
+
+  @Override public List<ZipEntry> getEntries()
+  {
+    return this.entries;
+  }
+
+  /**
+   * @return The zip file, opening it if necessary.
+   */
+
+  private ZipFile getZipFile()
+    throws IOException
+  {
+    final ZipFile z = this.zip;
+    if (z != null) {
+      return z;
+    }
+
+    synchronized (this) {
+      if (this.closed) {
+        throw new IOException("Zip file closed");
+      }
+
+      ZipFile zs = this.zip;
+      if (zs == null) {
+        zs = new ZipFile(this.path.toString());
+
+        /**
+         * The file is examined after it has been opened, so that a file
+         * replaced before it was opened is always detected.
+         */
+
+        final File file = this.path.toFile();
+        if ((file.length() != this.expected_size)
+          || (file.lastModified() != this.expected_time)) {
+          ArchiveZipBackendZipFile.closeQuietly(zs);
+          throw new ZipException("Zip file modified since it was mounted: "
+            + this.path);
+        }
+        this.zip = zs;
+      }
+      return zs;
+    }
+  }
+
+  /**
+   * {@link ZipFile} locates entries by name, so entries that were not
+   * obtained from the zip file itself can be read, provided that the zip
+   * file has not been modified since they were recorded.
+   */
+
+  @Override public InputStream openEntry(
+    final ZipEntry e)
+    throws IOException
+  {
+    final InputStream s = this.getZipFile().getInputStream(e);
+    if (s == null) {
+      throw new ZipException("Entry not found: " + e.getName());
+    }
+    return s;
+  }
+
+  @Override public ByteBuffer readEntry(
+    final ZipEntry e)
+    throws IOException
+  {
+    return ArchiveZip.readFully(this.openEntry(e), e.getSize());
+  }
+}
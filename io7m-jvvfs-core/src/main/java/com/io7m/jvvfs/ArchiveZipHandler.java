@@ -18,8 +18,11 @@ package com.io7m.jvvfs;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.Executor;
 
 import com.io7m.jlog.LogUsableType;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
 
 /**
  * The handler responsible for loading zip/jar archives.
@@ -27,9 +30,18 @@ import com.io7m.jlog.LogUsableType;
 
 final class ArchiveZipHandler extends ArchiveHandler<ArchiveZipKind>
 {
+  private final ArchiveZip.Backend backend;
+
   ArchiveZipHandler()
+  {
+    this(ArchiveZip.Backend.BACKEND_ZIP_FILE);
+  }
+
+  ArchiveZipHandler(
+    final ArchiveZip.Backend in_backend)
   {
     super();
+    this.backend = NullCheck.notNull(in_backend, "Backend");
   }
 
   @Override boolean canHandle(
@@ -50,11 +62,13 @@ final class ArchiveZipHandler extends ArchiveHandler<ArchiveZipKind>
   @Override Archive<ArchiveZipKind> load(
     final LogUsableType log,
     final PathReal name,
-    final PathVirtual mount)
+    final PathVirtual mount,
+    final @Nullable ArchiveZipIndexCache cache,
+    final Executor executor)
     throws FilesystemError
   {
     try {
-      return new ArchiveZip(log, name, mount);
+      return new ArchiveZip(log, name, mount, this.backend, cache);
     } catch (final IOException e) {
       throw FilesystemError.ioError(e);
     }
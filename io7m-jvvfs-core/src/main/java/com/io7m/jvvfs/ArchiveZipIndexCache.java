@@ -0,0 +1,668 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jvvfs;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TimeZone;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.ZipEntry;
+
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
+import com.io7m.jlog.LogType;
+import com.io7m.jlog.LogUsableType;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.junreachable.UnreachableCodeException;
+import com.io7m.jvvfs.FileReference.Type;
+
+/**
+ * <p>
+ * A persistent cache of the indexes of zip archives, held in a directory on
+ * disk.
+ * </p>
+ * <p>
+ * The cache file for an archive is named after a digest of the real path of
+ * the archive, and records the path, size, and modification time of the
+ * archive at the time the archive was indexed, followed by the entries of
+ * the archive, the path, type, and entry of every object in the index of the
+ * archive, and the names of the objects in each directory. The index is
+ * rebuilt directly from these records, without examining the names of the
+ * entries again. The file ends with a checksum of its contents. A cache file
+ * is only used if its checksum is correct, if the recorded path, size and
+ * modification time still match the archive, and if it was written in the
+ * same time zone (as the modification times of entries without extended
+ * timestamps are decoded in the local time zone). Cache files are read from
+ * a read-only mapping, and are replaced as described by
+ * {@link FileReplacement} when rewritten, so any number of filesystems may
+ * share a cache directory.
+ * </p>
+ * <p>
+ * The cache is purely an optimization: any failure to read or write a cache
+ * file is logged, and the archive is read directly instead.
+ * </p>
+ */
+
+final class ArchiveZipIndexCache
+{
+  /**
+   * The index of a zip archive, as recorded in a cache file.
+   */
+
+  static final class Index
+  {
+    private final Map<PathVirtual, SortedSet<String>> children;
+    private final List<ZipEntry>                      entries;
+    private final int[]                               object_entries;
+    private final PathVirtual[]                       object_paths;
+    private final Type[]                              object_types;
+
+    Index(
+      final List<ZipEntry> in_entries,
+      final PathVirtual[] in_object_paths,
+      final Type[] in_object_types,
+      final int[] in_object_entries,
+      final Map<PathVirtual, SortedSet<String>> in_children)
+    {
+      this.entries = in_entries;
+      this.object_paths = in_object_paths;
+      this.object_types = in_object_types;
+      this.object_entries = in_object_entries;
+      this.children = in_children;
+    }
+
+    /**
+     * @return The names of the objects in each directory, keyed by the
+     *         archive-relative path of the directory
+     */
+
+    Map<PathVirtual, SortedSet<String>> getChildren()
+    {
+      return this.children;
+    }
+
+    /**
+     * @return The entries of the archive, in the order that they appear in
+     *         the central directory
+     */
+
+    List<ZipEntry> getEntries()
+    {
+      return this.entries;
+    }
+
+    /**
+     * @return The number of objects in the index
+     */
+
+    int getObjectCount()
+    {
+      return this.object_paths.length;
+    }
+
+    /**
+     * @return The entry to which object <code>index</code> refers
+     */
+
+    ZipEntry getObjectEntry(
+      final int index)
+    {
+      final ZipEntry e = this.entries.get(this.object_entries[index]);
+      assert e != null;
+      return e;
+    }
+
+    /**
+     * @return The (interned) archive-relative path of object
+     *         <code>index</code>
+     */
+
+    PathVirtual getObjectPath(
+      final int index)
+    {
+      final PathVirtual p = this.object_paths[index];
+      assert p != null;
+      return p;
+    }
+
+    /**
+     * @return The type of object <code>index</code>
+     */
+
+    Type getObjectType(
+      final int index)
+    {
+      final Type t = this.object_types[index];
+      assert t != null;
+      return t;
+    }
+  }
+
+  private static final int     DIRECTORY_SIZE_MINIMUM = 4 + 4;
+  private static final int     ENTRY_SIZE_MINIMUM     = 4 + 4 + (8 * 5);
+  private static final int     MAGIC                  = 0x4a565649;
+  private static final int     OBJECT_DIRECTORY       = 0;
+  private static final int     OBJECT_FILE            = 1;
+  private static final int     OBJECT_ROOT            = -1;
+  private static final int     OBJECT_SIZE_MINIMUM    = 4 + 1 + 4;
+  private static final Charset UTF8;
+  private static final int     VERSION                = 2;
+
+  static {
+    UTF8 = NullCheck.notNull(Charset.forName("UTF-8"));
+  }
+
+  /**
+   * @return <code>true</code> iff the checksum at the end of
+   *         <code>map</code> matches the rest of its contents.
+   */
+
+  private static boolean checksumMatches(
+    final ByteBuffer map)
+  {
+    final int end = map.capacity() - 8;
+    if (end < 0) {
+      return false;
+    }
+
+    final ByteBuffer view = map.duplicate();
+    view.limit(end);
+    final CRC32 crc = new CRC32();
+    final byte[] chunk = new byte[8192];
+    while (view.hasRemaining()) {
+      final int count = Math.min(chunk.length, view.remaining());
+      view.get(chunk, 0, count);
+      crc.update(chunk, 0, count);
+    }
+    return crc.getValue() == map.getLong(end);
+  }
+
+  private static MappedByteBuffer map(
+    final File file)
+    throws IOException
+  {
+    final RandomAccessFile f = new RandomAccessFile(file, "r");
+    try {
+      final FileChannel channel = f.getChannel();
+      final MappedByteBuffer map =
+        channel.map(MapMode.READ_ONLY, 0, channel.size());
+      assert map != null;
+      return map;
+    } finally {
+      f.close();
+    }
+  }
+
+  /**
+   * @return The index recorded in <code>map</code>, or <code>null</code> if
+   *         <code>map</code> does not describe the given archive.
+   */
+
+  private static @Nullable Index parse(
+    final ByteBuffer map,
+    final String path,
+    final long size,
+    final long time,
+    final boolean offsets)
+  {
+    if (map.getInt() != ArchiveZipIndexCache.MAGIC) {
+      return null;
+    }
+    if (map.getInt() != ArchiveZipIndexCache.VERSION) {
+      return null;
+    }
+    if ((map.getLong() != size) || (map.getLong() != time)) {
+      return null;
+    }
+    if (path.equals(ArchiveZipIndexCache.parseString(map)) == false) {
+      return null;
+    }
+    final String zone = TimeZone.getDefault().getID();
+    if (zone.equals(ArchiveZipIndexCache.parseString(map)) == false) {
+      return null;
+    }
+
+    final List<ZipEntry> entries =
+      ArchiveZipIndexCache.parseEntries(map, offsets);
+    if (entries == null) {
+      return null;
+    }
+
+    /**
+     * The paths of objects were recorded from valid, interned paths, and so
+     * are not validated again.
+     */
+
+    final int count = map.getInt();
+    final int limit =
+      map.remaining() / ArchiveZipIndexCache.OBJECT_SIZE_MINIMUM;
+    if ((count < 0) || (count > limit)) {
+      return null;
+    }
+
+    final PathVirtual[] paths = new PathVirtual[count];
+    final Type[] types = new Type[count];
+    final int[] object_entries = new int[count];
+    for (int index = 0; index < count; ++index) {
+      paths[index] =
+        PathVirtual.ofStringTrusted(ArchiveZipIndexCache.parseString(map))
+          .intern();
+      switch (map.get()) {
+        case OBJECT_DIRECTORY:
+        {
+          types[index] = Type.TYPE_DIRECTORY;
+          break;
+        }
+        case OBJECT_FILE:
+        {
+          types[index] = Type.TYPE_FILE;
+          break;
+        }
+        default:
+        {
+          return null;
+        }
+      }
+
+      final int entry = map.getInt();
+      if ((entry < 0) || (entry >= entries.size())) {
+        return null;
+      }
+      object_entries[index] = entry;
+    }
+
+    final Map<PathVirtual, SortedSet<String>> children =
+      ArchiveZipIndexCache.parseChildren(map, paths);
+    if ((children == null) || map.hasRemaining()) {
+      return null;
+    }
+    return new Index(entries, paths, types, object_entries, children);
+  }
+
+  private static @Nullable Map<PathVirtual, SortedSet<String>> parseChildren(
+    final ByteBuffer map,
+    final PathVirtual[] paths)
+  {
+    final int count = map.getInt();
+    final int limit =
+      map.remaining() / ArchiveZipIndexCache.DIRECTORY_SIZE_MINIMUM;
+    if ((count < 0) || (count > limit)) {
+      return null;
+    }
+
+    final Map<PathVirtual, SortedSet<String>> children =
+      new HashMap<PathVirtual, SortedSet<String>>(count);
+    for (int index = 0; index < count; ++index) {
+      final int object = map.getInt();
+      final PathVirtual parent;
+      if (object == ArchiveZipIndexCache.OBJECT_ROOT) {
+        parent = PathVirtual.ROOT;
+      } else if ((object >= 0) && (object < paths.length)) {
+        parent = paths[object];
+      } else {
+        return null;
+      }
+
+      final int names = map.getInt();
+      if ((names < 0) || (names > (map.remaining() / 4))) {
+        return null;
+      }
+      final SortedSet<String> items = new TreeSet<String>();
+      for (int name = 0; name < names; ++name) {
+        items.add(ArchiveZipIndexCache.parseString(map));
+      }
+      children.put(parent, items);
+    }
+    return children;
+  }
+
+  private static @Nullable List<ZipEntry> parseEntries(
+    final ByteBuffer map,
+    final boolean offsets)
+  {
+    final int count = map.getInt();
+    final int limit =
+      map.remaining() / ArchiveZipIndexCache.ENTRY_SIZE_MINIMUM;
+    if ((count < 0) || (count > limit)) {
+      return null;
+    }
+
+    final List<ZipEntry> entries = new ArrayList<ZipEntry>(count);
+    for (int index = 0; index < count; ++index) {
+      final String name = ArchiveZipIndexCache.parseString(map);
+      final int method = map.getInt();
+      final long size_u = map.getLong();
+      final long size_c = map.getLong();
+      final long crc = map.getLong();
+      final long entry_time = map.getLong();
+      final long offset = map.getLong();
+
+      /**
+       * Entries read by {@link ArchiveZipBackendZipFile} do not record the
+       * offsets of their local headers.
+       */
+
+      if (offsets && (offset < 0)) {
+        return null;
+      }
+
+      entries.add(new ArchiveZipBackendMapped.Entry(
+        name,
+        method,
+        size_u,
+        size_c,
+        crc,
+        entry_time,
+        offset));
+    }
+    return Collections.unmodifiableList(entries);
+  }
+
+  private static String parseString(
+    final ByteBuffer map)
+  {
+    final int length = map.getInt();
+    if ((length < 0) || (length > map.remaining())) {
+      throw new BufferUnderflowException();
+    }
+    final byte[] data = new byte[length];
+    map.get(data);
+    return new String(data, ArchiveZipIndexCache.UTF8);
+  }
+
+  private static void writeEntries(
+    final DataOutputStream out,
+    final List<ZipEntry> entries)
+    throws IOException
+  {
+    out.writeInt(entries.size());
+    for (final ZipEntry e : entries) {
+      ArchiveZipIndexCache.writeString(out, e.getName());
+      out.writeInt(e.getMethod());
+      out.writeLong(e.getSize());
+      out.writeLong(e.getCompressedSize());
+      out.writeLong(e.getCrc());
+      out.writeLong(e.getTime());
+      if (e instanceof ArchiveZipBackendMapped.Entry) {
+        out.writeLong(((ArchiveZipBackendMapped.Entry) e).getOffset());
+      } else {
+        out.writeLong(-1);
+      }
+    }
+  }
+
+  /**
+   * Write the path, type and entry of each object in <code>index</code>,
+   * followed by the names of the objects in each directory. Objects refer to
+   * entries, and directories refer to objects, by position.
+   */
+
+  private static void writeIndex(
+    final DataOutputStream out,
+    final List<ZipEntry> entries,
+    final Map<PathVirtual, ArchiveZip.ArchiveZipReference> index,
+    final Map<PathVirtual, SortedSet<String>> children)
+    throws IOException
+  {
+    final Map<ZipEntry, Integer> entry_positions =
+      new IdentityHashMap<ZipEntry, Integer>(entries.size());
+    for (int position = 0; position < entries.size(); ++position) {
+      entry_positions.put(entries.get(position), Integer.valueOf(position));
+    }
+
+    final Map<PathVirtual, Integer> object_positions =
+      new HashMap<PathVirtual, Integer>(index.size());
+    out.writeInt(index.size());
+    for (final ArchiveZip.ArchiveZipReference r : index.values()) {
+      final OptionType<ZipEntry> eo = r.getZipEntryOption();
+      if (eo.isNone()) {
+        throw new UnreachableCodeException();
+      }
+      final Integer entry = entry_positions.get(((Some<ZipEntry>) eo).get());
+      assert entry != null;
+
+      object_positions.put(
+        r.getPath(),
+        Integer.valueOf(object_positions.size()));
+      ArchiveZipIndexCache.writeString(out, r.getPath().toString());
+      switch (r.getType()) {
+        case TYPE_DIRECTORY:
+        {
+          out.writeByte(ArchiveZipIndexCache.OBJECT_DIRECTORY);
+          break;
+        }
+        case TYPE_FILE:
+        {
+          out.writeByte(ArchiveZipIndexCache.OBJECT_FILE);
+          break;
+        }
+      }
+      out.writeInt(entry.intValue());
+    }
+
+    out.writeInt(children.size());
+    for (final PathVirtual p : children.keySet()) {
+      if (p.isRoot()) {
+        out.writeInt(ArchiveZipIndexCache.OBJECT_ROOT);
+      } else {
+        final Integer object = object_positions.get(p);
+        assert object != null;
+        out.writeInt(object.intValue());
+      }
+
+      final SortedSet<String> names = children.get(p);
+      out.writeInt(names.size());
+      for (final String name : names) {
+        assert name != null;
+        ArchiveZipIndexCache.writeString(out, name);
+      }
+    }
+  }
+
+  private static void writeString(
+    final DataOutputStream out,
+    final String s)
+    throws IOException
+  {
+    final byte[] data = s.getBytes(ArchiveZipIndexCache.UTF8);
+    out.writeInt(data.length);
+    out.write(data);
+  }
+
+  private final File    directory;
+  private final LogType log;
+
+  ArchiveZipIndexCache(
+    final LogUsableType in_log,
+    final PathReal in_directory)
+  {
+    this.log = NullCheck.notNull(in_log, "Log").with("index-cache");
+    this.directory = NullCheck.notNull(in_directory, "Directory").toFile();
+  }
+
+  /**
+   * @return The cache file for the archive at <code>path</code>.
+   */
+
+  File getFile(
+    final PathReal path)
+  {
+    try {
+      final MessageDigest d = MessageDigest.getInstance("SHA-1");
+      final byte[] hash =
+        d.digest(path.toString().getBytes(ArchiveZipIndexCache.UTF8));
+
+      final StringBuilder name = new StringBuilder(hash.length * 2);
+      for (final byte b : hash) {
+        name.append(String.format("%02x", Integer.valueOf(b & 0xff)));
+      }
+      name.append(".idx");
+      return new File(this.directory, name.toString());
+    } catch (final NoSuchAlgorithmException e) {
+      throw new UnreachableCodeException(e);
+    }
+  }
+
+  /**
+   * Load the cached index of the archive at <code>path</code>. If
+   * <code>offsets</code> is <code>true</code>, the entries of the archive
+   * must record the offsets of their local headers.
+   * 
+   * @return The cached index, or <code>null</code> if there is no valid
+   *         cache file for the archive in its current state.
+   */
+
+  @Nullable Index load(
+    final PathReal path,
+    final boolean offsets)
+  {
+    final File archive = path.toFile();
+    return this.load(
+      path,
+      archive.length(),
+      archive.lastModified(),
+      offsets);
+  }
+
+  /**
+   * Load the cached index of the archive at <code>path</code>, which has
+   * size <code>size</code> and modification time <code>time</code>. If
+   * <code>offsets</code> is <code>true</code>, the entries of the archive
+   * must record the offsets of their local headers.
+   * 
+   * @return The cached index, or <code>null</code> if there is no valid
+   *         cache file for the archive in the given state.
+   */
+
+  @Nullable Index load(
+    final PathReal path,
+    final long size,
+    final long time,
+    final boolean offsets)
+  {
+    final File file = this.getFile(path);
+    if (file.isFile() == false) {
+      this.log.debug("miss: " + path);
+      return null;
+    }
+
+    try {
+      final ByteBuffer map = ArchiveZipIndexCache.map(file);
+      if (ArchiveZipIndexCache.checksumMatches(map) == false) {
+        this.log.error("damaged: " + file);
+        return null;
+      }
+      map.limit(map.capacity() - 8);
+
+      final Index index =
+        ArchiveZipIndexCache.parse(
+          map,
+          path.toString(),
+          size,
+          time,
+          offsets);
+
+      if (index == null) {
+        this.log.debug("stale: " + path);
+      } else {
+        this.log.debug("hit: " + path);
+      }
+      return index;
+    } catch (final BufferUnderflowException e) {
+      this.log.error("damaged: " + file);
+      return null;
+    } catch (final IOException e) {
+      this.log.error("could not read " + file + ": " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Record <code>entries</code> as the entries of the archive at
+   * <code>path</code>, and <code>index</code> and <code>children</code> as
+   * the index built from them, replacing any existing cache file for the
+   * archive. The size <code>size</code> and modification time
+   * <code>time</code> of the archive must have been obtained before the
+   * archive was opened to read <code>entries</code>.
+   */
+
+  void save(
+    final PathReal path,
+    final long size,
+    final long time,
+    final List<ZipEntry> entries,
+    final Map<PathVirtual, ArchiveZip.ArchiveZipReference> index,
+    final Map<PathVirtual, SortedSet<String>> children)
+  {
+    final File file = this.getFile(path);
+    final String zone = TimeZone.getDefault().getID();
+
+    try {
+      this.directory.mkdirs();
+      FileReplacement.replace(
+        file,
+        "index",
+        new FileReplacement.WriterType() {
+          @Override public void write(
+            final OutputStream stream)
+            throws IOException
+          {
+            final CRC32 crc = new CRC32();
+            final DataOutputStream out =
+              new DataOutputStream(new CheckedOutputStream(stream, crc));
+            out.writeInt(ArchiveZipIndexCache.MAGIC);
+            out.writeInt(ArchiveZipIndexCache.VERSION);
+            out.writeLong(size);
+            out.writeLong(time);
+            ArchiveZipIndexCache.writeString(out, path.toString());
+            ArchiveZipIndexCache.writeString(out, zone);
+            ArchiveZipIndexCache.writeEntries(out, entries);
+            ArchiveZipIndexCache.writeIndex(out, entries, index, children);
+
+            final long checksum = crc.getValue();
+            out.writeLong(checksum);
+            out.flush();
+          }
+        });
+      this.log.debug("saved: " + path);
+    } catch (final IOException e) {
+      this.log.error("could not write " + file + ": " + e.getMessage());
+    }
+  }
+
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jvvfs;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.io7m.jlog.LogType;
+import com.io7m.jlog.LogUsableType;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.junreachable.UnreachableCodeException;
+
+/**
+ * <p>
+ * Runs asynchronous operations on an executor, allowing no more than a fixed
+ * number of operations on any one archive to run at once.
+ * </p>
+ * <p>
+ * Each archive with operations in progress has a lane, holding the number of
+ * operations running and a queue of those waiting. An operation that
+ * completes runs the next waiting operation in its lane on the same thread,
+ * so no thread ever blocks waiting for another operation to complete.
+ * </p>
+ */
+
+final class AsyncExecutor implements Executor
+{
+  private static final class Lane
+  {
+    private final Deque<Runnable> queue;
+    private int                   running;
+
+    Lane()
+    {
+      this.queue = new ArrayDeque<Runnable>();
+      this.running = 0;
+    }
+  }
+
+  /**
+   * A task that passes its result to a callback when it completes. Failures
+   * other than {@link FilesystemError} are passed to the callback as errors
+   * with code {@link FilesystemError.Code#FS_ERROR_CONSTRAINT_ERROR}, and
+   * are then raised again so that they are logged or, in the case of an
+   * {@link Error}, propagate.
+   * 
+   * @param <T>
+   *          The type of results
+   */
+
+  static final class Task<T> extends FutureTask<T>
+  {
+    private final FilesystemCallbackType<T> callback;
+
+    Task(
+      final Callable<T> in_callable,
+      final FilesystemCallbackType<T> in_callback)
+    {
+      super(in_callable);
+      this.callback = NullCheck.notNull(in_callback, "Callback");
+    }
+
+    @Override protected void done()
+    {
+      if (this.isCancelled()) {
+        return;
+      }
+
+      final T value;
+      try {
+        value = this.get();
+      } catch (final InterruptedException e) {
+        throw new UnreachableCodeException(e);
+      } catch (final ExecutionException e) {
+        final Throwable x = e.getCause();
+        if (x instanceof FilesystemError) {
+          this.callback.onFailure((FilesystemError) x);
+          return;
+        }
+
+        assert x != null;
+        this.callback.onFailure(FilesystemError.unexpected(x));
+        if (x instanceof RuntimeException) {
+          throw (RuntimeException) x;
+        }
+        if (x instanceof Error) {
+          throw (Error) x;
+        }
+        throw new UnreachableCodeException(x);
+      }
+      this.callback.onSuccess(value);
+    }
+  }
+
+  private final Executor              executor;
+  private final Map<Archive<?>, Lane> lanes;
+  private final int                   limit;
+  private final LogType               log;
+
+  AsyncExecutor(
+    final LogUsableType in_log,
+    final Executor in_executor,
+    final int in_limit)
+  {
+    assert in_limit > 0;
+    this.log = NullCheck.notNull(in_log, "Log").with("async");
+    this.executor = NullCheck.notNull(in_executor, "Executor");
+    this.limit = in_limit;
+    this.lanes = new IdentityHashMap<Archive<?>, Lane>();
+  }
+
+  /**
+   * Run <code>r</code> on the executor, or on the calling thread if the
+   * executor rejects it.
+   */
+
+  @Override public void execute(
+    final Runnable r)
+  {
+    try {
+      this.executor.execute(r);
+    } catch (final RejectedExecutionException e) {
+      r.run();
+    }
+  }
+
+  /**
+   * Run <code>r</code> on the executor, in the lane of <code>archive</code>.
+   */
+
+  void executeLimited(
+    final @Nullable Archive<?> archive,
+    final Runnable r)
+  {
+    this.execute(new Runnable() {
+      @Override public void run()
+      {
+        AsyncExecutor.this.runLimited(archive, r);
+      }
+    });
+  }
+
+  /**
+   * Run <code>r</code> on the calling thread if fewer than the maximum
+   * number of operations are running in the lane of <code>archive</code>,
+   * or queue it otherwise. If <code>archive</code> is <code>null</code>,
+   * <code>r</code> is run immediately.
+   */
+
+  void runLimited(
+    final @Nullable Archive<?> archive,
+    final Runnable r)
+  {
+    if (archive == null) {
+      this.runSafely(r);
+      return;
+    }
+
+    final Lane lane;
+    synchronized (this.lanes) {
+      Lane l = this.lanes.get(archive);
+      if (l == null) {
+        l = new Lane();
+        this.lanes.put(archive, l);
+      }
+      if (l.running >= this.limit) {
+        l.queue.add(r);
+        return;
+      }
+      ++l.running;
+      lane = l;
+    }
+
+    this.drain(archive, lane, r);
+  }
+
+  /**
+   * Run <code>first</code> and then the operations queued in
+   * <code>lane</code>, until the lane is empty. If an operation raises an
+   * {@link Error}, the rest of the lane is passed to the executor before the
+   * error propagates, so that the lane never remains full with nothing
+   * running it.
+   */
+
+  private void drain(
+    final Archive<?> archive,
+    final Lane lane,
+    final Runnable first)
+  {
+    Runnable task = first;
+    while (task != null) {
+      boolean completed = false;
+      try {
+        this.runSafely(task);
+        completed = true;
+      } finally {
+        task = this.next(archive, lane);
+        if ((completed == false) && (task != null)) {
+          final Runnable rest = task;
+          this.execute(new Runnable() {
+            @Override public void run()
+            {
+              AsyncExecutor.this.drain(archive, lane, rest);
+            }
+          });
+        }
+      }
+    }
+  }
+
+  /**
+   * Take the next operation queued in <code>lane</code>, or release the
+   * running operation's place in the lane if nothing is queued.
+   */
+
+  private @Nullable Runnable next(
+    final Archive<?> archive,
+    final Lane lane)
+  {
+    synchronized (this.lanes) {
+      final Runnable next = lane.queue.poll();
+      if (next == null) {
+        --lane.running;
+        if (lane.running == 0) {
+          this.lanes.remove(archive);
+        }
+      }
+      return next;
+    }
+  }
+
+  /**
+   * Run <code>r</code>, logging rather than propagating any exception that
+   * it raises, so that the operations queued behind it still run.
+   */
+
+  private void runSafely(
+    final Runnable r)
+  {
+    try {
+      r.run();
+    } catch (final RuntimeException e) {
+      this.log.error("operation raised " + e);
+    }
+  }
+}
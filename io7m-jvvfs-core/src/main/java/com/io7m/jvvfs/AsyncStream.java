@@ -0,0 +1,282 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jvvfs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.io7m.jlog.LogType;
+import com.io7m.jlog.LogUsableType;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jvvfs.FilesystemError.Code;
+
+/**
+ * <p>
+ * A subscription that delivers the contents of a file in chunks.
+ * </p>
+ * <p>
+ * All signals to the subscriber are delivered by {@link #run()}, which is
+ * scheduled on the executor whenever the subscription is requested or
+ * cancelled. The <code>pending</code> counter records the number of times
+ * that the subscription has been scheduled: only the call that raises it
+ * from zero actually schedules {@link #run()}, which then runs until it has
+ * accounted for every request made in the meantime. Consequently, at most
+ * one thread signals the subscriber at any given time, and the fields that
+ * are not atomic are only accessed by that thread.
+ * </p>
+ * <p>
+ * One chunk is read ahead of those delivered, so that the end of the file is
+ * signalled as soon as the last chunk is delivered, rather than when the
+ * next chunk is requested.
+ * </p>
+ */
+
+final class AsyncStream implements FilesystemSubscriptionType, Runnable
+{
+  private final @Nullable Archive<?>             archive;
+  private final AsyncExecutor                    async;
+  private volatile boolean                       cancelled;
+  private final int                              chunk_size;
+  private final AtomicLong                       demand;
+  private boolean                                done;
+  private volatile @Nullable FilesystemError     error;
+  private final Filesystem                       filesystem;
+  private final LogType                          log;
+  private @Nullable ByteBuffer                   next;
+  private final PathVirtual                      path;
+  private final AtomicInteger                    pending;
+  private final @Nullable FilesystemIndex.Result resolved;
+  private @Nullable InputStream                  stream;
+  private boolean                                subscribed;
+  private final FilesystemSubscriberType         subscriber;
+
+  AsyncStream(
+    final LogUsableType in_log,
+    final Filesystem in_filesystem,
+    final AsyncExecutor in_async,
+    final @Nullable FilesystemIndex.Result in_resolved,
+    final PathVirtual in_path,
+    final int in_chunk_size,
+    final FilesystemSubscriberType in_subscriber)
+  {
+    assert in_chunk_size > 0;
+    this.log = NullCheck.notNull(in_log, "Log").with("stream");
+    this.filesystem = NullCheck.notNull(in_filesystem, "Filesystem");
+    this.async = NullCheck.notNull(in_async, "Executor");
+    this.resolved = in_resolved;
+    if (in_resolved != null) {
+      this.archive = in_resolved.getArchive();
+    } else {
+      this.archive = null;
+    }
+    this.path = NullCheck.notNull(in_path, "Path");
+    this.chunk_size = in_chunk_size;
+    this.subscriber = NullCheck.notNull(in_subscriber, "Subscriber");
+
+    this.demand = new AtomicLong(0);
+    this.pending = new AtomicInteger(0);
+    this.cancelled = false;
+    this.done = false;
+    this.error = null;
+    this.next = null;
+    this.stream = null;
+    this.subscribed = false;
+  }
+
+  @Override public void cancel()
+  {
+    this.cancelled = true;
+    this.schedule();
+  }
+
+  /**
+   * Deliver as many signals as the current demand allows.
+   */
+
+  private void drain()
+  {
+    if (this.done) {
+      return;
+    }
+
+    if (this.subscribed == false) {
+      this.subscribed = true;
+      this.subscriber.onSubscribe(this);
+    }
+
+    for (;;) {
+      if (this.cancelled) {
+        this.terminate();
+        return;
+      }
+
+      final FilesystemError e = this.error;
+      if (e != null) {
+        this.terminate();
+        this.subscriber.onError(e);
+        return;
+      }
+
+      if (this.demand.get() == 0) {
+        return;
+      }
+
+      final ByteBuffer b;
+      try {
+        if (this.stream == null) {
+          this.stream =
+            this.filesystem.openFileResolved(this.path, this.resolved);
+          this.next = this.readChunk();
+        }
+        b = this.next;
+        if (b != null) {
+          this.next = this.readChunk();
+        }
+      } catch (final FilesystemError x) {
+        this.terminate();
+        this.subscriber.onError(x);
+        return;
+      }
+
+      if (b == null) {
+        this.terminate();
+        this.subscriber.onComplete();
+        return;
+      }
+
+      this.demand.decrementAndGet();
+      this.subscriber.onNext(b);
+
+      if (this.next == null) {
+        this.terminate();
+        this.subscriber.onComplete();
+        return;
+      }
+    }
+  }
+
+  /**
+   * @return The next chunk of the file, or <code>null</code> at the end of
+   *         the file.
+   */
+
+  private @Nullable ByteBuffer readChunk()
+    throws FilesystemError
+  {
+    final InputStream s = this.stream;
+    assert s != null;
+
+    try {
+      final byte[] data = new byte[this.chunk_size];
+      int count = 0;
+      while (count < data.length) {
+        final int r = s.read(data, count, data.length - count);
+        if (r == -1) {
+          break;
+        }
+        count += r;
+      }
+
+      if (count == 0) {
+        return null;
+      }
+      return ByteBuffer.wrap(data, 0, count);
+    } catch (final IOException e) {
+      throw FilesystemError.ioError(e);
+    }
+  }
+
+  @Override public void request(
+    final long n)
+  {
+    if (n <= 0) {
+      this.error =
+        new FilesystemError(
+          Code.FS_ERROR_CONSTRAINT_ERROR,
+          "Requested a non-positive number of chunks: " + n);
+    } else {
+      for (;;) {
+        final long current = this.demand.get();
+        long updated = current + n;
+        if (updated < 0) {
+          updated = Long.MAX_VALUE;
+        }
+        if (this.demand.compareAndSet(current, updated)) {
+          break;
+        }
+      }
+    }
+    this.schedule();
+  }
+
+  @Override public void run()
+  {
+    int missed = 1;
+    for (;;) {
+      try {
+        this.drain();
+      } catch (final RuntimeException e) {
+        this.log.error(this.path + ": subscriber raised " + e);
+        this.terminate();
+      }
+
+      missed = this.pending.addAndGet(-missed);
+      if (missed == 0) {
+        return;
+      }
+    }
+  }
+
+  private void schedule()
+  {
+    if (this.pending.getAndIncrement() == 0) {
+      this.async.executeLimited(this.archive, this);
+    }
+  }
+
+  /**
+   * Subscribe the subscriber. This must be called on a thread of the
+   * executor, as the subscriber is signalled on the calling thread.
+   */
+
+  void start()
+  {
+    if (this.pending.getAndIncrement() == 0) {
+      this.async.runLimited(this.archive, this);
+    }
+  }
+
+  private void terminate()
+  {
+    this.done = true;
+    this.next = null;
+
+    final InputStream s = this.stream;
+    this.stream = null;
+    if (s != null) {
+      try {
+        s.close();
+      } catch (final IOException e) {
+        this.log.error(this.path + ": could not close: " + e.getMessage());
+      }
+    }
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jvvfs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import com.io7m.jnull.NullCheck;
+
+/**
+ * <p>
+ * A stream that reads the remaining bytes of a buffer, advancing the
+ * position of the buffer as it does so. Callers wishing to read a shared
+ * buffer should pass each stream a separate duplicate of it.
+ * </p>
+ */
+
+final class ByteBufferInputStream extends InputStream
+{
+  private boolean          closed;
+  private final ByteBuffer data;
+
+  ByteBufferInputStream(
+    final ByteBuffer in_data)
+  {
+    this.data = NullCheck.notNull(in_data, "Data");
+    this.closed = false;
+  }
+
+  @Override public int available()
+    throws IOException
+  {
+    this.checkOpen();
+    return this.data.remaining();
+  }
+
+  private void checkOpen()
+    throws IOException
+  {
+    if (this.closed) {
+      throw new IOException("Stream closed");
+    }
+  }
+
+  @Override public void close()
+  {
+    this.closed = true;
+  }
+
+  @Override public int read()
+    throws IOException
+  {
+    this.checkOpen();
+    if (this.data.hasRemaining()) {
+      return this.data.get() & 0xff;
+    }
+    return -1;
+  }
+
+  @Override public int read(
+    final byte[] b,
+    final int off,
+    final int len)
+    throws IOException
+  {
+    this.checkOpen();
+    if ((off < 0) || (len < 0) || (len > (b.length - off))) {
+      throw new IndexOutOfBoundsException();
+    }
+    if (len == 0) {
+      return 0;
+    }
+
+    final int remaining = this.data.remaining();
+    if (remaining == 0) {
+      return -1;
+    }
+
+    final int count = Math.min(remaining, len);
+    this.data.get(b, off, count);
+    return count;
+  }
+
+  @Override public long skip(
+    final long n)
+    throws IOException
+  {
+    this.checkOpen();
+    if (n <= 0) {
+      return 0;
+    }
+
+    final int count = (int) Math.min(this.data.remaining(), n);
+    this.data.position(this.data.position() + count);
+    return count;
+  }
+}
@@ -0,0 +1,731 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jvvfs;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.junreachable.UnreachableCodeException;
+
+/**
+ * <p>
+ * A bounded cache of the contents of files, keyed by archive and
+ * archive-relative path, and weighted by size in bytes.
+ * </p>
+ * <p>
+ * Eviction follows the W-TinyLFU policy: new files enter a small LRU
+ * <i>window</i>, and files leaving the window are only admitted to the
+ * <i>main</i> segmented LRU region if they have been requested more often
+ * than the file that would be evicted to make room for them. Request
+ * frequencies are estimated by a {@link FrequencySketch}, which also counts
+ * requests for files that are not resident, and which is periodically aged
+ * so that old popularity decays.
+ * </p>
+ * <p>
+ * Only the contents of registered archives are cached: registering an
+ * archive when it is mounted and invalidating it when it is unmounted
+ * ensures that no contents are cached for an archive that is no longer
+ * mounted, even by readers that were already reading from it.
+ * </p>
+ * <p>
+ * Values of this type are thread-safe. The cached contents are never
+ * modified, and callers receive read-only views of them, so only the
+ * bookkeeping of the cache is performed while holding its lock. The set of
+ * registered archives can be examined without the lock, so that reads from
+ * archives that are never cached do not contend for it.
+ * </p>
+ */
+
+final class ContentCache
+{
+  /**
+   * <p>
+   * A count-min sketch of 4-bit counters, estimating how often each key has
+   * been requested. When the number of recorded requests reaches ten times
+   * the capacity of the sketch, every counter is halved.
+   * </p>
+   */
+
+  static final class FrequencySketch
+  {
+    private static final long   ONE_MASK   = 0x1111111111111111L;
+    private static final long   RESET_MASK = 0x7777777777777777L;
+    private static final long[] SEEDS;
+
+    static {
+      SEEDS =
+        new long[] {
+          0xc3a5c85c97cb3127L,
+          0xb492b66fbe98f273L,
+          0x9ae16a3b2f90404fL,
+          0xcbf29ce484222325L, };
+    }
+
+    private static int spread(
+      final int x)
+    {
+      int y = ((x >>> 16) ^ x) * 0x45d9f3b;
+      y = ((y >>> 16) ^ y) * 0x45d9f3b;
+      return (y >>> 16) ^ y;
+    }
+
+    private int    additions;
+    private int    sample_size;
+    private long[] table;
+
+    FrequencySketch()
+    {
+      this.table = new long[0];
+      this.additions = 0;
+      this.sample_size = 0;
+      this.ensureCapacity(16);
+    }
+
+    /**
+     * Ensure that the sketch can distinguish roughly <code>maximum</code>
+     * keys. Growing the sketch discards all recorded frequencies.
+     */
+
+    void ensureCapacity(
+      final int maximum)
+    {
+      final int clamped = Math.max(16, Math.min(maximum, 1 << 24));
+      final int wanted = Integer.highestOneBit(clamped - 1) << 1;
+      if (this.table.length >= wanted) {
+        return;
+      }
+
+      this.table = new long[wanted];
+      this.sample_size = 10 * wanted;
+      this.additions = 0;
+    }
+
+    /**
+     * @return The estimated number of recent requests for the key with hash
+     *         code <code>hash</code>, between <code>0</code> and
+     *         <code>15</code>.
+     */
+
+    int frequency(
+      final int hash)
+    {
+      final int h = FrequencySketch.spread(hash);
+      final int start = (h & 3) << 2;
+      int frequency = Integer.MAX_VALUE;
+      for (int index = 0; index < 4; ++index) {
+        final int slot = this.indexOf(h, index);
+        final long count =
+          (this.table[slot] >>> ((start + index) << 2)) & 0xfL;
+        frequency = Math.min(frequency, (int) count);
+      }
+      return frequency;
+    }
+
+    /**
+     * Record a request for the key with hash code <code>hash</code>.
+     */
+
+    void increment(
+      final int hash)
+    {
+      final int h = FrequencySketch.spread(hash);
+      final int start = (h & 3) << 2;
+
+      boolean added = false;
+      for (int index = 0; index < 4; ++index) {
+        final int slot = this.indexOf(h, index);
+        final int offset = (start + index) << 2;
+        final long mask = 0xfL << offset;
+        if ((this.table[slot] & mask) != mask) {
+          this.table[slot] += 1L << offset;
+          added = true;
+        }
+      }
+
+      if (added) {
+        ++this.additions;
+        if (this.additions >= this.sample_size) {
+          this.reset();
+        }
+      }
+    }
+
+    private int indexOf(
+      final int h,
+      final int index)
+    {
+      final long seed = FrequencySketch.SEEDS[index];
+      long hash = (h + seed) * seed;
+      hash += hash >>> 32;
+      return ((int) hash) & (this.table.length - 1);
+    }
+
+    private void reset()
+    {
+      int odd = 0;
+      for (int index = 0; index < this.table.length; ++index) {
+        odd += Long.bitCount(this.table[index] & FrequencySketch.ONE_MASK);
+        this.table[index] =
+          (this.table[index] >>> 1) & FrequencySketch.RESET_MASK;
+      }
+      this.additions = (this.additions - (odd >>> 2)) >>> 1;
+    }
+  }
+
+  private static final class Key
+  {
+    private final Archive<?>  archive;
+    private final PathVirtual path;
+
+    Key(
+      final Archive<?> in_archive,
+      final PathVirtual in_path)
+    {
+      this.archive = in_archive;
+      this.path = in_path;
+    }
+
+    @Override public boolean equals(
+      final @Nullable Object obj)
+    {
+      if (this == obj) {
+        return true;
+      }
+      if (obj == null) {
+        return false;
+      }
+      if (this.getClass() != obj.getClass()) {
+        return false;
+      }
+      final Key other = (Key) obj;
+      return (this.archive == other.archive) && this.path.equals(other.path);
+    }
+
+    @Override public int hashCode()
+    {
+      return (System.identityHashCode(this.archive) * 31)
+        + this.path.hashCode();
+    }
+  }
+
+  /**
+   * A cached file, linked into the list of the region that holds it.
+   */
+
+  private static final class Node
+  {
+    private final ByteBuffer data;
+    private final Key        key;
+    private @Nullable Node   next;
+    private @Nullable Node   prev;
+    private Region           region;
+    private final long       weight;
+
+    Node(
+      final Key in_key,
+      final ByteBuffer in_data)
+    {
+      this.key = in_key;
+      this.data = in_data;
+      this.weight = in_data.capacity();
+      this.region = Region.REGION_WINDOW;
+      this.next = null;
+      this.prev = null;
+    }
+  }
+
+  /**
+   * A list of nodes in access order, least recently used first.
+   */
+
+  private static final class NodeList
+  {
+    private @Nullable Node head;
+    private @Nullable Node tail;
+    private long           weight;
+
+    NodeList()
+    {
+      this.head = null;
+      this.tail = null;
+      this.weight = 0;
+    }
+
+    void add(
+      final Node n)
+    {
+      n.prev = this.tail;
+      n.next = null;
+      if (this.tail == null) {
+        this.head = n;
+      } else {
+        this.tail.next = n;
+      }
+      this.tail = n;
+      this.weight += n.weight;
+    }
+
+    void remove(
+      final Node n)
+    {
+      if (n.prev == null) {
+        this.head = n.next;
+      } else {
+        n.prev.next = n.next;
+      }
+      if (n.next == null) {
+        this.tail = n.prev;
+      } else {
+        n.next.prev = n.prev;
+      }
+      n.prev = null;
+      n.next = null;
+      this.weight -= n.weight;
+    }
+  }
+
+  private static enum Region
+  {
+    REGION_PROBATION,
+    REGION_PROTECTED,
+    REGION_WINDOW
+  }
+
+  /**
+   * The fraction of the budget given to the window.
+   */
+
+  private static final int   WINDOW_DIVISOR    = 100;
+
+  /**
+   * The fraction of the budget that a single file may occupy.
+   */
+
+  private static final int   ENTRY_DIVISOR     = 8;
+
+  /**
+   * The fraction of the main region given to the protected segment, in
+   * percent.
+   */
+
+  private static final int   PROTECTED_PERCENT = 80;
+
+  private final Map<Archive<?>, Boolean> archives;
+  private long                           evictions;
+  private long                           hits;
+  private final Map<Key, Node>           index;
+  private final long                     limit_entry;
+  private final long                     limit_protected;
+  private final long                     limit_total;
+  private final long                     limit_window;
+  private long                           misses;
+  private final NodeList                 probation;
+  private final NodeList                 protected_list;
+  private int                            random;
+  private final FrequencySketch          sketch;
+  private final ContentCacheStorage      storage;
+  private final NodeList                 window;
+
+  ContentCache(
+    final long in_size,
+    final ContentCacheStorage in_storage)
+  {
+    assert in_size > 0;
+
+    this.storage = NullCheck.notNull(in_storage, "Storage");
+    this.limit_total = in_size;
+    this.limit_entry = in_size / ContentCache.ENTRY_DIVISOR;
+    this.limit_window = Math.max(1, in_size / ContentCache.WINDOW_DIVISOR);
+    this.limit_protected =
+      ((in_size - this.limit_window) / 100) * ContentCache.PROTECTED_PERCENT;
+
+    this.archives = new ConcurrentHashMap<Archive<?>, Boolean>();
+    this.index = new HashMap<Key, Node>();
+    this.window = new NodeList();
+    this.probation = new NodeList();
+    this.protected_list = new NodeList();
+    this.sketch = new FrequencySketch();
+    this.random = 0x2545f491;
+    this.hits = 0;
+    this.misses = 0;
+    this.evictions = 0;
+  }
+
+  /**
+   * W-TinyLFU admission: the candidate is admitted iff it is more popular
+   * than the victim. A warm candidate that loses is still admitted, very
+   * occasionally, so that an attacker cannot keep a popular victim resident
+   * by colliding with it in the sketch.
+   */
+
+  private boolean admit(
+    final Node candidate,
+    final Node victim)
+  {
+    if (candidate.weight > this.limit_total) {
+      return false;
+    }
+
+    final int f_candidate = this.sketch.frequency(candidate.key.hashCode());
+    final int f_victim = this.sketch.frequency(victim.key.hashCode());
+    if (f_candidate > f_victim) {
+      return true;
+    }
+    if (f_candidate <= 5) {
+      return false;
+    }
+
+    this.random ^= this.random << 13;
+    this.random ^= this.random >>> 17;
+    this.random ^= this.random << 5;
+    return (this.random & 127) == 0;
+  }
+
+  /**
+   * Copy <code>data</code> into a new, read-only buffer of the configured
+   * storage kind.
+   */
+
+  private ByteBuffer copy(
+    final ByteBuffer data)
+  {
+    final ByteBuffer source = data.duplicate();
+    final ByteBuffer target;
+    switch (this.storage) {
+      case STORAGE_DIRECT:
+      {
+        target = ByteBuffer.allocateDirect(source.remaining());
+        break;
+      }
+      case STORAGE_HEAP:
+      {
+        target = ByteBuffer.allocate(source.remaining());
+        break;
+      }
+      default:
+      {
+        throw new UnreachableCodeException();
+      }
+    }
+
+    target.put(source);
+    target.flip();
+    final ByteBuffer r = target.asReadOnlyBuffer();
+    assert r != null;
+    return r;
+  }
+
+  private void evict(
+    final Node n)
+  {
+    this.listFor(n.region).remove(n);
+    this.index.remove(n.key);
+    ++this.evictions;
+  }
+
+  /**
+   * Move files from the head of the window to the tail of the probation
+   * segment until the window is within its budget.
+   * 
+   * @return The first file moved, if any
+   */
+
+  private @Nullable Node evictFromWindow()
+  {
+    Node first = null;
+    while (this.window.weight > this.limit_window) {
+      final Node n = this.window.head;
+      assert n != null;
+      this.window.remove(n);
+      n.region = Region.REGION_PROBATION;
+      this.probation.add(n);
+      if (first == null) {
+        first = n;
+      }
+    }
+    return first;
+  }
+
+  /**
+   * Evict files until the cache is within its budget, deciding between each
+   * candidate that has just left the window and the least recently used
+   * file of the main region.
+   */
+
+  private void evictFromMain(
+    final @Nullable Node first_candidate)
+  {
+    Node candidate = first_candidate;
+    while (this.weight() > this.limit_total) {
+      Node victim = this.probation.head;
+      if (victim == candidate) {
+        victim = this.protected_list.head;
+      }
+      if (victim == null) {
+        victim = this.window.head;
+      }
+
+      if (candidate == null) {
+        assert victim != null;
+        this.evict(victim);
+        continue;
+      }
+
+      final Node next = candidate.next;
+      if ((victim == null) || (this.admit(candidate, victim) == false)) {
+        this.evict(candidate);
+        candidate = next;
+      } else {
+        this.evict(victim);
+      }
+    }
+  }
+
+  /**
+   * @return A read-only view of the cached contents of the file at
+   *         <code>path</code> in <code>archive</code>, or <code>null</code>
+   *         if the file is not cached
+   */
+
+  synchronized @Nullable ByteBuffer get(
+    final Archive<?> archive,
+    final PathVirtual path)
+  {
+    final Key k = new Key(archive, path);
+    this.sketch.increment(k.hashCode());
+
+    final Node n = this.index.get(k);
+    if (n == null) {
+      ++this.misses;
+      return null;
+    }
+
+    ++this.hits;
+    this.onHit(n);
+    final ByteBuffer r = n.data.duplicate();
+    assert r != null;
+    return r;
+  }
+
+  /**
+   * @return The number of files evicted from the cache.
+   */
+
+  synchronized long getEvictions()
+  {
+    return this.evictions;
+  }
+
+  /**
+   * @return The number of requests that were served from the cache.
+   */
+
+  synchronized long getHits()
+  {
+    return this.hits;
+  }
+
+  /**
+   * @return The number of requests that could not be served from the cache.
+   */
+
+  synchronized long getMisses()
+  {
+    return this.misses;
+  }
+
+  /**
+   * @return The number of bytes of file contents held by the cache.
+   */
+
+  synchronized long getResidentBytes()
+  {
+    return this.weight();
+  }
+
+  /**
+   * Discard the cached contents of <code>archive</code>, and stop caching
+   * the contents of <code>archive</code>.
+   */
+
+  synchronized void invalidate(
+    final Archive<?> archive)
+  {
+    this.archives.remove(archive);
+
+    final Iterator<Node> iter = this.index.values().iterator();
+    while (iter.hasNext()) {
+      final Node n = iter.next();
+      if (n.key.archive == archive) {
+        this.listFor(n.region).remove(n);
+        iter.remove();
+      }
+    }
+  }
+
+  /**
+   * @return <code>true</code> iff files of <code>size</code> bytes in
+   *         <code>archive</code> may be cached.
+   */
+
+  boolean isCacheable(
+    final Archive<?> archive,
+    final long size)
+  {
+    return (size <= this.limit_entry) && this.archives.containsKey(archive);
+  }
+
+  /**
+   * @return <code>true</code> iff the contents of <code>archive</code> are
+   *         being cached. Callers should not consult the cache at all for
+   *         archives that are not.
+   */
+
+  boolean isRegistered(
+    final Archive<?> archive)
+  {
+    return this.archives.containsKey(archive);
+  }
+
+  private NodeList listFor(
+    final Region r)
+  {
+    switch (r) {
+      case REGION_PROBATION:
+      {
+        return this.probation;
+      }
+      case REGION_PROTECTED:
+      {
+        return this.protected_list;
+      }
+      case REGION_WINDOW:
+      {
+        return this.window;
+      }
+    }
+
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Files in the window and the protected segment move to the tail of their
+   * lists. Files in the probation segment are promoted to the protected
+   * segment, demoting the least recently used protected files to make room.
+   */
+
+  private void onHit(
+    final Node n)
+  {
+    switch (n.region) {
+      case REGION_PROBATION:
+      {
+        this.probation.remove(n);
+        n.region = Region.REGION_PROTECTED;
+        this.protected_list.add(n);
+
+        while (this.protected_list.weight > this.limit_protected) {
+          final Node demoted = this.protected_list.head;
+          assert demoted != null;
+          this.protected_list.remove(demoted);
+          demoted.region = Region.REGION_PROBATION;
+          this.probation.add(demoted);
+        }
+        return;
+      }
+      case REGION_PROTECTED:
+      {
+        this.protected_list.remove(n);
+        this.protected_list.add(n);
+        return;
+      }
+      case REGION_WINDOW:
+      {
+        this.window.remove(n);
+        this.window.add(n);
+        return;
+      }
+    }
+
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Cache a copy of <code>data</code> as the contents of the file at
+   * <code>path</code> in <code>archive</code>, if the contents of
+   * <code>archive</code> are still being cached and the file is not already
+   * cached.
+   * 
+   * @return A read-only view of the cached contents
+   */
+
+  ByteBuffer put(
+    final Archive<?> archive,
+    final PathVirtual path,
+    final ByteBuffer data)
+  {
+    final ByteBuffer stored = this.copy(data);
+
+    synchronized (this) {
+      final Key k = new Key(archive, path);
+      final Node existing = this.index.get(k);
+      if (existing != null) {
+        final ByteBuffer r = existing.data.duplicate();
+        assert r != null;
+        return r;
+      }
+
+      if (this.archives.containsKey(archive)
+        && (stored.capacity() <= this.limit_entry)) {
+        final Node n = new Node(k, stored);
+        this.index.put(k, n);
+        this.window.add(n);
+        this.sketch.ensureCapacity(this.index.size());
+        this.evictFromMain(this.evictFromWindow());
+      }
+    }
+
+    final ByteBuffer r = stored.duplicate();
+    assert r != null;
+    return r;
+  }
+
+  /**
+   * Start caching the contents of <code>archive</code>, if the archive is
+   * immutable.
+   */
+
+  synchronized void register(
+    final Archive<?> archive)
+  {
+    if (archive.isImmutable()) {
+      this.archives.put(archive, Boolean.TRUE);
+    }
+  }
+
+  private long weight()
+  {
+    return this.window.weight
+      + this.probation.weight
+      + this.protected_list.weight;
+  }
+}
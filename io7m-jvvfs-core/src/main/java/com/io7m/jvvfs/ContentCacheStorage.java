@@ -0,0 +1,47 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jvvfs;
+
+/**
+ * <p>
+ * The kinds of memory in which a content cache holds file contents.
+ * </p>
+ *
+ * @see FSCapabilityContentCacheType
+ */
+
+public enum ContentCacheStorage
+{
+  /**
+   * <p>
+   * Hold file contents in direct buffers, outside of the Java heap. The
+   * memory used by an evicted file is released when the garbage collector
+   * reclaims the buffer, and so the memory in use may briefly exceed the
+   * budget of the cache.
+   * </p>
+   */
+
+  STORAGE_DIRECT,
+
+  /**
+   * <p>
+   * Hold file contents in arrays on the Java heap.
+   * </p>
+   */
+
+  STORAGE_HEAP
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jvvfs;
+
+import java.util.concurrent.Executor;
+
+/**
+ * <p>
+ * The interface exposed by filesystem implementations that have the
+ * capability to record the files read during a period of time (typically,
+ * while an application starts), and to later prefetch the same files into
+ * the content cache.
+ * </p>
+ * 
+ * @see FSCapabilityContentCacheType
+ */
+
+public interface FSCapabilityAccessProfileType
+{
+  /**
+   * <p>
+   * Read the profile at <code>file</code>, and read each of the files that
+   * it lists into the content cache, in the order in which they were first
+   * read when the profile was recorded. Each file is read by a separate task
+   * submitted to <code>executor</code>, and this method returns as soon as
+   * all of the tasks have been submitted, so that the files are prefetched
+   * in parallel while the application continues. Tasks rejected by the
+   * executor are run on the calling thread.
+   * </p>
+   * <p>
+   * Files that no longer exist, or that cannot be read, are skipped.
+   * </p>
+   * 
+   * @param file
+   *          The profile
+   * @param executor
+   *          The executor that will read the files
+   * @throws FilesystemError
+   *           If the content cache is disabled, or the profile cannot be
+   *           read
+   */
+
+  void prefetchAccessProfile(
+    final PathReal file,
+    final Executor executor)
+    throws FilesystemError;
+
+  /**
+   * <p>
+   * Start recording the paths of files read with
+   * {@link FSCapabilityReadType#openFile(PathVirtual)} and
+   * {@link FSCapabilityReadType#readFileAsByteBuffer(PathVirtual)}.
+   * </p>
+   * 
+   * @throws FilesystemError
+   *           If a recording is already in progress
+   */
+
+  void startAccessProfile()
+    throws FilesystemError;
+
+  /**
+   * <p>
+   * Stop recording, and write the path of each file read since
+   * {@link #startAccessProfile()} was called to the profile
+   * <code>file</code>, in the order in which each was first read. Any
+   * existing profile at <code>file</code> is replaced.
+   * </p>
+   * 
+   * @param file
+   *          The profile
+   * @throws FilesystemError
+   *           If no recording is in progress, or the profile cannot be
+   *           written
+   */
+
+  void stopAccessProfile(
+    final PathReal file)
+    throws FilesystemError;
+}
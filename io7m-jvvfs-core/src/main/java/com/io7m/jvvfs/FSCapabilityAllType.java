@@ -23,12 +23,18 @@ package com.io7m.jvvfs;
  */
 
 public interface FSCapabilityAllType extends
+  FSCapabilityAccessProfileType,
   FSCapabilityReadType,
   FSCapabilityCloseType,
+  FSCapabilityContentCacheType,
+  FSCapabilityIndexCacheType,
   FSCapabilityMountAnywhereType,
   FSCapabilityMountClasspathType,
   FSCapabilityMountDirectoryType,
   FSCapabilityMountSnapshotType,
+  FSCapabilityReadAsyncType,
+  FSCapabilitySnapshotType,
+  FSCapabilityStatisticsType,
   FSCapabilityUnmountType,
   FSCapabilityUpdateTimeType
 {
@@ -36,8 +36,8 @@ public interface FSCapabilityCloseType
    * </ul>
    *
    * <p>
-   * Due to archives being closed, the state of any streams associated with
-   * files in the filesystem will become undefined.
+   * Archives are closed once any streams opened from them, and any snapshots
+   * that include them, have been released.
    * </p>
    *
    * @throws FilesystemError
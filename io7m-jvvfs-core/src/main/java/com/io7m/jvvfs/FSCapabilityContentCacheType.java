@@ -0,0 +1,69 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jvvfs;
+
+/**
+ * <p>
+ * The interface exposed by filesystem implementations that have the
+ * capability to cache the contents of files in memory.
+ * </p>
+ */
+
+public interface FSCapabilityContentCacheType
+{
+  /**
+   * <p>
+   * Replace the content cache of the filesystem with a new, empty cache that
+   * holds at most <code>size</code> bytes of file contents in memory of the
+   * given kind, or disable the content cache if <code>size</code> is
+   * <code>0</code>. The content cache is disabled by default.
+   * </p>
+   * <p>
+   * While the cache is enabled, the complete contents of files read with
+   * {@link FSCapabilityReadType#openFile(PathVirtual)} and
+   * {@link FSCapabilityReadType#readFileAsByteBuffer(PathVirtual)} are held
+   * in the cache, and subsequent reads of the same files are served from
+   * memory without decompressing them again. When the cache is full, the
+   * files that are least likely to be read again, judged by both how
+   * recently and how often they have been read, are evicted.
+   * </p>
+   * <p>
+   * Only the contents of archives that cannot change while mounted (such
+   * as zip files) are cached, as the contents of directory archives may
+   * change at any time. Files larger than one eighth of <code>size</code>
+   * are never cached, so that no single file can displace most of the
+   * cache. The cached contents of an archive are discarded when it is
+   * unmounted. Reads performed through snapshots do not use the cache.
+   * </p>
+   * <p>
+   * The activity of the cache is reported by
+   * {@link FSCapabilityStatisticsType#getStatistics()}.
+   * </p>
+   * 
+   * @param size
+   *          The maximum number of bytes held by the cache
+   * @param storage
+   *          The kind of memory in which to hold file contents
+   * @throws FilesystemError
+   *           If <code>size</code> is negative
+   */
+
+  void setContentCache(
+    final long size,
+    final ContentCacheStorage storage)
+    throws FilesystemError;
+}
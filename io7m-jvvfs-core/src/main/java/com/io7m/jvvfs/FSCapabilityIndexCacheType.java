@@ -0,0 +1,56 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jvvfs;
+
+import com.io7m.jfunctional.OptionType;
+
+/**
+ * <p>
+ * The interface exposed by filesystem implementations that have the
+ * capability to cache the indexes of mounted archives on disk.
+ * </p>
+ */
+
+public interface FSCapabilityIndexCacheType
+{
+  /**
+   * <p>
+   * Set the directory in which the indexes of zip archives are cached, or
+   * disable caching if <code>directory</code> is <code>None</code>. Caching
+   * is disabled by default.
+   * </p>
+   * <p>
+   * When an archive is subsequently mounted, its index is loaded from the
+   * cache if the archive has not changed (as determined by its real path,
+   * size and modification time) since the index was cached, and is rebuilt
+   * and cached otherwise. Archives that are already mounted are unaffected.
+   * </p>
+   * <p>
+   * Any number of filesystems, in any number of processes, may share a cache
+   * directory.
+   * </p>
+   * 
+   * @param directory
+   *          The cache directory, which is created if it does not exist
+   * @throws FilesystemError
+   *           If the directory does not exist and cannot be created
+   */
+
+  void setIndexCacheDirectory(
+    final OptionType<PathReal> directory)
+    throws FilesystemError;
+}
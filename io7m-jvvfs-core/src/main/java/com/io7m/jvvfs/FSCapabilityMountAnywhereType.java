@@ -17,6 +17,7 @@
 package com.io7m.jvvfs;
 
 import java.io.File;
+import java.util.Set;
 
 /**
  * <p>
@@ -54,4 +55,28 @@ public interface FSCapabilityMountAnywhereType extends
     final File archive,
     final PathVirtual mount)
     throws FilesystemError;
+
+  /**
+   * <p>
+   * Mount the archive <code>archive</code> at <code>mount</code>, as with
+   * {@link #mountArchiveFromAnywhere(File, PathVirtual)}, applying the given
+   * mount options to the archive.
+   * </p>
+   * 
+   * @param archive
+   *          The archive to mount.
+   * @param mount
+   *          The mount point for the archive.
+   * @param options
+   *          The options that affect how the archive is mounted.
+   * @throws FilesystemError
+   *           If a filesystem error occurs.
+   * @see MountOption
+   */
+
+  void mountArchiveFromAnywhere(
+    final File archive,
+    final PathVirtual mount,
+    final Set<MountOption> options)
+    throws FilesystemError;
 }
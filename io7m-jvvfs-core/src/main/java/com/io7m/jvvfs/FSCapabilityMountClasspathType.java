@@ -16,6 +16,8 @@
 
 package com.io7m.jvvfs;
 
+import java.util.Set;
+
 /**
  * <p>
  * The interface exposed by filesystem implementations that have the
@@ -52,4 +54,28 @@ public interface FSCapabilityMountClasspathType extends
     final Class<?> c,
     final PathVirtual mount)
     throws FilesystemError;
+
+  /**
+   * <p>
+   * Mount the archive containing class <code>c</code> at <code>mount</code>,
+   * as with {@link #mountClasspathArchive(Class, PathVirtual)}, applying the
+   * given mount options to the archive.
+   * </p>
+   * 
+   * @param c
+   *          A class appearing in one of the archives on the classpath.
+   * @param mount
+   *          The mount point for the archive.
+   * @param options
+   *          The options that affect how the archive is mounted.
+   * @throws FilesystemError
+   *           If a filesystem error occurs.
+   * @see MountOption
+   */
+
+  void mountClasspathArchive(
+    final Class<?> c,
+    final PathVirtual mount,
+    final Set<MountOption> options)
+    throws FilesystemError;
 }
@@ -16,6 +16,12 @@
 
 package com.io7m.jvvfs;
 
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import com.io7m.jfunctional.Pair;
+
 /**
  * <p>
  * The interface exposed by filesystem implementations that have the
@@ -52,4 +58,77 @@ public interface FSCapabilityMountDirectoryType extends
     final String archive,
     final PathVirtual mount)
     throws FilesystemError;
+
+  /**
+   * <p>
+   * Mount the archive <code>archive</code> at <code>mount</code>, as with
+   * {@link #mountArchive(String, PathVirtual)}, applying the given
+   * mount options to the archive.
+   * </p>
+   * 
+   * @param archive
+   *          The archive to mount.
+   * @param mount
+   *          The mount point for the archive.
+   * @param options
+   *          The options that affect how the archive is mounted.
+   * @throws FilesystemError
+   *           If a filesystem error occurs.
+   * @see MountOption
+   */
+
+  void mountArchive(
+    final String archive,
+    final PathVirtual mount,
+    final Set<MountOption> options)
+    throws FilesystemError;
+
+  /**
+   * <p>
+   * Mount each of the archives in <code>archives</code> at the associated
+   * mount point, as with {@link #mountArchives(List, Set, Executor)}, with
+   * no mount options, loading the archives on the calling thread.
+   * </p>
+   * 
+   * @param archives
+   *          The archives to mount, paired with their mount points.
+   * @throws FilesystemError
+   *           If a filesystem error occurs.
+   */
+
+  void mountArchives(
+    final List<Pair<String, PathVirtual>> archives)
+    throws FilesystemError;
+
+  /**
+   * <p>
+   * Mount each of the archives in <code>archives</code> at the associated
+   * mount point. The archives are opened and indexed concurrently by tasks
+   * submitted to <code>executor</code>, but are stacked in the order in
+   * which they appear in <code>archives</code>: the result is the same as
+   * calling {@link #mountArchive(String, PathVirtual, Set)} for each archive
+   * in turn, except that the new mounts become visible to readers all at
+   * once.
+   * </p>
+   * <p>
+   * The mount point of each archive may be provided by an archive that
+   * appears earlier in <code>archives</code>. If any of the archives cannot
+   * be mounted, then none of them are mounted.
+   * </p>
+   * 
+   * @param archives
+   *          The archives to mount, paired with their mount points.
+   * @param options
+   *          The options that affect how the archives are mounted.
+   * @param executor
+   *          The executor on which archives are opened and indexed.
+   * @throws FilesystemError
+   *           If a filesystem error occurs.
+   */
+
+  void mountArchives(
+    final List<Pair<String, PathVirtual>> archives,
+    final Set<MountOption> options,
+    final Executor executor)
+    throws FilesystemError;
 }
@@ -0,0 +1,132 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jvvfs;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+/**
+ * <p>
+ * The interface exposed by filesystem implementations that have the
+ * capability to read from mounted archives without blocking the calling
+ * thread.
+ * </p>
+ * <p>
+ * Asynchronous operations are run on the executor given to
+ * {@link #setAsyncExecutor(Executor, int)}, and operations that read files
+ * from the same archive are queued so that no more than a fixed number of
+ * them run at any one time. Until an executor is given, operations run on
+ * the calling thread, and complete before returning. Operations rejected by
+ * the executor also run on the calling thread.
+ * </p>
+ * <p>
+ * Asynchronous reads otherwise behave exactly as their blocking equivalents
+ * in {@link FSCapabilityReadType}: they see the archives mounted at the time
+ * that they run, rather than at the time that they were requested.
+ * </p>
+ */
+
+public interface FSCapabilityReadAsyncType
+{
+  /**
+   * <p>
+   * Read the file at <code>path</code> as
+   * {@link FSCapabilityReadType#readFileAsByteBuffer(PathVirtual)} does,
+   * passing the result to <code>callback</code>.
+   * </p>
+   * 
+   * @param path
+   *          The path
+   * @param callback
+   *          The callback that will receive the result
+   * @return The result, which may be cancelled before the file is read
+   */
+
+  Future<ByteBuffer> readFileAsByteBufferAsync(
+    final PathVirtual path,
+    final FilesystemCallbackType<ByteBuffer> callback);
+
+  /**
+   * <p>
+   * Set the executor used to run asynchronous operations, and the maximum
+   * number of operations that may read from any single archive at once.
+   * Operations already requested continue to run on the previous executor.
+   * </p>
+   * 
+   * @param executor
+   *          The executor
+   * @param archive_concurrency
+   *          The maximum number of concurrent reads per archive
+   * @throws FilesystemError
+   *           If <code>archive_concurrency</code> is not positive
+   */
+
+  void setAsyncExecutor(
+    final Executor executor,
+    final int archive_concurrency)
+    throws FilesystemError;
+
+  /**
+   * <p>
+   * Retrieve information about the object at <code>path</code> as
+   * {@link FSCapabilityReadType#stat(PathVirtual)} does, passing the result
+   * to <code>callback</code>.
+   * </p>
+   * 
+   * @param path
+   *          The path
+   * @param callback
+   *          The callback that will receive the result
+   * @return The result, which may be cancelled before the object is
+   *         examined
+   */
+
+  Future<FileStat> statAsync(
+    final PathVirtual path,
+    final FilesystemCallbackType<FileStat> callback);
+
+  /**
+   * <p>
+   * Deliver the contents of the file at <code>path</code> to
+   * <code>subscriber</code> in chunks of <code>chunk_size</code> bytes (the
+   * last chunk may be smaller), reading each chunk only when the subscriber
+   * has requested it. The file is not opened until the first chunk is
+   * requested, and is closed when the subscription completes, fails, or is
+   * cancelled.
+   * </p>
+   * <p>
+   * Errors that occur while opening or reading the file are delivered to
+   * {@link FilesystemSubscriberType#onError(FilesystemError)}.
+   * </p>
+   * 
+   * @param path
+   *          The path
+   * @param chunk_size
+   *          The size of chunks
+   * @param subscriber
+   *          The subscriber
+   * @throws FilesystemError
+   *           If <code>chunk_size</code> is not positive
+   */
+
+  void streamFileAsync(
+    final PathVirtual path,
+    final int chunk_size,
+    final FilesystemSubscriberType subscriber)
+    throws FilesystemError;
+}
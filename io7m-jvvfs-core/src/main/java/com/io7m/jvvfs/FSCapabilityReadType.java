@@ -17,7 +17,9 @@
 package com.io7m.jvvfs;
 
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Calendar;
+import java.util.SortedMap;
 import java.util.SortedSet;
 
 /**
@@ -117,6 +119,32 @@ public interface FSCapabilityReadType
     final PathVirtual path)
     throws FilesystemError;
 
+  /**
+   * <p>
+   * List the contents of the directory at <code>path</code>, along with the
+   * attributes of each object in the directory. This is equivalent to, but
+   * cheaper than, calling {@link #stat(PathVirtual)} for each name returned
+   * by {@link #listDirectory(PathVirtual)}, as the attributes are retrieved
+   * in a single pass over the mounted archives.
+   * </p>
+   * 
+   * @return The attributes of each object in the directory at
+   *         <code>path</code>, keyed by name.
+   * @param path
+   *          The path.
+   * @throws FilesystemError
+   *           If:
+   *           <ul>
+   *           <li>No object exists at <code>path</code>.</li>
+   *           <li>The object at <code>path</code> is not a directory</li>
+   *           <li>An I/O error occurs</li>
+   *           </ul>
+   */
+
+  SortedMap<String, FileStat> listDirectoryDetailed(
+    final PathVirtual path)
+    throws FilesystemError;
+
   /**
    * <p>
    * Open the file at <code>path</code>.
@@ -137,4 +165,62 @@ public interface FSCapabilityReadType
   InputStream openFile(
     final PathVirtual path)
     throws FilesystemError;
+
+  /**
+   * <p>
+   * Read the entire contents of the file at <code>path</code> into a
+   * read-only buffer, positioned at <code>0</code> and limited to the size of
+   * the file.
+   * </p>
+   * <p>
+   * Where possible, the buffer is a view of a memory-mapped region of the
+   * file (or of the archive that contains it) and no bytes are copied onto
+   * the heap: large files in directory archives, and files stored without
+   * compression in zip archives mounted with
+   * {@link MountOption#MOUNT_OPTION_ZIP_MAPPED}, are mapped in this manner.
+   * Other files are read into a heap buffer. The buffer remains valid after
+   * the archive that provided it has been unmounted.
+   * </p>
+   * 
+   * @return A read-only buffer holding the contents of the file.
+   * @param path
+   *          The path.
+   * @throws FilesystemError
+   *           If:
+   *           <ul>
+   *           <li>No object exists at <code>path</code>.</li>
+   *           <li>The object at <code>path</code> is not a file</li>
+   *           <li>The file is larger than <code>2^31 - 1</code> bytes</li>
+   *           <li>An I/O error occurs</li>
+   *           </ul>
+   */
+
+  ByteBuffer readFileAsByteBuffer(
+    final PathVirtual path)
+    throws FilesystemError;
+
+  /**
+   * <p>
+   * Retrieve the type, size, modification time, and owning archive of the
+   * object at <code>path</code>. This is equivalent to, but cheaper than,
+   * calling {@link #isDirectory(PathVirtual)},
+   * {@link #getFileSize(PathVirtual)}, and
+   * {@link #getModificationTime(PathVirtual)} separately, as
+   * <code>path</code> is only resolved once.
+   * </p>
+   * 
+   * @return The attributes of the object at <code>path</code>.
+   * @param path
+   *          The path.
+   * @throws FilesystemError
+   *           If:
+   *           <ul>
+   *           <li>No object exists at <code>path</code>.</li>
+   *           <li>An I/O error occurs</li>
+   *           </ul>
+   */
+
+  FileStat stat(
+    final PathVirtual path)
+    throws FilesystemError;
 }
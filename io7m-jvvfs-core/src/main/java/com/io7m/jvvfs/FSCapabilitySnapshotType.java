@@ -0,0 +1,51 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jvvfs;
+
+/**
+ * <p>
+ * The interface exposed by filesystem implementations that have the
+ * capability to present consistent, read-only views of the filesystem.
+ * </p>
+ */
+
+public interface FSCapabilitySnapshotType
+{
+  /**
+   * <p>
+   * Retrieve a read-only view of the filesystem as it currently exists. The
+   * view is unaffected by any subsequent changes to the filesystem, such as
+   * archives being mounted or unmounted, or directories being created.
+   * </p>
+   * <p>
+   * Taking a snapshot does not copy any data, and does not block (or get
+   * blocked by) any other operation on the filesystem.
+   * </p>
+   * <p>
+   * The snapshot keeps each of its archives open, even if the archives are
+   * subsequently unmounted, until {@link FilesystemSnapshotType#release()}
+   * is called.
+   * </p>
+   * 
+   * @return A snapshot of the filesystem.
+   * @throws FilesystemError
+   *           If a filesystem error occurs.
+   */
+
+  FilesystemSnapshotType snapshot()
+    throws FilesystemError;
+}
@@ -31,6 +31,11 @@ public interface FSCapabilityUnmountType
    * another archive is mounted at a directory contained within the archive
    * that would be unmounted, the operation fails.
    * </p>
+   * <p>
+   * The archive is closed once any streams opened from it, and any snapshots
+   * that include it, have been released. Unmounting an archive therefore
+   * never invalidates a stream that is still being read.
+   * </p>
    * 
    * @param mount
    *          The mount point.
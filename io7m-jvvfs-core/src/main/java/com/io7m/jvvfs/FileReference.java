@@ -29,8 +29,8 @@ import com.io7m.jnull.Nullable;
  * level.
  * </p>
  * <p>
- * Values of this type cannot be accessed safely from multiple threads without
- * explicit synchronization.
+ * Values of this type are immutable, and can be accessed safely from multiple
+ * threads.
  * </p>
  */
 
@@ -0,0 +1,124 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jvvfs;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.io7m.junreachable.UnreachableCodeException;
+
+/**
+ * <p>
+ * Functions for replacing files on disk.
+ * </p>
+ * <p>
+ * A file is replaced by writing its new contents to a uniquely named
+ * temporary file in the same directory, and then renaming the temporary
+ * file over the original. Any number of threads or processes may replace
+ * the same file concurrently without corrupting it: each replacement
+ * writes its own temporary file, and the last rename wins. On platforms
+ * that allow a file to be renamed over an existing file (such as all POSIX
+ * platforms), readers observe either the old contents or the new contents
+ * in their entirety. Elsewhere, the existing file must be deleted before
+ * the rename, and a reader may briefly find that the file does not exist.
+ * </p>
+ */
+
+final class FileReplacement
+{
+  /**
+   * The type of functions that write the contents of a file.
+   */
+
+  interface WriterType
+  {
+    /**
+     * Write the contents of the file to <code>out</code>. The stream is
+     * closed by the caller.
+     * 
+     * @param out
+     *          The stream
+     * @throws IOException
+     *           On I/O errors
+     */
+
+    void write(
+      final OutputStream out)
+      throws IOException;
+  }
+
+  /**
+   * Replace <code>target</code> with the contents written by
+   * <code>writer</code>. The temporary file is deleted if writing or
+   * renaming fails.
+   * 
+   * @param target
+   *          The file to replace
+   * @param prefix
+   *          The prefix of the name of the temporary file
+   * @param writer
+   *          The function that writes the new contents
+   * @throws IOException
+   *           On I/O errors
+   */
+
+  static void replace(
+    final File target,
+    final String prefix,
+    final WriterType writer)
+    throws IOException
+  {
+    final File directory = target.getAbsoluteFile().getParentFile();
+    final File temp = File.createTempFile(prefix, ".tmp", directory);
+
+    boolean replaced = false;
+    try {
+      final OutputStream out =
+        new BufferedOutputStream(new FileOutputStream(temp));
+      try {
+        writer.write(out);
+      } finally {
+        out.close();
+      }
+
+      /**
+       * Renaming over an existing file fails on some platforms, in which
+       * case the existing file has to be removed first.
+       */
+
+      if (temp.renameTo(target) == false) {
+        target.delete();
+        if (temp.renameTo(target) == false) {
+          throw new IOException("Could not rename " + temp + " to " + target);
+        }
+      }
+      replaced = true;
+    } finally {
+      if (replaced == false) {
+        temp.delete();
+      }
+    }
+  }
+
+  private FileReplacement()
+  {
+    throw new UnreachableCodeException();
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jvvfs;
+
+import java.util.Calendar;
+
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Pair;
+import com.io7m.jnull.NullCheck;
+
+/**
+ * <p>
+ * The attributes of a file or directory in the virtual filesystem, as
+ * retrieved by a single lookup.
+ * </p>
+ *
+ * @see FSCapabilityReadType#stat(PathVirtual)
+ */
+
+public final class FileStat
+{
+  /**
+   * The type of a filesystem object.
+   */
+
+  public static enum Type
+  {
+    /**
+     * The object is a directory.
+     */
+
+    TYPE_DIRECTORY,
+
+    /**
+     * The object is a file.
+     */
+
+    TYPE_FILE
+  }
+
+  private final OptionType<Pair<PathReal, PathVirtual>> archive;
+  private final PathVirtual                             path;
+  private final long                                    size;
+  private final long                                    size_compressed;
+  private final Calendar                                time;
+  private final Type                                    type;
+
+  FileStat(
+    final PathVirtual in_path,
+    final Type in_type,
+    final long in_size,
+    final long in_size_compressed,
+    final Calendar in_time,
+    final OptionType<Pair<PathReal, PathVirtual>> in_archive)
+  {
+    this.path = NullCheck.notNull(in_path, "Path");
+    this.type = NullCheck.notNull(in_type, "Type");
+    this.size = in_size;
+    this.size_compressed = in_size_compressed;
+    this.time = NullCheck.notNull(in_time, "Time");
+    this.archive = NullCheck.notNull(in_archive, "Archive");
+  }
+
+  /**
+   * @return The real path and mount point of the archive that provides the
+   *         object, or <code>None</code> if the object is a virtual
+   *         directory that is not provided by any archive.
+   */
+
+  public OptionType<Pair<PathReal, PathVirtual>> getArchive()
+  {
+    return this.archive;
+  }
+
+  /**
+   * @return The number of bytes that the file occupies in its archive. This
+   *         is equal to {@link #getSize()} for archives that do not compress
+   *         files, and is <code>0</code> for directories.
+   */
+
+  public long getCompressedSize()
+  {
+    return this.size_compressed;
+  }
+
+  /**
+   * @return The modification time of the object.
+   */
+
+  public Calendar getModificationTime()
+  {
+    return this.time;
+  }
+
+  /**
+   * @return The path of the object.
+   */
+
+  public PathVirtual getPath()
+  {
+    return this.path;
+  }
+
+  /**
+   * @return The size of the file in bytes, or <code>0</code> for
+   *         directories.
+   */
+
+  public long getSize()
+  {
+    return this.size;
+  }
+
+  /**
+   * @return The type of the object.
+   */
+
+  public Type getType()
+  {
+    return this.type;
+  }
+
+  @Override public String toString()
+  {
+    final StringBuilder b = new StringBuilder();
+    b.append("[FileStat ");
+    b.append(this.path);
+    b.append(" ");
+    b.append(this.type);
+    b.append(" ");
+    b.append(this.size);
+    b.append(" ");
+    b.append(this.size_compressed);
+    b.append(" ");
+    b.append(this.time.getTimeInMillis());
+    b.append("]");
+    final String r = b.toString();
+    assert r != null;
+    return r;
+  }
+}
@@ -17,37 +17,42 @@
 package com.io7m.jvvfs;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
-import java.util.ArrayDeque;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Deque;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TimeZone;
-import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
 
-import com.io7m.jfunctional.None;
 import com.io7m.jfunctional.Option;
-import com.io7m.jfunctional.OptionPartialVisitorType;
 import com.io7m.jfunctional.OptionType;
-import com.io7m.jfunctional.OptionVisitorType;
 import com.io7m.jfunctional.Pair;
-import com.io7m.jfunctional.PartialFunctionType;
 import com.io7m.jfunctional.Some;
-import com.io7m.jfunctional.Unit;
 import com.io7m.jlog.LogUsableType;
 import com.io7m.jnull.NullCheck;
 import com.io7m.jnull.Nullable;
 import com.io7m.junreachable.UnreachableCodeException;
-import com.io7m.jvvfs.FileReference.Type;
 import com.io7m.jvvfs.FilesystemError.Code;
+import com.io7m.jvvfs.FilesystemSnapshot.FSReferenceType;
+import com.io7m.jvvfs.FilesystemSnapshot.UpdateTimeEntry;
 
 /**
  * <p>
@@ -57,6 +62,20 @@ import com.io7m.jvvfs.FilesystemError.Code;
  * This implementation supports loading of archives from a single directory,
  * or from the classpath.
  * </p>
+ * <p>
+ * This implementation is thread-safe. The state of the filesystem is held in
+ * an immutable {@link FilesystemSnapshotType}. Read operations are performed
+ * on the current snapshot without locking, and so any number of threads may
+ * perform lookups concurrently. Operations that modify the filesystem are
+ * serialized, and each publishes a new snapshot that shares the unmodified
+ * parts of the index with the previous snapshot.
+ * </p>
+ * <p>
+ * Archives are reference counted: unmounting an archive removes it from the
+ * filesystem immediately, but the archive is only closed when the last
+ * stream opened from it, and the last snapshot that includes it, have been
+ * released.
+ * </p>
  * 
  * @see #makeWithArchiveDirectory(LogUsableType, PathReal)
  * @see #makeWithoutArchiveDirectory(LogUsableType)
@@ -65,75 +84,22 @@ import com.io7m.jvvfs.FilesystemError.Code;
 @SuppressWarnings("synthetic-access") public final class Filesystem implements
   FilesystemType
 {
-  private static abstract class FSReference
-  {
-    private final FSReferenceType type;
-
-    FSReference(
-      final FSReferenceType in_type)
-    {
-      this.type = in_type;
-    }
-
-    final FSReferenceType getType()
-    {
-      return this.type;
-    }
-  }
-
-  private static final class FSReferenceArchive extends FSReference
-  {
-    private final FileReference<?> ref;
-
-    FSReferenceArchive(
-      final FileReference<?> in_ref)
-    {
-      super(FSReferenceType.FS_REF_ARCHIVE);
-      this.ref = in_ref;
-    }
-  }
-
-  private static enum FSReferenceType
-  {
-    FS_REF_ARCHIVE,
-    FS_REF_VIRTUAL_DIRECTORY
-  }
+  /**
+   * An executor that runs tasks on the calling thread.
+   */
 
-  private static final class FSReferenceVirtualDirectory extends FSReference
-  {
-    private final Calendar    mtime;
-    private final PathVirtual path;
-
-    FSReferenceVirtualDirectory(
-      final PathVirtual in_path,
-      final Calendar in_mtime)
-    {
-      super(FSReferenceType.FS_REF_VIRTUAL_DIRECTORY);
-      this.path = in_path;
-      this.mtime = in_mtime;
-    }
-  }
+  private static final Executor EXECUTOR_CALLER;
 
-  private static class UpdateTimeEntry
-  {
-    private final Calendar time_value;
-    private final Calendar time_when_updated;
-
-    UpdateTimeEntry(
-      final Calendar in_time_when_updated,
-      final Calendar in_time_value)
-    {
-      this.time_when_updated = in_time_when_updated;
-      this.time_value = in_time_value;
-    }
+  static {
+    EXECUTOR_CALLER = new Executor() {
+      @Override public void execute(
+        final @Nullable Runnable r)
+      {
+        NullCheck.notNull(r, "Runnable").run();
+      }
+    };
   }
 
-  private static final Boolean FALSE_NOT_NULL = NullCheck
-                                                .notNull(Boolean.FALSE);
-
-  private static final Boolean TRUE_NOT_NULL  = NullCheck
-                                                .notNull(Boolean.TRUE);
-
   private static Calendar getUTCTimeNow()
   {
     final TimeZone utc = TimeZone.getTimeZone("UTC");
@@ -143,17 +109,6 @@ import com.io7m.jvvfs.FilesystemError.Code;
     return ci;
   }
 
-  @SuppressWarnings("unchecked") private static
-    OptionType<FileReference<?>>
-    lookupDirectInArchive(
-      final Archive<?> a,
-      final PathVirtual path)
-      throws FilesystemError
-  {
-    final OptionType<?> r = a.lookup(path);
-    return (OptionType<FileReference<?>>) r;
-  }
-
   /**
    * <p>
    * Construct a filesystem using <code>archives</code> as the location of the
@@ -192,48 +147,112 @@ import com.io7m.jvvfs.FilesystemError.Code;
     return new Filesystem(log, null);
   }
 
-  private final Deque<Archive<?>>                 archive_list;
-  private final OptionType<PathReal>              archives;
-  private final Map<PathVirtual, Calendar>        directories;
-  private final List<ArchiveHandler<?>>           handlers;
-  private final LogUsableType                     log;
-  private final LogUsableType                     log_directory;
-  private final LogUsableType                     log_lookup;
-  private final LogUsableType                     log_mount;
-  private final Map<PathVirtual, UpdateTimeEntry> time_updates;
+  private final OptionType<PathReal>                archives;
+  private volatile AsyncExecutor                    async;
+  private volatile @Nullable ContentCache           content_cache;
+  private final ThreadLocal<FilesystemIndex.Cursor> cursors;
+  private volatile FilesystemSnapshot               current;
+  private final ArchiveHandler<?>                   handler_directory_immutable;
+  private final ArchiveHandler<?>                   handler_zip_mapped;
+  private final List<ArchiveHandler<?>>             handlers;
+  private volatile @Nullable ArchiveZipIndexCache   index_cache;
+  private final Object                              lock;
+  private final LogUsableType                       log;
+  private final LogUsableType                       log_directory;
+  private final LogUsableType                       log_lookup;
+  private final LogUsableType                       log_mount;
+  private volatile @Nullable AccessProfile          profile;
+  private final FilesystemIndex.Statistics          statistics;
 
   private Filesystem(
     final LogUsableType in_log,
-    final @Nullable PathReal in_archives)
+    final @Nullable PathReal archive_list)
   {
     this.log = NullCheck.notNull(in_log, "Log").with("filesystem");
     this.log_directory = this.log.with("directory");
     this.log_mount = this.log.with("mount");
     this.log_lookup = this.log.with("lookup");
-    this.archives = Option.of(in_archives);
+    this.archives = Option.of(archive_list);
 
     this.handlers = new ArrayList<ArchiveHandler<?>>();
     this.handlers.add(new ArchiveDirectoryHandler());
     this.handlers.add(new ArchiveZipHandler());
+    this.handler_directory_immutable = new ArchiveDirectoryHandler(true);
+    this.handler_zip_mapped =
+      new ArchiveZipHandler(ArchiveZip.Backend.BACKEND_MAPPED);
+    this.index_cache = null;
+    this.content_cache = null;
+    this.profile = null;
+    this.async =
+      new AsyncExecutor(
+        this.log,
+        Filesystem.EXECUTOR_CALLER,
+        Integer.MAX_VALUE);
 
-    this.archive_list = new LinkedList<Archive<?>>();
+    /**
+     * Each thread performs lookups with its own cursor. The cursors record
+     * their statistics in counters shared by the whole filesystem, so no
+     * cursor is referenced by anything other than its own thread.
+     */
+
+    this.statistics = new FilesystemIndex.Statistics();
+    this.cursors = new ThreadLocal<FilesystemIndex.Cursor>() {
+      @Override protected FilesystemIndex.Cursor initialValue()
+      {
+        return new FilesystemIndex.Cursor(Filesystem.this.statistics);
+      }
+    };
 
-    this.directories = new HashMap<PathVirtual, Calendar>();
-    this.directories.put(PathVirtual.ROOT, Filesystem.getUTCTimeNow());
-    this.time_updates = new HashMap<PathVirtual, UpdateTimeEntry>();
+    this.lock = new Object();
+    this.current = this.snapshotEmpty();
   }
 
   @Override public void close()
     throws FilesystemError
   {
-    for (final Archive<?> a : this.archive_list) {
-      a.close();
+    synchronized (this.lock) {
+      final FilesystemSnapshot s = this.current;
+      this.current = this.snapshotEmpty();
+
+      /**
+       * The archives are closed when any outstanding streams and snapshots
+       * have been released.
+       */
+
+      final List<Archive<?>> archives_old = s.getArchives();
+      for (final Archive<?> a : archives_old) {
+        assert a != null;
+        this.contentCacheInvalidate(a);
+      }
+      FilesystemSnapshot.releaseArchives(archives_old, archives_old.size());
+    }
+  }
+
+  /**
+   * Discard the cached contents of <code>a</code>, if any.
+   */
+
+  private void contentCacheInvalidate(
+    final Archive<?> a)
+  {
+    final ContentCache cache = this.content_cache;
+    if (cache != null) {
+      cache.invalidate(a);
     }
+  }
+
+  /**
+   * Start caching the contents of the newly mounted archive <code>a</code>,
+   * if the content cache is enabled.
+   */
 
-    this.archive_list.clear();
-    this.time_updates.clear();
-    this.directories.clear();
-    this.directories.put(PathVirtual.ROOT, Filesystem.getUTCTimeNow());
+  private void contentCacheRegister(
+    final Archive<?> a)
+  {
+    final ContentCache cache = this.content_cache;
+    if (cache != null) {
+      cache.register(a);
+    }
   }
 
   @Override public void createDirectory(
@@ -244,867 +263,1106 @@ import com.io7m.jvvfs.FilesystemError.Code;
 
     this.log_directory.info("create-directory: " + path.toString());
 
+    synchronized (this.lock) {
+      this.current = this.createDirectoryAll(this.current, path);
+    }
+  }
+
+  /**
+   * @return A snapshot in which <code>path</code> and all of its ancestors
+   *         have been explicitly created
+   */
+
+  private FilesystemSnapshot createDirectoryAll(
+    final FilesystemSnapshot s,
+    final PathVirtual path)
+    throws FilesystemError
+  {
+    /**
+     * Each ancestor must be looked up in a snapshot that includes any
+     * directories created for the preceding ancestors. The intermediate
+     * snapshots are never published.
+     */
+
+    FilesystemSnapshot s_next = s;
     final PathVirtualEnum e = PathVirtualEnum.enumerate(path);
     while (e.hasMoreElements()) {
       final PathVirtual ancestor = e.nextElement();
-      this.createDirectoryDirect(ancestor);
+      s_next = this.createDirectoryDirect(s_next, ancestor);
     }
 
-    this.createDirectoryDirect(path);
+    return this.createDirectoryDirect(s_next, path);
   }
 
   /**
-   * Lookup <code>path</code>. If <code>path</code> exists and is a file,
-   * fail. Otherwise, mark it as explicitly created.
+   * Lookup <code>path</code> in <code>s</code>. If <code>path</code> exists
+   * and is a file, fail. Otherwise, mark it as explicitly created.
+   * 
+   * @return A snapshot that includes the directory
    */
 
-  private <T extends FSReference> void createDirectoryDirect(
+  private FilesystemSnapshot createDirectoryDirect(
+    final FilesystemSnapshot s,
     final PathVirtual path)
     throws FilesystemError
   {
-    final OptionType<T> r = this.lookup(path);
-
-    r.acceptPartial(new OptionPartialVisitorType<T, Unit, FilesystemError>() {
-      @Override public Unit none(
-        final None<T> n)
-        throws FilesystemError
-      {
-        Filesystem.this.directories.put(path, Filesystem.getUTCTimeNow());
-        return Unit.unit();
+    final FilesystemIndex.Cursor c = this.cursors.get();
+    try {
+      final FSReferenceType t = s.lookup(c, path);
+      if (t == null) {
+        return this.createDirectoryRecord(s, path);
       }
 
-      @Override public Unit some(
-        final Some<T> s)
-        throws FilesystemError
-      {
-        final T rf = s.get();
-        switch (rf.getType()) {
-          case FS_REF_ARCHIVE:
-          {
-            final FSReferenceArchive ra = (FSReferenceArchive) rf;
-            switch (ra.ref.getType()) {
-              case TYPE_DIRECTORY:
-              {
-                Filesystem.this.directories.put(
-                  path,
-                  Filesystem.getUTCTimeNow());
-                break;
-              }
-              case TYPE_FILE:
-              {
-                throw FilesystemError.notDirectory(path.toString());
-              }
+      switch (t) {
+        case FS_REF_ARCHIVE:
+        {
+          switch (c.getResult().getType()) {
+            case TYPE_DIRECTORY:
+            {
+              return this.createDirectoryRecord(s, path);
+            }
+            case TYPE_FILE:
+            {
+              throw FilesystemError.notDirectory(path.toString());
             }
-            break;
-          }
-          case FS_REF_VIRTUAL_DIRECTORY:
-          {
-            break;
           }
-        }
 
-        return Unit.unit();
+          throw new UnreachableCodeException();
+        }
+        case FS_REF_VIRTUAL_DIRECTORY:
+        {
+          return s;
+        }
       }
-    });
+
+      throw new UnreachableCodeException();
+    } finally {
+      c.clear();
+    }
   }
 
-  @Override public boolean exists(
+  private FilesystemSnapshot createDirectoryRecord(
+    final FilesystemSnapshot s,
     final PathVirtual path)
-    throws FilesystemError
   {
-    NullCheck.notNull(path, "Path");
-    final Boolean r =
-      this.lookup(path).accept(
-        new OptionVisitorType<Filesystem.FSReference, Boolean>() {
-          @SuppressWarnings("null") @Override public Boolean none(
-            final None<FSReference> n)
-          {
-            return Boolean.FALSE;
-          }
-
-          @SuppressWarnings("null") @Override public Boolean some(
-            final Some<FSReference> s)
-          {
-            return Boolean.TRUE;
-          }
-        });
-    return r.booleanValue();
+    return this.snapshotMake(
+      s.getIndex().createDirectory(path, Filesystem.getUTCTimeNow()),
+      s.getArchives(),
+      s.getTimeUpdates());
   }
 
-  @Override public long getFileSize(
+  @Override public boolean exists(
     final PathVirtual path)
     throws FilesystemError
   {
-    NullCheck.notNull(path, "Path");
-    return this.getFileSizeActual(path).longValue();
+    return this.current.exists(path);
   }
 
-  private <T extends FSReference> Long getFileSizeActual(
+  @Override public long getFileSize(
     final PathVirtual path)
     throws FilesystemError
   {
-    final OptionType<T> r = this.lookup(path);
-    return r
-      .acceptPartial(new OptionPartialVisitorType<T, Long, FilesystemError>() {
-        @Override public Long none(
-          final None<T> n)
-          throws FilesystemError
-        {
-          throw FilesystemError.fileNotFound(path.toString());
-        }
-
-        @Override public Long some(
-          final Some<T> s)
-          throws FilesystemError
-        {
-          final T rr = s.get();
-          switch (rr.getType()) {
-            case FS_REF_ARCHIVE:
-            {
-              final FSReferenceArchive ra = (FSReferenceArchive) rr;
-              switch (ra.ref.getType()) {
-                case TYPE_DIRECTORY:
-                {
-                  throw FilesystemError.notFile(path.toString());
-                }
-                case TYPE_FILE:
-                {
-                  final Archive<?> a = ra.ref.getArchive();
-
-                  /*
-                   * XXX: Under what conditions will an archive be null?
-                   */
-
-                  assert a != null;
-
-                  final Long q =
-                    Long.valueOf(a.getFileSize(path.subtract(a.getMountPath())));
-                  assert q != null;
-                  return q;
-                }
-              }
-
-              throw new UnreachableCodeException();
-            }
-            case FS_REF_VIRTUAL_DIRECTORY:
-            {
-              throw FilesystemError.notFile(path.toString());
-            }
-          }
-
-          throw new UnreachableCodeException();
-        }
-      });
+    return this.current.getFileSize(path);
   }
 
   @Override public Calendar getModificationTime(
     final PathVirtual path)
     throws FilesystemError
   {
-    NullCheck.notNull(path, "Path");
-    final Calendar t_in_archive = this.getModificationTimeActual(path);
-    if (this.time_updates.containsKey(path)) {
-      final UpdateTimeEntry u = this.time_updates.get(path);
-      if (t_in_archive.after(u.time_when_updated)) {
-        return t_in_archive;
-      }
-      return u.time_value;
-    }
-
-    return t_in_archive;
+    return this.current.getModificationTime(path);
   }
 
-  /**
-   * Retrieve the modification time of the object at <code>path</code>,
-   * ignoring any explicit updates that may have been made.
-   * 
-   * @see #updateModificationTime(PathVirtual, Calendar)
-   * @see #time_updates
-   */
-
-  private <T extends FSReference> Calendar getModificationTimeActual(
-    final PathVirtual path)
-    throws FilesystemError
+  @Override public Deque<Pair<PathReal, PathVirtual>> getMountedArchives()
   {
-    final OptionType<T> r = this.lookup(path);
-    return r
-      .acceptPartial(new OptionPartialVisitorType<T, Calendar, FilesystemError>() {
-        @Override public Calendar none(
-          final None<T> n)
-          throws FilesystemError
-        {
-          throw FilesystemError.fileNotFound(path.toString());
-        }
-
-        @Override public Calendar some(
-          final Some<T> s)
-          throws FilesystemError
-        {
-          final T rr = s.get();
-          switch (rr.getType()) {
-            case FS_REF_ARCHIVE:
-            {
-              final FSReferenceArchive ra = (FSReferenceArchive) rr;
-              final Archive<?> a = ra.ref.getArchive();
-              /*
-               * XXX: Under what conditions can getArchive() return null?
-               */
-              assert a != null;
-              return a.getModificationTime(path.subtract(a.getMountPath()));
-            }
-            case FS_REF_VIRTUAL_DIRECTORY:
-            {
-              final FSReferenceVirtualDirectory rvd =
-                (FSReferenceVirtualDirectory) rr;
-              return rvd.mtime;
-            }
-          }
-
-          throw new UnreachableCodeException();
-        }
-      });
+    return this.current.getMountedArchives();
   }
 
-  @Override public Deque<Pair<PathReal, PathVirtual>> getMountedArchives()
+  @Override public FilesystemStatistics getStatistics()
   {
-    final Deque<Pair<PathReal, PathVirtual>> result =
-      new ArrayDeque<Pair<PathReal, PathVirtual>>();
-
-    final Iterator<Archive<?>> iter = this.archive_list.descendingIterator();
-    while (iter.hasNext()) {
-      final Archive<?> a = iter.next();
-      final Pair<PathReal, PathVirtual> p =
-        Pair.pair(a.getRealPath(), a.getMountPath());
-      result.push(p);
+    final FilesystemIndex.Statistics stats = this.statistics;
+    final long lookups = stats.getLookups();
+    final long lookups_indexed = stats.getLookupsIndexed();
+    final long archive_queries = stats.getArchiveQueries();
+    final long archive_query_misses = stats.getArchiveQueryMisses();
+
+    long content_hits = 0;
+    long content_misses = 0;
+    long content_evictions = 0;
+    long content_resident = 0;
+
+    final ContentCache cache = this.content_cache;
+    if (cache != null) {
+      content_hits = cache.getHits();
+      content_misses = cache.getMisses();
+      content_evictions = cache.getEvictions();
+      content_resident = cache.getResidentBytes();
     }
 
-    return result;
+    return new FilesystemStatistics(
+      lookups,
+      lookups_indexed,
+      archive_queries,
+      archive_query_misses,
+      this.current.getIndex().getEntryCount(),
+      content_hits,
+      content_misses,
+      content_evictions,
+      content_resident);
   }
 
   @Override public boolean isDirectory(
     final PathVirtual path)
     throws FilesystemError
   {
-    NullCheck.notNull(path, "Path");
-    return this.isDirectoryActual(path).booleanValue();
+    return this.current.isDirectory(path);
   }
 
-  private <T extends FSReference> Boolean isDirectoryActual(
+  @Override public boolean isFile(
     final PathVirtual path)
     throws FilesystemError
   {
-    final OptionType<T> r = this.lookup(path);
-    return r
-      .acceptPartial(new OptionPartialVisitorType<T, Boolean, FilesystemError>() {
-        @Override public Boolean none(
-          final None<T> n)
-          throws FilesystemError
-        {
-          return Filesystem.FALSE_NOT_NULL;
-        }
-
-        @Override public Boolean some(
-          final Some<T> s)
-          throws FilesystemError
-        {
-          final T q = s.get();
-          switch (q.getType()) {
-            case FS_REF_ARCHIVE:
-            {
-              final FSReferenceArchive ra = (FSReferenceArchive) q;
-              final Boolean rq =
-                Boolean.valueOf(ra.ref.getType() == Type.TYPE_DIRECTORY);
-              assert rq != null;
-              return rq;
-            }
-            case FS_REF_VIRTUAL_DIRECTORY:
-            {
-              return Filesystem.TRUE_NOT_NULL;
-            }
-          }
-
-          throw new UnreachableCodeException();
-        }
-      });
+    return this.current.isFile(path);
   }
 
-  @Override public boolean isFile(
+  @Override public SortedSet<String> listDirectory(
     final PathVirtual path)
     throws FilesystemError
   {
-    NullCheck.notNull(path, "Path");
-    this.log_lookup.info("is-file: " + path);
-    return this.isFileActual(path).booleanValue();
+    return this.current.listDirectory(path);
   }
 
-  private <T extends FSReference> Boolean isFileActual(
+  @Override public SortedMap<String, FileStat> listDirectoryDetailed(
     final PathVirtual path)
     throws FilesystemError
   {
-    final OptionType<T> r = this.lookup(path);
-    return r
-      .acceptPartial(new OptionPartialVisitorType<T, Boolean, FilesystemError>() {
-        @Override public Boolean none(
-          final None<T> n)
-          throws FilesystemError
-        {
-          return Filesystem.FALSE_NOT_NULL;
-        }
+    return this.current.listDirectoryDetailed(path);
+  }
 
-        @Override public Boolean some(
-          final Some<T> s)
-          throws FilesystemError
-        {
-          final T rr = s.get();
-          switch (rr.getType()) {
-            case FS_REF_ARCHIVE:
-            {
-              final FSReferenceArchive ra = (FSReferenceArchive) rr;
-              final Boolean b =
-                Boolean.valueOf(ra.ref.getType() == Type.TYPE_FILE);
-              assert b != null;
-              return b;
-            }
-            case FS_REF_VIRTUAL_DIRECTORY:
-            {
-              return Filesystem.FALSE_NOT_NULL;
-            }
-          }
+  @Override public void mountArchive(
+    final String archive,
+    final PathVirtual mount)
+    throws FilesystemError
+  {
+    this.mountArchive(archive, mount, EnumSet.noneOf(MountOption.class));
+  }
 
-          throw new UnreachableCodeException();
-        }
-      });
+  @Override public void mountArchive(
+    final String archive,
+    final PathVirtual mount,
+    final Set<MountOption> options)
+    throws FilesystemError
+  {
+    NullCheck.notNull(archive, "Archive name");
+    NullCheck.notNull(mount, "Mount path");
+    NullCheck.notNull(options, "Mount options");
+
+    if (Name.isValid(archive) == false) {
+      throw new FilesystemError(
+        Code.FS_ERROR_CONSTRAINT_ERROR,
+        "Archive name is not valid");
+    }
+
+    this.log_mount.info("mount-archive: " + archive + " - " + mount);
+    this.mountInternal(this.mountArchiveResolve(archive), mount, options);
   }
 
-  @Override public SortedSet<String> listDirectory(
-    final PathVirtual path)
+  @Override public void mountArchiveFromAnywhere(
+    final File archive,
+    final PathVirtual mount)
     throws FilesystemError
   {
-    NullCheck.notNull(path, "Path");
+    this.mountArchiveFromAnywhere(
+      archive,
+      mount,
+      EnumSet.noneOf(MountOption.class));
+  }
 
-    this.log_lookup.info("is-directory: " + path);
+  @Override public void mountArchiveFromAnywhere(
+    final File archive,
+    final PathVirtual mount,
+    final Set<MountOption> options)
+    throws FilesystemError
+  {
+    NullCheck.notNull(archive, "Archive path");
+    NullCheck.notNull(mount, "Mount path");
+    NullCheck.notNull(options, "Mount options");
 
-    final OptionType<FSReference> ro = this.lookup(path);
-    return ro
-      .acceptPartial(new OptionPartialVisitorType<Filesystem.FSReference, SortedSet<String>, FilesystemError>() {
-        @Override public SortedSet<String> none(
-          final None<FSReference> n)
-          throws FilesystemError
-        {
-          throw FilesystemError.fileNotFound(path.toString());
-        }
+    this.log_mount.info("mount-archive: " + archive + " - " + mount);
 
-        @Override public SortedSet<String> some(
-          final Some<FSReference> s)
-          throws FilesystemError
-        {
-          final FSReference ref = s.get();
-          switch (ref.getType()) {
-            case FS_REF_ARCHIVE:
-            {
-              final FSReferenceArchive ra = (FSReferenceArchive) ref;
-              if (ra.ref.getType() != Type.TYPE_DIRECTORY) {
-                throw FilesystemError.notDirectory(path.toString());
-              }
-              return Filesystem.this.listDirectoryInternal(path);
-            }
-            case FS_REF_VIRTUAL_DIRECTORY:
-            {
-              return Filesystem.this.listDirectoryInternal(path);
-            }
-          }
+    if (archive.exists() == false) {
+      final String as = archive.toString();
+      assert as != null;
+      throw FilesystemError.archiveNonexistent(as);
+    }
 
-          throw new UnreachableCodeException();
-        }
-      });
+    this.mountInternal(new PathReal(archive), mount, options);
   }
 
-  private SortedSet<String> listDirectoryInternal(
-    final PathVirtual path)
+  /**
+   * Resolve the name of an archive in the archive directory to a real path.
+   */
+
+  private PathReal mountArchiveResolve(
+    final String archive)
+    throws FilesystemError
+  {
+    if (this.archives.isNone()) {
+      throw FilesystemError.archiveNoDirectory(archive);
+    }
+
+    final PathReal directory = ((Some<PathReal>) this.archives).get();
+    final File real = new File(new File(directory.toString()), archive);
+    if (real.exists() == false) {
+      throw FilesystemError.archiveNonexistent(archive);
+    }
+    return new PathReal(real);
+  }
+
+  @Override public void mountArchives(
+    final List<Pair<String, PathVirtual>> archive_list)
+    throws FilesystemError
+  {
+    this.mountArchives(
+      archive_list,
+      EnumSet.noneOf(MountOption.class),
+      Filesystem.EXECUTOR_CALLER);
+  }
+
+  @Override public void mountArchives(
+    final List<Pair<String, PathVirtual>> archive_list,
+    final Set<MountOption> options,
+    final Executor executor)
     throws FilesystemError
   {
-    final SortedSet<String> items = new TreeSet<String>();
+    NullCheck.notNull(archive_list, "Archives");
+    NullCheck.notNull(options, "Mount options");
+    NullCheck.notNull(executor, "Executor");
 
     /**
-     * Take the union of the sets of unshadowed files in the archive stack.
+     * Every archive is resolved, and a handler found for it, before any of
+     * them are loaded.
      */
 
-    boolean lookup_shadowed = false;
-    boolean lookup_first = true;
-    final Iterator<Archive<?>> iter = this.archive_list.iterator();
-    while (iter.hasNext() && (!lookup_shadowed)) {
-      final Archive<?> a = iter.next();
-      final PathVirtual mount = a.getMountPath();
+    final int count = archive_list.size();
+    final List<PathReal> reals = new ArrayList<PathReal>(count);
+    final List<ArchiveHandler<?>> handlers_used =
+      new ArrayList<ArchiveHandler<?>>(count);
 
-      if (mount.isAncestorOf(path) || mount.equals(path)) {
-        final PathVirtual a_path = path.subtract(mount);
-
-        try {
-          final Set<String> a_items = a.listDirectory(a_path);
-          items.addAll(a_items);
-        } catch (final FilesystemError e) {
-
-          /**
-           * The path checked has an ancestor that happens to be a file in
-           * this archive. If this is the first archive that has been queried,
-           * then raise an error. Otherwise, don't check any further archives.
-           */
-
-          if (e.getCode() == Code.FS_ERROR_NOT_A_DIRECTORY) {
-            if (lookup_first) {
-              throw e;
-            }
-            lookup_shadowed = true;
-          }
-        }
+    for (final Pair<String, PathVirtual> p : archive_list) {
+      final String archive = NullCheck.notNull(p.getLeft(), "Archive name");
+      final PathVirtual mount = NullCheck.notNull(p.getRight(), "Mount path");
 
-        lookup_first = false;
+      if (Name.isValid(archive) == false) {
+        throw new FilesystemError(
+          Code.FS_ERROR_CONSTRAINT_ERROR,
+          "Archive name is not valid");
       }
+
+      this.log_mount.info("mount-archives: " + archive + " - " + mount);
+      final PathReal real = this.mountArchiveResolve(archive);
+      reals.add(real);
+      handlers_used.add(this.mountInternalCheckHandler(real, options));
     }
 
+    final List<Archive<?>> loaded =
+      this.mountArchivesLoad(archive_list, reals, handlers_used, executor);
+
     /**
-     * Add any virtual directories with parents equal to <code>path</code>.
+     * The archives are stacked in order on a private snapshot, so that the
+     * mount point of each archive may be provided by an earlier archive in
+     * the list, and the result is published once.
      */
 
-    for (final PathVirtual d : this.directories.keySet()) {
-      assert d != null;
-
-      if (path.isParentOf(d)) {
-        final OptionType<String> name_o = d.getBaseName();
-        name_o.accept(new OptionVisitorType<String, Unit>() {
-          @Override public Unit none(
-            final None<String> n)
-          {
-            /**
-             * If path is a parent of d, then d cannot be root.
-             */
-
-            throw new UnreachableCodeException();
-          }
+    synchronized (this.lock) {
+      FilesystemSnapshot s = this.current;
+      try {
+        for (int index = 0; index < count; ++index) {
+          final PathReal real = reals.get(index);
+          final PathVirtual mount = archive_list.get(index).getRight();
+          final Archive<?> a = loaded.get(index);
+          assert mount != null;
+          assert a != null;
+
+          Filesystem.mountCheckArchiveStack(s, real, mount);
+          s = this.mountPrepare(s, mount);
+          s = this.mountSnapshot(s, a);
+        }
+      } catch (final FilesystemError e) {
+        this.mountArchivesClose(loaded);
+        throw e;
+      }
 
-          @Override public Unit some(
-            final Some<String> s)
-          {
-            items.add(s.get());
-            return Unit.unit();
-          }
-        });
+      this.current = this.snapshotPruned(s);
+      for (final Archive<?> a : loaded) {
+        assert a != null;
+        this.contentCacheRegister(a);
       }
     }
-
-    return items;
   }
 
   /**
-   * <p>
-   * Lookup the filesystem object at <code>path</code>.
-   * </p>
-   * <p>
-   * All ancestors of <code>path</code> are checked to ensure that they exist
-   * and are directories.
-   * </p>
+   * Release all of the given archives, logging and otherwise ignoring
+   * errors.
    */
 
-  private <T extends FSReference> OptionType<T> lookup(
-    final PathVirtual path)
+  private void mountArchivesClose(
+    final List<Archive<?>> loaded)
+  {
+    try {
+      FilesystemSnapshot.releaseArchives(loaded, loaded.size());
+    } catch (final FilesystemError e) {
+      /**
+       * The error that caused the archives to be closed takes precedence.
+       */
+
+      this.log_mount.error("could not close archive: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Load each of the archives on <code>executor</code>, waiting for all of
+   * the loads to finish. If any of the archives cannot be loaded, all of the
+   * archives that were loaded are closed, and the error raised by the first
+   * failing archive (in list order) is raised.
+   */
+
+  private List<Archive<?>> mountArchivesLoad(
+    final List<Pair<String, PathVirtual>> archive_list,
+    final List<PathReal> reals,
+    final List<ArchiveHandler<?>> handlers_used,
+    final Executor executor)
     throws FilesystemError
   {
-    this.log_lookup.debug(path.toString());
+    final @Nullable ArchiveZipIndexCache cache = this.index_cache;
+    final AsyncExecutor async = this.async;
+    final int count = archive_list.size();
+    final List<FutureTask<Archive<?>>> tasks =
+      new ArrayList<FutureTask<Archive<?>>>(count);
+
+    for (int index = 0; index < count; ++index) {
+      final ArchiveHandler<?> handler = handlers_used.get(index);
+      final PathReal real = reals.get(index);
+      final PathVirtual mount = archive_list.get(index).getRight();
+
+      final FutureTask<Archive<?>> task =
+        new FutureTask<Archive<?>>(new Callable<Archive<?>>() {
+          @Override public Archive<?> call()
+            throws FilesystemError
+          {
+            return handler.load(
+              Filesystem.this.log,
+              real,
+              mount,
+              cache,
+              async);
+          }
+        });
+      tasks.add(task);
+
+      try {
+        executor.execute(task);
+      } catch (final RejectedExecutionException e) {
+        task.run();
+      }
+    }
 
     /**
-     * Check that all ancestors of <code>path</code> exist and are
-     * directories.
+     * Every task is waited for, even if the current thread is interrupted,
+     * so that no loaded archive is left unclosed.
      */
 
-    final PathVirtualEnum e = PathVirtualEnum.enumerate(path);
-    while (e.hasMoreElements()) {
-      final PathVirtual ancestor = e.nextElement();
-      this.lookupDirectAssertIsDirectory(ancestor);
+    final List<Archive<?>> loaded = new ArrayList<Archive<?>>(count);
+    Throwable error = null;
+    boolean interrupted = false;
+
+    for (final FutureTask<Archive<?>> task : tasks) {
+      for (;;) {
+        try {
+          loaded.add(task.get());
+          break;
+        } catch (final InterruptedException e) {
+          interrupted = true;
+        } catch (final ExecutionException e) {
+          if (error == null) {
+            error = e.getCause();
+          }
+          break;
+        }
+      }
     }
 
-    /**
-     * All ancestors of <code>path</code> existed and were directories.
-     */
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
 
-    return this.lookupDirect(path);
+    if (error != null) {
+      this.mountArchivesClose(loaded);
+      if (error instanceof FilesystemError) {
+        throw (FilesystemError) error;
+      }
+      if (error instanceof RuntimeException) {
+        throw (RuntimeException) error;
+      }
+      if (error instanceof Error) {
+        throw (Error) error;
+      }
+      throw new UnreachableCodeException(error);
+    }
+
+    return loaded;
   }
 
-  private <T extends FSReference> OptionType<T> lookupDirect(
-    final PathVirtual path)
+  private static void mountCheckArchiveStack(
+    final FilesystemSnapshot s,
+    final PathReal archive,
+    final PathVirtual mount)
     throws FilesystemError
   {
-    /**
-     * Check the list of archives for <code>path</code>.
-     */
+    for (final Archive<?> a : s.getArchives()) {
+      final PathReal a_p = a.getRealPath();
+      final PathVirtual a_m = a.getMountPath();
+
+      if (a_p.equals(archive) && a_m.equals(mount)) {
+        final String a_name = archive.toFile().getName();
+        final String m_name = mount.toString();
+        assert a_name != null;
+        throw FilesystemError.archiveAlreadyMounted(a_name, m_name);
+      }
+    }
+  }
 
-    boolean lookup_shadowed = false;
-    boolean lookup_first = true;
-    final Iterator<Archive<?>> iter = this.archive_list.iterator();
-    while (iter.hasNext() && (!lookup_shadowed)) {
-      final Archive<?> a = iter.next();
-      final PathVirtual mount = a.getMountPath();
+  @Override public void mountClasspathArchive(
+    final Class<?> c,
+    final PathVirtual mount)
+    throws FilesystemError
+  {
+    this.mountClasspathArchive(c, mount, EnumSet.noneOf(MountOption.class));
+  }
 
-      if (mount.isAncestorOf(path) || mount.equals(path)) {
-        final PathVirtual a_path = path.subtract(mount);
+  @Override public void mountClasspathArchive(
+    final Class<?> c,
+    final PathVirtual mount,
+    final Set<MountOption> options)
+    throws FilesystemError
+  {
+    NullCheck.notNull(c, "Class");
+    NullCheck.notNull(mount, "Mount path");
+    NullCheck.notNull(options, "Mount options");
 
-        try {
-          final OptionType<FileReference<?>> r =
-            Filesystem.lookupDirectInArchive(a, a_path);
-
-          if (r.isSome()) {
-
-            /**
-             * This archive contained the requested path, return it.
-             */
-
-            return r
-              .mapPartial(new PartialFunctionType<FileReference<?>, T, FilesystemError>() {
-                @Override public T call(
-                  final FileReference<?> x)
-                  throws FilesystemError
-                {
-                  @SuppressWarnings("unchecked") final T y =
-                    (T) new FSReferenceArchive(x);
-                  return y;
-                }
-              });
-          }
+    this.log_mount.info("mount-classpath-archive: " + c + " - " + mount);
 
-          /**
-           * This archive did not contain the requested path.
-           */
+    NullCheck.notNull(c, "Class");
+    final String cname = c.getCanonicalName();
+    NullCheck.notNull(cname, "Class canonical name");
 
-        } catch (final FilesystemError e) {
+    final String cname_s = cname.replace('.', '/');
+    final String cname_k = cname_s + ".class";
 
-          /**
-           * The path checked has an ancestor that happens to be a file in
-           * this archive. If this is the first archive that has been queried,
-           * then raise an error. Otherwise, don't check any further archives.
-           */
+    final ClassLoader loader = c.getClassLoader();
+    final URL url = loader.getResource(cname_k);
+    this.log_mount.debug("mount-classpath-archive: url " + url);
 
-          if (e.getCode() == Code.FS_ERROR_NOT_A_DIRECTORY) {
-            if (lookup_first) {
-              throw e;
-            }
-            lookup_shadowed = true;
-          }
-        }
+    final String mount_path =
+      ClassURIHandling.getClassContainerPath(
+        NullCheck.notNull(url, "URL from ClassLoader"),
+        cname_k);
+    this.log_mount.debug("mount-classpath-archive: actual " + mount_path);
 
-        lookup_first = false;
-      }
-    }
+    this.mountInternal(new PathReal(mount_path), mount, options);
+  }
 
+  private void mountInternal(
+    final PathReal archive,
+    final PathVirtual mount,
+    final Set<MountOption> options)
+    throws FilesystemError
+  {
     /**
-     * No archive contained <code>path</code>. Check the list of virtual
-     * directories.
+     * The archive is checked against the current snapshot, and then loaded
+     * without holding the lock, so that loading a large archive does not
+     * block other modifications of the filesystem. The checks are repeated
+     * under the lock if another modification was published in the meantime.
      */
 
-    if (this.directories.containsKey(path)) {
-      final Calendar d = this.directories.get(path);
-      assert d != null;
-      final FSReferenceVirtualDirectory r =
-        new FSReferenceVirtualDirectory(path, d);
-      @SuppressWarnings("unchecked") final OptionType<T> rt =
-        (OptionType<T>) Option.some(r);
-      return rt;
+    final FilesystemSnapshot s_initial = this.current;
+    Filesystem.mountCheckArchiveStack(s_initial, archive, mount);
+
+    final ArchiveHandler<?> handler =
+      this.mountInternalCheckHandler(archive, options);
+    final FilesystemSnapshot s_initial_prepared =
+      this.mountPrepare(s_initial, mount);
+    final Archive<?> a =
+      handler.load(this.log, archive, mount, this.index_cache, this.async);
+
+    synchronized (this.lock) {
+      final FilesystemSnapshot s_next;
+      try {
+        final FilesystemSnapshot s = this.current;
+        final FilesystemSnapshot s_prepared;
+        if (s == s_initial) {
+          s_prepared = s_initial_prepared;
+        } else {
+          Filesystem.mountCheckArchiveStack(s, archive, mount);
+          s_prepared = this.mountPrepare(s, mount);
+        }
+        s_next = this.mountSnapshot(s_prepared, a);
+      } catch (final FilesystemError e) {
+        final List<Archive<?>> loaded =
+          Collections.<Archive<?>> singletonList(a);
+        assert loaded != null;
+        this.mountArchivesClose(loaded);
+        throw e;
+      }
+
+      this.current = this.snapshotPruned(s_next);
+      this.contentCacheRegister(a);
     }
+  }
 
-    /**
-     * No object exists at <code>path</code>.
-     */
+  /**
+   * Find an archive handler that can handle <code>archive</code> with the
+   * given mount options, or raise an error.
+   */
+
+  private ArchiveHandler<?> mountInternalCheckHandler(
+    final PathReal archive,
+    final Set<MountOption> options)
+    throws FilesystemError
+  {
+    if (options.contains(MountOption.MOUNT_OPTION_DIRECTORY_IMMUTABLE)
+      && this.handler_directory_immutable.canHandle(archive)) {
+      return this.handler_directory_immutable;
+    }
+    if (options.contains(MountOption.MOUNT_OPTION_ZIP_MAPPED)
+      && this.handler_zip_mapped.canHandle(archive)) {
+      return this.handler_zip_mapped;
+    }
+
+    for (final ArchiveHandler<?> handler : this.handlers) {
+      if (handler.canHandle(archive)) {
+        return handler;
+      }
+    }
 
-    return Option.none();
+    throw FilesystemError.archiveTypeUnsupported(archive.toString());
   }
 
   /**
-   * Assert that <code>path</code> is a directory. The ancestors of
-   * <code>path</code> are not checked.
+   * Check that <code>mount</code> exists in <code>s</code> and is a
+   * directory, explicitly creating it if it is provided by an archive.
    * 
-   * @param path
-   *          The path to check.
-   * @throws FilesystemError
-   *           If:
-   *           <ul>
-   *           <li><code>path</code> does not exist</li>
-   *           <li><code>path</code> is not a directory</li>
-   *           </ul>
-   * @throws ConstraintError
+   * @return A snapshot in which <code>mount</code> is a virtual directory
    */
 
-  private <T extends FSReference> void lookupDirectAssertIsDirectory(
-    final PathVirtual path)
+  private FilesystemSnapshot mountPrepare(
+    final FilesystemSnapshot s,
+    final PathVirtual mount)
     throws FilesystemError
   {
-    final OptionType<T> r = this.lookupDirect(path);
-    r.acceptPartial(new OptionPartialVisitorType<T, Unit, FilesystemError>() {
-      @Override public Unit none(
-        final None<T> n)
-        throws FilesystemError
-      {
-        throw FilesystemError.fileNotFound(path.toString());
+    final FilesystemIndex.Cursor c = this.cursors.get();
+    try {
+      final FSReferenceType t = s.lookup(c, mount);
+      if (t == null) {
+        throw FilesystemError.fileNotFound(mount.toString());
       }
 
-      @Override public Unit some(
-        final Some<T> s)
-        throws FilesystemError
-      {
-        final T x = s.get();
-        switch (x.getType()) {
-          case FS_REF_ARCHIVE:
-          {
-            final FSReferenceArchive ra = (FSReferenceArchive) x;
-            if (ra.ref.getType() != Type.TYPE_DIRECTORY) {
-              throw FilesystemError.notDirectory(path.toString());
-            }
-            break;
-          }
-          case FS_REF_VIRTUAL_DIRECTORY:
-          {
-            break;
-          }
+      switch (t) {
+        case FS_REF_ARCHIVE:
+        {
+          this.log_directory.info("create-directory: " + mount.toString());
+          return this.createDirectoryAll(s, mount);
         }
+        case FS_REF_VIRTUAL_DIRECTORY:
+        {
+          return s;
+        }
+      }
+
+      throw new UnreachableCodeException();
+    } finally {
+      c.clear();
+    }
+  }
+
+  /**
+   * @return A snapshot in which <code>a</code> is mounted above the archives
+   *         of <code>s</code>
+   */
 
-        return Unit.unit();
+  private FilesystemSnapshot mountSnapshot(
+    final FilesystemSnapshot s,
+    final Archive<?> a)
+    throws FilesystemError
+  {
+    final FilesystemIndex index_next = s.getIndex().mount(a);
+
+    final List<Archive<?>> archives_next =
+      new ArrayList<Archive<?>>(s.getArchives().size() + 1);
+    archives_next.add(a);
+    archives_next.addAll(s.getArchives());
+
+    return this.snapshotMake(
+      index_next,
+      Collections.unmodifiableList(archives_next),
+      s.getTimeUpdates());
+  }
+
+  @Override public InputStream openFile(
+    final PathVirtual path)
+    throws FilesystemError
+  {
+    NullCheck.notNull(path, "Path");
+
+    /**
+     * Opening the file fails only if the archive providing it was unmounted
+     * and closed after the snapshot was read. In that case, a newer snapshot
+     * that no longer contains the archive has already been published.
+     */
+
+    for (;;) {
+      final InputStream s =
+        this.current.openFileAcquired(path, this.content_cache);
+      if (s != null) {
+        this.profileRecord(path);
+        return s;
       }
-    });
+    }
   }
 
-  @Override public void mountArchive(
-    final String archive,
-    final PathVirtual mount)
+  /**
+   * Open the file at <code>path</code> using the lookup <code>resolved</code>
+   * made earlier, if any, looking the file up again only if the archive
+   * found by that lookup has since been closed.
+   */
+
+  InputStream openFileResolved(
+    final PathVirtual path,
+    final @Nullable FilesystemIndex.Result resolved)
     throws FilesystemError
   {
-    NullCheck.notNull(archive, "Archive name");
-    NullCheck.notNull(mount, "Mount path");
+    if (resolved != null) {
+      final InputStream s =
+        FilesystemSnapshot.openFileResult(resolved, this.content_cache);
+      if (s != null) {
+        this.profileRecord(path);
+        return s;
+      }
+    }
+    return this.openFile(path);
+  }
 
-    if (Name.isValid(archive) == false) {
+  @Override public void prefetchAccessProfile(
+    final PathReal file,
+    final Executor executor)
+    throws FilesystemError
+  {
+    NullCheck.notNull(file, "File");
+    NullCheck.notNull(executor, "Executor");
+
+    final ContentCache cache = this.content_cache;
+    if (cache == null) {
       throw new FilesystemError(
         Code.FS_ERROR_CONSTRAINT_ERROR,
-        "Archive name is not valid");
+        "Content cache is disabled");
     }
 
-    this.log_mount.info("mount-archive: " + archive + " - " + mount);
+    final List<PathVirtual> paths = AccessProfile.read(file);
+    this.log.info("prefetch: " + file + " (" + paths.size() + " files)");
 
-    this.archives
-      .acceptPartial(new OptionPartialVisitorType<PathReal, Unit, FilesystemError>() {
-        @Override public Unit none(
-          final None<PathReal> n)
-          throws FilesystemError
+    for (final PathVirtual p : paths) {
+      assert p != null;
+      final Runnable task = new Runnable() {
+        @Override public void run()
         {
-          throw FilesystemError.archiveNoDirectory(archive);
+          Filesystem.this.prefetchFile(cache, p);
         }
+      };
 
-        @Override public Unit some(
-          final Some<PathReal> s)
-          throws FilesystemError
-        {
-          final File real = new File(new File(s.get().toString()), archive);
+      try {
+        executor.execute(task);
+      } catch (final RejectedExecutionException e) {
+        task.run();
+      }
+    }
+  }
 
-          if (real.exists() == false) {
-            throw FilesystemError.archiveNonexistent(archive);
-          }
+  /**
+   * Read the file at <code>path</code> into <code>cache</code>. Prefetched
+   * files are not recorded in the access profile.
+   */
 
-          Filesystem.this.mountInternal(new PathReal(real), mount);
-          return Unit.unit();
+  private void prefetchFile(
+    final ContentCache cache,
+    final PathVirtual path)
+  {
+    try {
+      for (;;) {
+        final InputStream s = this.current.openFileAcquired(path, cache);
+        if (s != null) {
+          s.close();
+          return;
         }
-      });
+      }
+    } catch (final FilesystemError e) {
+      this.log.debug("prefetch: " + path + ": " + e.getMessage());
+    } catch (final IOException e) {
+      this.log.debug("prefetch: " + path + ": " + e.getMessage());
+    }
   }
 
-  @Override public void mountArchiveFromAnywhere(
-    final File archive,
-    final PathVirtual mount)
+  private void profileRecord(
+    final PathVirtual path)
+  {
+    final AccessProfile p = this.profile;
+    if (p != null) {
+      p.record(path);
+    }
+  }
+
+  @Override public ByteBuffer readFileAsByteBuffer(
+    final PathVirtual path)
     throws FilesystemError
   {
-    NullCheck.notNull(archive, "Archive path");
-    NullCheck.notNull(mount, "Mount path");
+    NullCheck.notNull(path, "Path");
 
-    this.log_mount.info("mount-archive: " + archive + " - " + mount);
+    /**
+     * As with {@link #openFile(PathVirtual)}, reading the file fails only if
+     * a newer snapshot has already been published.
+     */
 
-    if (archive.exists() == false) {
-      final String as = archive.toString();
-      assert as != null;
-      throw FilesystemError.archiveNonexistent(as);
+    for (;;) {
+      final ByteBuffer b =
+        this.current.readFileAsByteBufferAcquired(path, this.content_cache);
+      if (b != null) {
+        this.profileRecord(path);
+        return b;
+      }
     }
-
-    this.mountInternal(new PathReal(archive), mount);
   }
 
-  private void mountCheckArchiveStack(
-    final PathReal archive,
-    final PathVirtual mount)
+  /**
+   * Read the file at <code>path</code> using the lookup
+   * <code>resolved</code> made earlier, if any, looking the file up again
+   * only if the archive found by that lookup has since been closed.
+   */
+
+  private ByteBuffer readFileAsByteBufferResolved(
+    final PathVirtual path,
+    final @Nullable FilesystemIndex.Result resolved)
     throws FilesystemError
   {
-    for (final Archive<?> a : this.archive_list) {
-      final PathReal a_p = a.getRealPath();
-      final PathVirtual a_m = a.getMountPath();
-
-      if (a_p.equals(archive) && a_m.equals(mount)) {
-        final String a_name = archive.toFile().getName();
-        final String m_name = mount.toString();
-        assert a_name != null;
-        throw FilesystemError.archiveAlreadyMounted(a_name, m_name);
+    if (resolved != null) {
+      final ByteBuffer b =
+        FilesystemSnapshot.readFileAsByteBufferResult(
+          resolved,
+          this.content_cache);
+      if (b != null) {
+        this.profileRecord(path);
+        return b;
       }
     }
+    return this.readFileAsByteBuffer(path);
   }
 
-  @Override public void mountClasspathArchive(
-    final Class<?> c,
-    final PathVirtual mount)
+  @Override public Future<ByteBuffer> readFileAsByteBufferAsync(
+    final PathVirtual path,
+    final FilesystemCallbackType<ByteBuffer> callback)
+  {
+    NullCheck.notNull(path, "Path");
+
+    /**
+     * The file is looked up on the executor, and the read is then queued in
+     * the lane of the archive that provides it. The read uses the result of
+     * that lookup rather than looking the file up again. If the lookup
+     * fails, the read is run without a lane, and looks the file up again in
+     * order to report the error.
+     */
+
+    final AtomicReference<FilesystemIndex.Result> resolved =
+      new AtomicReference<FilesystemIndex.Result>();
+    final AsyncExecutor.Task<ByteBuffer> task =
+      new AsyncExecutor.Task<ByteBuffer>(new Callable<ByteBuffer>() {
+        @Override public ByteBuffer call()
+          throws FilesystemError
+        {
+          return Filesystem.this.readFileAsByteBufferResolved(
+            path,
+            resolved.get());
+        }
+      }, callback);
+
+    final AsyncExecutor a = this.async;
+    a.execute(new Runnable() {
+      @Override public void run()
+      {
+        final FilesystemIndex.Result r =
+          Filesystem.this.current.lookupFileDetached(path);
+        if (r == null) {
+          a.runLimited(null, task);
+        } else {
+          resolved.set(r);
+          a.runLimited(r.getArchive(), task);
+        }
+      }
+    });
+    return task;
+  }
+
+  @Override public void setAsyncExecutor(
+    final Executor executor,
+    final int archive_concurrency)
     throws FilesystemError
   {
-    NullCheck.notNull(c, "Class");
-    NullCheck.notNull(mount, "Mount path");
+    NullCheck.notNull(executor, "Executor");
+    if (archive_concurrency <= 0) {
+      throw new FilesystemError(
+        Code.FS_ERROR_CONSTRAINT_ERROR,
+        "Archive concurrency must be positive");
+    }
 
-    this.log_mount.info("mount-classpath-archive: " + c + " - " + mount);
+    this.log.info("async: " + archive_concurrency + " per archive");
+    this.async = new AsyncExecutor(this.log, executor, archive_concurrency);
+  }
 
-    NullCheck.notNull(c, "Class");
-    final String cname = c.getCanonicalName();
-    NullCheck.notNull(cname, "Class canonical name");
+  @Override public void setContentCache(
+    final long size,
+    final ContentCacheStorage storage)
+    throws FilesystemError
+  {
+    NullCheck.notNull(storage, "Storage");
+    if (size < 0) {
+      throw new FilesystemError(
+        Code.FS_ERROR_CONSTRAINT_ERROR,
+        "Content cache size must be non-negative");
+    }
 
-    final String cname_s = cname.replace('.', '/');
-    final String cname_k = cname_s + ".class";
+    this.log.info("content-cache: " + size + " " + storage);
 
-    final ClassLoader loader = c.getClassLoader();
-    final URL url = loader.getResource(cname_k);
-    this.log_mount.debug("mount-classpath-archive: url " + url);
+    /**
+     * The new cache registers the mounted archives while holding the lock,
+     * so that no archive is mounted or unmounted in the meantime.
+     */
 
-    final String mount_path =
-      ClassURIHandling.getClassContainerPath(
-        NullCheck.notNull(url, "URL from ClassLoader"),
-        cname_k);
-    this.log_mount.debug("mount-classpath-archive: actual " + mount_path);
+    synchronized (this.lock) {
+      if (size == 0) {
+        this.content_cache = null;
+        return;
+      }
 
-    this.mountInternal(new PathReal(mount_path), mount);
+      final ContentCache cache = new ContentCache(size, storage);
+      for (final Archive<?> a : this.current.getArchives()) {
+        assert a != null;
+        cache.register(a);
+      }
+      this.content_cache = cache;
+    }
   }
 
-  private <T extends FSReference> void mountInternal(
-    final PathReal archive,
-    final PathVirtual mount)
+  @Override public void setIndexCacheDirectory(
+    final OptionType<PathReal> directory)
     throws FilesystemError
   {
-    this.mountCheckArchiveStack(archive, mount);
+    NullCheck.notNull(directory, "Directory");
 
-    final ArchiveHandler<?> handler = this.mountInternalCheckHandler(archive);
-    final OptionType<T> r = this.lookup(mount);
+    if (directory.isNone()) {
+      this.log.info("index-cache: disabled");
+      this.index_cache = null;
+      return;
+    }
 
-    r.acceptPartial(new OptionPartialVisitorType<T, Unit, FilesystemError>() {
-      @Override public Unit none(
-        final None<T> n)
-        throws FilesystemError
-      {
-        throw FilesystemError.fileNotFound(mount.toString());
-      }
+    final PathReal d = ((Some<PathReal>) directory).get();
+    final File f = d.toFile();
+    if ((f.isDirectory() == false) && (f.mkdirs() == false)) {
+      throw FilesystemError.ioError(new IOException(
+        "Could not create index cache directory: " + d));
+    }
 
-      @Override public Unit some(
-        final Some<T> s)
-        throws FilesystemError
-      {
-        switch (s.get().getType()) {
-          case FS_REF_ARCHIVE:
-          {
-            Filesystem.this.createDirectory(mount);
-            Filesystem.this.mountInternalActual(handler, archive, mount);
-            return Unit.unit();
-          }
-          case FS_REF_VIRTUAL_DIRECTORY:
-          {
-            Filesystem.this.mountInternalActual(handler, archive, mount);
-            return Unit.unit();
-          }
-        }
+    this.log.info("index-cache: " + d);
+    this.index_cache = new ArchiveZipIndexCache(this.log, d);
+  }
+
+  @Override public FilesystemSnapshotType snapshot()
+    throws FilesystemError
+  {
+    /**
+     * Acquiring the archives of a snapshot fails only if one of them was
+     * unmounted and closed after the snapshot was read, in which case a
+     * newer snapshot has already been published.
+     */
 
-        throw new UnreachableCodeException();
+    for (;;) {
+      final FilesystemSnapshot s = this.current.acquire();
+      if (s != null) {
+        return s;
       }
-    });
+    }
   }
 
-  private void mountInternalActual(
-    final ArchiveHandler<?> handler,
-    final PathReal archive,
-    final PathVirtual mount)
-    throws FilesystemError
+  /**
+   * @return A snapshot of an empty filesystem, containing only the root
+   *         directory.
+   */
+
+  private FilesystemSnapshot snapshotEmpty()
+  {
+    final List<Archive<?>> archives_empty = Collections.emptyList();
+    final Map<PathVirtual, UpdateTimeEntry> updates_empty =
+      Collections.emptyMap();
+    assert archives_empty != null;
+    assert updates_empty != null;
+
+    return this.snapshotMake(FilesystemIndex.EMPTY.createDirectory(
+      PathVirtual.ROOT,
+      Filesystem.getUTCTimeNow()), archives_empty, updates_empty);
+  }
+
+  private FilesystemSnapshot snapshotMake(
+    final FilesystemIndex index,
+    final List<Archive<?>> archive_list,
+    final Map<PathVirtual, UpdateTimeEntry> time_updates)
   {
-    final Archive<?> a = handler.load(this.log, archive, mount);
-    this.archive_list.addFirst(a);
+    return new FilesystemSnapshot(
+      this.log_lookup,
+      this.cursors,
+      index,
+      archive_list,
+      time_updates);
   }
 
   /**
-   * Find an archive handler that can handle <code>archive</code>, or raise an
-   * error.
+   * Discard any explicit updates to the modification times of objects that
+   * no longer exist in <code>s</code> (because the archives that provided
+   * them have been unmounted, or because they have been shadowed by files in
+   * more recently mounted archives).
+   * 
+   * @return A snapshot equivalent to <code>s</code>, without the discarded
+   *         updates
    */
 
-  private ArchiveHandler<?> mountInternalCheckHandler(
-    final PathReal archive)
-    throws FilesystemError
+  private FilesystemSnapshot snapshotPruned(
+    final FilesystemSnapshot s)
   {
-    for (final ArchiveHandler<?> handler : this.handlers) {
-      if (handler.canHandle(archive)) {
-        return handler;
+    final Map<PathVirtual, UpdateTimeEntry> updates = s.getTimeUpdates();
+    if (updates.isEmpty()) {
+      return s;
+    }
+
+    final Map<PathVirtual, UpdateTimeEntry> kept =
+      new HashMap<PathVirtual, UpdateTimeEntry>(updates.size());
+    for (final PathVirtual p : updates.keySet()) {
+      assert p != null;
+      try {
+        if (s.exists(p)) {
+          kept.put(p, updates.get(p));
+        }
+      } catch (final FilesystemError e) {
+        /**
+         * An ancestor of the path is no longer a directory.
+         */
       }
     }
 
-    throw FilesystemError.archiveTypeUnsupported(archive.toString());
+    if (kept.size() == updates.size()) {
+      return s;
+    }
+
+    return this.snapshotMake(
+      s.getIndex(),
+      s.getArchives(),
+      Collections.unmodifiableMap(kept));
   }
 
-  @Override public InputStream openFile(
-    final PathVirtual path)
+  @Override public void startAccessProfile()
     throws FilesystemError
   {
-    NullCheck.notNull(path, "Path");
-    return this.openFileActual(path);
+    synchronized (this.lock) {
+      if (this.profile != null) {
+        throw new FilesystemError(
+          Code.FS_ERROR_CONSTRAINT_ERROR,
+          "An access profile is already being recorded");
+      }
+      this.profile = new AccessProfile();
+    }
+
+    this.log.info("access-profile: start");
   }
 
-  private <T extends FSReference> InputStream openFileActual(
+  @Override public FileStat stat(
     final PathVirtual path)
     throws FilesystemError
   {
-    final OptionType<T> r = this.lookup(path);
-    return r
-      .acceptPartial(new OptionPartialVisitorType<T, InputStream, FilesystemError>() {
-        @Override public InputStream none(
-          final None<T> n)
+    return this.current.stat(path);
+  }
+
+  @Override public Future<FileStat> statAsync(
+    final PathVirtual path,
+    final FilesystemCallbackType<FileStat> callback)
+  {
+    NullCheck.notNull(path, "Path");
+
+    final AsyncExecutor.Task<FileStat> task =
+      new AsyncExecutor.Task<FileStat>(new Callable<FileStat>() {
+        @Override public FileStat call()
           throws FilesystemError
         {
-          throw FilesystemError.fileNotFound(path.toString());
+          return Filesystem.this.stat(path);
         }
+      }, callback);
 
-        @Override public InputStream some(
-          final Some<T> s)
-          throws FilesystemError
-        {
-          switch (s.get().getType()) {
-            case FS_REF_ARCHIVE:
-            {
-              final FSReferenceArchive ra = (FSReferenceArchive) s.get();
-              switch (ra.ref.getType()) {
-                case TYPE_DIRECTORY:
-                {
-                  throw FilesystemError.notFile(path.toString());
-                }
-                case TYPE_FILE:
-                {
-                  final Archive<?> a = ra.ref.getArchive();
-
-                  /*
-                   * XXX: Under what conditions can getArchive() return null?
-                   */
-
-                  assert a != null;
-                  return a.openFile(path.subtract(a.getMountPath()));
-                }
-              }
-
-              throw new UnreachableCodeException();
-            }
-            case FS_REF_VIRTUAL_DIRECTORY:
-            {
-              throw FilesystemError.notFile(path.toString());
-            }
-          }
+    this.async.execute(task);
+    return task;
+  }
 
-          throw new UnreachableCodeException();
-        }
-      });
+  @Override public void stopAccessProfile(
+    final PathReal file)
+    throws FilesystemError
+  {
+    NullCheck.notNull(file, "File");
+
+    final AccessProfile p;
+    synchronized (this.lock) {
+      p = this.profile;
+      if (p == null) {
+        throw new FilesystemError(
+          Code.FS_ERROR_CONSTRAINT_ERROR,
+          "No access profile is being recorded");
+      }
+      this.profile = null;
+    }
+
+    this.log.info("access-profile: stop: " + file);
+    p.write(file);
+  }
+
+  @Override public void streamFileAsync(
+    final PathVirtual path,
+    final int chunk_size,
+    final FilesystemSubscriberType subscriber)
+    throws FilesystemError
+  {
+    NullCheck.notNull(path, "Path");
+    NullCheck.notNull(subscriber, "Subscriber");
+    if (chunk_size <= 0) {
+      throw new FilesystemError(
+        Code.FS_ERROR_CONSTRAINT_ERROR,
+        "Chunk size must be positive");
+    }
+
+    final AsyncExecutor a = this.async;
+    a.execute(new Runnable() {
+      @Override public void run()
+      {
+        final Filesystem fs = Filesystem.this;
+        new AsyncStream(
+          fs.log,
+          fs,
+          a,
+          fs.current.lookupFileDetached(path),
+          path,
+          chunk_size,
+          subscriber).start();
+      }
+    });
   }
 
   @Override public void unmount(
@@ -1115,23 +1373,35 @@ import com.io7m.jvvfs.FilesystemError.Code;
 
     this.log_mount.info("unmount: " + mount);
 
-    /**
-     * Check to see if the mount point could possibly be mounted. It's
-     * possible for files from archives mounted below the mount point M to
-     * "shadow" M.
-     */
+    synchronized (this.lock) {
+      final FilesystemSnapshot s = this.current;
 
-    if (this.isDirectory(mount) == false) {
-      throw FilesystemError.notDirectory(mount.toString());
-    }
+      /**
+       * Check to see if the mount point could possibly be mounted. It's
+       * possible for files from archives mounted below the mount point M to
+       * "shadow" M.
+       */
+
+      if (s.isDirectory(mount) == false) {
+        throw FilesystemError.notDirectory(mount.toString());
+      }
 
-    final Iterator<Archive<?>> iter = this.archive_list.iterator();
-    while (iter.hasNext()) {
-      final Archive<?> a = iter.next();
-      if (a.getMountPath().equals(mount)) {
-        a.close();
-        iter.remove();
-        break;
+      final List<Archive<?>> archives_next =
+        new ArrayList<Archive<?>>(s.getArchives());
+      final Iterator<Archive<?>> iter = archives_next.iterator();
+      while (iter.hasNext()) {
+        final Archive<?> a = iter.next();
+        if (a.getMountPath().equals(mount)) {
+          iter.remove();
+          this.current =
+            this.snapshotPruned(this.snapshotMake(
+              s.getIndex().unmount(a),
+              Collections.unmodifiableList(archives_next),
+              s.getTimeUpdates()));
+          this.contentCacheInvalidate(a);
+          a.release();
+          break;
+        }
       }
     }
   }
@@ -1143,7 +1413,19 @@ import com.io7m.jvvfs.FilesystemError.Code;
   {
     NullCheck.notNull(path, "Path");
 
-    final Calendar ct = this.getModificationTimeActual(path);
-    this.time_updates.put(path, new UpdateTimeEntry(ct, t));
+    synchronized (this.lock) {
+      final FilesystemSnapshot s = this.current;
+      final Calendar ct = s.getModificationTimeActual(path);
+
+      final Map<PathVirtual, UpdateTimeEntry> updates =
+        new HashMap<PathVirtual, UpdateTimeEntry>(s.getTimeUpdates());
+      updates.put(path.intern(), new UpdateTimeEntry(ct, t));
+
+      this.current =
+        this.snapshotMake(
+          s.getIndex(),
+          s.getArchives(),
+          Collections.unmodifiableMap(updates));
+    }
   }
 }
@@ -0,0 +1,58 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jvvfs;
+
+/**
+ * <p>
+ * The type of callbacks that receive the results of asynchronous
+ * operations.
+ * </p>
+ * <p>
+ * Exactly one of the methods is called, exactly once, on the thread that
+ * completed the operation, unless the operation is cancelled before it
+ * starts, in which case neither is called.
+ * </p>
+ * 
+ * @param <T>
+ *          The type of results
+ * @see FSCapabilityReadAsyncType
+ */
+
+public interface FilesystemCallbackType<T>
+{
+  /**
+   * The operation failed.
+   * 
+   * @param e
+   *          The error raised by the operation, or an error with code
+   *          {@link FilesystemError.Code#FS_ERROR_CONSTRAINT_ERROR} whose
+   *          cause is any other exception or error raised by it
+   */
+
+  void onFailure(
+    final FilesystemError e);
+
+  /**
+   * The operation succeeded.
+   * 
+   * @param value
+   *          The result of the operation
+   */
+
+  void onSuccess(
+    final T value);
+}
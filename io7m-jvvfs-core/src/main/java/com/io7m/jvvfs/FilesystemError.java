@@ -36,6 +36,13 @@ public final class FilesystemError extends Exception
 
     FS_ERROR_ARCHIVE_ALREADY_MOUNTED,
 
+    /**
+     * The user tried to open a file in an archive that has been unmounted
+     * and closed, via a snapshot that had already been released.
+     */
+
+    FS_ERROR_ARCHIVE_CLOSED,
+
     /**
      * An archive appeared to be corrupt and could not be loaded.
      */
@@ -107,6 +114,14 @@ public final class FilesystemError extends Exception
       "archive '" + archive + "' is already mounted at '" + mount + "'");
   }
 
+  static FilesystemError archiveClosed(
+    final String path)
+  {
+    return new FilesystemError(Code.FS_ERROR_ARCHIVE_CLOSED, "file '"
+      + path
+      + "' is provided by an archive that has been closed");
+  }
+
   static FilesystemError archiveDamaged(
     final String archive,
     final String message)
@@ -173,6 +188,15 @@ public final class FilesystemError extends Exception
       + "' is not a file");
   }
 
+  static FilesystemError unexpected(
+    final Throwable e)
+  {
+    return new FilesystemError(
+      Code.FS_ERROR_CONSTRAINT_ERROR,
+      "operation raised " + e,
+      e);
+  }
+
   private final Code code;
 
   FilesystemError(
@@ -183,6 +207,15 @@ public final class FilesystemError extends Exception
     this.code = in_code;
   }
 
+  FilesystemError(
+    final Code in_code,
+    final String message,
+    final Throwable cause)
+  {
+    super(message, cause);
+    this.code = in_code;
+  }
+
   FilesystemError(
     final Exception cause)
   {
@@ -0,0 +1,1831 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jvvfs;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jvvfs.FileReference.Type;
+
+/**
+ * <p>
+ * An index of the merged namespace of a stack of mounted archives.
+ * </p>
+ * <p>
+ * The index is a trie keyed by name. Each node of the trie records the
+ * archives that contain an object at the path denoted by the node, ordered
+ * from the most recently mounted archive to the least recently mounted
+ * archive. This allows the archive that provides the object at a given path
+ * to be determined in time proportional to the length of the path, without
+ * querying any of the archives.
+ * </p>
+ * <p>
+ * Archives that cannot enumerate their contents ahead of time (such as
+ * directories in the operating system filesystem, the contents of which may
+ * change at any time) are recorded only at their mount points, and are
+ * queried directly during lookups.
+ * </p>
+ * <p>
+ * The trie also records the virtual directories created in the filesystem,
+ * so that the virtual directories within a given directory can be
+ * enumerated without examining any others.
+ * </p>
+ * <p>
+ * Values of this type are immutable, and may be accessed safely from
+ * multiple threads.
+ * </p>
+ */
+
+final class FilesystemIndex
+{
+  /**
+   * <p>
+   * A cursor used to resolve a path one ancestor at a time.
+   * </p>
+   * <p>
+   * The cursor tracks the state required to apply the shadowing rules of the
+   * archive stack to each successive ancestor of a path, without having to
+   * examine the ancestors again.
+   * </p>
+   * <p>
+   * A cursor may be reused for any number of lookups, in any number of
+   * indexes, by calling {@link #reset(FilesystemIndex, PathVirtual)}. Once
+   * the internal lists of the cursor have grown to accommodate the archive
+   * stack, resolving a path provided by an indexed archive does not
+   * allocate.
+   * </p>
+   * <p>
+   * Cursors are not thread-safe, and are intended to be confined to a single
+   * thread. A cursor records its statistics in a {@link Statistics} value
+   * that may be shared with other cursors, and that may be read from any
+   * thread.
+   * </p>
+   * <p>
+   * The result of a lookup, and the state of the cursor, refer to the
+   * archives of the index in which the lookup was made. A cursor that is
+   * retained (for example, in a thread-local variable) should be
+   * {@link #clear()}ed once the result is no longer needed, so that it does
+   * not keep archives or indexes reachable after they have been discarded.
+   * </p>
+   */
+
+  static final class Cursor
+  {
+    /**
+     * <p>
+     * The state of an archive that is not indexed, with respect to the
+     * ancestors of the path at which the cursor is positioned. Each ancestor
+     * is checked at most once, and only if the archive actually needs to be
+     * queried.
+     * </p>
+     */
+
+    private static final class Live
+    {
+      private @Nullable String blocked;
+      private boolean          missing;
+      private final Mount      mount;
+      private int              verified;
+
+      Live(
+        final Mount in_mount,
+        final int in_depth)
+      {
+        this.mount = in_mount;
+        this.verified = in_depth;
+        this.missing = false;
+        this.blocked = null;
+      }
+
+      void update(
+        final PathVirtual p,
+        final @Nullable FileReference<?> r)
+      {
+        if (r == null) {
+          this.missing = true;
+        } else if (r.getType() == Type.TYPE_FILE) {
+          this.blocked = p.toString();
+        } else {
+          ++this.verified;
+        }
+      }
+    }
+
+    private static void insertLive(
+      final List<Live> live,
+      final Live l)
+    {
+      int index = 0;
+      while (index < live.size()) {
+        if (live.get(index).mount.sequence < l.mount.sequence) {
+          break;
+        }
+        ++index;
+      }
+      live.add(index, l);
+    }
+
+    private long                  blocker;
+    private int                   blocker_depth;
+    private @Nullable Node        blocker_node;
+    private int                   depth;
+    private final List<Live>      live;
+    private long                  newest;
+    private @Nullable Node        node;
+    private PathVirtual           path;
+    private final Result          result;
+    private boolean               result_valid;
+    private final Statistics      statistics;
+    private final int             stripe;
+
+    Cursor(
+      final Statistics in_statistics)
+    {
+      this.live = new ArrayList<Live>();
+      this.result = new Result();
+      this.path = PathVirtual.ROOT;
+      this.statistics = in_statistics;
+      this.stripe = in_statistics.stripeForCurrentThread();
+      this.reset(FilesystemIndex.EMPTY, PathVirtual.ROOT);
+    }
+
+    /**
+     * <p>
+     * Discard the state of the cursor and the result of the most recent
+     * lookup, so that the cursor no longer refers to any archive or index.
+     * </p>
+     */
+
+    void clear()
+    {
+      this.reset(FilesystemIndex.EMPTY, PathVirtual.ROOT);
+      this.result.clear();
+    }
+
+    private void count(
+      final int counter)
+    {
+      this.statistics.increment(this.stripe, counter);
+    }
+
+    /**
+     * <p>
+     * Move the cursor to the child of the current path that is an ancestor
+     * of (or is equal to) the path given to
+     * {@link #reset(FilesystemIndex, PathVirtual)}.
+     * </p>
+     */
+
+    void descend()
+    {
+      assert this.depth < this.path.length();
+
+      final int name = this.depth;
+      ++this.depth;
+      this.result_valid = false;
+
+      final Node previous = this.node;
+      if (previous == null) {
+        return;
+      }
+
+      /**
+       * Any archive that has a file at an ancestor of the current path
+       * cannot contain the current path.
+       */
+
+      if (previous.newest_file > this.blocker) {
+        this.blocker = previous.newest_file;
+        this.blocker_depth = name;
+        this.blocker_node = previous;
+      }
+
+      final Node next = previous.getChild(this.path, name);
+      this.node = next;
+      if (next != null) {
+        this.enter(next);
+      }
+    }
+
+    private void enter(
+      final Node n)
+    {
+      /**
+       * Record any archives mounted at the current node. Archives are
+       * always mounted in order of increasing sequence numbers, and so the
+       * list of live archives remains sorted in order of decreasing sequence
+       * number if each new archive is inserted at the correct position.
+       */
+
+      final List<Mount> ms = n.mounts;
+      if (ms != null) {
+        for (int index = 0; index < ms.size(); ++index) {
+          final Mount m = ms.get(index);
+          this.newest = Math.max(this.newest, m.sequence);
+          if (m.indexed == false) {
+            Cursor.insertLive(this.live, new Live(m, this.depth));
+          }
+        }
+      }
+    }
+
+    /**
+     * @return The creation time of the virtual directory at the path at
+     *         which the cursor is currently positioned, or <code>null</code>
+     *         if the path is not a virtual directory.
+     */
+
+    @Nullable Calendar getDirectory()
+    {
+      final Node n = this.node;
+      if (n != null) {
+        return n.directory;
+      }
+      return null;
+    }
+
+    /**
+     * @return The path at which the cursor is currently positioned.
+     */
+
+    PathVirtual getPath()
+    {
+      return this.path.prefix(this.depth);
+    }
+
+    /**
+     * @return The object found by the most recent successful call to
+     *         {@link #resolve()}. The object is only valid until the cursor
+     *         is next moved or reset.
+     */
+
+    Result getResult()
+    {
+      assert this.result_valid;
+      return this.result;
+    }
+
+    /**
+     * <p>
+     * Position the cursor at the root directory of <code>in_index</code>,
+     * ready to resolve the ancestors of <code>in_path</code> with
+     * {@link #descend()}.
+     * </p>
+     */
+
+    void reset(
+      final FilesystemIndex in_index,
+      final PathVirtual in_path)
+    {
+      final Node root = in_index.root;
+      this.path = in_path;
+      this.depth = 0;
+      this.node = root;
+      this.live.clear();
+      this.newest = -1;
+      this.blocker = -1;
+      this.blocker_depth = 0;
+      this.blocker_node = null;
+      this.result_valid = false;
+      this.enter(root);
+    }
+
+    /**
+     * Query the live archive <code>l</code> for the path at depth
+     * <code>at</code>, checking any ancestors of the path that have not yet
+     * been checked in the archive. If <code>null</code> is returned and
+     * <code>l.blocked</code> is set, the archive has a file at an ancestor of
+     * the path.
+     */
+
+    private @Nullable FileReference<?> query(
+      final Live l,
+      final int at)
+      throws FilesystemError
+    {
+      final Archive<?> a = l.mount.archive;
+      final PathVirtual mount = a.getMountPath();
+
+      while ((l.verified < at) && (l.missing == false)) {
+        if (l.blocked != null) {
+          break;
+        }
+        final PathVirtual p = this.path.prefix(l.verified).subtract(mount);
+        l.update(p, a.lookupActual(p));
+      }
+
+      if (l.missing || (l.blocked != null)) {
+        return null;
+      }
+
+      final PathVirtual p = this.path.prefix(at).subtract(mount);
+      final FileReference<?> r = a.lookupActual(p);
+      if (l.verified == at) {
+        l.update(p, r);
+      }
+      return r;
+    }
+
+    /**
+     * <p>
+     * Determine which archive, if any, provides the object at the path at
+     * which the cursor is currently positioned.
+     * </p>
+     *
+     * @return The object, or <code>null</code> if no archive provides an
+     *         object at the current path. The object is only valid until the
+     *         cursor is next moved or reset.
+     * @throws FilesystemError
+     *           If the most recently mounted archive that could contain the
+     *           current path has a file at an ancestor of the current path.
+     */
+
+    @Nullable Result resolve()
+      throws FilesystemError
+    {
+      this.result_valid = false;
+      this.count(Statistics.STAT_LOOKUPS);
+
+      final Node n = this.node;
+      final Entry found;
+      if (n != null) {
+        found = n.entries;
+      } else {
+        found = null;
+      }
+
+      long indexed = this.blocker;
+      if (found != null) {
+        indexed = Math.max(indexed, found.mount.sequence);
+      }
+
+      /**
+       * Query any archives that were mounted more recently than the most
+       * recently mounted indexed archive that has an opinion about the
+       * current path.
+       */
+
+      boolean queried = false;
+      for (int index = 0; index < this.live.size(); ++index) {
+        final Live l = this.live.get(index);
+        final Mount m = l.mount;
+        if (m.sequence <= indexed) {
+          break;
+        }
+
+        queried = true;
+        this.count(Statistics.STAT_ARCHIVE_QUERIES);
+        final FileReference<?> r = this.query(l, this.depth);
+        if (r != null) {
+          return this.resolved(m.archive, r);
+        }
+
+        /**
+         * An archive that has a file at an ancestor of the current path
+         * shadows all older archives.
+         */
+
+        final String b = l.blocked;
+        if (b != null) {
+          if (m.sequence == this.newest) {
+            throw FilesystemError.notDirectory(b);
+          }
+          return null;
+        }
+        this.count(Statistics.STAT_ARCHIVE_QUERY_MISSES);
+      }
+
+      if (queried == false) {
+        this.count(Statistics.STAT_LOOKUPS_INDEXED);
+      }
+
+      if (indexed < 0) {
+        return null;
+      }
+
+      /**
+       * An archive that has a file at an ancestor of the current path
+       * shadows all older archives. If the archive is the most recently
+       * mounted archive that could contain the current path, then an error
+       * is raised.
+       */
+
+      if ((found == null) || (this.blocker >= found.mount.sequence)) {
+        if (this.blocker == this.newest) {
+          final Node b = this.blocker_node;
+          assert b != null;
+          final Entry be = b.findEntry(this.blocker);
+          assert be != null;
+          final PathVirtual bp = this.path.prefix(this.blocker_depth);
+          throw FilesystemError.notDirectory(bp.subtract(
+            be.mount.archive.getMountPath()).toString());
+        }
+        return null;
+      }
+
+      return this.resolved(found.mount.archive, found.reference);
+    }
+
+    private Result resolved(
+      final Archive<?> archive,
+      final FileReference<?> reference)
+    {
+      this.result.set(archive, reference);
+      this.result_valid = true;
+      return this.result;
+    }
+
+    /**
+     * <p>
+     * List the names of the objects in the directory at the path at which
+     * the cursor is currently positioned, taking the union of the contents
+     * of the directory in each archive that is not shadowed by a more
+     * recently mounted archive.
+     * </p>
+     *
+     * @param items
+     *          The set to which names will be added
+     * @throws FilesystemError
+     *           If the most recently mounted archive that could contain the
+     *           current path has a file at or above the current path.
+     */
+
+    void list(
+      final SortedSet<String> items)
+      throws FilesystemError
+    {
+      final PathVirtual path = this.getPath();
+
+      /**
+       * Any archive that has a file at or above the current path shadows all
+       * older archives.
+       */
+
+      final Node n = this.node;
+      long stop = this.blocker;
+      if (n != null) {
+        stop = Math.max(stop, n.newest_file);
+      }
+
+      final List<Long> live_sequences = new ArrayList<Long>();
+      final List<Set<String>> live_items = new ArrayList<Set<String>>();
+
+      for (int index = 0; index < this.live.size(); ++index) {
+        final Mount m = this.live.get(index).mount;
+        if (m.sequence <= stop) {
+          break;
+        }
+
+        final Archive<?> a = m.archive;
+        this.count(Statistics.STAT_ARCHIVE_QUERIES);
+        final FileReference<?> r =
+          a.lookupNearest(path.subtract(a.getMountPath()));
+        if (r == null) {
+          continue;
+        }
+        if (r.getType() != Type.TYPE_DIRECTORY) {
+          if (m.sequence == this.newest) {
+            throw FilesystemError.notDirectory(r.getPath().toString());
+          }
+          stop = m.sequence;
+          break;
+        }
+
+        live_items.add(FilesystemIndex.archiveListDirectory(a, r));
+        live_sequences.add(Long.valueOf(m.sequence));
+      }
+
+      if ((stop >= 0) && (stop == this.newest)) {
+        throw FilesystemError.notDirectory(path.toString());
+      }
+
+      for (int index = 0; index < live_items.size(); ++index) {
+        if (live_sequences.get(index).longValue() > stop) {
+          items.addAll(live_items.get(index));
+        }
+      }
+
+      if (n != null) {
+        n.listChildren(items, stop);
+      }
+    }
+
+    /**
+     * <p>
+     * List the names of the virtual directories in the directory at the path
+     * at which the cursor is currently positioned.
+     * </p>
+     *
+     * @param items
+     *          The set to which names will be added
+     */
+
+    void listDirectories(
+      final SortedSet<String> items)
+    {
+      final Node n = this.node;
+      if (n != null) {
+        n.listDirectories(items);
+      }
+    }
+
+    /**
+     * <p>
+     * List the objects in the directory at the path at which the cursor is
+     * currently positioned, as with {@link #list(SortedSet)}, and determine
+     * which archive provides each object in the same pass.
+     * </p>
+     * <p>
+     * Each archive that is not indexed is listed exactly once, and objects
+     * in indexed archives are described by the references retained when the
+     * archives were mounted, so no object is looked up individually. Objects
+     * that cannot be determined without a full lookup (such as the root
+     * directories of archives mounted in the directory) are listed in
+     * <code>names</code> but are not added to <code>items</code>.
+     * </p>
+     *
+     * @param names
+     *          The set to which names will be added
+     * @param items
+     *          The map to which the provider of each object will be added
+     * @throws FilesystemError
+     *           If the most recently mounted archive that could contain the
+     *           current path has a file at or above the current path.
+     */
+
+    void listDetailed(
+      final SortedSet<String> names,
+      final Map<String, Child> items)
+      throws FilesystemError
+    {
+      final PathVirtual path = this.getPath();
+
+      final Node n = this.node;
+      long stop = this.blocker;
+      if (n != null) {
+        stop = Math.max(stop, n.newest_file);
+      }
+
+      final List<Mount> live_mounts = new ArrayList<Mount>();
+      final List<Map<String, ? extends FileReference<?>>> live_items =
+        new ArrayList<Map<String, ? extends FileReference<?>>>();
+
+      for (int index = 0; index < this.live.size(); ++index) {
+        final Mount m = this.live.get(index).mount;
+        if (m.sequence <= stop) {
+          break;
+        }
+
+        final Archive<?> a = m.archive;
+        this.count(Statistics.STAT_ARCHIVE_QUERIES);
+        final FileReference<?> r =
+          a.lookupNearest(path.subtract(a.getMountPath()));
+        if (r == null) {
+          continue;
+        }
+        if (r.getType() != Type.TYPE_DIRECTORY) {
+          if (m.sequence == this.newest) {
+            throw FilesystemError.notDirectory(r.getPath().toString());
+          }
+          stop = m.sequence;
+          break;
+        }
+
+        live_items.add(FilesystemIndex.archiveListDirectoryDetailed(a, r));
+        live_mounts.add(m);
+      }
+
+      if ((stop >= 0) && (stop == this.newest)) {
+        throw FilesystemError.notDirectory(path.toString());
+      }
+
+      /**
+       * The live archives are listed in order of decreasing sequence number,
+       * and so the first archive to provide a given name is the most
+       * recently mounted.
+       */
+
+      for (int index = 0; index < live_items.size(); ++index) {
+        final Mount m = live_mounts.get(index);
+        if (m.sequence > stop) {
+          final Map<String, ? extends FileReference<?>> li =
+            live_items.get(index);
+          for (final String name : li.keySet()) {
+            names.add(name);
+            if (items.containsKey(name) == false) {
+              final FileReference<?> r = li.get(name);
+              assert r != null;
+              items.put(name, new Child(m.archive, r, m.sequence));
+            }
+          }
+        }
+      }
+
+      if (n != null) {
+        n.listChildren(names, stop);
+        n.listChildrenDetailed(items, stop);
+      }
+    }
+  }
+
+  /**
+   * <p>
+   * An object found by a detailed listing, along with the archive that
+   * provides it.
+   * </p>
+   */
+
+  static final class Child
+  {
+    private final Archive<?>       archive;
+    private final FileReference<?> reference;
+    private final long             sequence;
+
+    Child(
+      final Archive<?> in_archive,
+      final FileReference<?> in_reference,
+      final long in_sequence)
+    {
+      this.archive = in_archive;
+      this.reference = in_reference;
+      this.sequence = in_sequence;
+    }
+
+    /**
+     * @return The archive that provides the object.
+     */
+
+    Archive<?> getArchive()
+    {
+      return this.archive;
+    }
+
+    /**
+     * @return The number of bytes that the file occupies in the archive.
+     * @throws FilesystemError
+     *           If the object is not a file, or an I/O error occurs.
+     */
+
+    long getCompressedSize()
+      throws FilesystemError
+    {
+      assert this.reference.getType() == Type.TYPE_FILE;
+      return FilesystemIndex.archiveCompressedSize(
+        this.archive,
+        this.reference);
+    }
+
+    /**
+     * @return The size of the file.
+     * @throws FilesystemError
+     *           If the object is not a file, or an I/O error occurs.
+     */
+
+    long getFileSize()
+      throws FilesystemError
+    {
+      assert this.reference.getType() == Type.TYPE_FILE;
+      return FilesystemIndex.archiveFileSize(this.archive, this.reference);
+    }
+
+    /**
+     * @return The modification time of the object.
+     */
+
+    Calendar getModificationTime()
+    {
+      return FilesystemIndex.archiveModificationTime(
+        this.archive,
+        this.reference);
+    }
+
+    /**
+     * @return The type of the object.
+     */
+
+    Type getType()
+    {
+      return this.reference.getType();
+    }
+  }
+
+  /**
+   * A token identifying a single modification of the index.
+   */
+
+  private static final class Edit
+  {
+    Edit()
+    {
+      // Nothing required
+    }
+  }
+
+  /**
+   * An object provided by an archive in the index. Entries are immutable, and
+   * the list of entries at a node may be shared between versions of the
+   * index.
+   */
+
+  private static final class Entry
+  {
+    private final Mount             mount;
+    private final @Nullable Entry   next;
+    private final FileReference<?>  reference;
+    private final boolean           root;
+
+    Entry(
+      final Mount in_mount,
+      final FileReference<?> in_reference,
+      final boolean in_root,
+      final @Nullable Entry in_next)
+    {
+      this.mount = in_mount;
+      this.reference = in_reference;
+      this.root = in_root;
+      this.next = in_next;
+    }
+
+    Type getType()
+    {
+      return this.reference.getType();
+    }
+  }
+
+  /**
+   * A mounted archive.
+   */
+
+  private static final class Mount
+  {
+    private final Archive<?>              archive;
+    private final boolean                 indexed;
+    private final Collection<PathVirtual> paths;
+    private final long                    sequence;
+
+    Mount(
+      final Archive<?> in_archive,
+      final long in_sequence,
+      final boolean in_indexed,
+      final Collection<PathVirtual> in_paths)
+    {
+      this.archive = in_archive;
+      this.sequence = in_sequence;
+      this.indexed = in_indexed;
+      this.paths = in_paths;
+    }
+  }
+
+  /**
+   * <p>
+   * A node in the index.
+   * </p>
+   * <p>
+   * The children of a node are held in a small open-addressed hash table
+   * keyed by name, rather than a {@link Map}, so that children can be found
+   * by comparing names directly against the components of a path, without
+   * extracting each component as a separate string.
+   * </p>
+   * <p>
+   * Nodes are copied on write. Each node records the edit that created it,
+   * and may only be modified by that edit. An edit that needs to modify a
+   * node created by an earlier edit copies the node (and the ancestors of
+   * the node) first, so that published versions of the index are never
+   * modified.
+   * </p>
+   */
+
+  private static final class Node
+  {
+    private @Nullable Node[]      children;
+    private int                   children_count;
+    private @Nullable Calendar    directory;
+    private @Nullable Entry       entries;
+    private final int             hash;
+    private @Nullable List<Mount> mounts;
+    private final String          name;
+    private long                  newest_file;
+    private final @Nullable Edit  owner;
+
+    Node(
+      final Node in_node,
+      final Edit in_owner)
+    {
+      this.owner = in_owner;
+      this.name = in_node.name;
+      this.hash = in_node.hash;
+      this.children_count = in_node.children_count;
+      this.directory = in_node.directory;
+      this.entries = in_node.entries;
+      this.newest_file = in_node.newest_file;
+
+      final Node[] cs = in_node.children;
+      if (cs != null) {
+        this.children = cs.clone();
+      } else {
+        this.children = null;
+      }
+
+      final List<Mount> ms = in_node.mounts;
+      if (ms != null) {
+        this.mounts = new ArrayList<Mount>(ms);
+      } else {
+        this.mounts = null;
+      }
+    }
+
+    Node(
+      final String in_name,
+      final @Nullable Edit in_owner)
+    {
+      this.owner = in_owner;
+      this.name = in_name;
+      this.hash = in_name.hashCode();
+      this.children = null;
+      this.children_count = 0;
+      this.directory = null;
+      this.entries = null;
+      this.mounts = null;
+      this.newest_file = -1;
+    }
+
+    void addEntry(
+      final Mount m,
+      final FileReference<?> r,
+      final boolean root)
+    {
+      /**
+       * The archive being added is always the most recently mounted, and
+       * therefore goes at the head of the list.
+       */
+
+      assert (this.entries == null)
+        || (this.entries.mount.sequence < m.sequence);
+
+      this.entries = new Entry(m, r, root, this.entries);
+      if (r.getType() == Type.TYPE_FILE) {
+        this.newest_file = m.sequence;
+      }
+    }
+
+    @Nullable Entry findEntry(
+      final long sequence)
+    {
+      Entry e = this.entries;
+      while (e != null) {
+        if (e.mount.sequence == sequence) {
+          return e;
+        }
+        e = e.next;
+      }
+      return null;
+    }
+
+    /**
+     * @return The child named by the component of <code>p</code> at
+     *         <code>index</code>, if any.
+     */
+
+    @Nullable Node getChild(
+      final PathVirtual p,
+      final int index)
+    {
+      final Node[] cs = this.children;
+      if (cs == null) {
+        return null;
+      }
+
+      /**
+       * The table is never full, and so the search always terminates at an
+       * empty slot if the child does not exist.
+       */
+
+      final int h = p.getUnsafeHash(index);
+      final int mask = cs.length - 1;
+      int slot = h & mask;
+      Node c = cs[slot];
+      while (c != null) {
+        if ((c.hash == h) && p.getUnsafeEquals(index, c.name)) {
+          return c;
+        }
+        slot = (slot + 1) & mask;
+        c = cs[slot];
+      }
+      return null;
+    }
+
+    /**
+     * @return The child named by the component of <code>p</code> at
+     *         <code>index</code>, created if necessary, and copied if
+     *         necessary so that it may be modified by the edit
+     *         <code>e</code>. The current node must be owned by
+     *         <code>e</code>.
+     */
+
+    Node getChildForEdit(
+      final PathVirtual p,
+      final int index,
+      final Edit e)
+    {
+      assert this.owner == e;
+
+      final Node existing = this.getChild(p, index);
+      if (existing != null) {
+        if (existing.owner == e) {
+          return existing;
+        }
+        final Node copy = new Node(existing, e);
+        final Node[] cs = this.children;
+        assert cs != null;
+        cs[this.slotOf(existing)] = copy;
+        return copy;
+      }
+
+      Node[] cs = this.children;
+      if (cs == null) {
+        cs = new Node[4];
+        this.children = cs;
+      }
+      if (((this.children_count + 1) * 4) > (cs.length * 3)) {
+        cs = this.resize(cs);
+      }
+
+      final Node created = new Node(p.getUnsafe(index), e);
+      FilesystemIndex.insert(cs, created);
+      ++this.children_count;
+      return created;
+    }
+
+    boolean isUnused()
+    {
+      final List<Mount> ms = this.mounts;
+      return (this.entries == null)
+        && (this.directory == null)
+        && (this.children_count == 0)
+        && ((ms == null) || ms.isEmpty());
+    }
+
+    void listChildren(
+      final SortedSet<String> items,
+      final long stop)
+    {
+      final Node[] cs = this.children;
+      if (cs == null) {
+        return;
+      }
+
+      for (int index = 0; index < cs.length; ++index) {
+        final Node c = cs[index];
+        if (c != null) {
+          c.listInto(items, stop);
+        }
+      }
+    }
+
+    void listChildrenDetailed(
+      final Map<String, Child> items,
+      final long stop)
+    {
+      final Node[] cs = this.children;
+      if (cs == null) {
+        return;
+      }
+
+      for (int index = 0; index < cs.length; ++index) {
+        final Node c = cs[index];
+        if (c != null) {
+          c.listIntoDetailed(items, stop);
+        }
+      }
+    }
+
+    void listDirectories(
+      final SortedSet<String> items)
+    {
+      final Node[] cs = this.children;
+      if (cs == null) {
+        return;
+      }
+
+      for (int index = 0; index < cs.length; ++index) {
+        final Node c = cs[index];
+        if ((c != null) && (c.directory != null)) {
+          items.add(c.name);
+        }
+      }
+    }
+
+    private void listInto(
+      final SortedSet<String> items,
+      final long stop)
+    {
+      Entry e = this.entries;
+      while (e != null) {
+        if (e.mount.sequence <= stop) {
+          break;
+        }
+
+        /**
+         * An archive mounted at a child of the parent node is not part of the
+         * contents of the parent directory.
+         */
+
+        if (e.root == false) {
+          items.add(this.name);
+          break;
+        }
+        e = e.next;
+      }
+    }
+
+    /**
+     * Determine the provider of the object at this node, given the newest
+     * live archive (if any) that provides an object with the same name in
+     * the parent directory. This applies the same rules as
+     * {@link Cursor#resolve()}.
+     */
+
+    private void listIntoDetailed(
+      final Map<String, Child> items,
+      final long stop)
+    {
+      long bound = stop;
+      final Child live = items.get(this.name);
+      if (live != null) {
+        bound = Math.max(bound, live.sequence);
+      }
+
+      final Entry head = this.entries;
+      Entry found = null;
+      if ((head != null) && (head.mount.sequence > bound)) {
+        found = head;
+        bound = head.mount.sequence;
+      }
+
+      /**
+       * The root directory of an archive mounted at this node, or an archive
+       * that is not indexed and is mounted more recently than the current
+       * provider, can only be resolved by a full lookup.
+       */
+
+      boolean contested = (found != null) && found.root;
+      final List<Mount> ms = this.mounts;
+      if (ms != null) {
+        for (int index = 0; index < ms.size(); ++index) {
+          final Mount m = ms.get(index);
+          contested |= (m.indexed == false) && (m.sequence > bound);
+        }
+      }
+
+      if (contested) {
+        items.remove(this.name);
+        return;
+      }
+
+      if (found != null) {
+        items.put(this.name, new Child(
+          found.mount.archive,
+          found.reference,
+          found.mount.sequence));
+      }
+    }
+
+    /**
+     * Remove the child <code>child</code>, shifting any children that were
+     * displaced by it back towards their preferred slots.
+     */
+
+    void removeChild(
+      final Node child)
+    {
+      final Node[] cs = this.children;
+      assert cs != null;
+
+      final int mask = cs.length - 1;
+      int hole = this.slotOf(child);
+      cs[hole] = null;
+      --this.children_count;
+
+      int slot = (hole + 1) & mask;
+      Node c = cs[slot];
+      while (c != null) {
+        final int want = c.hash & mask;
+        final boolean stays;
+        if (hole <= slot) {
+          stays = (hole < want) && (want <= slot);
+        } else {
+          stays = (hole < want) || (want <= slot);
+        }
+        if (stays == false) {
+          cs[hole] = c;
+          cs[slot] = null;
+          hole = slot;
+        }
+        slot = (slot + 1) & mask;
+        c = cs[slot];
+      }
+    }
+
+    void removeEntry(
+      final Mount m)
+    {
+      /**
+       * The list of entries may be shared with other versions of the index,
+       * and so the entries that precede the removed entry are copied.
+       */
+
+      this.entries = FilesystemIndex.removeFrom(this.entries, m);
+
+      this.newest_file = -1;
+      Entry e = this.entries;
+      while (e != null) {
+        if (e.getType() == Type.TYPE_FILE) {
+          this.newest_file = e.mount.sequence;
+          break;
+        }
+        e = e.next;
+      }
+    }
+
+    private Node[] resize(
+      final Node[] old)
+    {
+      final Node[] cs = new Node[old.length * 2];
+      for (int index = 0; index < old.length; ++index) {
+        final Node c = old[index];
+        if (c != null) {
+          FilesystemIndex.insert(cs, c);
+        }
+      }
+      this.children = cs;
+      return cs;
+    }
+
+    private int slotOf(
+      final Node child)
+    {
+      final Node[] cs = this.children;
+      assert cs != null;
+
+      final int mask = cs.length - 1;
+      int slot = child.hash & mask;
+      while (cs[slot] != child) {
+        assert cs[slot] != null;
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+  }
+
+  /**
+   * <p>
+   * An object found by a lookup.
+   * </p>
+   * <p>
+   * Each cursor owns a single result, which is overwritten by each lookup.
+   * A result that must outlive the lookup is {@link #copy()}ed.
+   * </p>
+   */
+
+  static final class Result
+  {
+    private @Nullable Archive<?>       archive;
+    private @Nullable FileReference<?> reference;
+
+    Result()
+    {
+      this.archive = null;
+      this.reference = null;
+    }
+
+    void clear()
+    {
+      this.archive = null;
+      this.reference = null;
+    }
+
+    /**
+     * @return A new result, not owned by any cursor, that refers to the same
+     *         object as this result.
+     */
+
+    Result copy()
+    {
+      final Result r = new Result();
+      r.set(this.getArchive(), this.getReference());
+      return r;
+    }
+
+    /**
+     * @return The archive that provides the object.
+     */
+
+    Archive<?> getArchive()
+    {
+      final Archive<?> a = this.archive;
+      assert a != null;
+      return a;
+    }
+
+    /**
+     * @return The number of bytes that the file occupies in the archive.
+     * @throws FilesystemError
+     *           If the object is not a file, or an I/O error occurs.
+     */
+
+    long getCompressedSize()
+      throws FilesystemError
+    {
+      assert this.getType() == Type.TYPE_FILE;
+      return FilesystemIndex.archiveCompressedSize(
+        this.getArchive(),
+        this.getReference());
+    }
+
+    /**
+     * @return The size of the file.
+     * @throws FilesystemError
+     *           If the object is not a file, or an I/O error occurs.
+     */
+
+    long getFileSize()
+      throws FilesystemError
+    {
+      assert this.getType() == Type.TYPE_FILE;
+      return FilesystemIndex.archiveFileSize(
+        this.getArchive(),
+        this.getReference());
+    }
+
+    /**
+     * @return The modification time of the object.
+     */
+
+    Calendar getModificationTime()
+    {
+      return FilesystemIndex.archiveModificationTime(
+        this.getArchive(),
+        this.getReference());
+    }
+
+    /**
+     * @return A reference to the object.
+     */
+
+    FileReference<?> getReference()
+    {
+      final FileReference<?> r = this.reference;
+      assert r != null;
+      return r;
+    }
+
+    /**
+     * @return The type of the object.
+     */
+
+    Type getType()
+    {
+      return this.getReference().getType();
+    }
+
+    /**
+     * @return A new stream that reads the file, and that holds a reference
+     *         to the archive until the stream is closed, or
+     *         <code>null</code> if the archive has already been closed.
+     * @throws FilesystemError
+     *           If the object is not a file, or an I/O error occurs.
+     */
+
+    @Nullable InputStream openFile()
+      throws FilesystemError
+    {
+      assert this.getType() == Type.TYPE_FILE;
+
+      final Archive<?> a = this.getArchive();
+      if (a.acquire() == false) {
+        return null;
+      }
+
+      try {
+        final InputStream s =
+          FilesystemIndex.archiveOpenFile(a, this.getReference());
+        return new ArchiveInputStream(a, s);
+      } catch (final FilesystemError e) {
+        a.release();
+        throw e;
+      }
+    }
+
+    /**
+     * @return A read-only buffer holding the contents of the file, or
+     *         <code>null</code> if the archive has already been closed.
+     * @throws FilesystemError
+     *           If the object is not a file, or an I/O error occurs.
+     */
+
+    @Nullable ByteBuffer readFileAsByteBuffer()
+      throws FilesystemError
+    {
+      assert this.getType() == Type.TYPE_FILE;
+
+      final Archive<?> a = this.getArchive();
+      if (a.acquire() == false) {
+        return null;
+      }
+
+      try {
+        return FilesystemIndex.archiveReadFileAsByteBuffer(
+          a,
+          this.getReference());
+      } finally {
+        a.release();
+      }
+    }
+
+    void set(
+      final Archive<?> in_archive,
+      final FileReference<?> in_reference)
+    {
+      this.archive = in_archive;
+      this.reference = in_reference;
+    }
+  }
+
+  /**
+   * <p>
+   * Lookup statistics shared by the cursors of a filesystem.
+   * </p>
+   * <p>
+   * The counters are striped: each cursor increments the counters of the
+   * stripe chosen for its thread when the cursor is created, and the stripes
+   * are summed when the statistics are read. The counters of each stripe
+   * share a cache line that is not shared with any other stripe, so cursors
+   * on different threads rarely contend. No reference to any cursor is
+   * retained, so cursors may be discarded along with their threads.
+   * </p>
+   */
+
+  static final class Statistics
+  {
+    static final int         STAT_ARCHIVE_QUERIES      = 0;
+    static final int         STAT_ARCHIVE_QUERY_MISSES = 1;
+    static final int         STAT_LOOKUPS              = 2;
+    static final int         STAT_LOOKUPS_INDEXED      = 3;
+
+    /**
+     * The distance between stripes, in counters. Eight counters occupy a
+     * typical 64 byte cache line.
+     */
+
+    private static final int STRIDE                    = 8;
+
+    private final AtomicLongArray counters;
+    private final int             mask;
+
+    Statistics()
+    {
+      int stripes = 1;
+      while (stripes < (Runtime.getRuntime().availableProcessors() * 2)) {
+        stripes = stripes * 2;
+      }
+      this.mask = stripes - 1;
+      this.counters = new AtomicLongArray(stripes * Statistics.STRIDE);
+    }
+
+    /**
+     * @return The number of queries made to archives that are not indexed.
+     */
+
+    long getArchiveQueries()
+    {
+      return this.sum(Statistics.STAT_ARCHIVE_QUERIES);
+    }
+
+    /**
+     * @return The number of queries made to archives that are not indexed
+     *         that did not find an object.
+     */
+
+    long getArchiveQueryMisses()
+    {
+      return this.sum(Statistics.STAT_ARCHIVE_QUERY_MISSES);
+    }
+
+    /**
+     * @return The number of paths resolved.
+     */
+
+    long getLookups()
+    {
+      return this.sum(Statistics.STAT_LOOKUPS);
+    }
+
+    /**
+     * @return The number of paths resolved without querying any archive.
+     */
+
+    long getLookupsIndexed()
+    {
+      return this.sum(Statistics.STAT_LOOKUPS_INDEXED);
+    }
+
+    void increment(
+      final int stripe,
+      final int counter)
+    {
+      this.counters.incrementAndGet((stripe * Statistics.STRIDE) + counter);
+    }
+
+    /**
+     * @return The stripe to be used by cursors on the current thread.
+     */
+
+    int stripeForCurrentThread()
+    {
+      final long id = Thread.currentThread().getId();
+      return (int) (id ^ (id >>> 32)) & this.mask;
+    }
+
+    private long sum(
+      final int counter)
+    {
+      long total = 0;
+      final int count = this.counters.length();
+      for (int index = counter; index < count; index += Statistics.STRIDE) {
+        total += this.counters.get(index);
+      }
+      return total;
+    }
+  }
+
+  @SuppressWarnings("unchecked") private static
+    <T extends ArchiveKind>
+    long
+    archiveCompressedSize(
+      final Archive<T> a,
+      final FileReference<?> r)
+      throws FilesystemError
+  {
+    return a.getCompressedSizeActual((FileReference<T>) r);
+  }
+
+  @SuppressWarnings("unchecked") private static
+    <T extends ArchiveKind>
+    long
+    archiveFileSize(
+      final Archive<T> a,
+      final FileReference<?> r)
+      throws FilesystemError
+  {
+    return a.getFileSizeActual((FileReference<T>) r);
+  }
+
+  @SuppressWarnings("unchecked") private static
+    <T extends ArchiveKind>
+    SortedSet<String>
+    archiveListDirectory(
+      final Archive<T> a,
+      final FileReference<?> r)
+      throws FilesystemError
+  {
+    return a.listDirectoryActual((FileReference<T>) r);
+  }
+
+  @SuppressWarnings("unchecked") private static
+    <T extends ArchiveKind>
+    Map<String, ? extends FileReference<?>>
+    archiveListDirectoryDetailed(
+      final Archive<T> a,
+      final FileReference<?> r)
+      throws FilesystemError
+  {
+    return a.listDirectoryDetailedActual((FileReference<T>) r);
+  }
+
+  @SuppressWarnings("unchecked") private static
+    <T extends ArchiveKind>
+    Calendar
+    archiveModificationTime(
+      final Archive<T> a,
+      final FileReference<?> r)
+  {
+    return a.getModificationTimeActual((FileReference<T>) r);
+  }
+
+  @SuppressWarnings("unchecked") private static
+    <T extends ArchiveKind>
+    InputStream
+    archiveOpenFile(
+      final Archive<T> a,
+      final FileReference<?> r)
+      throws FilesystemError
+  {
+    return a.openFileActual((FileReference<T>) r);
+  }
+
+  @SuppressWarnings("unchecked") private static
+    <T extends ArchiveKind>
+    ByteBuffer
+    archiveReadFileAsByteBuffer(
+      final Archive<T> a,
+      final FileReference<?> r)
+      throws FilesystemError
+  {
+    return a.readFileAsByteBufferActual((FileReference<T>) r);
+  }
+
+  /**
+   * The empty index.
+   */
+
+  static final FilesystemIndex EMPTY;
+
+  static {
+    EMPTY =
+      new FilesystemIndex(
+        new IdentityHashMap<Archive<?>, Mount>(),
+        new Node("", null),
+        0,
+        0);
+  }
+
+  private static Node getNodeForEdit(
+    final Node start,
+    final PathVirtual path,
+    final Edit e)
+  {
+    Node n = start;
+    for (int index = 0; index < path.length(); ++index) {
+      n = n.getChildForEdit(path, index, e);
+    }
+    return n;
+  }
+
+  private static void insert(
+    final Node[] cs,
+    final Node c)
+  {
+    final int mask = cs.length - 1;
+    int slot = c.hash & mask;
+    while (cs[slot] != null) {
+      slot = (slot + 1) & mask;
+    }
+    cs[slot] = c;
+  }
+
+  /**
+   * Remove any unused nodes on the path from <code>n</code> to the node
+   * denoted by <code>p</code>. All nodes on the path must be owned by the
+   * current edit.
+   */
+
+  private static void prune(
+    final Node n,
+    final PathVirtual p,
+    final int index)
+  {
+    if (index == p.length()) {
+      return;
+    }
+
+    final Node c = n.getChild(p, index);
+    if (c == null) {
+      return;
+    }
+
+    FilesystemIndex.prune(c, p, index + 1);
+    if (c.isUnused()) {
+      n.removeChild(c);
+    }
+  }
+
+  private static @Nullable Entry removeFrom(
+    final @Nullable Entry e,
+    final Mount m)
+  {
+    if (e == null) {
+      return null;
+    }
+    if (e.mount == m) {
+      return e.next;
+    }
+    return new Entry(e.mount, e.reference, e.root, FilesystemIndex.removeFrom(
+      e.next,
+      m));
+  }
+
+  private final Map<Archive<?>, Mount> archives;
+  private final long                   entries;
+  private final Node                   root;
+  private final long                   sequence;
+
+  private FilesystemIndex(
+    final Map<Archive<?>, Mount> in_archives,
+    final Node in_root,
+    final long in_sequence,
+    final long in_entries)
+  {
+    this.archives = in_archives;
+    this.root = in_root;
+    this.sequence = in_sequence;
+    this.entries = in_entries;
+  }
+
+  /**
+   * <p>
+   * Produce a new index that records a virtual directory at
+   * <code>path</code>, created at <code>time</code>. The current index is
+   * not modified.
+   * </p>
+   *
+   * @param path
+   *          The path of the directory
+   * @param time
+   *          The creation time of the directory
+   * @return A new index
+   */
+
+  FilesystemIndex createDirectory(
+    final PathVirtual path,
+    final Calendar time)
+  {
+    NullCheck.notNull(path, "Path");
+    NullCheck.notNull(time, "Time");
+
+    final Edit e = new Edit();
+    final Node new_root = new Node(this.root, e);
+    FilesystemIndex.getNodeForEdit(new_root, path, e).directory = time;
+    return new FilesystemIndex(
+      this.archives,
+      new_root,
+      this.sequence,
+      this.entries);
+  }
+
+  /**
+   * @return The number of entries in the index.
+   */
+
+  long getEntryCount()
+  {
+    return this.entries;
+  }
+
+  /**
+   * <p>
+   * Produce a new index that contains the archives in the current index,
+   * with the archive <code>a</code> treated as being more recently mounted
+   * than all of them. The current index is not modified.
+   * </p>
+   *
+   * @param a
+   *          The archive
+   * @return A new index
+   * @throws FilesystemError
+   *           If the contents of the archive cannot be enumerated
+   */
+
+  FilesystemIndex mount(
+    final Archive<?> a)
+    throws FilesystemError
+  {
+    NullCheck.notNull(a, "Archive");
+    assert this.archives.containsKey(a) == false;
+
+    final OptionType<? extends Map<PathVirtual, ? extends FileReference<?>>> co =
+      a.getContents();
+
+    final Edit e = new Edit();
+    final long new_sequence = this.sequence + 1;
+    final Node new_root = new Node(this.root, e);
+    final Node mn =
+      FilesystemIndex.getNodeForEdit(new_root, a.getMountPath(), e);
+
+    long new_entries = this.entries;
+    final Mount m;
+    if (co.isSome()) {
+      /**
+       * The references produced by the archive are retained, so that the
+       * attributes of indexed objects can be retrieved without querying the
+       * archive again.
+       */
+
+      final Map<PathVirtual, ? extends FileReference<?>> contents =
+        ((Some<? extends Map<PathVirtual, ? extends FileReference<?>>>) co)
+          .get();
+      m = new Mount(a, new_sequence, true, contents.keySet());
+
+      final FileReference<?> rr = a.lookupActual(PathVirtual.ROOT);
+      if (rr == null) {
+        throw FilesystemError.fileNotFound(PathVirtual.ROOT.toString());
+      }
+      mn.addEntry(m, rr, true);
+
+      for (final PathVirtual p : contents.keySet()) {
+        final FileReference<?> r = contents.get(p);
+        assert r != null;
+        FilesystemIndex.getNodeForEdit(mn, p, e).addEntry(m, r, false);
+      }
+
+      new_entries += contents.size() + 1;
+    } else {
+      final List<PathVirtual> none = Collections.emptyList();
+      m = new Mount(a, new_sequence, false, none);
+    }
+
+    List<Mount> ms = mn.mounts;
+    if (ms == null) {
+      ms = new ArrayList<Mount>(1);
+      mn.mounts = ms;
+    }
+    ms.add(0, m);
+
+    final Map<Archive<?>, Mount> new_archives =
+      new IdentityHashMap<Archive<?>, Mount>(this.archives);
+    new_archives.put(a, m);
+    return new FilesystemIndex(
+      new_archives,
+      new_root,
+      new_sequence,
+      new_entries);
+  }
+
+  /**
+   * <p>
+   * Produce a new index that contains the archives in the current index,
+   * without the archive <code>a</code>. The current index is not modified.
+   * </p>
+   *
+   * @param a
+   *          The archive
+   * @return A new index
+   */
+
+  FilesystemIndex unmount(
+    final Archive<?> a)
+  {
+    NullCheck.notNull(a, "Archive");
+
+    final Mount m = this.archives.get(a);
+    assert m != null;
+
+    final Edit e = new Edit();
+    final PathVirtual mount = a.getMountPath();
+    final Node new_root = new Node(this.root, e);
+    final Node mn = FilesystemIndex.getNodeForEdit(new_root, mount, e);
+
+    long new_entries = this.entries;
+    if (m.indexed) {
+      mn.removeEntry(m);
+      for (final PathVirtual p : m.paths) {
+        FilesystemIndex.getNodeForEdit(mn, p, e).removeEntry(m);
+      }
+      for (final PathVirtual p : m.paths) {
+        FilesystemIndex.prune(mn, p, 0);
+      }
+      new_entries -= m.paths.size() + 1;
+    }
+
+    final List<Mount> ms = mn.mounts;
+    assert ms != null;
+    ms.remove(m);
+    FilesystemIndex.prune(new_root, mount, 0);
+
+    final Map<Archive<?>, Mount> new_archives =
+      new IdentityHashMap<Archive<?>, Mount>(this.archives);
+    new_archives.remove(a);
+    return new FilesystemIndex(
+      new_archives,
+      new_root,
+      this.sequence,
+      new_entries);
+  }
+}
@@ -0,0 +1,966 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jvvfs;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Calendar;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Pair;
+import com.io7m.jlog.LogLevel;
+import com.io7m.jlog.LogUsableType;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.junreachable.UnreachableCodeException;
+import com.io7m.jvvfs.FileReference.Type;
+
+/**
+ * <p>
+ * An immutable view of the state of a {@link Filesystem}: the stack of
+ * mounted archives, the index of their contents and of the virtual
+ * directories, and any explicit updates to modification times.
+ * </p>
+ * <p>
+ * All read operations on a filesystem are performed on the snapshot that
+ * was current when the operation began. Operations that modify the
+ * filesystem construct a new snapshot and publish it atomically, and so
+ * readers never observe a partially modified filesystem, and never need to
+ * take a lock.
+ * </p>
+ * <p>
+ * Values of this type may be accessed safely from multiple threads. Each
+ * thread performs lookups using its own cursor.
+ * </p>
+ * <p>
+ * The snapshots given to users by {@link Filesystem#snapshot()} hold a
+ * reference to each of their archives, so that the archives remain open
+ * until the snapshot is released, even if they are unmounted in the
+ * meantime. The snapshots used internally by the filesystem hold no
+ * references.
+ * </p>
+ */
+
+final class FilesystemSnapshot implements FilesystemSnapshotType
+{
+  /**
+   * The kinds of object that can be found by a lookup.
+   */
+
+  static enum FSReferenceType
+  {
+    FS_REF_ARCHIVE,
+    FS_REF_VIRTUAL_DIRECTORY
+  }
+
+  /**
+   * An explicit update to the modification time of an object.
+   */
+
+  static final class UpdateTimeEntry
+  {
+    private final Calendar time_value;
+    private final Calendar time_when_updated;
+
+    UpdateTimeEntry(
+      final Calendar in_time_when_updated,
+      final Calendar in_time_value)
+    {
+      this.time_when_updated = in_time_when_updated;
+      this.time_value = in_time_value;
+    }
+  }
+
+  private final List<Archive<?>>                         archives;
+  private final ThreadLocal<FilesystemIndex.Cursor>      cursors;
+  private final AtomicBoolean                            held;
+  private final FilesystemIndex                          index;
+  private final LogUsableType                            log_lookup;
+  private final Map<PathVirtual, UpdateTimeEntry>        time_updates;
+
+  /**
+   * Construct a snapshot. The given collections must not be modified after
+   * the snapshot is constructed.
+   */
+
+  FilesystemSnapshot(
+    final LogUsableType in_log_lookup,
+    final ThreadLocal<FilesystemIndex.Cursor> in_cursors,
+    final FilesystemIndex in_index,
+    final List<Archive<?>> in_archives,
+    final Map<PathVirtual, UpdateTimeEntry> in_time_updates)
+  {
+    this.log_lookup = in_log_lookup;
+    this.cursors = in_cursors;
+    this.index = in_index;
+    this.archives = in_archives;
+    this.time_updates = in_time_updates;
+    this.held = new AtomicBoolean(false);
+  }
+
+  /**
+   * Construct a snapshot that shares the state of <code>in_source</code>,
+   * and that holds references to the archives of <code>in_source</code>.
+   */
+
+  private FilesystemSnapshot(
+    final FilesystemSnapshot in_source)
+  {
+    this.log_lookup = in_source.log_lookup;
+    this.cursors = in_source.cursors;
+    this.index = in_source.index;
+    this.archives = in_source.archives;
+    this.time_updates = in_source.time_updates;
+    this.held = new AtomicBoolean(true);
+  }
+
+  /**
+   * Acquire a reference to each archive in the snapshot.
+   * 
+   * @return A snapshot holding the references, or <code>null</code> if one
+   *         of the archives has already been closed (in which case no
+   *         references are held).
+   * @throws FilesystemError
+   *           If an error occurs whilst releasing references after a failed
+   *           acquisition
+   */
+
+  @Nullable FilesystemSnapshot acquire()
+    throws FilesystemError
+  {
+    final int count = this.archives.size();
+    for (int index = 0; index < count; ++index) {
+      if (this.archives.get(index).acquire() == false) {
+        FilesystemSnapshot.releaseArchives(this.archives, index);
+        return null;
+      }
+    }
+    return new FilesystemSnapshot(this);
+  }
+
+  @Override public boolean exists(
+    final PathVirtual path)
+    throws FilesystemError
+  {
+    NullCheck.notNull(path, "Path");
+    final FilesystemIndex.Cursor c = this.cursors.get();
+    try {
+      return this.lookup(c, path) != null;
+    } finally {
+      c.clear();
+    }
+  }
+
+  /**
+   * @return The stack of mounted archives, most recently mounted first.
+   */
+
+  List<Archive<?>> getArchives()
+  {
+    return this.archives;
+  }
+
+  @Override public long getFileSize(
+    final PathVirtual path)
+    throws FilesystemError
+  {
+    NullCheck.notNull(path, "Path");
+
+    final FilesystemIndex.Cursor c = this.cursors.get();
+    try {
+      final FSReferenceType t = this.lookup(c, path);
+      if (t == null) {
+        throw FilesystemError.fileNotFound(path.toString());
+      }
+
+      switch (t) {
+        case FS_REF_ARCHIVE:
+        {
+          final FilesystemIndex.Result r = c.getResult();
+          switch (r.getType()) {
+            case TYPE_DIRECTORY:
+            {
+              throw FilesystemError.notFile(path.toString());
+            }
+            case TYPE_FILE:
+            {
+              return r.getFileSize();
+            }
+          }
+
+          throw new UnreachableCodeException();
+        }
+        case FS_REF_VIRTUAL_DIRECTORY:
+        {
+          throw FilesystemError.notFile(path.toString());
+        }
+      }
+
+      throw new UnreachableCodeException();
+    } finally {
+      c.clear();
+    }
+  }
+
+  /**
+   * @return The index of the mounted archives.
+   */
+
+  FilesystemIndex getIndex()
+  {
+    return this.index;
+  }
+
+  @Override public Calendar getModificationTime(
+    final PathVirtual path)
+    throws FilesystemError
+  {
+    NullCheck.notNull(path, "Path");
+    return this.getModificationTimeUpdated(
+      path,
+      this.getModificationTimeActual(path));
+  }
+
+  /**
+   * Retrieve the modification time of the object at <code>path</code>,
+   * ignoring any explicit updates that may have been made.
+   * 
+   * @see Filesystem#updateModificationTime(PathVirtual, Calendar)
+   * @see #time_updates
+   */
+
+  Calendar getModificationTimeActual(
+    final PathVirtual path)
+    throws FilesystemError
+  {
+    final FilesystemIndex.Cursor c = this.cursors.get();
+    try {
+      final FSReferenceType t = this.lookup(c, path);
+      if (t == null) {
+        throw FilesystemError.fileNotFound(path.toString());
+      }
+
+      switch (t) {
+        case FS_REF_ARCHIVE:
+        {
+          return c.getResult().getModificationTime();
+        }
+        case FS_REF_VIRTUAL_DIRECTORY:
+        {
+          final Calendar d = c.getDirectory();
+          assert d != null;
+          return d;
+        }
+      }
+
+      throw new UnreachableCodeException();
+    } finally {
+      c.clear();
+    }
+  }
+
+  /**
+   * Apply any explicit update made to the modification time of the object at
+   * <code>path</code>, given the modification time <code>t_in_archive</code>
+   * of the object as it currently exists.
+   * 
+   * @see Filesystem#updateModificationTime(PathVirtual, Calendar)
+   * @see #time_updates
+   */
+
+  private Calendar getModificationTimeUpdated(
+    final PathVirtual path,
+    final Calendar t_in_archive)
+  {
+    final UpdateTimeEntry u = this.time_updates.get(path);
+    if (u != null) {
+      if (t_in_archive.after(u.time_when_updated)) {
+        return t_in_archive;
+      }
+      return u.time_value;
+    }
+
+    return t_in_archive;
+  }
+
+  @Override public Deque<Pair<PathReal, PathVirtual>> getMountedArchives()
+  {
+    final Deque<Pair<PathReal, PathVirtual>> result =
+      new ArrayDeque<Pair<PathReal, PathVirtual>>();
+
+    for (int index = this.archives.size() - 1; index >= 0; --index) {
+      final Archive<?> a = this.archives.get(index);
+      final Pair<PathReal, PathVirtual> p =
+        Pair.pair(a.getRealPath(), a.getMountPath());
+      result.push(p);
+    }
+
+    return result;
+  }
+
+  /**
+   * @return The explicit updates made to modification times.
+   */
+
+  Map<PathVirtual, UpdateTimeEntry> getTimeUpdates()
+  {
+    return this.time_updates;
+  }
+
+  @Override public boolean isDirectory(
+    final PathVirtual path)
+    throws FilesystemError
+  {
+    NullCheck.notNull(path, "Path");
+
+    final FilesystemIndex.Cursor c = this.cursors.get();
+    try {
+      final FSReferenceType t = this.lookup(c, path);
+      if (t == null) {
+        return false;
+      }
+
+      switch (t) {
+        case FS_REF_ARCHIVE:
+        {
+          return c.getResult().getType() == Type.TYPE_DIRECTORY;
+        }
+        case FS_REF_VIRTUAL_DIRECTORY:
+        {
+          return true;
+        }
+      }
+
+      throw new UnreachableCodeException();
+    } finally {
+      c.clear();
+    }
+  }
+
+  @Override public boolean isFile(
+    final PathVirtual path)
+    throws FilesystemError
+  {
+    NullCheck.notNull(path, "Path");
+
+    if (this.log_lookup.wouldLog(LogLevel.LOG_INFO)) {
+      this.log_lookup.info("is-file: " + path);
+    }
+
+    final FilesystemIndex.Cursor c = this.cursors.get();
+    try {
+      final FSReferenceType t = this.lookup(c, path);
+      if (t == null) {
+        return false;
+      }
+
+      switch (t) {
+        case FS_REF_ARCHIVE:
+        {
+          return c.getResult().getType() == Type.TYPE_FILE;
+        }
+        case FS_REF_VIRTUAL_DIRECTORY:
+        {
+          return false;
+        }
+      }
+
+      throw new UnreachableCodeException();
+    } finally {
+      c.clear();
+    }
+  }
+
+  @Override public SortedSet<String> listDirectory(
+    final PathVirtual path)
+    throws FilesystemError
+  {
+    NullCheck.notNull(path, "Path");
+
+    if (this.log_lookup.wouldLog(LogLevel.LOG_INFO)) {
+      this.log_lookup.info("is-directory: " + path);
+    }
+
+    final FilesystemIndex.Cursor c = this.cursors.get();
+    try {
+      this.listDirectoryCheck(c, path);
+
+      final SortedSet<String> items = new TreeSet<String>();
+
+      /**
+       * Take the union of the sets of unshadowed files in the archive stack.
+       */
+
+      c.reset(this.index, path);
+      for (int depth = 0; depth < path.length(); ++depth) {
+        c.descend();
+      }
+      c.list(items);
+      c.listDirectories(items);
+      return items;
+    } finally {
+      c.clear();
+    }
+  }
+
+  /**
+   * Check that <code>path</code> exists and is a directory.
+   */
+
+  private void listDirectoryCheck(
+    final FilesystemIndex.Cursor c,
+    final PathVirtual path)
+    throws FilesystemError
+  {
+    final FSReferenceType t = this.lookup(c, path);
+    if (t == null) {
+      throw FilesystemError.fileNotFound(path.toString());
+    }
+
+    switch (t) {
+      case FS_REF_ARCHIVE:
+      {
+        if (c.getResult().getType() != Type.TYPE_DIRECTORY) {
+          throw FilesystemError.notDirectory(path.toString());
+        }
+        return;
+      }
+      case FS_REF_VIRTUAL_DIRECTORY:
+      {
+        return;
+      }
+    }
+
+    throw new UnreachableCodeException();
+  }
+
+  @Override public SortedMap<String, FileStat> listDirectoryDetailed(
+    final PathVirtual path)
+    throws FilesystemError
+  {
+    NullCheck.notNull(path, "Path");
+
+    if (this.log_lookup.wouldLog(LogLevel.LOG_INFO)) {
+      this.log_lookup.info("list-directory-detailed: " + path);
+    }
+
+    final FilesystemIndex.Cursor c = this.cursors.get();
+    try {
+      this.listDirectoryCheck(c, path);
+
+      /**
+       * Take the union of the sets of unshadowed files in the archive stack,
+       * retaining the provider of each file.
+       */
+
+      final SortedSet<String> names = new TreeSet<String>();
+      final Map<String, FilesystemIndex.Child> items =
+        new HashMap<String, FilesystemIndex.Child>();
+
+      c.reset(this.index, path);
+      for (int depth = 0; depth < path.length(); ++depth) {
+        c.descend();
+      }
+      c.listDetailed(names, items);
+      c.listDirectories(names);
+
+      /**
+       * Objects for which the listing could not determine a provider (such as
+       * virtual directories, and the mount points of archives) are resolved
+       * individually.
+       */
+
+      final SortedMap<String, FileStat> result =
+        new TreeMap<String, FileStat>();
+      for (final String name : names) {
+        assert name != null;
+        final PathVirtual p = path.appendName(name);
+        final FilesystemIndex.Child ch = items.get(name);
+        if (ch == null) {
+          result.put(name, this.stat(p));
+          continue;
+        }
+
+        long size = 0;
+        long size_compressed = 0;
+        if (ch.getType() == Type.TYPE_FILE) {
+          size = ch.getFileSize();
+          size_compressed = ch.getCompressedSize();
+        }
+        result.put(name, this.statArchive(
+          p,
+          ch.getArchive(),
+          ch.getType(),
+          size,
+          size_compressed,
+          ch.getModificationTime()));
+      }
+
+      return result;
+    } finally {
+      c.clear();
+    }
+  }
+
+  /**
+   * <p>
+   * Lookup the filesystem object at <code>path</code>.
+   * </p>
+   * <p>
+   * All ancestors of <code>path</code> are checked to ensure that they exist
+   * and are directories.
+   * </p>
+   * 
+   * @return <code>null</code> if no object exists at <code>path</code>,
+   *         {@link FSReferenceType#FS_REF_ARCHIVE} if the object is provided
+   *         by an archive (in which case the object is available from
+   *         <code>c</code> until the next lookup), or
+   *         {@link FSReferenceType#FS_REF_VIRTUAL_DIRECTORY} if the object is
+   *         a virtual directory.
+   */
+
+  @Nullable FSReferenceType lookup(
+    final FilesystemIndex.Cursor c,
+    final PathVirtual path)
+    throws FilesystemError
+  {
+    if (this.log_lookup.wouldLog(LogLevel.LOG_DEBUG)) {
+      this.log_lookup.debug(path.toString());
+    }
+
+    /**
+     * Check that all ancestors of <code>path</code> exist and are
+     * directories. The index cursor carries the shadowing state of each
+     * ancestor forward, so that the archive stack is only walked once.
+     */
+
+    c.reset(this.index, path);
+    for (int depth = 0; depth < path.length(); ++depth) {
+      this.lookupDirectAssertIsDirectory(c);
+      c.descend();
+    }
+
+    /**
+     * All ancestors of <code>path</code> existed and were directories.
+     */
+
+    return this.lookupDirect(c);
+  }
+
+  /**
+   * @return The result of looking up the file at <code>path</code>, not
+   *         owned by any cursor, or <code>null</code> if the file does not
+   *         exist or cannot be looked up
+   */
+
+  @Nullable FilesystemIndex.Result lookupFileDetached(
+    final PathVirtual path)
+  {
+    final FilesystemIndex.Cursor c = this.cursors.get();
+    try {
+      return this.lookupFile(c, path).copy();
+    } catch (final FilesystemError e) {
+      return null;
+    } finally {
+      c.clear();
+    }
+  }
+
+  /**
+   * Lookup the path at which <code>c</code> is positioned. The ancestors of
+   * the path are not checked.
+   */
+
+  private @Nullable FSReferenceType lookupDirect(
+    final FilesystemIndex.Cursor c)
+    throws FilesystemError
+  {
+    /**
+     * Check the archive stack for the path.
+     */
+
+    if (c.resolve() != null) {
+      return FSReferenceType.FS_REF_ARCHIVE;
+    }
+
+    /**
+     * No archive contained the path. Check the list of virtual directories.
+     */
+
+    if (c.getDirectory() != null) {
+      return FSReferenceType.FS_REF_VIRTUAL_DIRECTORY;
+    }
+
+    /**
+     * No object exists at the path.
+     */
+
+    return null;
+  }
+
+  /**
+   * Assert that the path at which <code>c</code> is positioned is a
+   * directory. The ancestors of the path are not checked.
+   * 
+   * @param c
+   *          A cursor positioned at the path to check
+   * @throws FilesystemError
+   *           If:
+   *           <ul>
+   *           <li>The path does not exist</li>
+   *           <li>The path is not a directory</li>
+   *           </ul>
+   */
+
+  private void lookupDirectAssertIsDirectory(
+    final FilesystemIndex.Cursor c)
+    throws FilesystemError
+  {
+    final FSReferenceType t = this.lookupDirect(c);
+    if (t == null) {
+      throw FilesystemError.fileNotFound(c.getPath().toString());
+    }
+
+    switch (t) {
+      case FS_REF_ARCHIVE:
+      {
+        if (c.getResult().getType() != Type.TYPE_DIRECTORY) {
+          throw FilesystemError.notDirectory(c.getPath().toString());
+        }
+        break;
+      }
+      case FS_REF_VIRTUAL_DIRECTORY:
+      {
+        break;
+      }
+    }
+  }
+
+  /**
+   * Lookup the file at <code>path</code>.
+   * 
+   * @return The result of the lookup, held by <code>c</code>
+   * @throws FilesystemError
+   *           If:
+   *           <ul>
+   *           <li>The path does not exist</li>
+   *           <li>The path is not a file</li>
+   *           </ul>
+   */
+
+  private FilesystemIndex.Result lookupFile(
+    final FilesystemIndex.Cursor c,
+    final PathVirtual path)
+    throws FilesystemError
+  {
+    final FSReferenceType t = this.lookup(c, path);
+    if (t == null) {
+      throw FilesystemError.fileNotFound(path.toString());
+    }
+
+    switch (t) {
+      case FS_REF_ARCHIVE:
+      {
+        final FilesystemIndex.Result r = c.getResult();
+        if (r.getType() != Type.TYPE_FILE) {
+          throw FilesystemError.notFile(path.toString());
+        }
+        return r;
+      }
+      case FS_REF_VIRTUAL_DIRECTORY:
+      {
+        throw FilesystemError.notFile(path.toString());
+      }
+    }
+
+    throw new UnreachableCodeException();
+  }
+
+  @Override public InputStream openFile(
+    final PathVirtual path)
+    throws FilesystemError
+  {
+    NullCheck.notNull(path, "Path");
+
+    final InputStream s = this.openFileAcquired(path, null);
+    if (s == null) {
+      throw FilesystemError.archiveClosed(path.toString());
+    }
+    return s;
+  }
+
+  /**
+   * Open the file at <code>path</code>, acquiring a reference to the archive
+   * that provides the file for the lifetime of the returned stream. If
+   * <code>cache</code> is not <code>null</code> and the file is cacheable,
+   * the stream instead reads the contents of the file from the cache,
+   * reading the whole file into the cache first if necessary.
+   * 
+   * @return A new stream, or <code>null</code> if the archive that provides
+   *         the file has already been closed
+   */
+
+  @Nullable InputStream openFileAcquired(
+    final PathVirtual path,
+    final @Nullable ContentCache cache)
+    throws FilesystemError
+  {
+    final FilesystemIndex.Cursor c = this.cursors.get();
+    try {
+      return FilesystemSnapshot.openFileResult(this.lookupFile(c, path), cache);
+    } finally {
+      c.clear();
+    }
+  }
+
+  /**
+   * Open the file found by the lookup <code>r</code>, as
+   * {@link #openFileAcquired(PathVirtual, ContentCache)} does.
+   * 
+   * @return A new stream, or <code>null</code> if the archive that provides
+   *         the file has already been closed
+   */
+
+  static @Nullable InputStream openFileResult(
+    final FilesystemIndex.Result r,
+    final @Nullable ContentCache cache)
+    throws FilesystemError
+  {
+    final Archive<?> a = r.getArchive();
+    if ((cache == null) || (cache.isRegistered(a) == false)) {
+      return r.openFile();
+    }
+
+    final PathVirtual p = r.getReference().getPath();
+    final ByteBuffer b = cache.get(a, p);
+    if (b != null) {
+      return new ByteBufferInputStream(b);
+    }
+    if (cache.isCacheable(a, r.getFileSize())) {
+      final ByteBuffer d = r.readFileAsByteBuffer();
+      if (d == null) {
+        return null;
+      }
+      return new ByteBufferInputStream(cache.put(a, p, d));
+    }
+    return r.openFile();
+  }
+
+  @Override public ByteBuffer readFileAsByteBuffer(
+    final PathVirtual path)
+    throws FilesystemError
+  {
+    NullCheck.notNull(path, "Path");
+
+    final ByteBuffer b = this.readFileAsByteBufferAcquired(path, null);
+    if (b == null) {
+      throw FilesystemError.archiveClosed(path.toString());
+    }
+    return b;
+  }
+
+  /**
+   * Read the file at <code>path</code>, acquiring a reference to the archive
+   * that provides the file for the duration of the read. If
+   * <code>cache</code> is not <code>null</code>, the contents are served
+   * from, or added to, the cache if the file is cacheable.
+   * 
+   * @return A read-only buffer, or <code>null</code> if the archive that
+   *         provides the file has already been closed
+   */
+
+  @Nullable ByteBuffer readFileAsByteBufferAcquired(
+    final PathVirtual path,
+    final @Nullable ContentCache cache)
+    throws FilesystemError
+  {
+    final FilesystemIndex.Cursor c = this.cursors.get();
+    try {
+      return FilesystemSnapshot.readFileAsByteBufferResult(
+        this.lookupFile(c, path),
+        cache);
+    } finally {
+      c.clear();
+    }
+  }
+
+  /**
+   * Read the file found by the lookup <code>r</code>, as
+   * {@link #readFileAsByteBufferAcquired(PathVirtual, ContentCache)} does.
+   * 
+   * @return A read-only buffer, or <code>null</code> if the archive that
+   *         provides the file has already been closed
+   */
+
+  static @Nullable ByteBuffer readFileAsByteBufferResult(
+    final FilesystemIndex.Result r,
+    final @Nullable ContentCache cache)
+    throws FilesystemError
+  {
+    final Archive<?> a = r.getArchive();
+    if ((cache == null) || (cache.isRegistered(a) == false)) {
+      return r.readFileAsByteBuffer();
+    }
+
+    final PathVirtual p = r.getReference().getPath();
+    final ByteBuffer b = cache.get(a, p);
+    if (b != null) {
+      return b;
+    }
+
+    final ByteBuffer d = r.readFileAsByteBuffer();
+    if ((d != null) && cache.isCacheable(a, d.remaining())) {
+      return cache.put(a, p, d);
+    }
+    return d;
+  }
+
+  @Override public void release()
+    throws FilesystemError
+  {
+    if (this.held.compareAndSet(true, false)) {
+      FilesystemSnapshot.releaseArchives(this.archives, this.archives.size());
+    }
+  }
+
+  /**
+   * Release a reference to each of the first <code>count</code> archives in
+   * <code>archives</code>. All of the references are released even if
+   * closing one of the archives fails.
+   */
+
+  static void releaseArchives(
+    final List<Archive<?>> archives,
+    final int count)
+    throws FilesystemError
+  {
+    @Nullable FilesystemError error = null;
+    for (int index = 0; index < count; ++index) {
+      try {
+        archives.get(index).release();
+      } catch (final FilesystemError e) {
+        if (error == null) {
+          error = e;
+        }
+      }
+    }
+    if (error != null) {
+      throw error;
+    }
+  }
+
+  @Override public FileStat stat(
+    final PathVirtual path)
+    throws FilesystemError
+  {
+    NullCheck.notNull(path, "Path");
+
+    final FilesystemIndex.Cursor c = this.cursors.get();
+    try {
+      final FSReferenceType t = this.lookup(c, path);
+      if (t == null) {
+        throw FilesystemError.fileNotFound(path.toString());
+      }
+
+      switch (t) {
+        case FS_REF_ARCHIVE:
+        {
+          final FilesystemIndex.Result r = c.getResult();
+          long size = 0;
+          long size_compressed = 0;
+          if (r.getType() == Type.TYPE_FILE) {
+            size = r.getFileSize();
+            size_compressed = r.getCompressedSize();
+          }
+          return this.statArchive(
+            path,
+            r.getArchive(),
+            r.getType(),
+            size,
+            size_compressed,
+            r.getModificationTime());
+        }
+        case FS_REF_VIRTUAL_DIRECTORY:
+        {
+          final Calendar d = c.getDirectory();
+          assert d != null;
+          final OptionType<Pair<PathReal, PathVirtual>> none = Option.none();
+          return new FileStat(
+            path,
+            FileStat.Type.TYPE_DIRECTORY,
+            0,
+            0,
+            this.getModificationTimeUpdated(path, d),
+            none);
+        }
+      }
+
+      throw new UnreachableCodeException();
+    } finally {
+      c.clear();
+    }
+  }
+
+  private FileStat statArchive(
+    final PathVirtual path,
+    final Archive<?> a,
+    final Type type,
+    final long size,
+    final long size_compressed,
+    final Calendar time)
+  {
+    final OptionType<Pair<PathReal, PathVirtual>> ao =
+      Option.some(Pair.pair(a.getRealPath(), a.getMountPath()));
+    final Calendar t = this.getModificationTimeUpdated(path, time);
+
+    switch (type) {
+      case TYPE_DIRECTORY:
+      {
+        return new FileStat(
+          path,
+          FileStat.Type.TYPE_DIRECTORY,
+          0,
+          0,
+          t,
+          ao);
+      }
+      case TYPE_FILE:
+      {
+        return new FileStat(
+          path,
+          FileStat.Type.TYPE_FILE,
+          size,
+          size_compressed,
+          t,
+          ao);
+      }
+    }
+
+    throw new UnreachableCodeException();
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jvvfs;
+
+/**
+ * <p>
+ * The type of read-only snapshots of filesystems.
+ * </p>
+ * <p>
+ * Snapshots are immutable, and may be accessed safely from any number of
+ * threads.
+ * </p>
+ * 
+ * @see FSCapabilitySnapshotType#snapshot()
+ */
+
+public interface FilesystemSnapshotType extends
+  FSCapabilityReadType,
+  FSCapabilityMountSnapshotType
+{
+  /**
+   * <p>
+   * Release the snapshot's hold on its archives. Any archives that have
+   * been unmounted since the snapshot was taken are closed once all streams
+   * opened from them have also been closed. Releasing a snapshot more than
+   * once has no effect.
+   * </p>
+   * <p>
+   * The snapshot may still be queried after being released, but attempting
+   * to open a file in an archive that has since been closed raises an error
+   * with code {@link FilesystemError.Code#FS_ERROR_ARCHIVE_CLOSED}.
+   * </p>
+   * 
+   * @throws FilesystemError
+   *           If an error occurs whilst closing an archive.
+   */
+
+  void release()
+    throws FilesystemError;
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jvvfs;
+
+/**
+ * <p>
+ * A snapshot of the lookup and content cache statistics of a filesystem.
+ * </p>
+ * <p>
+ * Archives that can enumerate their contents when mounted (such as zip
+ * files) are entered into an index, and lookups of paths in those archives
+ * never query the archives directly. Archives that cannot (such as
+ * directories) must be queried on lookups that the index cannot answer on
+ * its own. A high ratio of misses to queries suggests that directory
+ * archives would be better replaced with zip files.
+ * </p>
+ * <p>
+ * The content cache statistics are all <code>0</code> if the content cache
+ * is disabled, and are reset whenever the cache is replaced.
+ * </p>
+ * 
+ * @see FSCapabilityContentCacheType
+ */
+
+public final class FilesystemStatistics
+{
+  private final long archive_queries;
+  private final long archive_query_misses;
+  private final long content_evictions;
+  private final long content_hits;
+  private final long content_misses;
+  private final long content_resident;
+  private final long index_entries;
+  private final long lookups;
+  private final long lookups_indexed;
+
+  FilesystemStatistics(
+    final long in_lookups,
+    final long in_lookups_indexed,
+    final long in_archive_queries,
+    final long in_archive_query_misses,
+    final long in_index_entries,
+    final long in_content_hits,
+    final long in_content_misses,
+    final long in_content_evictions,
+    final long in_content_resident)
+  {
+    this.lookups = in_lookups;
+    this.lookups_indexed = in_lookups_indexed;
+    this.archive_queries = in_archive_queries;
+    this.archive_query_misses = in_archive_query_misses;
+    this.index_entries = in_index_entries;
+    this.content_hits = in_content_hits;
+    this.content_misses = in_content_misses;
+    this.content_evictions = in_content_evictions;
+    this.content_resident = in_content_resident;
+  }
+
+  /**
+   * @return The number of times that an archive was queried directly because
+   *         the index could not exclude it.
+   */
+
+  public long getArchiveQueries()
+  {
+    return this.archive_queries;
+  }
+
+  /**
+   * @return The number of direct archive queries that did not find the
+   *         requested object.
+   */
+
+  public long getArchiveQueryMisses()
+  {
+    return this.archive_query_misses;
+  }
+
+  /**
+   * @return The number of files evicted from the content cache to make room
+   *         for other files.
+   */
+
+  public long getContentCacheEvictions()
+  {
+    return this.content_evictions;
+  }
+
+  /**
+   * @return The number of reads served from the content cache.
+   */
+
+  public long getContentCacheHits()
+  {
+    return this.content_hits;
+  }
+
+  /**
+   * @return The number of reads of files in cached archives that could not
+   *         be served from the content cache.
+   */
+
+  public long getContentCacheMisses()
+  {
+    return this.content_misses;
+  }
+
+  /**
+   * @return The number of bytes of file contents currently held in the
+   *         content cache.
+   */
+
+  public long getContentCacheResidentBytes()
+  {
+    return this.content_resident;
+  }
+
+  /**
+   * @return The number of objects currently held in the index, across all
+   *         mounted archives.
+   */
+
+  public long getIndexEntries()
+  {
+    return this.index_entries;
+  }
+
+  /**
+   * @return The number of paths resolved. Each ancestor of a path is
+   *         counted separately.
+   */
+
+  public long getLookups()
+  {
+    return this.lookups;
+  }
+
+  /**
+   * @return The number of paths resolved using only the index, without
+   *         querying any archive.
+   */
+
+  public long getLookupsIndexed()
+  {
+    return this.lookups_indexed;
+  }
+
+  @Override public String toString()
+  {
+    final StringBuilder b = new StringBuilder();
+    b.append("[FilesystemStatistics lookups=");
+    b.append(this.lookups);
+    b.append(" lookups_indexed=");
+    b.append(this.lookups_indexed);
+    b.append(" archive_queries=");
+    b.append(this.archive_queries);
+    b.append(" archive_query_misses=");
+    b.append(this.archive_query_misses);
+    b.append(" index_entries=");
+    b.append(this.index_entries);
+    b.append(" content_hits=");
+    b.append(this.content_hits);
+    b.append(" content_misses=");
+    b.append(this.content_misses);
+    b.append(" content_evictions=");
+    b.append(this.content_evictions);
+    b.append(" content_resident=");
+    b.append(this.content_resident);
+    b.append("]");
+    final String r = b.toString();
+    assert r != null;
+    return r;
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jvvfs;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ * The type of subscribers that receive the contents of a file in chunks.
+ * </p>
+ * <p>
+ * The methods of a subscriber are never called concurrently. The first call
+ * is always to {@link #onSubscribe(FilesystemSubscriptionType)}, after which
+ * {@link #onNext(ByteBuffer)} is called at most as many times as chunks
+ * have been requested with {@link FilesystemSubscriptionType#request(long)},
+ * followed by at most one call to either {@link #onComplete()} or
+ * {@link #onError(FilesystemError)}. No methods are called once the
+ * subscription has been cancelled, other than those already in progress.
+ * </p>
+ * <p>
+ * A subscriber that raises an exception is treated as if it had cancelled
+ * its subscription.
+ * </p>
+ * 
+ * @see FSCapabilityReadAsyncType
+ */
+
+public interface FilesystemSubscriberType
+{
+  /**
+   * The entire file has been delivered.
+   */
+
+  void onComplete();
+
+  /**
+   * The file could not be read, or the subscription was used incorrectly.
+   * 
+   * @param e
+   *          The error
+   */
+
+  void onError(
+    final FilesystemError e);
+
+  /**
+   * The next chunk of the file has been read. The buffer belongs to the
+   * subscriber, and is never used again by the filesystem.
+   * 
+   * @param chunk
+   *          The chunk
+   */
+
+  void onNext(
+    final ByteBuffer chunk);
+
+  /**
+   * The subscription has started. No chunks are delivered until at least
+   * one has been requested.
+   * 
+   * @param s
+   *          The subscription
+   */
+
+  void onSubscribe(
+    final FilesystemSubscriptionType s);
+}
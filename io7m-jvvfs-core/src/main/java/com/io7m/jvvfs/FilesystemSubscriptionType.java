@@ -0,0 +1,52 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jvvfs;
+
+/**
+ * <p>
+ * A subscription to the contents of a file, through which a
+ * {@link FilesystemSubscriberType} controls the rate at which chunks are
+ * delivered to it.
+ * </p>
+ * <p>
+ * The methods of a subscription may be called from any thread, including
+ * from within the methods of its subscriber.
+ * </p>
+ */
+
+public interface FilesystemSubscriptionType
+{
+  /**
+   * Cancel the subscription, closing the file. Cancelling a subscription
+   * more than once has no further effect.
+   */
+
+  void cancel();
+
+  /**
+   * Request that at most <code>n</code> further chunks be delivered. Demand
+   * accumulates over calls, up to {@link Long#MAX_VALUE}. Requesting a
+   * non-positive number of chunks terminates the subscription with an error
+   * of type {@link FilesystemError.Code#FS_ERROR_CONSTRAINT_ERROR}.
+   * 
+   * @param n
+   *          The number of chunks
+   */
+
+  void request(
+    final long n);
+}
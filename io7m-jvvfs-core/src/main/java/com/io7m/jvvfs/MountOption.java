@@ -0,0 +1,74 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.jvvfs;
+
+/**
+ * <p>
+ * Options that affect how an individual archive is mounted.
+ * </p>
+ *
+ * @see FSCapabilityMountAnywhereType
+ * @see FSCapabilityMountClasspathType
+ * @see FSCapabilityMountDirectoryType
+ */
+
+public enum MountOption
+{
+  /**
+   * <p>
+   * Treat directory archives as immutable. The directory tree is read once,
+   * when the archive is mounted, into an index held in memory that records
+   * the type, size, and modification time of every object in the tree.
+   * Subsequent lookups, listings, and queries of file attributes are served
+   * from the index without accessing the operating system filesystem, and
+   * the contents of files may be held in the content cache.
+   * </p>
+   * <p>
+   * The tree is read in parallel on the executor set with
+   * {@link FSCapabilityReadAsyncType#setAsyncExecutor} (by default, on the
+   * calling thread). Changes made to the directory after the archive is
+   * mounted are not reflected in the filesystem, and files that are
+   * modified or removed after the archive is mounted may cause reads to
+   * fail. Objects with names that are not valid {@link PathVirtual} names,
+   * and directories that would lead the tree into a cycle through symbolic
+   * links, are not indexed. The option has no effect on archives that are
+   * not directories.
+   * </p>
+   */
+
+  MOUNT_OPTION_DIRECTORY_IMMUTABLE,
+
+  /**
+   * <p>
+   * Read zip and jar archives by mapping them into memory, rather than via
+   * {@link java.util.zip.ZipFile}. The central directory of the archive is
+   * parsed directly from the mapped region, files stored without
+   * compression are read straight from the mapped region without copying,
+   * and compressed files are inflated from the mapped region without any
+   * synchronization between readers.
+   * </p>
+   * <p>
+   * Archives larger than <code>2^31 - 1</code> bytes, ZIP64 archives, and
+   * archives that use compression methods other than <code>STORED</code>
+   * and <code>DEFLATED</code> cannot be mounted with this option. The
+   * option has no effect on archives that are not zip or jar archives.
+   * </p>
+   */
+
+  MOUNT_OPTION_ZIP_MAPPED
+}
@@ -59,13 +59,30 @@ public final class Name
     final String name)
   {
     NullCheck.notNull(name, "Name");
+    return Name.isValidRegion(name, 0, name.length());
+  }
+
+  /**
+   * <p>
+   * Determine whether or not the region of <code>text</code> in the range
+   * <code>[start, end)</code> is a valid name, without first extracting the
+   * region as a separate string.
+   * </p>
+   * 
+   * @see #isValid(String)
+   */
 
-    if (name.length() == 0) {
+  static boolean isValidRegion(
+    final String text,
+    final int start,
+    final int end)
+  {
+    if (start >= end) {
       return false;
     }
 
-    for (int index = 0; index < name.length(); ++index) {
-      switch (name.charAt(index)) {
+    for (int index = start; index < end; ++index) {
+      switch (text.charAt(index)) {
         case '/':
           return false;
         case '\\':
@@ -73,8 +90,8 @@ public final class Name
         case ':':
           return false;
         case '.':
-          if ((index + 1) < name.length()) {
-            if (name.charAt(index + 1) == '.') {
+          if ((index + 1) < end) {
+            if (text.charAt(index + 1) == '.') {
               return false;
             }
           }
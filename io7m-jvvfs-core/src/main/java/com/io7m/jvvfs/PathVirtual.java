@@ -16,9 +16,12 @@
 
 package com.io7m.jvvfs;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import com.io7m.jfunctional.Option;
 import com.io7m.jfunctional.OptionType;
@@ -45,6 +48,13 @@ import com.io7m.jvvfs.FilesystemError.Code;
  * A virtual path is conceptually a list of names, with the empty list
  * representing the root directory.
  * </p>
+ * <p>
+ * Internally, a path is stored as a single string and an array of the
+ * offsets of the components within that string. Paths derived from other
+ * paths (such as by {@link #subtract(PathVirtual)}) share the string and the
+ * array of the original path, and simply refer to a different range of
+ * components.
+ * </p>
  * 
  * @see Name#isValid(String)
  */
@@ -57,9 +67,105 @@ public final class PathVirtual implements Comparable<PathVirtual>
    * </p>
    */
 
-  public static final PathVirtual ROOT;
+  public static final PathVirtual                                         ROOT;
+
+  /**
+   * <p>
+   * The table of interned paths. The table is split into a number of
+   * separately locked segments in order to reduce contention between
+   * threads. Paths are held weakly, and entries are removed when the
+   * canonical instance of a path is no longer referenced.
+   * </p>
+   * 
+   * @see #intern()
+   */
+
+  private static final List<Map<PathVirtual, WeakReference<PathVirtual>>> INTERNED;
+  private static final int                                               INTERNED_SEGMENTS;
+
   static {
-    ROOT = new PathVirtual();
+    ROOT = new PathVirtual("/", new int[] { 1 }, new String[0], 0, 0);
+
+    INTERNED_SEGMENTS = 16;
+    INTERNED =
+      new ArrayList<Map<PathVirtual, WeakReference<PathVirtual>>>(
+        PathVirtual.INTERNED_SEGMENTS);
+    for (int index = 0; index < PathVirtual.INTERNED_SEGMENTS; ++index) {
+      PathVirtual.INTERNED
+        .add(new WeakHashMap<PathVirtual, WeakReference<PathVirtual>>());
+    }
+
+    PathVirtual.ROOT.intern();
+  }
+
+  /**
+   * Compare the given regions of two strings lexicographically, in the same
+   * manner as {@link String#compareTo(String)}.
+   */
+
+  private static int compareRegions(
+    final String s0,
+    final int s0_start,
+    final int s0_length,
+    final String s1,
+    final int s1_start,
+    final int s1_length)
+  {
+    final int limit = Math.min(s0_length, s1_length);
+    for (int index = 0; index < limit; ++index) {
+      final char c0 = s0.charAt(s0_start + index);
+      final char c1 = s1.charAt(s1_start + index);
+      if (c0 != c1) {
+        return c0 - c1;
+      }
+    }
+    return s0_length - s1_length;
+  }
+
+  private static FilesystemError invalidName(
+    final int index,
+    final String name)
+  {
+    final StringBuilder m = new StringBuilder();
+    m.append("Name ");
+    m.append(index);
+    m.append(" (");
+    m.append(name);
+    m.append(") is not valid");
+    final String r = m.toString();
+    assert r != null;
+    return new FilesystemError(Code.FS_ERROR_CONSTRAINT_ERROR, r);
+  }
+
+  /**
+   * Construct a path from a list of names that are known to be valid.
+   */
+
+  private static PathVirtual make(
+    final List<String> names)
+  {
+    final int size = names.size();
+    if (size == 0) {
+      return PathVirtual.ROOT;
+    }
+
+    final String[] copy = new String[size];
+    final int[] offsets = new int[size + 1];
+    final StringBuilder b = new StringBuilder();
+
+    for (int index = 0; index < size; ++index) {
+      final String name = names.get(index);
+      assert name != null;
+      copy[index] = name;
+      offsets[index] = b.length();
+      b.append('/');
+      b.append(name);
+    }
+
+    offsets[size] = b.length();
+    final String r = b.toString();
+    assert r != null;
+    return new PathVirtual(r, offsets, copy, 0, size);
   }
 
   /**
@@ -89,19 +195,88 @@ public final class PathVirtual implements Comparable<PathVirtual>
         NullCheck.notNull(names.get(index), "Names(" + index + ")");
 
       if (Name.isValid(name) == false) {
-        final StringBuilder m = new StringBuilder();
-        m.append("Name ");
-        m.append(index);
-        m.append(" (");
-        m.append(name);
-        m.append(") is not valid");
-        final String r = m.toString();
-        assert r != null;
-        throw new FilesystemError(Code.FS_ERROR_CONSTRAINT_ERROR, r);
+        throw PathVirtual.invalidName(index, name);
+      }
+    }
+
+    return PathVirtual.make(names);
+  }
+
+  /**
+   * <p>
+   * Produce a virtual path from a list of names that have already been
+   * validated, such as names taken from the index of an archive. This
+   * function is equivalent to {@link #ofNames(List)} but does not check the
+   * given names.
+   * </p>
+   */
+
+  static PathVirtual ofNamesTrusted(
+    final List<String> names)
+  {
+    assert PathVirtual.namesAreValid(names);
+    return PathVirtual.make(names);
+  }
+
+  private static boolean namesAreValid(
+    final List<String> names)
+  {
+    for (int index = 0; index < names.size(); ++index) {
+      if (Name.isValid(names.get(index)) == false) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * <p>
+   * Produce a virtual path from a string that is already known to be a
+   * valid, absolute path without trailing slashes, such as the result of
+   * {@link #toString()} on a path recorded in an index. This function is
+   * equivalent to {@link #ofString(String)} but does not check the given
+   * path.
+   * </p>
+   */
+
+  static PathVirtual ofStringTrusted(
+    final String path)
+  {
+    final int length = path.length();
+    if (length == 1) {
+      assert "/".equals(path);
+      return PathVirtual.ROOT;
+    }
+
+    int count = 0;
+    for (int index = 0; index < length; ++index) {
+      if (path.charAt(index) == '/') {
+        ++count;
       }
     }
 
-    return new PathVirtual(names);
+    final int[] offsets = new int[count + 1];
+    int component = 0;
+    for (int index = 0; index < length; ++index) {
+      if (path.charAt(index) == '/') {
+        offsets[component] = index;
+        ++component;
+      }
+    }
+    offsets[count] = length;
+
+    assert PathVirtual.stringIsValid(path);
+    return new PathVirtual(path, offsets, new String[count], 0, count);
+  }
+
+  private static boolean stringIsValid(
+    final String path)
+  {
+    try {
+      return PathVirtual.ofString(path).toString().equals(path);
+    } catch (final FilesystemError e) {
+      return false;
+    }
   }
 
   /**
@@ -125,7 +300,8 @@ public final class PathVirtual implements Comparable<PathVirtual>
     final String path)
     throws FilesystemError
   {
-    if (path.length() == 0) {
+    final int length = path.length();
+    if (length == 0) {
       throw new FilesystemError(
         Code.FS_ERROR_CONSTRAINT_ERROR,
         "Path is empty");
@@ -135,33 +311,51 @@ public final class PathVirtual implements Comparable<PathVirtual>
         Code.FS_ERROR_CONSTRAINT_ERROR,
         "Path does not begin with slash (U+002F)");
     }
-    if ("/".equals(path)) {
+
+    /**
+     * Trailing slashes are ignored.
+     */
+
+    int end = length;
+    while ((end > 1) && (path.charAt(end - 1) == '/')) {
+      --end;
+    }
+    if (end == 1) {
       return PathVirtual.ROOT;
     }
 
-    final String[] elements = path.substring(1).split("/");
-    final List<String> names = new ArrayList<String>();
+    /**
+     * Split and validate the path in a single pass, recording the offset of
+     * each separator. Each name is checked as soon as the separator that ends
+     * it is found.
+     */
 
-    for (int index = 0; index < elements.length; ++index) {
-      final String name =
-        NullCheck.notNull(elements[index], "Elements(" + index + ")");
+    int[] offsets = new int[8];
+    int count = 0;
+    for (int index = 1; index <= end; ++index) {
+      if ((index == end) || (path.charAt(index) == '/')) {
+        final int start = offsets[count] + 1;
+        if (Name.isValidRegion(path, start, index) == false) {
+          final String name = path.substring(start, index);
+          assert name != null;
+          throw PathVirtual.invalidName(count, name);
+        }
 
-      if (Name.isValid(name) == false) {
-        final StringBuilder m = new StringBuilder();
-        m.append("Name ");
-        m.append(index);
-        m.append(" (");
-        m.append(name);
-        m.append(") is not valid");
-        final String r = m.toString();
-        assert r != null;
-        throw new FilesystemError(Code.FS_ERROR_CONSTRAINT_ERROR, r);
+        ++count;
+        if (count == offsets.length) {
+          offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        offsets[count] = index;
       }
+    }
 
-      names.add(name);
+    String text = path;
+    if (end != length) {
+      text = path.substring(0, end);
+      assert text != null;
     }
 
-    return new PathVirtual(names);
+    return new PathVirtual(text, offsets, new String[count], 0, count);
   }
 
   /**
@@ -192,42 +386,114 @@ public final class PathVirtual implements Comparable<PathVirtual>
   static String ofStringLaxScrub(
     final String path)
   {
-    final String result =
-      path.replaceAll("/+", "/").replaceAll("/+$", "").replaceAll("^/", "");
-    if ("".equals(result)) {
+    final int length = path.length();
+    final StringBuilder b = new StringBuilder(length + 1);
+
+    /**
+     * A separator is only written when a name follows it, which collapses
+     * runs of slashes and removes trailing slashes.
+     */
+
+    boolean separator = true;
+    for (int index = 0; index < length; ++index) {
+      final char c = path.charAt(index);
+      if (c == '/') {
+        separator = true;
+      } else {
+        if (separator) {
+          b.append('/');
+          separator = false;
+        }
+        b.append(c);
+      }
+    }
+
+    if (b.length() == 0) {
       return "/";
     }
-    return "/" + result;
+    final String r = b.toString();
+    assert r != null;
+    return r;
   }
 
-  private final String       image;
-  private final List<String> names;
+  /**
+   * The first component of the path, as an index into {@link #offsets}.
+   */
 
-  private PathVirtual()
-  {
-    this.names = new ArrayList<String>();
-    this.image = "/";
-  }
+  private final int           first;
 
-  private PathVirtual(
-    final List<String> p)
-  {
-    final int size = p.size();
-    final StringBuilder b = new StringBuilder("/");
+  /**
+   * The hash code of the path, equal to the hash code of the string
+   * representation of the path.
+   */
 
-    for (int index = 0; index < size; ++index) {
-      final String name = p.get(index);
-      b.append(name);
+  private final int           hash;
+
+  /**
+   * The string representation of the path, if it has been calculated.
+   */
+
+  private @Nullable String    image;
 
-      if ((index + 1) == size) {
-        // No slash
+  /**
+   * One past the last component of the path, as an index into
+   * {@link #offsets}.
+   */
+
+  private final int           last;
+
+  /**
+   * The names of the components, shared between all paths that share
+   * {@link #text}. Names are calculated on demand.
+   */
+
+  private final String[]      names;
+
+  /**
+   * The offset of each component in {@link #text}, pointing to the slash
+   * that precedes the component. The last element is the length of
+   * {@link #text}.
+   */
+
+  private final int[]         offsets;
+
+  /**
+   * The text of the path from which this path is derived.
+   */
+
+  private final String        text;
+
+  private PathVirtual(
+    final String in_text,
+    final int[] in_offsets,
+    final String[] in_names,
+    final int in_first,
+    final int in_last)
+  {
+    this.text = in_text;
+    this.offsets = in_offsets;
+    this.names = in_names;
+    this.first = in_first;
+    this.last = in_last;
+
+    if (in_first == in_last) {
+      this.image = "/";
+      this.hash = '/';
+    } else {
+      if ((in_offsets[in_first] == 0)
+        && (in_offsets[in_last] == in_text.length())) {
+        this.image = in_text;
       } else {
-        b.append("/");
+        this.image = null;
       }
-    }
 
-    this.names = p;
-    this.image = NullCheck.notNull(b.toString());
+      int h = 0;
+      final int end = in_offsets[in_last];
+      for (int index = in_offsets[in_first]; index < end; ++index) {
+        h = (31 * h) + in_text.charAt(index);
+      }
+      this.hash = h;
+    }
   }
 
   /**
@@ -246,9 +512,21 @@ public final class PathVirtual implements Comparable<PathVirtual>
   {
     NullCheck.notNull(p, "Path");
 
-    final List<String> new_names = new ArrayList<String>(this.names);
-    new_names.addAll(p.names);
-    return new PathVirtual(new_names);
+    if (p.isRoot()) {
+      return this;
+    }
+    if (this.isRoot()) {
+      return p;
+    }
+
+    final List<String> new_names = new ArrayList<String>(this.length());
+    for (int index = 0; index < this.length(); ++index) {
+      new_names.add(this.getUnsafe(index));
+    }
+    for (int index = 0; index < p.length(); ++index) {
+      new_names.add(p.getUnsafe(index));
+    }
+    return PathVirtual.make(new_names);
   }
 
   /**
@@ -277,9 +555,12 @@ public final class PathVirtual implements Comparable<PathVirtual>
         "Name is not valid");
     }
 
-    final List<String> new_names = new ArrayList<String>(this.names);
+    final List<String> new_names = new ArrayList<String>(this.length() + 1);
+    for (int index = 0; index < this.length(); ++index) {
+      new_names.add(this.getUnsafe(index));
+    }
     new_names.add(actual);
-    return new PathVirtual(new_names);
+    return PathVirtual.make(new_names);
   }
 
   /**
@@ -308,18 +589,23 @@ public final class PathVirtual implements Comparable<PathVirtual>
   @Override public int compareTo(
     final PathVirtual o)
   {
-    if (this.names.size() < o.names.size()) {
+    final int size = this.length();
+    if (size < o.length()) {
       return -1;
     }
-    if (this.names.size() > o.names.size()) {
+    if (size > o.length()) {
       return 1;
     }
 
-    for (int index = 0; index < this.names.size(); ++index) {
-      final String s0 = this.names.get(index);
-      final String s1 = o.names.get(index);
-
-      final int r = s0.compareTo(s1);
+    for (int index = 0; index < size; ++index) {
+      final int r =
+        PathVirtual.compareRegions(
+          this.text,
+          this.getComponentStart(index),
+          this.getComponentLength(index),
+          o.text,
+          o.getComponentStart(index),
+          o.getComponentLength(index));
       if (r != 0) {
         return r;
       }
@@ -341,7 +627,13 @@ public final class PathVirtual implements Comparable<PathVirtual>
       return false;
     }
     final PathVirtual other = (PathVirtual) obj;
-    return this.image.equals(other.image);
+    if (this.hash != other.hash) {
+      return false;
+    }
+    if (this.length() != other.length()) {
+      return false;
+    }
+    return this.isPrefixOf(other);
   }
 
   /**
@@ -352,14 +644,34 @@ public final class PathVirtual implements Comparable<PathVirtual>
 
   public OptionType<String> getBaseName()
   {
-    if (this.names.isEmpty() == false) {
-      final String x = this.names.get(this.names.size() - 1);
-      assert x != null;
-      return Option.some(x);
+    if (this.isRoot() == false) {
+      return Option.some(this.getUnsafe(this.length() - 1));
     }
     return Option.none();
   }
 
+  /**
+   * @return The number of characters in the component at <code>index</code>
+   */
+
+  private int getComponentLength(
+    final int index)
+  {
+    final int k = this.first + index;
+    return this.offsets[k + 1] - (this.offsets[k] + 1);
+  }
+
+  /**
+   * @return The offset of the first character of the component at
+   *         <code>index</code>
+   */
+
+  private int getComponentStart(
+    final int index)
+  {
+    return this.offsets[this.first + index] + 1;
+  }
+
   /**
    * Retrieve the component of the path at <code>index</code>, if any.
    */
@@ -367,14 +679,103 @@ public final class PathVirtual implements Comparable<PathVirtual>
   String getUnsafe(
     final int index)
   {
-    final String r = this.names.get(index);
+    final int k = this.first + index;
+    assert k < this.last;
+
+    final String cached = this.names[k];
+    if (cached != null) {
+      return cached;
+    }
+
+    final String r =
+      this.text.substring(this.offsets[k] + 1, this.offsets[k + 1]);
     assert r != null;
+    this.names[k] = r;
     return r;
   }
 
+  /**
+   * @return <code>true</code> iff the component of the path at
+   *         <code>index</code> is equal to <code>name</code>. The component
+   *         is not extracted from the path.
+   */
+
+  boolean getUnsafeEquals(
+    final int index,
+    final String name)
+  {
+    final int length = this.getComponentLength(index);
+    if (length != name.length()) {
+      return false;
+    }
+    return this.text.regionMatches(
+      this.getComponentStart(index),
+      name,
+      0,
+      length);
+  }
+
+  /**
+   * @return The hash code of the component at <code>index</code>, equal to
+   *         the hash code of the string returned by {@link #getUnsafe(int)}.
+   *         The component is not extracted from the path.
+   */
+
+  int getUnsafeHash(
+    final int index)
+  {
+    final String cached = this.names[this.first + index];
+    if (cached != null) {
+      return cached.hashCode();
+    }
+
+    final int start = this.getComponentStart(index);
+    final int end = start + this.getComponentLength(index);
+    int h = 0;
+    for (int k = start; k < end; ++k) {
+      h = (31 * h) + this.text.charAt(k);
+    }
+    return h;
+  }
+
   @Override public int hashCode()
   {
-    return this.image.hashCode();
+    return this.hash;
+  }
+
+  /**
+   * <p>
+   * Retrieve the canonical instance of the current path. For any two paths
+   * <code>p0</code> and <code>p1</code>,
+   * <code>p0.intern() == p1.intern()</code> iff <code>p0.equals(p1)</code>.
+   * </p>
+   * <p>
+   * Long-lived collections of paths should hold interned paths, so that
+   * equal paths are not retained more than once. Interned paths are not
+   * retained by the intern table once they are no longer otherwise
+   * referenced.
+   * </p>
+   * 
+   * @return The canonical instance of the current path
+   */
+
+  public PathVirtual intern()
+  {
+    final Map<PathVirtual, WeakReference<PathVirtual>> segment =
+      PathVirtual.INTERNED.get((this.hash & 0x7fffffff)
+        % PathVirtual.INTERNED_SEGMENTS);
+
+    synchronized (segment) {
+      final WeakReference<PathVirtual> ref = segment.get(this);
+      if (ref != null) {
+        final PathVirtual p = ref.get();
+        if (p != null) {
+          return p;
+        }
+      }
+      segment.put(this, new WeakReference<PathVirtual>(this));
+      return this;
+    }
   }
 
   /**
@@ -400,52 +801,9 @@ public final class PathVirtual implements Comparable<PathVirtual>
   {
     NullCheck.notNull(p, "Path");
 
-    /**
-     * Early exit: the paths are equal and therefore one cannot be the
-     * ancestor of the other.
-     */
-
-    if (this.image.equals(p.image)) {
-      return false;
-    }
-
-    /**
-     * Early exit: the current path is root, and therefore must be an ancestor
-     * of the other (given that they're not equal).
-     */
-
-    if (this.isRoot()) {
-      return true;
-    }
-
-    /**
-     * Early exit: the other path is root, and therefore the current path
-     * cannot be an ancestor of it.
-     */
-
-    if (p.isRoot()) {
-      return false;
-    }
-
-    /**
-     * Otherwise, the paths may share a common prefix.
-     * 
-     * If the current path has fewer components than the other, and the
-     * components in this path match the first components of the other path,
-     * then this path is an ancestor of the other.
-     */
-
-    if (this.names.size() < p.names.size()) {
-      for (int index = 0; index < this.names.size(); ++index) {
-        final String n0 = this.names.get(index);
-        final String n1 = p.names.get(index);
-        if (n0.equals(n1) == false) {
-          return false;
-        }
-      }
-      return true;
+    if (this.length() < p.length()) {
+      return this.isPrefixOf(p);
     }
-
     return false;
   }
 
@@ -470,27 +828,43 @@ public final class PathVirtual implements Comparable<PathVirtual>
   public boolean isParentOf(
     final PathVirtual p)
   {
-    if (this.image.equals(p.image)) {
-      return false;
+    if ((this.length() + 1) == p.length()) {
+      return this.isPrefixOf(p);
     }
+    return false;
+  }
 
-    final int p0s = this.names.size();
-    final int p1s = p.names.size();
+  /**
+   * @return <code>true</code> iff the components of the current path are
+   *         equal to the first components of <code>p</code>. The current
+   *         path is assumed to have no more components than <code>p</code>.
+   */
 
-    if ((p1s - 1) == p0s) {
-      final int ms = Math.min(p0s, p1s);
+  private boolean isPrefixOf(
+    final PathVirtual p)
+  {
+    final int size = this.length();
+    assert size <= p.length();
 
-      for (int index = 0; index < ms; ++index) {
-        final String n0 = this.names.get(index);
-        final String n1 = p.names.get(index);
-        if (n0.equals(n1) == false) {
-          return false;
-        }
-      }
+    if (size == 0) {
       return true;
     }
 
-    return false;
+    /**
+     * Both regions start with a slash, so the regions match iff they have
+     * the same length, the same content, and the matching region of
+     * <code>p</code> ends at a component boundary.
+     */
+
+    final int t_start = this.offsets[this.first];
+    final int t_length = this.offsets[this.last] - t_start;
+    final int p_start = p.offsets[p.first];
+    final int p_length = p.offsets[p.first + size] - p_start;
+
+    if (t_length != p_length) {
+      return false;
+    }
+    return this.text.regionMatches(t_start, p.text, p_start, t_length);
   }
 
   /**
@@ -499,7 +873,7 @@ public final class PathVirtual implements Comparable<PathVirtual>
 
   public boolean isRoot()
   {
-    return this.names.size() == 0;
+    return this.first == this.last;
   }
 
   /**
@@ -508,7 +882,35 @@ public final class PathVirtual implements Comparable<PathVirtual>
 
   public int length()
   {
-    return this.names.size();
+    return this.last - this.first;
+  }
+
+  /**
+   * <p>
+   * Retrieve the ancestor of the current path that consists of the first
+   * <code>count</code> components of the current path. The returned path
+   * shares the storage of the current path.
+   * </p>
+   */
+
+  PathVirtual prefix(
+    final int count)
+  {
+    assert count >= 0;
+    assert count <= this.length();
+
+    if (count == 0) {
+      return PathVirtual.ROOT;
+    }
+    if (count == this.length()) {
+      return this;
+    }
+    return new PathVirtual(
+      this.text,
+      this.offsets,
+      this.names,
+      this.first,
+      this.first + count);
   }
 
   /**
@@ -520,6 +922,9 @@ public final class PathVirtual implements Comparable<PathVirtual>
    * removing the first <code>p1.length</code> elements of <code>p0</code>, if
    * <code>p0</code> is an ancestor of or is equal to <code>p1</code>.
    * </p>
+   * <p>
+   * The returned path shares the storage of the current path.
+   * </p>
    * 
    * @param other
    *          The other path
@@ -529,22 +934,39 @@ public final class PathVirtual implements Comparable<PathVirtual>
   public PathVirtual subtract(
     final PathVirtual other)
   {
-    final boolean ancestor = other.isAncestorOf(this);
-    final boolean equal = this.equals(other);
-
-    if (ancestor || equal) {
-      final List<String> new_names = new LinkedList<String>(this.names);
-      for (int index = 0; index < other.names.size(); ++index) {
-        new_names.remove(0);
-      }
-      return new PathVirtual(new_names);
+    final int size = other.length();
+    if (size > this.length()) {
+      return this;
+    }
+    if (other.isPrefixOf(this) == false) {
+      return this;
     }
 
-    return this;
+    if (size == 0) {
+      return this;
+    }
+    if (size == this.length()) {
+      return PathVirtual.ROOT;
+    }
+    return new PathVirtual(
+      this.text,
+      this.offsets,
+      this.names,
+      this.first + size,
+      this.last);
   }
 
   @Override public String toString()
   {
-    return this.image;
+    final String i = this.image;
+    if (i != null) {
+      return i;
+    }
+
+    final String r =
+      this.text.substring(this.offsets[this.first], this.offsets[this.last]);
+    assert r != null;
+    this.image = r;
+    return r;
   }
 }
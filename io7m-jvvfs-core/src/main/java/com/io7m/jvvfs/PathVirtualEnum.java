@@ -16,12 +16,9 @@
 
 package com.io7m.jvvfs;
 
-import java.util.ArrayList;
 import java.util.Enumeration;
-import java.util.List;
 
 import com.io7m.jnull.NullCheck;
-import com.io7m.junreachable.UnreachableCodeException;
 
 /**
  * <p>
@@ -30,6 +27,10 @@ import com.io7m.junreachable.UnreachableCodeException;
  * root).
  * </p>
  * <p>
+ * The returned ancestors share the storage of the enumerated path, and so
+ * enumeration does not copy any names.
+ * </p>
+ * <p>
  * Values of this type cannot be accessed safely from multiple threads without
  * explicit synchronization.
  * </p>
@@ -51,40 +52,24 @@ public final class PathVirtualEnum implements Enumeration<PathVirtual>
     return new PathVirtualEnum(p);
   }
 
-  private int                index = -1;
-  private final List<String> names;
-  private final PathVirtual  path;
+  private int               index = 0;
+  private final PathVirtual path;
 
   private PathVirtualEnum(
     final PathVirtual in_path)
   {
     this.path = NullCheck.notNull(in_path, "Path");
-    this.names = new ArrayList<String>();
   }
 
   @Override public boolean hasMoreElements()
   {
-    return this.index < (this.path.length() - 1);
+    return this.index < this.path.length();
   }
 
   @Override public PathVirtual nextElement()
   {
-    try {
-      if (this.index == -1) {
-        return PathVirtual.ROOT;
-      }
-
-      this.names.add(this.path.getUnsafe(this.index));
-      return PathVirtual.ofNames(this.names);
-    } catch (final FilesystemError e) {
-      /**
-       * Unreachable because this error can only occur on invalid names, and
-       * an invalid name should never have been allowed into a virtual path in
-       * the first place.
-       */
-      throw new UnreachableCodeException(e);
-    } finally {
-      ++this.index;
-    }
+    final PathVirtual r = this.path.prefix(this.index);
+    ++this.index;
+    return r;
   }
 }
@@ -0,0 +1,233 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jvvfs;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jvvfs.FilesystemError.Code;
+
+@SuppressWarnings("static-method") public final class AccessProfileTest
+{
+  private static PathReal newProfile()
+  {
+    final File dir = new TestData.TemporaryDirectory().getFile();
+    final File f = new File(dir, "profile");
+    TestData.deleteOnExit(f);
+    return new PathReal(f.toString());
+  }
+
+  private static void write(
+    final PathReal file,
+    final byte[] data)
+    throws IOException
+  {
+    final FileOutputStream out = new FileOutputStream(file.toFile());
+    try {
+      out.write(data);
+    } finally {
+      out.close();
+    }
+  }
+
+  @Test(expected = FilesystemError.class) public void testBadMagic()
+    throws IOException,
+      FilesystemError
+  {
+    final PathReal file = AccessProfileTest.newProfile();
+    AccessProfileTest.write(file, new byte[] { 0, 0, 0, 0, 0, 0, 0, 1 });
+
+    try {
+      AccessProfile.read(file);
+    } catch (final FilesystemError e) {
+      Assert.assertEquals(Code.FS_ERROR_IO_ERROR, e.getCode());
+      throw e;
+    }
+  }
+
+  /**
+   * Profiles written concurrently to the same file do not interfere with
+   * one another, and leave no temporary files behind.
+   */
+
+  @Test public void testConcurrentWrites()
+    throws Exception
+  {
+    final PathReal file = AccessProfileTest.newProfile();
+    final ExecutorService exec = Executors.newFixedThreadPool(4);
+    try {
+      final List<Future<Void>> results = new ArrayList<Future<Void>>();
+      for (int index = 0; index < 16; ++index) {
+        final AccessProfile profile = new AccessProfile();
+        for (int count = 0; count < index; ++count) {
+          profile.record(PathVirtual.ofString("/f" + count));
+        }
+        results.add(exec.submit(new Callable<Void>() {
+          @Override public Void call()
+            throws Exception
+          {
+            profile.write(file);
+            return null;
+          }
+        }));
+      }
+      for (final Future<Void> r : results) {
+        r.get();
+      }
+    } finally {
+      exec.shutdown();
+      Assert.assertTrue(exec.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    final List<PathVirtual> paths = AccessProfile.read(file);
+    for (int index = 0; index < paths.size(); ++index) {
+      Assert.assertEquals(PathVirtual.ofString("/f" + index), paths.get(index));
+    }
+
+    final String[] names = file.toFile().getParentFile().list();
+    Assert.assertEquals(1, names.length);
+    Assert.assertEquals("profile", names[0]);
+  }
+
+  @Test(expected = FilesystemError.class) public void testNonexistent()
+    throws FilesystemError
+  {
+    final PathReal file = AccessProfileTest.newProfile();
+
+    try {
+      AccessProfile.read(file);
+    } catch (final FilesystemError e) {
+      Assert.assertEquals(Code.FS_ERROR_IO_ERROR, e.getCode());
+      throw e;
+    }
+  }
+
+  /**
+   * Paths are written in the order in which each was first recorded, and
+   * names containing line terminators survive unchanged.
+   */
+
+  @Test public void testRoundTrip()
+    throws FilesystemError
+  {
+    final PathVirtual p0 = PathVirtual.ofString("/b/c");
+    final PathVirtual p1 = PathVirtual.ofString("/a");
+    final PathVirtual p2 = PathVirtual.ofString("/x\ny/z\r");
+
+    final AccessProfile profile = new AccessProfile();
+    profile.record(p0);
+    profile.record(p1);
+    profile.record(p0);
+    profile.record(p2);
+    profile.record(p1);
+
+    final PathReal file = AccessProfileTest.newProfile();
+    profile.write(file);
+
+    final List<PathVirtual> paths = AccessProfile.read(file);
+    Assert.assertEquals(3, paths.size());
+    Assert.assertEquals(p0, paths.get(0));
+    Assert.assertEquals(p1, paths.get(1));
+    Assert.assertEquals(p2, paths.get(2));
+    Assert.assertEquals(profile.getPaths(), paths);
+
+    /**
+     * Writing again replaces the existing profile.
+     */
+
+    new AccessProfile().write(file);
+    Assert.assertEquals(0, AccessProfile.read(file).size());
+  }
+
+  /**
+   * A file with the name that was once used for temporary files does not
+   * prevent a profile from being written.
+   */
+
+  @Test public void testTemporaryNameInUse()
+    throws FilesystemError
+  {
+    final PathReal file = AccessProfileTest.newProfile();
+    final File blocker = new File(file.toFile().toString() + ".tmp");
+    Assert.assertTrue(blocker.mkdir());
+    TestData.deleteOnExit(blocker);
+
+    final AccessProfile profile = new AccessProfile();
+    profile.record(PathVirtual.ofString("/a"));
+    profile.write(file);
+    Assert.assertEquals(profile.getPaths(), AccessProfile.read(file));
+  }
+
+  @Test(expected = FilesystemError.class) public void testTrailingData()
+    throws IOException,
+      FilesystemError
+  {
+    final PathReal file = AccessProfileTest.newProfile();
+    new AccessProfile().write(file);
+
+    final FileOutputStream out = new FileOutputStream(file.toFile(), true);
+    try {
+      out.write(0);
+    } finally {
+      out.close();
+    }
+
+    try {
+      AccessProfile.read(file);
+    } catch (final FilesystemError e) {
+      Assert.assertEquals(Code.FS_ERROR_IO_ERROR, e.getCode());
+      throw e;
+    }
+  }
+
+  @Test(expected = FilesystemError.class) public void testTruncated()
+    throws IOException,
+      FilesystemError
+  {
+    final AccessProfile profile = new AccessProfile();
+    profile.record(PathVirtual.ofString("/a/b/c"));
+    final PathReal file = AccessProfileTest.newProfile();
+    profile.write(file);
+
+    final File f = file.toFile();
+    final RandomAccessFile r = new RandomAccessFile(f, "rw");
+    try {
+      r.setLength(f.length() - 2);
+    } finally {
+      r.close();
+    }
+
+    try {
+      AccessProfile.read(file);
+    } catch (final FilesystemError e) {
+      Assert.assertEquals(Code.FS_ERROR_IO_ERROR, e.getCode());
+      throw e;
+    }
+  }
+}
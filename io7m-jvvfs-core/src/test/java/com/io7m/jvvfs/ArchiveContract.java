@@ -20,7 +20,9 @@ import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
 import java.util.Calendar;
+import java.util.Map;
 import java.util.Set;
 
 import org.junit.Assert;
@@ -346,6 +348,71 @@ public abstract class ArchiveContract<T extends ArchiveKind>
     }
   }
 
+  @Test public void testListDirectoryDetailed()
+    throws FileNotFoundException,
+      IOException,
+      FilesystemError
+  {
+    final Archive<T> a =
+      this.getArchive("single-file-and-subdir", PathVirtual.ROOT);
+    try {
+      final Map<String, FileReference<T>> files =
+        a.listDirectoryDetailed(PathVirtual.ROOT);
+      Assert.assertEquals(a.listDirectory(PathVirtual.ROOT), files.keySet());
+
+      final FileReference<T> rf = files.get("file.txt");
+      Assert.assertEquals(Type.TYPE_FILE, rf.getType());
+      Assert.assertEquals(PathVirtual.ofString("/file.txt"), rf.getPath());
+      Assert.assertEquals(
+        a.getFileSize(PathVirtual.ofString("/file.txt")),
+        a.getFileSizeActual(rf));
+
+      final FileReference<T> rd = files.get("subdir");
+      Assert.assertEquals(Type.TYPE_DIRECTORY, rd.getType());
+      Assert.assertEquals(PathVirtual.ofString("/subdir"), rd.getPath());
+    } finally {
+      a.close();
+    }
+  }
+
+  @Test(expected = FilesystemError.class) public
+    void
+    testListDirectoryDetailedFile()
+      throws FileNotFoundException,
+        IOException,
+        FilesystemError
+  {
+    final Archive<T> a =
+      this.getArchive("single-file-and-subdir", PathVirtual.ROOT);
+    try {
+      a.listDirectoryDetailed(PathVirtual.ofString("/file.txt"));
+    } catch (final FilesystemError e) {
+      Assert.assertEquals(Code.FS_ERROR_NOT_A_DIRECTORY, e.getCode());
+      throw e;
+    } finally {
+      a.close();
+    }
+  }
+
+  @Test(expected = FilesystemError.class) public
+    void
+    testListDirectoryDetailedNonexistent()
+      throws FileNotFoundException,
+        IOException,
+        FilesystemError
+  {
+    final Archive<T> a =
+      this.getArchive("single-file-and-subdir", PathVirtual.ROOT);
+    try {
+      a.listDirectoryDetailed(PathVirtual.ofString("/nonexistent"));
+    } catch (final FilesystemError e) {
+      Assert.assertEquals(Code.FS_ERROR_NONEXISTENT, e.getCode());
+      throw e;
+    } finally {
+      a.close();
+    }
+  }
+
   @Test(expected = FilesystemError.class) public void testListDirectoryFile()
     throws FileNotFoundException,
       IOException,
@@ -447,6 +514,28 @@ public abstract class ArchiveContract<T extends ArchiveKind>
     }
   }
 
+  @Test public void testLookupNearestFileAncestor()
+    throws FilesystemError,
+      FileNotFoundException,
+      IOException
+  {
+    final Archive<T> a =
+      this.getArchive("single-file-and-subdir", PathVirtual.ROOT);
+    try {
+      final FileReference<T> r =
+        a.lookupNearest(PathVirtual.ofString("/subdir/file.txt/a/b"));
+      Assert.assertNotNull(r);
+      Assert.assertEquals(Type.TYPE_FILE, r.getType());
+      Assert.assertEquals(PathVirtual.ofString("/subdir/file.txt"), r
+        .getPath());
+
+      Assert.assertNull(a.lookupNearest(PathVirtual
+        .ofString("/subdir/nonexistent/a")));
+    } finally {
+      a.close();
+    }
+  }
+
   @Test public void testLookupSingleFileNonexistent()
     throws FilesystemError,
       FileNotFoundException,
@@ -639,6 +728,70 @@ public abstract class ArchiveContract<T extends ArchiveKind>
     }
   }
 
+  @Test public void testReadFileAsByteBuffer()
+    throws FilesystemError,
+      FileNotFoundException,
+      IOException
+  {
+    final Archive<T> a =
+      this.getArchive("single-file-and-subdir", PathVirtual.ROOT);
+
+    try {
+      final PathVirtual p = PathVirtual.ofString("/subdir/file.txt");
+      final ByteBuffer b = a.readFileAsByteBuffer(p);
+
+      Assert.assertTrue(b.isReadOnly());
+      Assert.assertEquals(0, b.position());
+      Assert.assertEquals(a.getFileSize(p), b.remaining());
+
+      final byte[] data = new byte[b.remaining()];
+      b.get(data);
+      Assert.assertTrue(new String(data, "UTF-8")
+        .startsWith("Hello two.zip subdir."));
+    } finally {
+      a.close();
+    }
+  }
+
+  @Test(expected = FilesystemError.class) public
+    void
+    testReadFileAsByteBufferNonexistent()
+      throws FilesystemError,
+        FileNotFoundException,
+        IOException
+  {
+    final Archive<T> a = this.getArchive("single-file", PathVirtual.ROOT);
+
+    try {
+      a.readFileAsByteBuffer(PathVirtual.ofString("/nonexistent"));
+    } catch (final FilesystemError e) {
+      Assert.assertEquals(Code.FS_ERROR_NONEXISTENT, e.getCode());
+      throw e;
+    } finally {
+      a.close();
+    }
+  }
+
+  @Test(expected = FilesystemError.class) public
+    void
+    testReadFileAsByteBufferNotAFile()
+      throws FilesystemError,
+        FileNotFoundException,
+        IOException
+  {
+    final Archive<T> a =
+      this.getArchive("single-file-and-subdir", PathVirtual.ROOT);
+
+    try {
+      a.readFileAsByteBuffer(PathVirtual.ofString("/subdir"));
+    } catch (final FilesystemError e) {
+      Assert.assertEquals(Code.FS_ERROR_NOT_A_FILE, e.getCode());
+      throw e;
+    } finally {
+      a.close();
+    }
+  }
+
   @Test public void testRoot()
     throws FilesystemError,
       FileNotFoundException,
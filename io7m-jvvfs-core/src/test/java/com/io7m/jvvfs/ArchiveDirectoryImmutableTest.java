@@ -0,0 +1,173 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jvvfs;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.io7m.jfunctional.Some;
+
+public final class ArchiveDirectoryImmutableTest extends
+  ArchiveContract<ArchiveDirectoryKind>
+{
+  private static Archive<ArchiveDirectoryKind> open(
+    final File dir,
+    final PathVirtual mount)
+    throws IOException,
+      FilesystemError
+  {
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      return new ArchiveDirectory(
+        TestData.getLog(),
+        new PathReal(dir.toString()),
+        mount,
+        executor);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static void write(
+    final File file)
+    throws IOException
+  {
+    final FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write("Hello.".getBytes("UTF-8"));
+    } finally {
+      out.close();
+    }
+  }
+
+  @Override Archive<ArchiveDirectoryKind> getArchive(
+    final String basename,
+    final PathVirtual mount)
+    throws FileNotFoundException,
+      IOException,
+      FilesystemError
+  {
+    final File tempdir = TestData.getTestDataDirectory();
+    return ArchiveDirectoryImmutableTest.open(
+      new File(tempdir, basename),
+      mount);
+  }
+
+  @Test public void testContents()
+    throws IOException,
+      FilesystemError
+  {
+    final Archive<ArchiveDirectoryKind> a =
+      this.getArchive("single-file-and-subdir", PathVirtual.ROOT);
+    try {
+      Assert.assertTrue(a.isImmutable());
+
+      final Map<PathVirtual, FileReference<ArchiveDirectoryKind>> c =
+        ((Some<Map<PathVirtual, FileReference<ArchiveDirectoryKind>>>) a
+          .getContents()).get();
+      final SortedSet<PathVirtual> expected = new TreeSet<PathVirtual>();
+      expected.add(PathVirtual.ofString("/file.txt"));
+      expected.add(PathVirtual.ofString("/subdir"));
+      expected.add(PathVirtual.ofString("/subdir/file.txt"));
+      Assert.assertEquals(expected, new TreeSet<PathVirtual>(c.keySet()));
+    } finally {
+      a.close();
+    }
+  }
+
+  /**
+   * A directory that contains a symbolic link to one of its ancestors is
+   * indexed without following the link.
+   */
+
+  @Test public void testCycle()
+    throws IOException,
+      InterruptedException,
+      FilesystemError
+  {
+    final File dir = new TestData.TemporaryDirectory().getFile();
+    final File sub = new File(dir, "sub");
+    Assert.assertTrue(sub.mkdir());
+    ArchiveDirectoryImmutableTest.write(new File(sub, "file.txt"));
+
+    final Process p =
+      new ProcessBuilder("ln", "-s", dir.toString(), new File(sub, "loop")
+        .toString()).start();
+    Assume.assumeTrue(p.waitFor() == 0);
+
+    final Archive<ArchiveDirectoryKind> a =
+      ArchiveDirectoryImmutableTest.open(dir, PathVirtual.ROOT);
+    try {
+      Assert.assertTrue(a
+        .lookup(PathVirtual.ofString("/sub/file.txt"))
+        .isSome());
+      Assert.assertTrue(a.lookup(PathVirtual.ofString("/sub/loop")).isNone());
+    } finally {
+      a.close();
+    }
+  }
+
+  /**
+   * Changes made to the directory after the archive is created are not
+   * visible through the archive.
+   */
+
+  @Test public void testUnchanged()
+    throws IOException,
+      FilesystemError
+  {
+    final File dir = new TestData.TemporaryDirectory().getFile();
+    final File sub = new File(dir, "sub");
+    Assert.assertTrue(sub.mkdir());
+    final File file = new File(sub, "file.txt");
+    ArchiveDirectoryImmutableTest.write(file);
+    TestData.deleteOnExit(file);
+
+    final Archive<ArchiveDirectoryKind> a =
+      ArchiveDirectoryImmutableTest.open(dir, PathVirtual.ROOT);
+    try {
+      Assert.assertTrue(file.delete());
+      ArchiveDirectoryImmutableTest.write(new File(sub, "new.txt"));
+
+      final PathVirtual p = PathVirtual.ofString("/sub/file.txt");
+      Assert.assertTrue(a.lookup(p).isSome());
+      Assert.assertEquals(6, a.getFileSize(p));
+      Assert.assertTrue(a
+        .lookup(PathVirtual.ofString("/sub/new.txt"))
+        .isNone());
+
+      final SortedSet<String> expected = new TreeSet<String>();
+      expected.add("file.txt");
+      Assert.assertEquals(
+        expected,
+        a.listDirectory(PathVirtual.ofString("/sub")));
+    } finally {
+      a.close();
+    }
+  }
+}
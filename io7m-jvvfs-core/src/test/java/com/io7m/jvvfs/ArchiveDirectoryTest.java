@@ -18,7 +18,9 @@ package com.io7m.jvvfs;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -66,4 +68,53 @@ public final class ArchiveDirectoryTest extends
       a.close();
     }
   }
+
+  /**
+   * Files at or above the mapping threshold are mapped into memory, and
+   * smaller files are read onto the heap.
+   */
+
+  @Test public void testReadFileAsByteBufferMapped()
+    throws FileNotFoundException,
+      IOException,
+      FilesystemError
+  {
+    final File tempdir = TestData.getTestDataDirectory();
+    final File dir = new File(tempdir, "large-file");
+    Assert.assertTrue(dir.isDirectory() || dir.mkdirs());
+
+    final byte[] data = new byte[ArchiveDirectory.MAP_THRESHOLD];
+    for (int index = 0; index < data.length; ++index) {
+      data[index] = (byte) index;
+    }
+    final FileOutputStream out =
+      new FileOutputStream(new File(dir, "large.bin"));
+    try {
+      out.write(data);
+    } finally {
+      out.close();
+    }
+
+    final Archive<ArchiveDirectoryKind> a =
+      this.getArchive("large-file", PathVirtual.ROOT);
+    try {
+      final ByteBuffer b =
+        a.readFileAsByteBuffer(PathVirtual.ofString("/large.bin"));
+      Assert.assertTrue(b.isDirect());
+      Assert.assertTrue(b.isReadOnly());
+      Assert.assertEquals(ByteBuffer.wrap(data), b);
+    } finally {
+      a.close();
+    }
+
+    final Archive<ArchiveDirectoryKind> s =
+      this.getArchive("single-file", PathVirtual.ROOT);
+    try {
+      final ByteBuffer b =
+        s.readFileAsByteBuffer(PathVirtual.ofString("/file.txt"));
+      Assert.assertFalse(b.isDirect());
+    } finally {
+      s.close();
+    }
+  }
 }
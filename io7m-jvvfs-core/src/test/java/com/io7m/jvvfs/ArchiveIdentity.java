@@ -17,9 +17,13 @@
 package com.io7m.jvvfs;
 
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Calendar;
+import java.util.Map;
+import java.util.SortedMap;
 import java.util.SortedSet;
 
+import com.io7m.jfunctional.OptionType;
 import com.io7m.jlog.LogType;
 import com.io7m.jnull.Nullable;
 import com.io7m.junreachable.UnreachableCodeException;
@@ -32,6 +36,20 @@ final class ArchiveIdentity extends Archive<ArchiveKind>
     throw new UnreachableCodeException();
   }
 
+  @Override protected long getCompressedSizeActual(
+    final FileReference<ArchiveKind> r)
+    throws FilesystemError
+  {
+    throw new UnreachableCodeException();
+  }
+
+  @Override
+    OptionType<Map<PathVirtual, FileReference<ArchiveKind>>>
+    getContents()
+  {
+    throw new UnreachableCodeException();
+  }
+
   @Override protected long getFileSizeActual(
     final FileReference<ArchiveKind> r)
     throws FilesystemError
@@ -60,13 +78,27 @@ final class ArchiveIdentity extends Archive<ArchiveKind>
     throw new UnreachableCodeException();
   }
 
-  @Override SortedSet<String> listDirectory(
-    final PathVirtual path)
+  @Override boolean isImmutable()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  @Override protected SortedSet<String> listDirectoryActual(
+    final FileReference<ArchiveKind> r)
     throws FilesystemError
   {
     throw new UnreachableCodeException();
   }
 
+  @Override protected
+    SortedMap<String, FileReference<ArchiveKind>>
+    listDirectoryDetailedActual(
+      final FileReference<ArchiveKind> r)
+      throws FilesystemError
+  {
+    throw new UnreachableCodeException();
+  }
+
   @Override protected @Nullable FileReference<ArchiveKind> lookupActual(
     final PathVirtual path)
   {
@@ -79,4 +111,11 @@ final class ArchiveIdentity extends Archive<ArchiveKind>
   {
     throw new UnreachableCodeException();
   }
+
+  @Override protected ByteBuffer readFileAsByteBufferActual(
+    final FileReference<ArchiveKind> r)
+    throws FilesystemError
+  {
+    throw new UnreachableCodeException();
+  }
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jvvfs;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * The archive contract holds for zip archives whose entries are taken from
+ * an up-to-date index cache.
+ */
+
+public final class ArchiveZipCachedTest extends ArchiveZipTest
+{
+  private static ArchiveZipIndexCache getCache()
+    throws FileNotFoundException,
+      IOException
+  {
+    final File tempdir = TestData.getTestDataDirectory();
+    return new ArchiveZipIndexCache(TestData.getLog(), new PathReal(
+      new File(tempdir, "index-cache").toString()));
+  }
+
+  /**
+   * The archive is opened once to populate the cache, and the archive
+   * returned is opened again from the cache.
+   */
+
+  @Override Archive<ArchiveZipKind> getArchive(
+    final String basename,
+    final PathVirtual mount)
+    throws FileNotFoundException,
+      IOException,
+      FilesystemError
+  {
+    final File tempdir = TestData.getTestDataDirectory();
+    final PathReal r =
+      new PathReal(new File(tempdir, basename).toString() + ".zip");
+    final ArchiveZipIndexCache cache = ArchiveZipCachedTest.getCache();
+
+    new ArchiveZip(
+      TestData.getLog(),
+      r,
+      mount,
+      ArchiveZip.Backend.BACKEND_ZIP_FILE,
+      cache).close();
+
+    return new ArchiveZip(
+      TestData.getLog(),
+      r,
+      mount,
+      ArchiveZip.Backend.BACKEND_ZIP_FILE,
+      cache);
+  }
+
+  @Test public void testCacheHit()
+    throws FileNotFoundException,
+      IOException,
+      FilesystemError
+  {
+    final Archive<ArchiveZipKind> a =
+      this.getArchive("complex", PathVirtual.ROOT);
+    try {
+      Assert.assertNotNull(ArchiveZipCachedTest.getCache().load(
+        a.getRealPath(),
+        false));
+    } finally {
+      a.close();
+    }
+  }
+}
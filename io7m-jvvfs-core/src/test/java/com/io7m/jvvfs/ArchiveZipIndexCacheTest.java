@@ -0,0 +1,389 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jvvfs;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jfunctional.Some;
+
+public final class ArchiveZipIndexCacheTest
+{
+  /**
+   * A copy of a test archive, and an empty cache directory, that can be
+   * modified without affecting other tests.
+   */
+
+  private static final class Fixture
+  {
+    private final PathReal             archive;
+    private final ArchiveZipIndexCache cache;
+
+    Fixture()
+      throws IOException
+    {
+      final File dir = new TestData.TemporaryDirectory().getFile();
+      final File source =
+        new File(TestData.getTestDataDirectory(), "deflated.zip");
+      final File target = new File(dir, "deflated.zip");
+      ArchiveZipIndexCacheTest.copy(source, target);
+      TestData.deleteOnExit(target);
+
+      this.archive = new PathReal(target.toString());
+      this.cache =
+        new ArchiveZipIndexCache(TestData.getLog(), new PathReal(new File(
+          dir,
+          "cache").toString()));
+    }
+
+    void open(
+      final ArchiveZip.Backend backend)
+      throws IOException,
+        FilesystemError
+    {
+      new ArchiveZip(
+        TestData.getLog(),
+        this.archive,
+        PathVirtual.ROOT,
+        backend,
+        this.cache).close();
+    }
+  }
+
+  private static void copy(
+    final File source,
+    final File target)
+    throws IOException
+  {
+    final InputStream in = new FileInputStream(source);
+    try {
+      final OutputStream out = new FileOutputStream(target);
+      try {
+        final byte[] buffer = new byte[8192];
+        for (;;) {
+          final int r = in.read(buffer);
+          if (r == -1) {
+            break;
+          }
+          out.write(buffer, 0, r);
+        }
+      } finally {
+        out.close();
+      }
+    } finally {
+      in.close();
+    }
+    Assert.assertTrue(target.setLastModified(source.lastModified()));
+  }
+
+  @Test public void testDamaged()
+    throws IOException,
+      FilesystemError
+  {
+    final Fixture f = new Fixture();
+    f.open(ArchiveZip.Backend.BACKEND_ZIP_FILE);
+
+    final File file = f.cache.getFile(f.archive);
+    final RandomAccessFile r = new RandomAccessFile(file, "rw");
+    try {
+      r.setLength(r.length() - 1);
+    } finally {
+      r.close();
+    }
+    Assert.assertNull(f.cache.load(f.archive, false));
+
+    /**
+     * The damaged cache file is replaced.
+     */
+
+    f.open(ArchiveZip.Backend.BACKEND_ZIP_FILE);
+    Assert.assertNotNull(f.cache.load(f.archive, false));
+  }
+
+  @Test public void testDamagedGarbage()
+    throws IOException,
+      FilesystemError
+  {
+    final Fixture f = new Fixture();
+    f.open(ArchiveZip.Backend.BACKEND_ZIP_FILE);
+
+    final File file = f.cache.getFile(f.archive);
+    final RandomAccessFile r = new RandomAccessFile(file, "rw");
+    try {
+      r.seek(r.length() / 2);
+      r.writeInt(Integer.MAX_VALUE);
+    } finally {
+      r.close();
+    }
+
+    Assert.assertNull(f.cache.load(f.archive, false));
+  }
+
+  @Test public void testLoadMissing()
+    throws IOException
+  {
+    final Fixture f = new Fixture();
+    Assert.assertNull(f.cache.load(f.archive, false));
+  }
+
+  /**
+   * Entries recorded by the {@link java.util.zip.ZipFile} backend do not
+   * satisfy the mapped backend, which records its own.
+   */
+
+  @Test public void testOffsets()
+    throws IOException,
+      FilesystemError
+  {
+    final Fixture f = new Fixture();
+    f.open(ArchiveZip.Backend.BACKEND_ZIP_FILE);
+    Assert.assertNotNull(f.cache.load(f.archive, false));
+    Assert.assertNull(f.cache.load(f.archive, true));
+
+    f.open(ArchiveZip.Backend.BACKEND_MAPPED);
+    Assert.assertNotNull(f.cache.load(f.archive, false));
+    Assert.assertNotNull(f.cache.load(f.archive, true));
+
+    final Archive<ArchiveZipKind> a =
+      new ArchiveZip(
+        TestData.getLog(),
+        f.archive,
+        PathVirtual.ROOT,
+        ArchiveZip.Backend.BACKEND_MAPPED,
+        f.cache);
+    try {
+      Assert.assertEquals(
+        275966,
+        a.readFileAsByteBuffer(PathVirtual.ofString("/subdir/large.txt"))
+          .remaining());
+    } finally {
+      a.close();
+    }
+  }
+
+  /**
+   * The cached entries are identical to those read by
+   * {@link java.util.zip.ZipFile}.
+   */
+
+  @Test public void testSaveLoad()
+    throws IOException,
+      FilesystemError
+  {
+    final Fixture f = new Fixture();
+    f.open(ArchiveZip.Backend.BACKEND_ZIP_FILE);
+
+    final ArchiveZipIndexCache.Index index = f.cache.load(f.archive, false);
+    assert index != null;
+    final List<ZipEntry> cached = index.getEntries();
+
+    final ZipFile z = new ZipFile(f.archive.toFile());
+    try {
+      Assert.assertEquals(z.size(), cached.size());
+      for (final ZipEntry c : cached) {
+        final ZipEntry e = z.getEntry(c.getName());
+        Assert.assertNotNull(e);
+        Assert.assertEquals(e.getMethod(), c.getMethod());
+        Assert.assertEquals(e.getSize(), c.getSize());
+        Assert.assertEquals(e.getCompressedSize(), c.getCompressedSize());
+        Assert.assertEquals(e.getCrc(), c.getCrc());
+        Assert.assertEquals(e.getTime(), c.getTime());
+      }
+    } finally {
+      z.close();
+    }
+  }
+
+  /**
+   * The cached index is identical to the index built from the entries of
+   * the archive.
+   */
+
+  @Test public void testSaveLoadIndex()
+    throws IOException,
+      FilesystemError
+  {
+    final Fixture f = new Fixture();
+    f.open(ArchiveZip.Backend.BACKEND_MAPPED);
+
+    final ArchiveZipIndexCache.Index index = f.cache.load(f.archive, true);
+    assert index != null;
+
+    final Archive<ArchiveZipKind> a =
+      new ArchiveZip(TestData.getLog(), f.archive, PathVirtual.ROOT);
+    try {
+      final Map<PathVirtual, FileReference<ArchiveZipKind>> contents =
+        ((Some<Map<PathVirtual, FileReference<ArchiveZipKind>>>) a
+          .getContents()).get();
+
+      Assert.assertEquals(contents.size(), index.getObjectCount());
+      for (int i = 0; i < index.getObjectCount(); ++i) {
+        final PathVirtual p = index.getObjectPath(i);
+        final ArchiveZip.ArchiveZipReference r =
+          (ArchiveZip.ArchiveZipReference) contents.get(p);
+        Assert.assertNotNull(r);
+        Assert.assertSame(p, p.intern());
+        Assert.assertEquals(r.getType(), index.getObjectType(i));
+        Assert.assertEquals(
+          ((Some<ZipEntry>) r.getZipEntryOption()).get().getName(),
+          index.getObjectEntry(i).getName());
+      }
+
+      for (final PathVirtual p : index.getChildren().keySet()) {
+        Assert.assertEquals(
+          a.listDirectory(p),
+          index.getChildren().get(p));
+      }
+      Assert.assertEquals(
+        a.listDirectory(PathVirtual.ROOT),
+        index.getChildren().get(PathVirtual.ROOT));
+    } finally {
+      a.close();
+    }
+  }
+
+  @Test public void testStaleModified()
+    throws IOException,
+      FilesystemError
+  {
+    final Fixture f = new Fixture();
+    f.open(ArchiveZip.Backend.BACKEND_ZIP_FILE);
+
+    final File file = f.archive.toFile();
+    Assert.assertTrue(file.setLastModified(file.lastModified() + 10000));
+    Assert.assertNull(f.cache.load(f.archive, false));
+  }
+
+  /**
+   * An archive mounted from the cache, and modified before the zip file is
+   * first opened, is not read with the cached entries.
+   */
+
+  @Test public void testStaleModifiedAfterMount()
+    throws IOException,
+      FilesystemError
+  {
+    final Fixture f = new Fixture();
+    f.open(ArchiveZip.Backend.BACKEND_ZIP_FILE);
+
+    final Archive<ArchiveZipKind> a =
+      new ArchiveZip(
+        TestData.getLog(),
+        f.archive,
+        PathVirtual.ROOT,
+        ArchiveZip.Backend.BACKEND_ZIP_FILE,
+        f.cache);
+    try {
+      final File file = f.archive.toFile();
+      Assert.assertTrue(file.setLastModified(file.lastModified() + 10000));
+      a.readFileAsByteBuffer(PathVirtual.ofString("/subdir/large.txt"));
+      Assert.fail("Read from a modified archive");
+    } catch (final FilesystemError e) {
+      Assert.assertEquals(FilesystemError.Code.FS_ERROR_IO_ERROR, e.getCode());
+    } finally {
+      a.close();
+    }
+  }
+
+  /**
+   * Cached entries are not applied to an archive that was modified after
+   * it was examined, but before it was mapped.
+   */
+
+  @Test public void testStaleModifiedBeforeMap()
+    throws IOException,
+      FilesystemError
+  {
+    final Fixture f = new Fixture();
+    f.open(ArchiveZip.Backend.BACKEND_MAPPED);
+
+    final ArchiveZipIndexCache.Index index = f.cache.load(f.archive, true);
+    assert index != null;
+
+    final File file = f.archive.toFile();
+    try {
+      new ArchiveZipBackendMapped(
+        f.archive,
+        index.getEntries(),
+        file.length(),
+        file.lastModified() - 10000);
+      Assert.fail("Mapped a modified archive");
+    } catch (final ZipException e) {
+      Assert.assertTrue(e.getMessage().contains("modified"));
+    }
+
+    new ArchiveZipBackendMapped(
+      f.archive,
+      index.getEntries(),
+      file.length(),
+      file.lastModified()).close();
+  }
+
+  @Test public void testStaleResized()
+    throws IOException,
+      FilesystemError
+  {
+    final Fixture f = new Fixture();
+    f.open(ArchiveZip.Backend.BACKEND_ZIP_FILE);
+
+    final File file = f.archive.toFile();
+    final long time = file.lastModified();
+    final RandomAccessFile r = new RandomAccessFile(file, "rw");
+    try {
+      r.setLength(r.length() + 1);
+    } finally {
+      r.close();
+    }
+    Assert.assertTrue(file.setLastModified(time));
+    Assert.assertNull(f.cache.load(f.archive, false));
+  }
+
+  @Test public void testStaleTimeZone()
+    throws IOException,
+      FilesystemError
+  {
+    final Fixture f = new Fixture();
+    f.open(ArchiveZip.Backend.BACKEND_ZIP_FILE);
+
+    final TimeZone zone = TimeZone.getDefault();
+    try {
+      if ("Pacific/Kiritimati".equals(zone.getID())) {
+        TimeZone.setDefault(TimeZone.getTimeZone("Pacific/Pago_Pago"));
+      } else {
+        TimeZone.setDefault(TimeZone.getTimeZone("Pacific/Kiritimati"));
+      }
+      Assert.assertNull(f.cache.load(f.archive, false));
+    } finally {
+      TimeZone.setDefault(zone);
+    }
+    Assert.assertNotNull(f.cache.load(f.archive, false));
+  }
+}
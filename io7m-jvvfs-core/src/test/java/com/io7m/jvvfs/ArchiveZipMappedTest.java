@@ -0,0 +1,229 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.jvvfs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jfunctional.Some;
+import com.io7m.jvvfs.FileReference.Type;
+import com.io7m.jvvfs.FilesystemError.Code;
+
+public final class ArchiveZipMappedTest extends ArchiveZipTest
+{
+  private static Map<PathVirtual, FileReference<ArchiveZipKind>> contents(
+    final Archive<ArchiveZipKind> a)
+    throws FilesystemError
+  {
+    return ((Some<Map<PathVirtual, FileReference<ArchiveZipKind>>>) a
+      .getContents()).get();
+  }
+
+  private static byte[] read(
+    final InputStream s)
+    throws IOException
+  {
+    try {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      final byte[] buffer = new byte[1024];
+      for (;;) {
+        final int r = s.read(buffer);
+        if (r == -1) {
+          break;
+        }
+        out.write(buffer, 0, r);
+      }
+      return out.toByteArray();
+    } finally {
+      s.close();
+    }
+  }
+
+  @Override Archive<ArchiveZipKind> getArchive(
+    final String basename,
+    final PathVirtual mount)
+    throws FileNotFoundException,
+      IOException,
+      FilesystemError
+  {
+    final File tempdir = TestData.getTestDataDirectory();
+    final PathReal r =
+      new PathReal(new File(tempdir, basename).toString() + ".zip");
+    return new ArchiveZip(
+      TestData.getLog(),
+      r,
+      mount,
+      ArchiveZip.Backend.BACKEND_MAPPED);
+  }
+
+  /**
+   * Every zip file in the test suite is indexed and read identically by the
+   * mapped backend and by {@link java.util.zip.ZipFile}.
+   */
+
+  @Test public void testMatchesZipFile()
+    throws FileNotFoundException,
+      IOException,
+      FilesystemError
+  {
+    final String[] names =
+      {
+        "complex",
+        "deflated",
+        "files1-3",
+        "files4-6",
+        "single-file",
+        "single-file-and-subdir",
+        "single-file-and-subdir-implicit",
+        "single-file-in-subdir-subdir",
+        "subdir-shadow",
+        "subdir-subdir-shadow", };
+
+    final File tempdir = TestData.getTestDataDirectory();
+    for (final String name : names) {
+      final PathReal r =
+        new PathReal(new File(tempdir, name).toString() + ".zip");
+      final Archive<ArchiveZipKind> a_zip =
+        new ArchiveZip(TestData.getLog(), r, PathVirtual.ROOT);
+      final Archive<ArchiveZipKind> a_map =
+        this.getArchive(name, PathVirtual.ROOT);
+
+      try {
+        final Map<PathVirtual, FileReference<ArchiveZipKind>> c_zip =
+          ArchiveZipMappedTest.contents(a_zip);
+        final Map<PathVirtual, FileReference<ArchiveZipKind>> c_map =
+          ArchiveZipMappedTest.contents(a_map);
+        Assert.assertEquals(c_zip.keySet(), c_map.keySet());
+
+        for (final Entry<PathVirtual, FileReference<ArchiveZipKind>> e : c_zip
+          .entrySet()) {
+          final PathVirtual p = e.getKey();
+          final Type t = e.getValue().getType();
+          Assert.assertEquals(t, c_map.get(p).getType());
+          Assert.assertEquals(
+            a_zip.getModificationTime(p).getTimeInMillis(),
+            a_map.getModificationTime(p).getTimeInMillis());
+
+          if (t == Type.TYPE_FILE) {
+            Assert.assertEquals(a_zip.getFileSize(p), a_map.getFileSize(p));
+            Assert.assertEquals(
+              a_zip.getCompressedSizeActual(e.getValue()),
+              a_map.getCompressedSizeActual(c_map.get(p)));
+            Assert.assertArrayEquals(
+              ArchiveZipMappedTest.read(a_zip.openFile(p)),
+              ArchiveZipMappedTest.read(a_map.openFile(p)));
+            Assert.assertEquals(
+              a_zip.readFileAsByteBuffer(p),
+              a_map.readFileAsByteBuffer(p));
+          }
+        }
+      } finally {
+        a_zip.close();
+        a_map.close();
+      }
+    }
+  }
+
+  /**
+   * Streams opened from the same entry do not affect each other.
+   */
+
+  @Test public void testOpenFileIndependent()
+    throws FileNotFoundException,
+      IOException,
+      FilesystemError
+  {
+    final Archive<ArchiveZipKind> a =
+      this.getArchive("deflated", PathVirtual.ROOT);
+    try {
+      final PathVirtual p = PathVirtual.ofString("/file.txt");
+      final InputStream s0 = a.openFile(p);
+      final InputStream s1 = a.openFile(p);
+      try {
+        Assert.assertEquals('H', s0.read());
+        Assert.assertEquals('e', s0.read());
+        Assert.assertEquals('H', s1.read());
+        Assert.assertEquals('l', s0.read());
+      } finally {
+        s0.close();
+        s1.close();
+      }
+    } finally {
+      a.close();
+    }
+  }
+
+  /**
+   * Files stored without compression are returned as views of the mapped
+   * zip file.
+   */
+
+  @Test public void testReadFileAsByteBufferStored()
+    throws FileNotFoundException,
+      IOException,
+      FilesystemError
+  {
+    final Archive<ArchiveZipKind> a =
+      this.getArchive("single-file", PathVirtual.ROOT);
+    try {
+      final ByteBuffer b =
+        a.readFileAsByteBuffer(PathVirtual.ofString("/file.txt"));
+      Assert.assertTrue(b.isDirect());
+      Assert.assertTrue(b.isReadOnly());
+      Assert.assertEquals('H', b.get(0));
+    } finally {
+      a.close();
+    }
+  }
+
+  @Test(expected = FilesystemError.class) public void testTruncated()
+    throws FileNotFoundException,
+      IOException,
+      FilesystemError
+  {
+    final File tempdir = TestData.getTestDataDirectory();
+    final File source = new File(tempdir, "complex.zip");
+    final File target = new File(tempdir, "complex-truncated.zip");
+
+    final byte[] data = ArchiveZipMappedTest.read(new FileInputStream(source));
+    final FileOutputStream out = new FileOutputStream(target);
+    try {
+      out.write(data, 0, data.length - 8);
+    } finally {
+      out.close();
+    }
+
+    try {
+      this.getArchive("complex-truncated", PathVirtual.ROOT);
+    } catch (final FilesystemError e) {
+      Assert.assertEquals(Code.FS_ERROR_ARCHIVE_DAMAGED, e.getCode());
+      throw e;
+    }
+  }
+}
@@ -19,6 +19,11 @@ package com.io7m.jvvfs;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
 import java.util.Set;
 
 import org.junit.Assert;
@@ -29,7 +34,7 @@ import com.io7m.jfunctional.Some;
 import com.io7m.jvvfs.FileReference.Type;
 import com.io7m.jvvfs.FilesystemError.Code;
 
-public final class ArchiveZipTest extends ArchiveContract<ArchiveZipKind>
+public class ArchiveZipTest extends ArchiveContract<ArchiveZipKind>
 {
   @Override Archive<ArchiveZipKind> getArchive(
     final String basename,
@@ -57,6 +62,35 @@ public final class ArchiveZipTest extends ArchiveContract<ArchiveZipKind>
     }
   }
 
+  @Test public void testGetContentsImplicit()
+    throws FileNotFoundException,
+      IOException,
+      FilesystemError
+  {
+    final Archive<ArchiveZipKind> a =
+      this.getArchive("single-file-and-subdir-implicit", PathVirtual.ROOT);
+    try {
+      final OptionType<Map<PathVirtual, FileReference<ArchiveZipKind>>> r =
+        a.getContents();
+      Assert.assertTrue(r.isSome());
+      final Map<PathVirtual, FileReference<ArchiveZipKind>> c =
+        ((Some<Map<PathVirtual, FileReference<ArchiveZipKind>>>) r).get();
+
+      Assert.assertEquals(3, c.size());
+      Assert.assertEquals(
+        Type.TYPE_FILE,
+        c.get(PathVirtual.ofString("/file.txt")).getType());
+      Assert.assertEquals(
+        Type.TYPE_DIRECTORY,
+        c.get(PathVirtual.ofString("/subdir")).getType());
+      Assert.assertEquals(
+        Type.TYPE_FILE,
+        c.get(PathVirtual.ofString("/subdir/file.txt")).getType());
+    } finally {
+      a.close();
+    }
+  }
+
   @Test public void testListDirectoryImplicit()
     throws FileNotFoundException,
       IOException,
@@ -136,4 +170,122 @@ public final class ArchiveZipTest extends ArchiveContract<ArchiveZipKind>
       a.close();
     }
   }
+
+  @Test public void testOpenFileDeflated()
+    throws FileNotFoundException,
+      IOException,
+      FilesystemError,
+      NoSuchAlgorithmException
+  {
+    final Archive<ArchiveZipKind> a =
+      this.getArchive("deflated", PathVirtual.ROOT);
+    try {
+      final PathVirtual p = PathVirtual.ofString("/subdir/large.txt");
+      Assert.assertEquals(275966, a.getFileSize(p));
+
+      final MessageDigest md5 = MessageDigest.getInstance("MD5");
+      final InputStream s = a.openFile(p);
+      try {
+        final byte[] buffer = new byte[4096];
+        for (;;) {
+          final int r = s.read(buffer);
+          if (r == -1) {
+            break;
+          }
+          md5.update(buffer, 0, r);
+        }
+      } finally {
+        s.close();
+      }
+
+      final StringBuilder hex = new StringBuilder();
+      for (final byte b : md5.digest()) {
+        hex.append(String.format("%02x", Byte.valueOf(b)));
+      }
+      Assert.assertEquals("b63468155782c5cb5d8232408d6deeba", hex.toString());
+    } finally {
+      a.close();
+    }
+  }
+
+  @Test public void testOpenFileDeflatedBytes()
+    throws FileNotFoundException,
+      IOException,
+      FilesystemError
+  {
+    final Archive<ArchiveZipKind> a =
+      this.getArchive("deflated", PathVirtual.ROOT);
+    try {
+      final InputStream s = a.openFile(PathVirtual.ofString("/file.txt"));
+      try {
+        final StringBuilder b = new StringBuilder();
+        for (;;) {
+          final int r = s.read();
+          if (r == -1) {
+            break;
+          }
+          b.append((char) r);
+        }
+
+        final StringBuilder expected = new StringBuilder();
+        for (int index = 0; index < 20; ++index) {
+          expected.append("Hello, compressed world.\n");
+        }
+        Assert.assertEquals(expected.toString(), b.toString());
+      } finally {
+        s.close();
+      }
+    } finally {
+      a.close();
+    }
+  }
+
+  @Test public void testOpenFileEmpty()
+    throws FileNotFoundException,
+      IOException,
+      FilesystemError
+  {
+    final Archive<ArchiveZipKind> a =
+      this.getArchive("deflated", PathVirtual.ROOT);
+    try {
+      final PathVirtual p = PathVirtual.ofString("/empty.txt");
+      Assert.assertEquals(0, a.getFileSize(p));
+
+      final InputStream s = a.openFile(p);
+      try {
+        Assert.assertEquals(-1, s.read());
+      } finally {
+        s.close();
+      }
+    } finally {
+      a.close();
+    }
+  }
+
+  @Test public void testReadFileAsByteBufferDeflated()
+    throws FileNotFoundException,
+      IOException,
+      FilesystemError
+  {
+    final Archive<ArchiveZipKind> a =
+      this.getArchive("deflated", PathVirtual.ROOT);
+    try {
+      final PathVirtual p = PathVirtual.ofString("/subdir/large.txt");
+      final ByteBuffer b = a.readFileAsByteBuffer(p);
+      Assert.assertTrue(b.isReadOnly());
+      Assert.assertEquals(275966, b.remaining());
+
+      final InputStream s = a.openFile(p);
+      try {
+        for (int index = 0; index < 275966; ++index) {
+          Assert.assertEquals(s.read(), b.get() & 0xff);
+        }
+        Assert.assertEquals(-1, s.read());
+      } finally {
+        s.close();
+      }
+    } finally {
+      a.close();
+    }
+  }
 }
@@ -0,0 +1,336 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jvvfs;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jvvfs.FilesystemError.Code;
+
+@SuppressWarnings("static-method") public final class AsyncExecutorTest
+{
+  private static final class Recorder<T> implements FilesystemCallbackType<T>
+  {
+    private final AtomicReference<FilesystemError> failure;
+    private final AtomicReference<T>               success;
+
+    Recorder()
+    {
+      this.failure = new AtomicReference<FilesystemError>();
+      this.success = new AtomicReference<T>();
+    }
+
+    @Override public void onFailure(
+      final FilesystemError e)
+    {
+      Assert.assertTrue(this.failure.compareAndSet(null, e));
+      Assert.assertNull(this.success.get());
+    }
+
+    @Override public void onSuccess(
+      final T value)
+    {
+      Assert.assertTrue(this.success.compareAndSet(null, value));
+      Assert.assertNull(this.failure.get());
+    }
+  }
+
+  private static AsyncExecutor caller(
+    final int limit)
+    throws IOException
+  {
+    final Executor e = new Executor() {
+      @Override public void execute(
+        final @Nullable Runnable r)
+      {
+        NullCheck.notNull(r, "Runnable").run();
+      }
+    };
+    return new AsyncExecutor(TestData.getLog(), e, limit);
+  }
+
+  private static Runnable tracked(
+    final AtomicInteger running,
+    final AtomicInteger max,
+    final CountDownLatch latch)
+  {
+    return new Runnable() {
+      @Override public void run()
+      {
+        final int now = running.incrementAndGet();
+        for (;;) {
+          final int m = max.get();
+          if ((now <= m) || max.compareAndSet(m, now)) {
+            break;
+          }
+        }
+        try {
+          Thread.sleep(1);
+        } catch (final InterruptedException e) {
+          throw new AssertionError(e);
+        } finally {
+          running.decrementAndGet();
+          latch.countDown();
+        }
+      }
+    };
+  }
+  /**
+   * No more than the given number of operations run at once in the lane of
+   * any archive, and operations in other lanes are unaffected.
+   */
+
+  @Test public void testLimit()
+    throws IOException,
+      InterruptedException
+  {
+    final ExecutorService exec = Executors.newFixedThreadPool(8);
+    final AsyncExecutor async = new AsyncExecutor(TestData.getLog(), exec, 2);
+    final Archive<?> a0 = new ArchiveIdentity();
+    final Archive<?> a1 = new ArchiveIdentity();
+
+    final int count = 32;
+    final CountDownLatch latch = new CountDownLatch(count * 2);
+    final AtomicInteger running0 = new AtomicInteger();
+    final AtomicInteger running1 = new AtomicInteger();
+    final AtomicInteger max0 = new AtomicInteger();
+    final AtomicInteger max1 = new AtomicInteger();
+
+    try {
+      for (int index = 0; index < count; ++index) {
+        async.executeLimited(
+          a0,
+          AsyncExecutorTest.tracked(running0, max0, latch));
+        async.executeLimited(
+          a1,
+          AsyncExecutorTest.tracked(running1, max1, latch));
+      }
+      Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+    } finally {
+      exec.shutdown();
+    }
+
+    Assert.assertTrue(max0.get() >= 1);
+    Assert.assertTrue(max0.get() <= 2);
+    Assert.assertTrue(max1.get() >= 1);
+    Assert.assertTrue(max1.get() <= 2);
+  }
+
+  /**
+   * An operation that raises an exception does not prevent the operations
+   * queued behind it from running.
+   */
+
+  @Test public void testRaising()
+    throws IOException
+  {
+    final AsyncExecutor async = AsyncExecutorTest.caller(1);
+    final Archive<?> a = new ArchiveIdentity();
+    final List<Integer> order = new ArrayList<Integer>();
+
+    async.runLimited(a, new Runnable() {
+      @Override public void run()
+      {
+        order.add(Integer.valueOf(0));
+        async.runLimited(a, new Runnable() {
+          @Override public void run()
+          {
+            order.add(Integer.valueOf(2));
+          }
+        });
+        order.add(Integer.valueOf(1));
+        throw new IllegalStateException();
+      }
+    });
+
+    Assert.assertEquals(3, order.size());
+    Assert.assertEquals(Integer.valueOf(0), order.get(0));
+    Assert.assertEquals(Integer.valueOf(1), order.get(1));
+    Assert.assertEquals(Integer.valueOf(2), order.get(2));
+  }
+
+  /**
+   * An operation that raises an error does not prevent the operations queued
+   * behind it from running, and does not leave its lane occupied.
+   */
+
+  @Test public void testRaisingError()
+    throws IOException
+  {
+    final AsyncExecutor async = AsyncExecutorTest.caller(1);
+    final Archive<?> a = new ArchiveIdentity();
+    final List<Integer> order = new ArrayList<Integer>();
+    final Error error = new Error("raised");
+
+    try {
+      async.runLimited(a, new Runnable() {
+        @Override public void run()
+        {
+          order.add(Integer.valueOf(0));
+          async.runLimited(a, new Runnable() {
+            @Override public void run()
+            {
+              order.add(Integer.valueOf(1));
+            }
+          });
+          throw error;
+        }
+      });
+      Assert.fail("Error not propagated");
+    } catch (final Error e) {
+      Assert.assertSame(error, e);
+    }
+
+    async.runLimited(a, new Runnable() {
+      @Override public void run()
+      {
+        order.add(Integer.valueOf(2));
+      }
+    });
+
+    Assert.assertEquals(3, order.size());
+    Assert.assertEquals(Integer.valueOf(0), order.get(0));
+    Assert.assertEquals(Integer.valueOf(1), order.get(1));
+    Assert.assertEquals(Integer.valueOf(2), order.get(2));
+  }
+
+  @Test public void testTaskCancelled()
+    throws IOException
+  {
+    final Recorder<String> r = new Recorder<String>();
+    final AsyncExecutor.Task<String> t =
+      new AsyncExecutor.Task<String>(new Callable<String>() {
+        @Override public String call()
+        {
+          throw new AssertionError("Unreachable");
+        }
+      }, r);
+
+    Assert.assertTrue(t.cancel(false));
+    AsyncExecutorTest.caller(1).execute(t);
+    Assert.assertNull(r.success.get());
+    Assert.assertNull(r.failure.get());
+  }
+
+  @Test public void testTaskFailure()
+    throws IOException
+  {
+    final Recorder<String> r = new Recorder<String>();
+    final AsyncExecutor.Task<String> t =
+      new AsyncExecutor.Task<String>(new Callable<String>() {
+        @Override public String call()
+          throws FilesystemError
+        {
+          throw new FilesystemError(Code.FS_ERROR_CONSTRAINT_ERROR, "x");
+        }
+      }, r);
+
+    AsyncExecutorTest.caller(1).execute(t);
+    Assert.assertTrue(t.isDone());
+    Assert.assertEquals(
+      Code.FS_ERROR_CONSTRAINT_ERROR,
+      r.failure.get().getCode());
+  }
+
+  /**
+   * An {@link Error} raised by an operation is passed to the callback, and
+   * then propagates.
+   */
+
+  @Test public void testTaskFailureError()
+    throws IOException
+  {
+    final Recorder<String> r = new Recorder<String>();
+    final OutOfMemoryError error = new OutOfMemoryError("raised");
+    final AsyncExecutor.Task<String> t =
+      new AsyncExecutor.Task<String>(new Callable<String>() {
+        @Override public String call()
+        {
+          throw error;
+        }
+      }, r);
+
+    try {
+      AsyncExecutorTest.caller(1).execute(t);
+      Assert.fail("Error not propagated");
+    } catch (final OutOfMemoryError e) {
+      Assert.assertSame(error, e);
+    }
+
+    Assert.assertTrue(t.isDone());
+    Assert.assertEquals(
+      Code.FS_ERROR_CONSTRAINT_ERROR,
+      r.failure.get().getCode());
+    Assert.assertSame(error, r.failure.get().getCause());
+  }
+
+  /**
+   * An unchecked exception raised by an operation is passed to the callback.
+   */
+
+  @Test public void testTaskFailureUnchecked()
+    throws IOException
+  {
+    final Recorder<String> r = new Recorder<String>();
+    final IllegalStateException error = new IllegalStateException("raised");
+    final AsyncExecutor.Task<String> t =
+      new AsyncExecutor.Task<String>(new Callable<String>() {
+        @Override public String call()
+        {
+          throw error;
+        }
+      }, r);
+
+    AsyncExecutorTest.caller(1).runLimited(new ArchiveIdentity(), t);
+    Assert.assertTrue(t.isDone());
+    Assert.assertEquals(
+      Code.FS_ERROR_CONSTRAINT_ERROR,
+      r.failure.get().getCode());
+    Assert.assertSame(error, r.failure.get().getCause());
+  }
+
+  @Test public void testTaskSuccess()
+    throws IOException
+  {
+    final Recorder<String> r = new Recorder<String>();
+    final AsyncExecutor.Task<String> t =
+      new AsyncExecutor.Task<String>(new Callable<String>() {
+        @Override public String call()
+        {
+          return "x";
+        }
+      }, r);
+
+    AsyncExecutorTest.caller(1).execute(t);
+    Assert.assertTrue(t.isDone());
+    Assert.assertEquals("x", r.success.get());
+  }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jvvfs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public final class ContentCacheTest
+{
+  private static ByteBuffer data(
+    final int size,
+    final int value)
+  {
+    final ByteBuffer b = ByteBuffer.allocate(size);
+    for (int index = 0; index < size; ++index) {
+      b.put(index, (byte) value);
+    }
+    return b;
+  }
+
+  private static Archive<?> directory()
+    throws IOException
+  {
+    final File tempdir = TestData.getTestDataDirectory();
+    return new ArchiveDirectory(TestData.getLog(), new PathReal(new File(
+      tempdir,
+      "single-file").toString()), PathVirtual.ROOT);
+  }
+
+  private static PathVirtual path(
+    final int index)
+    throws FilesystemError
+  {
+    return PathVirtual.ofString("/file" + index);
+  }
+
+  private static Archive<?> zip()
+    throws IOException,
+      FilesystemError
+  {
+    final File tempdir = TestData.getTestDataDirectory();
+    return new ArchiveZip(TestData.getLog(), new PathReal(new File(
+      tempdir,
+      "single-file.zip").toString()), PathVirtual.ROOT);
+  }
+
+  /**
+   * When the cache is full, a new file is admitted only if it has been
+   * requested more often than the file that it would replace.
+   */
+
+  @Test public void testAdmission()
+    throws IOException,
+      FilesystemError
+  {
+    final ContentCache c =
+      new ContentCache(10000, ContentCacheStorage.STORAGE_HEAP);
+    final Archive<?> a = ContentCacheTest.zip();
+    c.register(a);
+
+    for (int index = 0; index < 10; ++index) {
+      final PathVirtual p = ContentCacheTest.path(index);
+      Assert.assertNull(c.get(a, p));
+      c.put(a, p, ContentCacheTest.data(1000, index));
+    }
+    Assert.assertEquals(10000, c.getResidentBytes());
+    Assert.assertEquals(0, c.getEvictions());
+
+    final PathVirtual cold = ContentCacheTest.path(100);
+    Assert.assertNull(c.get(a, cold));
+    c.put(a, cold, ContentCacheTest.data(1000, 100));
+    Assert.assertEquals(1, c.getEvictions());
+    Assert.assertNotNull(c.get(a, ContentCacheTest.path(0)));
+
+    final PathVirtual warm = ContentCacheTest.path(200);
+    for (int index = 0; index < 5; ++index) {
+      Assert.assertNull(c.get(a, warm));
+    }
+    c.put(a, warm, ContentCacheTest.data(1000, 200));
+    Assert.assertEquals(2, c.getEvictions());
+    Assert.assertEquals(ContentCacheTest.data(1000, 200), c.get(a, warm));
+    Assert.assertNull(c.get(a, ContentCacheTest.path(1)));
+    Assert.assertEquals(10000, c.getResidentBytes());
+    a.close();
+  }
+
+  @Test public void testBudget()
+    throws IOException,
+      FilesystemError
+  {
+    final ContentCache c =
+      new ContentCache(1000, ContentCacheStorage.STORAGE_HEAP);
+    final Archive<?> a = ContentCacheTest.zip();
+    c.register(a);
+
+    for (int index = 0; index < 100; ++index) {
+      final PathVirtual p = ContentCacheTest.path(index);
+      Assert.assertNull(c.get(a, p));
+      c.put(a, p, ContentCacheTest.data(100, index));
+      Assert.assertTrue(c.getResidentBytes() <= 1000);
+    }
+
+    Assert.assertEquals(100, c.getMisses());
+    Assert.assertEquals(0, c.getHits());
+    Assert.assertTrue(c.getEvictions() >= 90);
+    a.close();
+  }
+
+  @Test public void testDirectoryNotCached()
+    throws IOException,
+      FilesystemError
+  {
+    final ContentCache c =
+      new ContentCache(1000, ContentCacheStorage.STORAGE_HEAP);
+    final Archive<?> a = ContentCacheTest.directory();
+    c.register(a);
+
+    Assert.assertFalse(c.isCacheable(a, 1));
+    c.put(a, ContentCacheTest.path(0), ContentCacheTest.data(10, 0));
+    Assert.assertEquals(0, c.getResidentBytes());
+    Assert.assertNull(c.get(a, ContentCacheTest.path(0)));
+  }
+
+  @Test public void testEntryLimit()
+    throws IOException,
+      FilesystemError
+  {
+    final ContentCache c =
+      new ContentCache(800, ContentCacheStorage.STORAGE_HEAP);
+    final Archive<?> a = ContentCacheTest.zip();
+    c.register(a);
+
+    Assert.assertTrue(c.isCacheable(a, 100));
+    Assert.assertFalse(c.isCacheable(a, 101));
+
+    final ByteBuffer b =
+      c.put(a, ContentCacheTest.path(0), ContentCacheTest.data(101, 1));
+    Assert.assertEquals(101, b.remaining());
+    Assert.assertEquals(0, c.getResidentBytes());
+    a.close();
+  }
+
+  /**
+   * A file that is read often survives a scan of many files that are each
+   * read once.
+   */
+
+  @Test public void testFrequentSurvivesScan()
+    throws IOException,
+      FilesystemError
+  {
+    final ContentCache c =
+      new ContentCache(10000, ContentCacheStorage.STORAGE_HEAP);
+    final Archive<?> a = ContentCacheTest.zip();
+    c.register(a);
+
+    final PathVirtual hot = PathVirtual.ofString("/hot");
+    c.put(a, hot, ContentCacheTest.data(1000, 0xff));
+    for (int index = 0; index < 10; ++index) {
+      Assert.assertNotNull(c.get(a, hot));
+    }
+
+    for (int index = 0; index < 1000; ++index) {
+      final PathVirtual p = ContentCacheTest.path(index);
+      Assert.assertNull(c.get(a, p));
+      c.put(a, p, ContentCacheTest.data(1000, index));
+    }
+
+    final ByteBuffer b = c.get(a, hot);
+    Assert.assertNotNull(b);
+    Assert.assertEquals(ContentCacheTest.data(1000, 0xff), b);
+    Assert.assertTrue(c.getResidentBytes() <= 10000);
+    a.close();
+  }
+
+  @Test public void testInvalidate()
+    throws IOException,
+      FilesystemError
+  {
+    final ContentCache c =
+      new ContentCache(1000, ContentCacheStorage.STORAGE_HEAP);
+    final Archive<?> a = ContentCacheTest.zip();
+    final Archive<?> b = ContentCacheTest.zip();
+    c.register(a);
+    c.register(b);
+
+    final PathVirtual p = ContentCacheTest.path(0);
+    c.put(a, p, ContentCacheTest.data(100, 1));
+    c.put(b, p, ContentCacheTest.data(100, 2));
+    Assert.assertEquals(200, c.getResidentBytes());
+
+    c.invalidate(a);
+    Assert.assertEquals(100, c.getResidentBytes());
+    Assert.assertNull(c.get(a, p));
+    Assert.assertEquals(ContentCacheTest.data(100, 2), c.get(b, p));
+
+    /**
+     * Readers that were already reading from an invalidated archive do not
+     * add to the cache.
+     */
+
+    Assert.assertFalse(c.isCacheable(a, 1));
+    c.put(a, p, ContentCacheTest.data(100, 1));
+    Assert.assertEquals(100, c.getResidentBytes());
+    a.close();
+    b.close();
+  }
+
+  @Test public void testPutGet()
+    throws IOException,
+      FilesystemError
+  {
+    final ContentCache c =
+      new ContentCache(1000, ContentCacheStorage.STORAGE_HEAP);
+    final Archive<?> a = ContentCacheTest.zip();
+    c.register(a);
+
+    final PathVirtual p = ContentCacheTest.path(0);
+    Assert.assertNull(c.get(a, p));
+
+    final ByteBuffer d = ContentCacheTest.data(100, 7);
+    final ByteBuffer r0 = c.put(a, p, d);
+    Assert.assertEquals(d, r0);
+    Assert.assertTrue(r0.isReadOnly());
+    Assert.assertFalse(r0.isDirect());
+
+    /**
+     * The cache holds a copy of the data.
+     */
+
+    d.put(0, (byte) 0);
+    final ByteBuffer r1 = c.get(a, p);
+    Assert.assertNotNull(r1);
+    Assert.assertEquals(ContentCacheTest.data(100, 7), r1);
+    Assert.assertTrue(r1.isReadOnly());
+
+    /**
+     * Each caller receives an independent view.
+     */
+
+    r1.get();
+    final ByteBuffer r2 = c.get(a, p);
+    Assert.assertNotNull(r2);
+    Assert.assertEquals(100, r2.remaining());
+
+    Assert.assertEquals(1, c.getMisses());
+    Assert.assertEquals(2, c.getHits());
+    Assert.assertEquals(100, c.getResidentBytes());
+    a.close();
+  }
+
+  @Test public void testSketchAging()
+  {
+    final ContentCache.FrequencySketch s = new ContentCache.FrequencySketch();
+    s.ensureCapacity(16);
+
+    for (int index = 0; index < 20; ++index) {
+      s.increment(1);
+    }
+    Assert.assertEquals(15, s.frequency(1));
+
+    /**
+     * Enough distinct increments trigger a reset, halving every counter.
+     */
+
+    for (int index = 0; index < 160; ++index) {
+      s.increment(1000 + index);
+    }
+    Assert.assertTrue(s.frequency(1) <= 7);
+    Assert.assertTrue(s.frequency(1) > 0);
+  }
+
+  @Test public void testStorageDirect()
+    throws IOException,
+      FilesystemError
+  {
+    final ContentCache c =
+      new ContentCache(1000, ContentCacheStorage.STORAGE_DIRECT);
+    final Archive<?> a = ContentCacheTest.zip();
+    c.register(a);
+
+    final PathVirtual p = ContentCacheTest.path(0);
+    c.put(a, p, ContentCacheTest.data(100, 3));
+    final ByteBuffer b = c.get(a, p);
+    Assert.assertNotNull(b);
+    Assert.assertTrue(b.isDirect());
+    Assert.assertTrue(b.isReadOnly());
+    Assert.assertEquals(ContentCacheTest.data(100, 3), b);
+    a.close();
+  }
+}
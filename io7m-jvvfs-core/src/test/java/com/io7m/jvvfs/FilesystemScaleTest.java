@@ -0,0 +1,196 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jvvfs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jvvfs.FilesystemError.Code;
+import com.io7m.jvvfs.tests.SyntheticArchive;
+import com.io7m.jvvfs.tests.SyntheticArchiveGenerator;
+
+/**
+ * Lookups, reads and listings through large generated archives, some of
+ * the files and one of the directories of which are shadowed by archives
+ * mounted above them.
+ */
+
+@SuppressWarnings("static-method") public final class FilesystemScaleTest
+{
+  private static final class Stack
+  {
+    private final SyntheticArchive base;
+    private final File             directory;
+    private final SyntheticArchive shadow_directory;
+    private final SyntheticArchive shadow_files;
+
+    Stack(
+      final int entries)
+    {
+      this.directory = new TestData.TemporaryDirectory().getFile();
+      this.base = new SyntheticArchiveGenerator(entries, 3, 8, 32).next();
+      this.shadow_files = this.base.shadowFiles(entries / 10);
+      this.shadow_directory =
+        this.base.shadowDirectory(this.base.getDirectories().first());
+    }
+
+    void check(
+      final String suffix,
+      final Set<MountOption> options)
+      throws IOException,
+        FilesystemError
+    {
+      final FSCapabilityAllType fs =
+        Filesystem.makeWithArchiveDirectory(
+          TestData.getLog(),
+          new PathReal(this.directory.toString()));
+      try {
+        fs.mountArchive("base" + suffix, PathVirtual.ROOT, options);
+        fs.mountArchive("shadow_files" + suffix, PathVirtual.ROOT, options);
+        fs.mountArchive("shadow_directory" + suffix, PathVirtual.ROOT, options);
+
+        final PathVirtual hidden = this.base.getDirectories().first();
+        Assert.assertEquals(
+          ByteBuffer.wrap(this.shadow_directory.getContents(hidden)),
+          fs.readFileAsByteBuffer(hidden));
+
+        for (final PathVirtual p : this.base.getFiles()) {
+          if (hidden.isAncestorOf(p)) {
+            try {
+              fs.readFileAsByteBuffer(p);
+              Assert.fail("Read a hidden file " + p);
+            } catch (final FilesystemError e) {
+              Assert.assertEquals(Code.FS_ERROR_NOT_A_DIRECTORY, e.getCode());
+            }
+          } else if (this.shadow_files.getFiles().contains(p)) {
+            Assert.assertEquals(
+              ByteBuffer.wrap(this.shadow_files.getContents(p)),
+              fs.readFileAsByteBuffer(p));
+          } else {
+            Assert.assertEquals(
+              ByteBuffer.wrap(this.base.getContents(p)),
+              fs.readFileAsByteBuffer(p));
+          }
+        }
+
+        final Map<String, SortedSet<String>> children =
+          new HashMap<String, SortedSet<String>>();
+        FilesystemScaleTest.addChildren(children, this.base.getFiles());
+        FilesystemScaleTest.addChildren(children, this.base.getDirectories());
+
+        Assert.assertEquals(
+          children.get(""),
+          fs.listDirectory(PathVirtual.ROOT));
+        for (final PathVirtual d : this.base.getDirectories()) {
+          if ((hidden.equals(d) || hidden.isAncestorOf(d)) == false) {
+            Assert.assertEquals(
+              children.get(d.toString()),
+              fs.listDirectory(d));
+          }
+        }
+      } finally {
+        fs.close();
+      }
+    }
+
+    void writeDirectories()
+      throws IOException
+    {
+      this.base.writeDirectory(new File(this.directory, "base"));
+      this.shadow_files.writeDirectory(new File(
+        this.directory,
+        "shadow_files"));
+      this.shadow_directory.writeDirectory(new File(
+        this.directory,
+        "shadow_directory"));
+    }
+
+    void writeZips()
+      throws IOException
+    {
+      this.base.writeZip(
+        new File(this.directory, "base.zip"),
+        ZipEntry.DEFLATED);
+      this.shadow_files.writeZip(
+        new File(this.directory, "shadow_files.zip"),
+        ZipEntry.STORED);
+      this.shadow_directory.writeZip(
+        new File(this.directory, "shadow_directory.zip"),
+        ZipEntry.DEFLATED);
+    }
+  }
+
+  /**
+   * Add the names of <code>paths</code> to the sets of names of their
+   * parent directories.
+   */
+
+  private static void addChildren(
+    final Map<String, SortedSet<String>> children,
+    final SortedSet<PathVirtual> paths)
+  {
+    for (final PathVirtual p : paths) {
+      final String s = p.toString();
+      final int slash = s.lastIndexOf('/');
+      final String parent = s.substring(0, slash);
+      SortedSet<String> names = children.get(parent);
+      if (names == null) {
+        names = new TreeSet<String>();
+        children.put(parent, names);
+      }
+      names.add(s.substring(slash + 1));
+    }
+  }
+
+  @Test public void testScaleDirectory()
+    throws IOException,
+      FilesystemError
+  {
+    final Stack s = new Stack(2000);
+    s.writeDirectories();
+    s.check("", EnumSet.noneOf(MountOption.class));
+  }
+
+  @Test public void testScaleZip()
+    throws IOException,
+      FilesystemError
+  {
+    final Stack s = new Stack(20000);
+    s.writeZips();
+    s.check(".zip", EnumSet.noneOf(MountOption.class));
+  }
+
+  @Test public void testScaleZipMapped()
+    throws IOException,
+      FilesystemError
+  {
+    final Stack s = new Stack(20000);
+    s.writeZips();
+    s.check(".zip", EnumSet.of(MountOption.MOUNT_OPTION_ZIP_MAPPED));
+  }
+}
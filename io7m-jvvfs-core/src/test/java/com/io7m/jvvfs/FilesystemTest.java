@@ -17,27 +17,55 @@
 package com.io7m.jvvfs;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Deque;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TimeZone;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import net.java.quickcheck.Characteristic;
 import net.java.quickcheck.QuickCheck;
 import net.java.quickcheck.characteristic.AbstractCharacteristic;
 
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Test;
 
+import com.io7m.jfunctional.Option;
 import com.io7m.jfunctional.Pair;
+import com.io7m.jfunctional.Some;
+import com.io7m.jlog.Log;
+import com.io7m.jlog.LogLevel;
+import com.io7m.jlog.LogPolicyAllOn;
 import com.io7m.jlog.LogUsableType;
+import com.io7m.jnull.NullCheck;
 import com.io7m.jnull.NullCheckException;
+import com.io7m.jnull.Nullable;
 import com.io7m.junreachable.UnreachableCodeException;
 import com.io7m.jvvfs.FilesystemError.Code;
 import com.io7m.jvvfs.tests.PathVirtualTest;
@@ -46,6 +74,104 @@ import com.io7m.jvvfs.tests.ValidNameGenerator;
 
 @SuppressWarnings("static-method") public class FilesystemTest
 {
+  /**
+   * A subscriber that records what it receives, requesting a fixed number
+   * of chunks on subscription and one more for each chunk received, and
+   * that fails if it is ever called concurrently.
+   */
+
+  private static class StreamRecorder implements FilesystemSubscriberType
+  {
+    private final AtomicInteger                    chunks;
+    private final AtomicBoolean                    completed;
+    private final ByteArrayOutputStream            data;
+    private final AtomicReference<FilesystemError> error;
+    private final CountDownLatch                   finished;
+    private final long                             initial;
+    private final AtomicBoolean                    running;
+    private @Nullable FilesystemSubscriptionType   subscription;
+
+    StreamRecorder(
+      final long in_initial)
+    {
+      this.initial = in_initial;
+      this.chunks = new AtomicInteger();
+      this.completed = new AtomicBoolean();
+      this.data = new ByteArrayOutputStream();
+      this.error = new AtomicReference<FilesystemError>();
+      this.finished = new CountDownLatch(1);
+      this.running = new AtomicBoolean();
+    }
+
+    private void enter()
+    {
+      Assert.assertTrue(this.running.compareAndSet(false, true));
+      Assert.assertFalse(this.completed.get());
+      Assert.assertNull(this.error.get());
+    }
+
+    final FilesystemSubscriptionType getSubscription()
+    {
+      return NullCheck.notNull(this.subscription, "Subscription");
+    }
+
+    private void leave()
+    {
+      Assert.assertTrue(this.running.compareAndSet(true, false));
+    }
+
+    @Override public void onComplete()
+    {
+      this.enter();
+      this.completed.set(true);
+      this.finished.countDown();
+      this.leave();
+    }
+
+    @Override public void onError(
+      final FilesystemError e)
+    {
+      this.enter();
+      this.error.set(e);
+      this.finished.countDown();
+      this.leave();
+    }
+
+    @Override public void onNext(
+      final ByteBuffer chunk)
+    {
+      this.enter();
+      this.chunks.incrementAndGet();
+      while (chunk.hasRemaining()) {
+        this.data.write(chunk.get());
+      }
+      this.getSubscription().request(1);
+      this.leave();
+    }
+
+    @Override public void onSubscribe(
+      final FilesystemSubscriptionType s)
+    {
+      this.enter();
+      Assert.assertNull(this.subscription);
+      this.subscription = s;
+      s.request(this.initial);
+      this.leave();
+    }
+  }
+
+  private static final Executor EXECUTOR_CALLER;
+
+  static {
+    EXECUTOR_CALLER = new Executor() {
+      @Override public void execute(
+        final @Nullable Runnable r)
+      {
+        NullCheck.notNull(r, "Runnable").run();
+      }
+    };
+  }
+
   public static FSCapabilityAllType makeFS()
     throws FileNotFoundException,
       IOException
@@ -58,12 +184,186 @@ import com.io7m.jvvfs.tests.ValidNameGenerator;
     return fs;
   }
 
+  private static boolean runCommand(
+    final String... command)
+    throws InterruptedException
+  {
+    try {
+      return new ProcessBuilder(command).start().waitFor() == 0;
+    } catch (final IOException e) {
+      return false;
+    }
+  }
+
   static void runWithNameGenerator(
     final Characteristic<String> c)
   {
     QuickCheck.forAll(new ValidNameGenerator(), c);
   }
 
+  /**
+   * The files read while an access profile is recorded are prefetched into
+   * the content cache of a new filesystem, without being recorded again.
+   */
+
+  @Test public void testAccessProfile()
+    throws IOException,
+      FilesystemError,
+      InterruptedException
+  {
+    final File dir = new TestData.TemporaryDirectory().getFile();
+    final File f = new File(dir, "profile");
+    TestData.deleteOnExit(f);
+    final PathReal file = new PathReal(f.toString());
+
+    final PathVirtual p1 = PathVirtual.ofString("/file1.txt");
+    final PathVirtual p2 = PathVirtual.ofString("/file2.txt");
+    final PathVirtual p3 = PathVirtual.ofString("/file3.txt");
+
+    {
+      final FSCapabilityAllType fs = FilesystemTest.makeFS();
+      fs.mountArchive("files1-3.zip", PathVirtual.ROOT);
+      fs.openFile(p3).close();
+      fs.startAccessProfile();
+      fs.readFileAsByteBuffer(p2);
+      fs.openFile(p1).close();
+      fs.openFile(p2).close();
+      fs.stopAccessProfile(file);
+      fs.openFile(p3).close();
+      fs.close();
+    }
+
+    Assert.assertEquals(2, AccessProfile.read(file).size());
+    Assert.assertEquals(p2, AccessProfile.read(file).get(0));
+    Assert.assertEquals(p1, AccessProfile.read(file).get(1));
+
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+    fs.setContentCache(1 << 20, ContentCacheStorage.STORAGE_HEAP);
+    fs.mountArchive("files1-3.zip", PathVirtual.ROOT);
+    fs.startAccessProfile();
+
+    final ExecutorService exec = Executors.newFixedThreadPool(2);
+    try {
+      fs.prefetchAccessProfile(file, exec);
+    } finally {
+      exec.shutdown();
+      Assert.assertTrue(exec.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    FilesystemStatistics stats = fs.getStatistics();
+    Assert.assertEquals(2, stats.getContentCacheMisses());
+    Assert.assertEquals(14, stats.getContentCacheResidentBytes());
+
+    fs.openFile(p1).close();
+    fs.readFileAsByteBuffer(p2);
+    fs.openFile(p3).close();
+    stats = fs.getStatistics();
+    Assert.assertEquals(2, stats.getContentCacheHits());
+    Assert.assertEquals(3, stats.getContentCacheMisses());
+
+    fs.stopAccessProfile(file);
+    Assert.assertEquals(3, AccessProfile.read(file).size());
+    Assert.assertEquals(p1, AccessProfile.read(file).get(0));
+    fs.close();
+  }
+
+  /**
+   * Files in a profile that no longer exist are skipped when prefetching.
+   */
+
+  @Test public void testAccessProfileMissing()
+    throws IOException,
+      FilesystemError
+  {
+    final File dir = new TestData.TemporaryDirectory().getFile();
+    final File f = new File(dir, "profile");
+    TestData.deleteOnExit(f);
+    final PathReal file = new PathReal(f.toString());
+
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+    fs.setContentCache(1 << 20, ContentCacheStorage.STORAGE_HEAP);
+    fs.mountArchive("files1-3.zip", PathVirtual.ROOT);
+    fs.startAccessProfile();
+    fs.openFile(PathVirtual.ofString("/file1.txt")).close();
+    fs.stopAccessProfile(file);
+    fs.unmount(PathVirtual.ROOT);
+
+    fs.mountArchive("single-file.zip", PathVirtual.ROOT);
+    fs.prefetchAccessProfile(file, FilesystemTest.EXECUTOR_CALLER);
+    Assert.assertEquals(0, fs.getStatistics().getContentCacheResidentBytes());
+    fs.close();
+  }
+
+  @Test(expected = FilesystemError.class) public
+    void
+    testAccessProfileNoCache()
+      throws IOException,
+        FilesystemError
+  {
+    final File dir = new TestData.TemporaryDirectory().getFile();
+    final File f = new File(dir, "profile");
+    TestData.deleteOnExit(f);
+    final PathReal file = new PathReal(f.toString());
+
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+    fs.startAccessProfile();
+    fs.stopAccessProfile(file);
+
+    try {
+      fs.prefetchAccessProfile(file, FilesystemTest.EXECUTOR_CALLER);
+    } catch (final FilesystemError e) {
+      Assert.assertEquals(Code.FS_ERROR_CONSTRAINT_ERROR, e.getCode());
+      throw e;
+    }
+  }
+
+  /**
+   * Starting a recording while one is in progress fails, and does not
+   * discard the recording in progress.
+   */
+
+  @Test public void testAccessProfileStartTwice()
+    throws IOException,
+      FilesystemError
+  {
+    final File dir = new TestData.TemporaryDirectory().getFile();
+    final File f = new File(dir, "profile");
+    TestData.deleteOnExit(f);
+    final PathReal file = new PathReal(f.toString());
+    final PathVirtual p = PathVirtual.ofString("/file1.txt");
+
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+    fs.mountArchive("files1-3.zip", PathVirtual.ROOT);
+    fs.startAccessProfile();
+    fs.openFile(p).close();
+
+    try {
+      fs.startAccessProfile();
+      Assert.fail("Started a second recording");
+    } catch (final FilesystemError e) {
+      Assert.assertEquals(Code.FS_ERROR_CONSTRAINT_ERROR, e.getCode());
+    }
+
+    fs.stopAccessProfile(file);
+    Assert.assertEquals(1, AccessProfile.read(file).size());
+    Assert.assertEquals(p, AccessProfile.read(file).get(0));
+    fs.close();
+  }
+
+  @Test(expected = FilesystemError.class) public void testAccessProfileStop()
+    throws IOException,
+      FilesystemError
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+
+    try {
+      fs.stopAccessProfile(new PathReal("/nonexistent"));
+    } catch (final FilesystemError e) {
+      Assert.assertEquals(Code.FS_ERROR_CONSTRAINT_ERROR, e.getCode());
+      throw e;
+    }
+  }
+
   /**
    * Closing a filesystem with directories removes the directories.
    */
@@ -148,6 +448,126 @@ import com.io7m.jvvfs.tests.ValidNameGenerator;
     Assert.assertFalse(fs.isDirectory(PathVirtual.ofString("/c")));
   }
 
+  /**
+   * Streams opened before a filesystem is closed remain readable.
+   */
+
+  @Test public void testCloseStreamReadable()
+    throws IOException,
+      FilesystemError
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+    fs.mountArchive("single-file.zip", PathVirtual.ROOT);
+
+    final InputStream s = fs.openFile(PathVirtual.ofString("/file.txt"));
+    fs.close();
+
+    final BufferedReader b = new BufferedReader(new InputStreamReader(s));
+    Assert.assertEquals("Hello zip.", b.readLine());
+    s.close();
+    s.close();
+  }
+
+  /**
+   * Repeated reads of a file in a zip archive are served from the content
+   * cache, and the cached contents are discarded when the archive is
+   * unmounted.
+   */
+
+  @Test public void testContentCache()
+    throws IOException,
+      FilesystemError
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+    fs.setContentCache(1 << 20, ContentCacheStorage.STORAGE_HEAP);
+    fs.mountArchive("deflated.zip", PathVirtual.ROOT);
+
+    final PathVirtual p = PathVirtual.ofString("/file.txt");
+    for (int index = 0; index < 3; ++index) {
+      final BufferedReader r =
+        new BufferedReader(new InputStreamReader(fs.openFile(p)));
+      try {
+        Assert.assertEquals("Hello, compressed world.", r.readLine());
+      } finally {
+        r.close();
+      }
+    }
+
+    final ByteBuffer b = fs.readFileAsByteBuffer(p);
+    Assert.assertEquals(500, b.remaining());
+    Assert.assertEquals('H', b.get(0));
+
+    FilesystemStatistics stats = fs.getStatistics();
+    Assert.assertEquals(1, stats.getContentCacheMisses());
+    Assert.assertEquals(3, stats.getContentCacheHits());
+    Assert.assertEquals(500, stats.getContentCacheResidentBytes());
+
+    fs.unmount(PathVirtual.ROOT);
+    stats = fs.getStatistics();
+    Assert.assertEquals(0, stats.getContentCacheResidentBytes());
+
+    fs.mountArchive("deflated.zip", PathVirtual.ROOT);
+    fs.openFile(p).close();
+    stats = fs.getStatistics();
+    Assert.assertEquals(2, stats.getContentCacheMisses());
+    Assert.assertEquals(500, stats.getContentCacheResidentBytes());
+
+    /**
+     * Disabling the cache discards its contents and statistics.
+     */
+
+    fs.setContentCache(0, ContentCacheStorage.STORAGE_HEAP);
+    fs.openFile(p).close();
+    stats = fs.getStatistics();
+    Assert.assertEquals(0, stats.getContentCacheMisses());
+    Assert.assertEquals(0, stats.getContentCacheResidentBytes());
+    fs.close();
+  }
+
+  /**
+   * Archives mounted before the content cache is enabled are cached, but
+   * directory archives are not, and reads from them do not count as misses.
+   */
+
+  @Test public void testContentCacheDirectory()
+    throws IOException,
+      FilesystemError
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+    fs.createDirectory(PathVirtual.ofString("/a"));
+    fs.createDirectory(PathVirtual.ofString("/b"));
+    fs.mountArchive("single-file", PathVirtual.ofString("/a"));
+    fs.mountArchive("single-file.zip", PathVirtual.ofString("/b"));
+    fs.setContentCache(1 << 20, ContentCacheStorage.STORAGE_DIRECT);
+
+    fs.openFile(PathVirtual.ofString("/a/file.txt")).close();
+    fs.readFileAsByteBuffer(PathVirtual.ofString("/a/file.txt"));
+    Assert.assertEquals(0, fs
+      .getStatistics()
+      .getContentCacheResidentBytes());
+    Assert.assertEquals(0, fs.getStatistics().getContentCacheMisses());
+
+    fs.openFile(PathVirtual.ofString("/b/file.txt")).close();
+    Assert.assertTrue(fs.getStatistics().getContentCacheResidentBytes() > 0);
+    Assert.assertEquals(1, fs.getStatistics().getContentCacheMisses());
+    fs.close();
+  }
+
+  @Test(expected = FilesystemError.class) public
+    void
+    testContentCacheNegative()
+      throws IOException,
+        FilesystemError
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+    try {
+      fs.setContentCache(-1, ContentCacheStorage.STORAGE_HEAP);
+    } catch (final FilesystemError e) {
+      Assert.assertEquals(Code.FS_ERROR_CONSTRAINT_ERROR, e.getCode());
+      throw e;
+    }
+  }
+
   /**
    * Creating otherwise nonexistent directories works.
    */
@@ -404,6 +824,79 @@ import com.io7m.jvvfs.tests.ValidNameGenerator;
     }
   }
 
+  /**
+   * Reading a file into a buffer works.
+   */
+
+  @Test public void testFileReadByteBufferCorrect()
+    throws IOException,
+      FilesystemError
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+
+    fs.mountArchive("single-file.zip", PathVirtual.ROOT);
+
+    final PathVirtual p = PathVirtual.ofString("/file.txt");
+    final ByteBuffer b = fs.readFileAsByteBuffer(p);
+    Assert.assertTrue(b.isReadOnly());
+    Assert.assertEquals(fs.getFileSize(p), b.remaining());
+
+    final byte[] data = new byte[b.remaining()];
+    b.get(data);
+    Assert.assertTrue(new String(data, "UTF-8").startsWith("Hello zip."));
+  }
+
+  /**
+   * Reading a virtual directory into a buffer fails.
+   */
+
+  @Test(expected = FilesystemError.class) public
+    void
+    testFileReadByteBufferDirectoryVirtual()
+      throws IOException,
+        FilesystemError
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+
+    try {
+      fs.createDirectory(PathVirtual.ofString("/bin"));
+    } catch (final FilesystemError e) {
+      Assert.fail();
+    }
+
+    try {
+      fs.readFileAsByteBuffer(PathVirtual.ofString("/bin"));
+    } catch (final FilesystemError e) {
+      Assert.assertEquals(Code.FS_ERROR_NOT_A_FILE, e.getCode());
+      throw e;
+    }
+  }
+
+  /**
+   * A buffer read from a mapped zip archive remains readable after the
+   * archive is unmounted.
+   */
+
+  @Test public void testFileReadByteBufferUnmounted()
+    throws IOException,
+      FilesystemError
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+
+    fs.mountArchive(
+      "single-file.zip",
+      PathVirtual.ROOT,
+      EnumSet.of(MountOption.MOUNT_OPTION_ZIP_MAPPED));
+
+    final ByteBuffer b =
+      fs.readFileAsByteBuffer(PathVirtual.ofString("/file.txt"));
+    Assert.assertTrue(b.isDirect());
+
+    fs.unmount(PathVirtual.ROOT);
+    Assert.assertFalse(fs.exists(PathVirtual.ofString("/file.txt")));
+    Assert.assertEquals('H', b.get(0));
+  }
+
   /**
    * Retrieving the size of a file works.
    */
@@ -545,22 +1038,84 @@ import com.io7m.jvvfs.tests.ValidNameGenerator;
   }
 
   /**
-   * Nonexistent objects are not directories.
+   * Archives mounted after an index cache directory has been set are cached,
+   * and a second filesystem sharing the directory mounts them from the
+   * cache.
    */
 
-  @Test public void testIsDirectoryNonexistent()
-    throws IOException
+  @Test public void testIndexCacheDirectory()
+    throws IOException,
+      FilesystemError
   {
-    final FSCapabilityAllType fs = FilesystemTest.makeFS();
-
-    FilesystemTest.runWithNameGenerator(new AbstractCharacteristic<String>() {
-      @Override protected void doSpecify(
-        final String name)
-        throws Throwable
-      {
-        Assert.assertFalse(fs.isDirectory(PathVirtual.ofString("/" + name)));
+    final File dir =
+      new File(new TestData.TemporaryDirectory().getFile(), "cache");
+    final PathReal cache = new PathReal(dir.toString());
+
+    for (int index = 0; index < 2; ++index) {
+      final FSCapabilityAllType fs = FilesystemTest.makeFS();
+      fs.setIndexCacheDirectory(Option.some(cache));
+      fs.mountArchive("complex", PathVirtual.ROOT);
+      fs.mountArchive("deflated.zip", PathVirtual.ROOT);
+
+      final String[] files = dir.list();
+      Assert.assertEquals(1, files.length);
+
+      final BufferedReader r =
+        new BufferedReader(new InputStreamReader(fs.openFile(PathVirtual
+          .ofString("/file.txt"))));
+      try {
+        Assert.assertEquals("Hello, compressed world.", r.readLine());
+      } finally {
+        r.close();
       }
-    });
+      fs.close();
+    }
+
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+    fs.setIndexCacheDirectory(Option.some(cache));
+    fs.setIndexCacheDirectory(Option.<PathReal> none());
+    fs.mountArchive("single-file.zip", PathVirtual.ROOT);
+    Assert.assertEquals(1, dir.list().length);
+    fs.close();
+  }
+
+  @Test(expected = FilesystemError.class) public
+    void
+    testIndexCacheDirectoryNotCreatable()
+      throws IOException,
+        FilesystemError
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+    final File file =
+      new File(TestData.getTestDataDirectory(), "single-file.zip");
+
+    try {
+      fs.setIndexCacheDirectory(Option.some(new PathReal(new File(
+        file,
+        "cache").toString())));
+    } catch (final FilesystemError e) {
+      Assert.assertEquals(Code.FS_ERROR_IO_ERROR, e.getCode());
+      throw e;
+    }
+  }
+
+  /**
+   * Nonexistent objects are not directories.
+   */
+
+  @Test public void testIsDirectoryNonexistent()
+    throws IOException
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+
+    FilesystemTest.runWithNameGenerator(new AbstractCharacteristic<String>() {
+      @Override protected void doSpecify(
+        final String name)
+        throws Throwable
+      {
+        Assert.assertFalse(fs.isDirectory(PathVirtual.ofString("/" + name)));
+      }
+    });
   }
 
   /**
@@ -703,6 +1258,119 @@ import com.io7m.jvvfs.tests.ValidNameGenerator;
    * Listing a created directory returns nothing.
    */
 
+  /**
+   * The detailed listing of the directory at <code>path</code> contains the
+   * same names as the plain listing, and the same attributes as retrieving
+   * the attributes of each object individually.
+   */
+
+  private static void checkListDetailed(
+    final FSCapabilityAllType fs,
+    final PathVirtual path)
+    throws FilesystemError
+  {
+    final SortedMap<String, FileStat> items = fs.listDirectoryDetailed(path);
+    Assert.assertEquals(fs.listDirectory(path), items.keySet());
+
+    for (final String name : items.keySet()) {
+      final FileStat d = items.get(name);
+      final FileStat s = fs.stat(path.appendName(name));
+      Assert.assertEquals(s.getPath(), d.getPath());
+      Assert.assertEquals(s.getType(), d.getType());
+      Assert.assertEquals(s.getSize(), d.getSize());
+      Assert.assertEquals(s.getCompressedSize(), d.getCompressedSize());
+      Assert.assertEquals(s.getModificationTime(), d.getModificationTime());
+      Assert.assertEquals(s.getArchive().isSome(), d.getArchive().isSome());
+      if (s.getArchive().isSome()) {
+        Assert.assertEquals(
+          ((Some<Pair<PathReal, PathVirtual>>) s.getArchive()).get(),
+          ((Some<Pair<PathReal, PathVirtual>>) d.getArchive()).get());
+      }
+    }
+  }
+
+  /**
+   * Detailed listings agree with individual lookups across shadowed
+   * archives, archives of mixed types, mount points, and virtual
+   * directories.
+   */
+
+  @Test public void testListDetailedAgreesWithStat()
+    throws IOException,
+      FilesystemError
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+
+    fs.mountArchive("complex.zip", PathVirtual.ROOT);
+    fs.mountArchive("single-file-and-subdir", PathVirtual.ROOT);
+    fs.createDirectory(PathVirtual.ofString("/v/w"));
+    fs.mountArchive("files1-3.zip", PathVirtual.ofString("/a/b"));
+    fs.mountArchive("single-file-and-subdir", PathVirtual.ofString("/a/c"));
+    fs.mountArchive("files4-6.zip", PathVirtual.ofString("/v"));
+    fs.mountArchive("subdir-shadow.zip", PathVirtual.ROOT);
+
+    final Calendar t = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+    t.setTimeInMillis(0);
+    fs.updateModificationTime(PathVirtual.ofString("/a/a1.txt"), t);
+
+    FilesystemTest.checkListDetailed(fs, PathVirtual.ROOT);
+    FilesystemTest.checkListDetailed(fs, PathVirtual.ofString("/a"));
+    FilesystemTest.checkListDetailed(fs, PathVirtual.ofString("/a/a"));
+    FilesystemTest.checkListDetailed(fs, PathVirtual.ofString("/a/b"));
+    FilesystemTest.checkListDetailed(fs, PathVirtual.ofString("/a/c"));
+    FilesystemTest.checkListDetailed(fs, PathVirtual.ofString("/v"));
+    FilesystemTest.checkListDetailed(fs, PathVirtual.ofString("/v/w"));
+
+    final SortedMap<String, FileStat> items =
+      fs.listDirectoryDetailed(PathVirtual.ofString("/a"));
+    Assert.assertEquals(
+      FileStat.Type.TYPE_FILE,
+      items.get("a1.txt").getType());
+    Assert.assertEquals(t, items.get("a1.txt").getModificationTime());
+    Assert.assertEquals(
+      FileStat.Type.TYPE_FILE,
+      fs.listDirectoryDetailed(PathVirtual.ROOT).get("subdir").getType());
+  }
+
+  /**
+   * Retrieving a detailed listing of a file fails.
+   */
+
+  @Test(expected = FilesystemError.class) public void testListDetailedFile()
+    throws IOException,
+      FilesystemError
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+    fs.mountArchive("single-file.zip", PathVirtual.ROOT);
+
+    try {
+      fs.listDirectoryDetailed(PathVirtual.ofString("/file.txt"));
+    } catch (final FilesystemError e) {
+      Assert.assertEquals(Code.FS_ERROR_NOT_A_DIRECTORY, e.getCode());
+      throw e;
+    }
+  }
+
+  /**
+   * Retrieving a detailed listing of a nonexistent directory fails.
+   */
+
+  @Test(expected = FilesystemError.class) public
+    void
+    testListDetailedNonexistent()
+      throws IOException,
+        FilesystemError
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+
+    try {
+      fs.listDirectoryDetailed(PathVirtual.ofString("/nonexistent"));
+    } catch (final FilesystemError e) {
+      Assert.assertEquals(Code.FS_ERROR_NONEXISTENT, e.getCode());
+      throw e;
+    }
+  }
+
   @Test public void testListCreatedDirectory()
     throws IOException,
       FilesystemError
@@ -952,6 +1620,114 @@ import com.io7m.jvvfs.tests.ValidNameGenerator;
     }
   }
 
+  /**
+   * Listing a directory shows only the virtual directories that it directly
+   * contains, regardless of how many other virtual directories exist.
+   */
+
+  @Test public void testListVirtualMany()
+    throws IOException,
+      FilesystemError
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+
+    for (int index = 0; index < 1000; ++index) {
+      fs.createDirectory(PathVirtual.ofString("/m/" + index));
+    }
+    fs.createDirectory(PathVirtual.ofString("/n/x/y"));
+
+    Assert.assertEquals(2, fs.listDirectory(PathVirtual.ROOT).size());
+    Assert.assertEquals(1000, fs
+      .listDirectory(PathVirtual.ofString("/m"))
+      .size());
+    Assert.assertTrue(fs
+      .listDirectory(PathVirtual.ofString("/m/500"))
+      .isEmpty());
+    Assert.assertTrue(fs.isDirectory(PathVirtual.ofString("/m/999")));
+    Assert.assertFalse(fs.exists(PathVirtual.ofString("/m/1000")));
+
+    final SortedSet<String> items =
+      fs.listDirectory(PathVirtual.ofString("/n"));
+    Assert.assertEquals(1, items.size());
+    Assert.assertTrue(items.contains("x"));
+
+    final SortedMap<String, FileStat> detailed =
+      fs.listDirectoryDetailed(PathVirtual.ofString("/n/x"));
+    Assert.assertEquals(1, detailed.size());
+    Assert.assertEquals(
+      FileStat.Type.TYPE_DIRECTORY,
+      detailed.get("y").getType());
+  }
+
+  /**
+   * Once warmed up, checking for the existence, type, and size of files
+   * provided by indexed archives does not allocate.
+   */
+
+  @Test public void testLookupAllocationFree()
+    throws IOException,
+      FilesystemError
+  {
+    final ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+    Assume.assumeTrue(mx instanceof com.sun.management.ThreadMXBean);
+    final com.sun.management.ThreadMXBean tmx =
+      (com.sun.management.ThreadMXBean) mx;
+    Assume.assumeTrue(tmx.isThreadAllocatedMemorySupported());
+    tmx.setThreadAllocatedMemoryEnabled(true);
+
+    /**
+     * A log that discards debugging messages, so that only allocations
+     * made by the filesystem itself are measured.
+     */
+
+    final LogUsableType log =
+      Log.newLog(LogPolicyAllOn.newPolicy(LogLevel.LOG_CRITICAL), "main");
+    final FSCapabilityAllType fs =
+      Filesystem.makeWithArchiveDirectory(log, new PathReal(TestData
+        .getTestDataDirectory()
+        .toString()));
+
+    fs.mountArchive("complex.zip", PathVirtual.ROOT);
+
+    final PathVirtual file = PathVirtual.ofString("/a/b/ab1.txt");
+    final PathVirtual dir = PathVirtual.ofString("/a/b");
+    final PathVirtual missing = PathVirtual.ofString("/a/b/nonexistent");
+    final int iterations = 100000;
+
+    long size = 0;
+    for (int index = 0; index < iterations; ++index) {
+      size += FilesystemTest.lookupAll(fs, file, dir, missing);
+    }
+
+    final long id = Thread.currentThread().getId();
+    final long before = tmx.getThreadAllocatedBytes(id);
+    for (int index = 0; index < iterations; ++index) {
+      size += FilesystemTest.lookupAll(fs, file, dir, missing);
+    }
+    final long after = tmx.getThreadAllocatedBytes(id);
+
+    Assert.assertEquals(12L * iterations * 2, size);
+    Assert.assertTrue(
+      "Allocated " + (after - before) + " bytes",
+      (after - before) < iterations);
+  }
+
+  private static long lookupAll(
+    final FSCapabilityAllType fs,
+    final PathVirtual file,
+    final PathVirtual dir,
+    final PathVirtual missing)
+    throws FilesystemError
+  {
+    if (fs.exists(missing) || fs.isFile(dir) || (fs.isFile(file) == false)) {
+      return -1;
+    }
+    if (fs.exists(dir) && fs.isDirectory(dir)) {
+      return fs.getFileSize(file);
+    }
+    return -1;
+  }
+
   /**
    * Passing <code>null</code> as an archive directory fails.
    */
@@ -1234,6 +2010,128 @@ import com.io7m.jvvfs.tests.ValidNameGenerator;
       (PathVirtual) TestUtilities.actuallyNull());
   }
 
+  /**
+   * Mounting a directory with
+   * {@link MountOption#MOUNT_OPTION_DIRECTORY_IMMUTABLE} indexes the
+   * directory on the asynchronous executor, presents the same contents as a
+   * mutable mount, and allows the contents of its files to be cached.
+   */
+
+  @Test public void testMountArchiveDirectoryImmutable()
+    throws IOException,
+      FilesystemError
+  {
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      final FSCapabilityAllType fs = FilesystemTest.makeFS();
+      fs.setAsyncExecutor(executor, 1);
+      fs.setContentCache(1 << 20, ContentCacheStorage.STORAGE_HEAP);
+
+      fs.createDirectory(PathVirtual.ofString("/a"));
+      fs.createDirectory(PathVirtual.ofString("/b"));
+      fs.mountArchive("complex", PathVirtual.ofString("/a"), EnumSet
+        .of(MountOption.MOUNT_OPTION_DIRECTORY_IMMUTABLE));
+      fs.mountArchive("complex", PathVirtual.ofString("/b"));
+
+      final FilesystemSnapshotType snap = fs.snapshot();
+      try {
+        final List<Archive<?>> archives =
+          ((FilesystemSnapshot) snap).getArchives();
+        Assert.assertFalse(archives.get(0).isImmutable());
+        Assert.assertTrue(archives.get(1).isImmutable());
+      } finally {
+        snap.release();
+      }
+
+      final String[] directories = { "", "/a", "/a/b", "/b/c" };
+      for (final String d : directories) {
+        Assert.assertEquals(
+          fs.listDirectory(PathVirtual.ofString("/b" + d)),
+          fs.listDirectory(PathVirtual.ofString("/a" + d)));
+      }
+
+      final PathVirtual a = PathVirtual.ofString("/a/a/b/ab1.txt");
+      final PathVirtual b = PathVirtual.ofString("/b/a/b/ab1.txt");
+      Assert.assertEquals(fs.getFileSize(b), fs.getFileSize(a));
+      Assert.assertEquals(
+        fs.getModificationTime(b).getTimeInMillis(),
+        fs.getModificationTime(a).getTimeInMillis());
+
+      fs.readFileAsByteBuffer(b);
+      Assert.assertEquals(0, fs
+        .getStatistics()
+        .getContentCacheResidentBytes());
+      Assert.assertEquals(
+        fs.readFileAsByteBuffer(b),
+        fs.readFileAsByteBuffer(a));
+      Assert.assertTrue(fs.getStatistics().getContentCacheResidentBytes() > 0);
+      fs.close();
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Objects that are neither files nor directories, such as broken symbolic
+   * links and named pipes, are invisible in both mutable and immutable
+   * directory archives.
+   */
+
+  @Test public void testMountArchiveDirectorySpecial()
+    throws IOException,
+      FilesystemError,
+      InterruptedException
+  {
+    final File base = new TestData.TemporaryDirectory().getFile();
+    final File dir = new File(base, "special");
+    Assert.assertTrue(dir.mkdir());
+    TestData.deleteOnExit(dir);
+
+    final File real = new File(dir, "real.txt");
+    final FileOutputStream out = new FileOutputStream(real);
+    try {
+      out.write(new byte[] { 'x' });
+    } finally {
+      out.close();
+    }
+    TestData.deleteOnExit(real);
+
+    final File broken = new File(dir, "broken");
+    final File fifo = new File(dir, "fifo");
+    TestData.deleteOnExit(broken);
+    TestData.deleteOnExit(fifo);
+    Assume.assumeTrue(FilesystemTest.runCommand(
+      "ln",
+      "-s",
+      "nonexistent",
+      broken.toString()));
+    Assume.assumeTrue(FilesystemTest.runCommand("mkfifo", fifo.toString()));
+
+    final FSCapabilityAllType fs =
+      Filesystem.makeWithArchiveDirectory(
+        TestData.getLog(),
+        new PathReal(base.toString()));
+    fs.setContentCache(1 << 20, ContentCacheStorage.STORAGE_HEAP);
+    fs.createDirectory(PathVirtual.ofString("/a"));
+    fs.createDirectory(PathVirtual.ofString("/b"));
+    fs.mountArchive("special", PathVirtual.ofString("/a"), EnumSet
+      .of(MountOption.MOUNT_OPTION_DIRECTORY_IMMUTABLE));
+    fs.mountArchive("special", PathVirtual.ofString("/b"));
+
+    final SortedSet<String> expected = new TreeSet<String>();
+    expected.add("real.txt");
+
+    for (final String d : new String[] { "/a", "/b" }) {
+      final PathVirtual p = PathVirtual.ofString(d);
+      Assert.assertEquals(expected, fs.listDirectory(p));
+      Assert.assertEquals(expected, fs.listDirectoryDetailed(p).keySet());
+      Assert.assertFalse(fs.exists(PathVirtual.ofString(d + "/broken")));
+      Assert.assertFalse(fs.exists(PathVirtual.ofString(d + "/fifo")));
+      Assert.assertTrue(fs.isFile(PathVirtual.ofString(d + "/real.txt")));
+    }
+    fs.close();
+  }
+
   /**
    * Mounting an archive that hides an existing directory with a file, makes
    * the hidden directory inaccessible.
@@ -1465,6 +2363,58 @@ import com.io7m.jvvfs.tests.ValidNameGenerator;
     }
   }
 
+  /**
+   * Trying to mount the same archive at the same location from several
+   * threads at once succeeds exactly once, even though the archives are
+   * loaded concurrently.
+   */
+
+  @Test public void testMountArchiveTwiceConcurrent()
+    throws Exception
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+    final int count = 4;
+    final CountDownLatch start = new CountDownLatch(1);
+    final ExecutorService exec = Executors.newFixedThreadPool(count);
+
+    int mounted = 0;
+    try {
+      final List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+      for (int index = 0; index < count; ++index) {
+        results.add(exec.submit(new Callable<Boolean>() {
+          @Override public Boolean call()
+            throws Exception
+          {
+            start.await();
+            try {
+              fs.mountArchive("files1-3.zip", PathVirtual.ROOT);
+              return Boolean.TRUE;
+            } catch (final FilesystemError e) {
+              Assert.assertEquals(
+                Code.FS_ERROR_ARCHIVE_ALREADY_MOUNTED,
+                e.getCode());
+              return Boolean.FALSE;
+            }
+          }
+        }));
+      }
+      start.countDown();
+      for (final Future<Boolean> r : results) {
+        if (r.get().booleanValue()) {
+          ++mounted;
+        }
+      }
+    } finally {
+      exec.shutdown();
+      Assert.assertTrue(exec.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    Assert.assertEquals(1, mounted);
+    Assert.assertEquals(1, fs.getMountedArchives().size());
+    Assert.assertTrue(fs.isFile(PathVirtual.ofString("/file1.txt")));
+    fs.close();
+  }
+
   /**
    * Trying to mount different archives at the same location succeeds.
    */
@@ -1519,111 +2469,372 @@ import com.io7m.jvvfs.tests.ValidNameGenerator;
   }
 
   /**
-   * Mounting an item on the classpath works.
+   * Mounting a zip archive with {@link MountOption#MOUNT_OPTION_ZIP_MAPPED}
+   * uses the mapped backend for that archive only, and the option is
+   * ignored for archives that are not zip files.
    */
 
-  @Test public void testMountClasspathArchive()
+  @Test public void testMountArchiveZipMapped()
     throws IOException,
       FilesystemError
   {
     final FSCapabilityAllType fs = FilesystemTest.makeFS();
+    final EnumSet<MountOption> mapped =
+      EnumSet.of(MountOption.MOUNT_OPTION_ZIP_MAPPED);
 
-    fs.mountClasspathArchive(FilesystemTest.class, PathVirtual.ROOT);
-    Assert.assertTrue(fs.isFile(PathVirtual
-      .ofString("/com/io7m/jvvfs/single-file.zip")));
-  }
+    fs.createDirectory(PathVirtual.ofString("/a"));
+    fs.createDirectory(PathVirtual.ofString("/b"));
+    fs.createDirectory(PathVirtual.ofString("/c"));
+    fs.mountArchive("deflated.zip", PathVirtual.ofString("/a"), mapped);
+    fs.mountArchive("deflated.zip", PathVirtual.ofString("/b"));
+    fs.mountArchive("complex", PathVirtual.ofString("/c"), mapped);
 
-  /**
-   * Passing <code>null</code> to
-   * {@link Filesystem#mountClasspathArchive(Class, PathVirtual)} fails.
-   */
+    final FilesystemSnapshotType snap = fs.snapshot();
+    try {
+      final List<Archive<?>> archives =
+        ((FilesystemSnapshot) snap).getArchives();
+      Assert.assertEquals(3, archives.size());
+      Assert.assertTrue(archives.get(0) instanceof ArchiveDirectory);
+      Assert.assertEquals(
+        ArchiveZip.Backend.BACKEND_ZIP_FILE,
+        ((ArchiveZip) archives.get(1)).getBackend());
+      Assert.assertEquals(
+        ArchiveZip.Backend.BACKEND_MAPPED,
+        ((ArchiveZip) archives.get(2)).getBackend());
+    } finally {
+      snap.release();
+    }
 
-  @Test(expected = NullCheckException.class) public
-    void
-    testMountClasspathArchiveNullClass()
-      throws IOException,
-        FilesystemError
-  {
-    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+    Assert.assertEquals(
+      275966,
+      fs.getFileSize(PathVirtual.ofString("/a/subdir/large.txt")));
 
-    fs.mountClasspathArchive(
-      (Class<?>) TestUtilities.actuallyNull(),
-      PathVirtual.ROOT);
+    final BufferedReader r =
+      new BufferedReader(new InputStreamReader(fs.openFile(PathVirtual
+        .ofString("/a/file.txt"))));
+    try {
+      Assert.assertEquals("Hello, compressed world.", r.readLine());
+    } finally {
+      r.close();
+    }
+  }
+
+  private static List<Pair<String, PathVirtual>> mountList(
+    final String... items)
+    throws FilesystemError
+  {
+    final List<Pair<String, PathVirtual>> r =
+      new ArrayList<Pair<String, PathVirtual>>();
+    for (int index = 0; index < items.length; index += 2) {
+      r.add(Pair.pair(items[index], PathVirtual.ofString(items[index + 1])));
+    }
+    return r;
   }
 
   /**
-   * Passing <code>null</code> to
-   * {@link Filesystem#mountClasspathArchive(Class, PathVirtual)} fails.
+   * Mounting a list of archives on the calling thread works.
    */
 
-  @Test(expected = NullCheckException.class) public
-    void
-    testMountClasspathArchiveNullMount()
-      throws IOException,
-        FilesystemError
+  @Test public void testMountArchivesCaller()
+    throws IOException,
+      FilesystemError
   {
     final FSCapabilityAllType fs = FilesystemTest.makeFS();
 
-    fs.mountClasspathArchive(
-      FilesystemTest.class,
-      (PathVirtual) TestUtilities.actuallyNull());
+    fs.mountArchives(FilesystemTest.mountList(
+      "files1-3.zip",
+      "/",
+      "files4-6.zip",
+      "/"));
+
+    Assert.assertEquals(2, fs.getMountedArchives().size());
+    Assert.assertTrue(fs.isFile(PathVirtual.ofString("/file1.txt")));
+    Assert.assertTrue(fs.isFile(PathVirtual.ofString("/file6.txt")));
   }
 
   /**
-   * Mounting a nonexistent archive using
-   * {@link Filesystem#mountArchiveFromAnywhere(File, PathVirtual)}, fails.
+   * If any archive in a list cannot be loaded, no archives are mounted.
    */
 
   @Test(expected = FilesystemError.class) public
     void
-    testMountFromAnywhereNonexistentArchive()
+    testMountArchivesDamaged()
       throws IOException,
         FilesystemError
   {
     final FSCapabilityAllType fs = FilesystemTest.makeFS();
+    final ExecutorService pool = Executors.newFixedThreadPool(2);
 
-    fs.mountArchiveFromAnywhere(new File("nonexistent"), PathVirtual.ROOT);
+    try {
+      fs.mountArchives(FilesystemTest.mountList(
+        "single-file.zip",
+        "/",
+        "encrypted.zip",
+        "/",
+        "complex.zip",
+        "/"), EnumSet.noneOf(MountOption.class), pool);
+    } catch (final FilesystemError e) {
+      Assert.assertEquals(Code.FS_ERROR_ARCHIVE_DAMAGED, e.getCode());
+      Assert.assertTrue(fs.getMountedArchives().isEmpty());
+      Assert.assertFalse(fs.exists(PathVirtual.ofString("/file.txt")));
+      throw e;
+    } finally {
+      pool.shutdown();
+    }
   }
 
   /**
-   * Passing <code>null</code> to
-   * {@link Filesystem#mountArchiveFromAnywhere(File, PathVirtual)}, fails.
+   * Mounting the same archive twice at the same location within a list
+   * fails, and no archives are mounted.
    */
 
-  @Test(expected = NullCheckException.class) public
+  @Test(expected = FilesystemError.class) public
     void
-    testMountFromAnywhereNullArchive()
+    testMountArchivesDuplicate()
       throws IOException,
         FilesystemError
   {
     final FSCapabilityAllType fs = FilesystemTest.makeFS();
 
-    fs.mountArchiveFromAnywhere(
-      (File) TestUtilities.actuallyNull(),
-      PathVirtual.ROOT);
+    try {
+      fs.mountArchives(FilesystemTest.mountList(
+        "single-file.zip",
+        "/",
+        "complex.zip",
+        "/",
+        "single-file.zip",
+        "/"));
+    } catch (final FilesystemError e) {
+      Assert.assertEquals(Code.FS_ERROR_ARCHIVE_ALREADY_MOUNTED, e.getCode());
+      Assert.assertTrue(fs.getMountedArchives().isEmpty());
+      throw e;
+    }
   }
 
   /**
-   * Passing <code>null</code> to
-   * {@link Filesystem#mountArchiveFromAnywhere(File, PathVirtual)}, fails.
+   * Mounting a list of archives where a mount point does not exist fails,
+   * and no archives are mounted.
    */
 
-  @Test(expected = NullCheckException.class) public
+  @Test(expected = FilesystemError.class) public
     void
-    testMountFromAnywhereNullPath()
+    testMountArchivesNonexistentMount()
       throws IOException,
         FilesystemError
   {
     final FSCapabilityAllType fs = FilesystemTest.makeFS();
 
-    fs.mountArchiveFromAnywhere(
-      new File("nonexistent"),
-      (PathVirtual) TestUtilities.actuallyNull());
+    try {
+      fs.mountArchives(FilesystemTest.mountList(
+        "single-file.zip",
+        "/",
+        "complex.zip",
+        "/nonexistent"));
+    } catch (final FilesystemError e) {
+      Assert.assertEquals(Code.FS_ERROR_NONEXISTENT, e.getCode());
+      Assert.assertTrue(fs.getMountedArchives().isEmpty());
+      throw e;
+    }
   }
 
   /**
-   * Mounting an archive with
-   * {@link Filesystem#mountArchiveFromAnywhere(File, PathVirtual)} works.
+   * The mount point of an archive in a list may be provided by an earlier
+   * archive in the same list.
+   */
+
+  @Test public void testMountArchivesNested()
+    throws IOException,
+      FilesystemError
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+    final ExecutorService pool = Executors.newFixedThreadPool(2);
+
+    try {
+      fs.mountArchives(FilesystemTest.mountList(
+        "single-file-and-subdir.zip",
+        "/",
+        "single-file.zip",
+        "/subdir"), EnumSet.noneOf(MountOption.class), pool);
+    } finally {
+      pool.shutdown();
+    }
+
+    final BufferedReader r =
+      new BufferedReader(new InputStreamReader(fs.openFile(PathVirtual
+        .ofString("/subdir/file.txt"))));
+    try {
+      Assert.assertEquals("Hello zip.", r.readLine());
+    } finally {
+      r.close();
+    }
+  }
+
+  /**
+   * Archives mounted concurrently are stacked in list order, exactly as if
+   * they had been mounted one at a time.
+   */
+
+  @Test public void testMountArchivesOrder()
+    throws IOException,
+      FilesystemError
+  {
+    final List<Pair<String, PathVirtual>> items =
+      FilesystemTest.mountList(
+        "files1-3.zip",
+        "/",
+        "files4-6.zip",
+        "/",
+        "single-file.zip",
+        "/",
+        "complex.zip",
+        "/",
+        "subdir-shadow.zip",
+        "/",
+        "single-file-and-subdir.zip",
+        "/",
+        "single-file.zip",
+        "/subdir");
+
+    final FSCapabilityAllType fs_serial = FilesystemTest.makeFS();
+    for (final Pair<String, PathVirtual> p : items) {
+      fs_serial.mountArchive(p.getLeft(), p.getRight());
+    }
+
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+    final ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      fs.mountArchives(items, EnumSet.noneOf(MountOption.class), pool);
+    } finally {
+      pool.shutdown();
+    }
+
+    final List<Pair<PathReal, PathVirtual>> expected =
+      new ArrayList<Pair<PathReal, PathVirtual>>(
+        fs_serial.getMountedArchives());
+    final List<Pair<PathReal, PathVirtual>> received =
+      new ArrayList<Pair<PathReal, PathVirtual>>(fs.getMountedArchives());
+    Assert.assertEquals(items.size(), received.size());
+    for (int index = 0; index < expected.size(); ++index) {
+      final Pair<PathReal, PathVirtual> e = expected.get(index);
+      final Pair<PathReal, PathVirtual> r = received.get(index);
+      Assert.assertEquals(e.getLeft(), r.getLeft());
+      Assert.assertEquals(e.getRight(), r.getRight());
+    }
+
+    Assert.assertEquals(
+      fs_serial.listDirectory(PathVirtual.ROOT),
+      fs.listDirectory(PathVirtual.ROOT));
+    Assert.assertEquals(
+      fs_serial.isFile(PathVirtual.ofString("/subdir")),
+      fs.isFile(PathVirtual.ofString("/subdir")));
+  }
+
+  /**
+   * Mounting an item on the classpath works.
+   */
+
+  @Test public void testMountClasspathArchive()
+    throws IOException,
+      FilesystemError
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+
+    fs.mountClasspathArchive(FilesystemTest.class, PathVirtual.ROOT);
+    Assert.assertTrue(fs.isFile(PathVirtual
+      .ofString("/com/io7m/jvvfs/single-file.zip")));
+  }
+
+  /**
+   * Passing <code>null</code> to
+   * {@link Filesystem#mountClasspathArchive(Class, PathVirtual)} fails.
+   */
+
+  @Test(expected = NullCheckException.class) public
+    void
+    testMountClasspathArchiveNullClass()
+      throws IOException,
+        FilesystemError
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+
+    fs.mountClasspathArchive(
+      (Class<?>) TestUtilities.actuallyNull(),
+      PathVirtual.ROOT);
+  }
+
+  /**
+   * Passing <code>null</code> to
+   * {@link Filesystem#mountClasspathArchive(Class, PathVirtual)} fails.
+   */
+
+  @Test(expected = NullCheckException.class) public
+    void
+    testMountClasspathArchiveNullMount()
+      throws IOException,
+        FilesystemError
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+
+    fs.mountClasspathArchive(
+      FilesystemTest.class,
+      (PathVirtual) TestUtilities.actuallyNull());
+  }
+
+  /**
+   * Mounting a nonexistent archive using
+   * {@link Filesystem#mountArchiveFromAnywhere(File, PathVirtual)}, fails.
+   */
+
+  @Test(expected = FilesystemError.class) public
+    void
+    testMountFromAnywhereNonexistentArchive()
+      throws IOException,
+        FilesystemError
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+
+    fs.mountArchiveFromAnywhere(new File("nonexistent"), PathVirtual.ROOT);
+  }
+
+  /**
+   * Passing <code>null</code> to
+   * {@link Filesystem#mountArchiveFromAnywhere(File, PathVirtual)}, fails.
+   */
+
+  @Test(expected = NullCheckException.class) public
+    void
+    testMountFromAnywhereNullArchive()
+      throws IOException,
+        FilesystemError
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+
+    fs.mountArchiveFromAnywhere(
+      (File) TestUtilities.actuallyNull(),
+      PathVirtual.ROOT);
+  }
+
+  /**
+   * Passing <code>null</code> to
+   * {@link Filesystem#mountArchiveFromAnywhere(File, PathVirtual)}, fails.
+   */
+
+  @Test(expected = NullCheckException.class) public
+    void
+    testMountFromAnywhereNullPath()
+      throws IOException,
+        FilesystemError
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+
+    fs.mountArchiveFromAnywhere(
+      new File("nonexistent"),
+      (PathVirtual) TestUtilities.actuallyNull());
+  }
+
+  /**
+   * Mounting an archive with
+   * {@link Filesystem#mountArchiveFromAnywhere(File, PathVirtual)} works.
    */
 
   @Test public void testMountFromAnywhereWorks()
@@ -1690,210 +2901,864 @@ import com.io7m.jvvfs.tests.ValidNameGenerator;
   }
 
   /**
-   * Asking for a snapshot of the mounts of an empty filesystem results in an
-   * empty list.
+   * Asking for a snapshot of the mounts of an empty filesystem results in an
+   * empty list.
+   */
+
+  @Test public void testMountSnapshotEmpty()
+    throws IOException
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+    Assert.assertTrue(fs.getMountedArchives().isEmpty());
+  }
+
+  /**
+   * Asking for a snapshot of the mounts of filesystem works.
+   */
+
+  @Test public void testMountSnapshotMounts()
+    throws IOException,
+      FilesystemError
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+
+    fs.createDirectory(PathVirtual.ofString("/a"));
+    fs.createDirectory(PathVirtual.ofString("/b"));
+    fs.createDirectory(PathVirtual.ofString("/c"));
+
+    fs.mountArchive("single-file.zip", PathVirtual.ofString("/a"));
+    fs.mountArchive("complex.zip", PathVirtual.ofString("/a"));
+    fs.mountArchive("single-file.zip", PathVirtual.ofString("/b"));
+    fs.mountArchive("single-file.zip", PathVirtual.ofString("/c"));
+    fs.mountArchive("single-file-and-subdir.zip", PathVirtual.ofString("/c"));
+
+    final Deque<Pair<PathReal, PathVirtual>> mounts = fs.getMountedArchives();
+    Assert.assertEquals(5, mounts.size());
+
+    {
+      final Pair<PathReal, PathVirtual> p = mounts.pop();
+      Assert.assertEquals("single-file-and-subdir.zip", p
+        .getLeft()
+        .toFile()
+        .getName());
+      Assert.assertEquals(PathVirtual.ofString("/c"), p.getRight());
+    }
+
+    {
+      final Pair<PathReal, PathVirtual> p = mounts.pop();
+      Assert.assertEquals("single-file.zip", p.getLeft().toFile().getName());
+      Assert.assertEquals(PathVirtual.ofString("/c"), p.getRight());
+    }
+
+    {
+      final Pair<PathReal, PathVirtual> p = mounts.pop();
+      Assert.assertEquals("single-file.zip", p.getLeft().toFile().getName());
+      Assert.assertEquals(PathVirtual.ofString("/b"), p.getRight());
+    }
+
+    {
+      final Pair<PathReal, PathVirtual> p = mounts.pop();
+      Assert.assertEquals("complex.zip", p.getLeft().toFile().getName());
+      Assert.assertEquals(PathVirtual.ofString("/a"), p.getRight());
+    }
+
+    {
+      final Pair<PathReal, PathVirtual> p = mounts.pop();
+      Assert.assertEquals("single-file.zip", p.getLeft().toFile().getName());
+      Assert.assertEquals(PathVirtual.ofString("/a"), p.getRight());
+    }
+  }
+
+  /**
+   * Files are read asynchronously on the given executor, and the result is
+   * passed to the callback.
+   */
+
+  @Test public void testReadAsync()
+    throws IOException,
+      FilesystemError,
+      InterruptedException,
+      ExecutionException
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+    fs.mountArchive("deflated.zip", PathVirtual.ROOT);
+
+    final ExecutorService exec = Executors.newFixedThreadPool(4);
+    try {
+      fs.setAsyncExecutor(exec, 2);
+
+      final AtomicReference<ByteBuffer> result =
+        new AtomicReference<ByteBuffer>();
+      final CountDownLatch latch = new CountDownLatch(1);
+      final Future<ByteBuffer> f =
+        fs.readFileAsByteBufferAsync(
+          PathVirtual.ofString("/file.txt"),
+          new FilesystemCallbackType<ByteBuffer>() {
+            @Override public void onFailure(
+              final FilesystemError e)
+            {
+              throw new UnreachableCodeException(e);
+            }
+
+            @Override public void onSuccess(
+              final ByteBuffer value)
+            {
+              result.set(value);
+              latch.countDown();
+            }
+          });
+
+      final ByteBuffer b = f.get();
+      Assert.assertEquals(500, b.remaining());
+      Assert.assertEquals('H', b.get(0));
+      Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+      Assert.assertSame(b, result.get());
+    } finally {
+      exec.shutdown();
+    }
+    fs.close();
+  }
+
+  /**
+   * Without an executor, asynchronous reads complete on the calling thread,
+   * and errors are passed to the callback.
+   */
+
+  @Test public void testReadAsyncNonexistent()
+    throws IOException,
+      FilesystemError,
+      InterruptedException
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+    final AtomicReference<FilesystemError> error =
+      new AtomicReference<FilesystemError>();
+
+    final Future<ByteBuffer> f =
+      fs.readFileAsByteBufferAsync(
+        PathVirtual.ofString("/nonexistent"),
+        new FilesystemCallbackType<ByteBuffer>() {
+          @Override public void onFailure(
+            final FilesystemError e)
+          {
+            error.set(e);
+          }
+
+          @Override public void onSuccess(
+            final ByteBuffer value)
+          {
+            throw new UnreachableCodeException();
+          }
+        });
+
+    Assert.assertTrue(f.isDone());
+    Assert.assertEquals(Code.FS_ERROR_NONEXISTENT, error.get().getCode());
+
+    try {
+      f.get();
+      Assert.fail();
+    } catch (final ExecutionException e) {
+      Assert.assertSame(error.get(), e.getCause());
+    }
+  }
+
+  /**
+   * The root directory always exists and is a directory.
+   */
+
+  @Test public void testRootExists()
+    throws IOException,
+      FilesystemError
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+
+    Assert.assertTrue(fs.exists(PathVirtual.ROOT));
+    Assert.assertTrue(fs.isDirectory(PathVirtual.ROOT));
+    Assert.assertFalse(fs.isFile(PathVirtual.ROOT));
+  }
+
+  /**
+   * @see #testShadowEdgeCaseShadowSameMount()
+   */
+
+  @Test public void testShadowEdgeCaseReverseShadowSameMount()
+    throws IOException,
+      FilesystemError
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+
+    fs.mountArchive("single-file-and-subdir.zip", PathVirtual.ROOT);
+    Assert.assertTrue(fs.isDirectory(PathVirtual.ofString("/subdir")));
+    fs.mountArchive("subdir-shadow.zip", PathVirtual.ROOT);
+    Assert.assertFalse(fs.isDirectory(PathVirtual.ofString("/subdir")));
+  }
+
+  /**
+   * If a directory in an archive shadows a file, then searching for any
+   * object in that archive does not cause an error to be raised due to the
+   * original file appearing to be an ancestor.
+   * 
+   * This tests checks the case where the shadowing file is in an archive
+   * mounted at an ancestor of the shadowed directory.
+   */
+
+  @Test public void testShadowEdgeCaseShadowIsAncestor()
+    throws IOException,
+      FilesystemError
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+
+    fs.createDirectory(PathVirtual.ofString("/subdir"));
+    fs.mountArchive(
+      "single-file-and-subdir.zip",
+      PathVirtual.ofString("/subdir"));
+
+    fs.mountArchive("subdir-subdir-shadow.zip", PathVirtual.ROOT);
+    Assert
+      .assertFalse(fs.isDirectory(PathVirtual.ofString("/subdir/subdir")));
+  }
+
+  /**
+   * If a directory in an archive shadows a file, then searching for any
+   * object in that archive does not cause an error to be raised due to the
+   * original file appearing to be an ancestor.
+   * 
+   * This tests checks the case where the shadowed directory in archive
+   * <code>A</code> mounted at <code>MA</code> is shadowed by a file in an
+   * archive mounted at a child of <code>MA</code>.
+   */
+
+  @Test public void testShadowEdgeCaseShadowIsChild()
+    throws IOException,
+      FilesystemError
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+
+    fs.mountArchive("single-file-in-subdir-subdir.zip", PathVirtual.ROOT);
+    Assert.assertTrue(fs.isDirectory(PathVirtual.ofString("/subdir")));
+    Assert.assertTrue(fs.isDirectory(PathVirtual.ofString("/subdir/subdir")));
+    Assert.assertTrue(fs.isFile(PathVirtual
+      .ofString("/subdir/subdir/file.txt")));
+
+    fs.mountArchive("subdir-shadow.zip", PathVirtual.ofString("/subdir"));
+    Assert.assertTrue(fs.isDirectory(PathVirtual.ofString("/subdir")));
+    Assert
+      .assertFalse(fs.isDirectory(PathVirtual.ofString("/subdir/subdir")));
+  }
+
+  /**
+   * If a directory in an archive shadows a file, then searching for any
+   * object in that archive does not cause an error to be raised due to the
+   * original file appearing to be an ancestor.
+   * 
+   * This tests checks the case where the shadowing file is in an archive
+   * mounted at the same mount point as the archive containing the shadowed
+   * directory.
+   */
+
+  @Test public void testShadowEdgeCaseShadowSameMount()
+    throws IOException,
+      FilesystemError
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+
+    fs.mountArchive("subdir-shadow.zip", PathVirtual.ROOT);
+    Assert.assertFalse(fs.isDirectory(PathVirtual.ofString("/subdir")));
+    fs.mountArchive("single-file-and-subdir.zip", PathVirtual.ROOT);
+    Assert.assertTrue(fs.isDirectory(PathVirtual.ofString("/subdir")));
+    Assert
+      .assertFalse(fs.exists(PathVirtual.ofString("/subdir/nonexistent")));
+  }
+
+  @Test public void testShadowExample()
+    throws IOException,
+      FilesystemError
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+
+    fs.createDirectory(PathVirtual.ofString("/subdir"));
+    Assert.assertTrue(fs.isDirectory(PathVirtual.ofString("/subdir")));
+
+    fs.mountArchive("files1-3.zip", PathVirtual.ofString("/subdir"));
+    Assert.assertTrue(fs.isFile(PathVirtual.ofString("/subdir/file1.txt")));
+    Assert.assertTrue(fs.isFile(PathVirtual.ofString("/subdir/file2.txt")));
+    Assert.assertTrue(fs.isFile(PathVirtual.ofString("/subdir/file3.txt")));
+
+    fs.mountArchive("subdir-shadow.zip", PathVirtual.ROOT);
+    Assert.assertFalse(fs.isDirectory(PathVirtual.ofString("/subdir")));
+
+    fs.mountArchive("single-file-and-subdir.zip", PathVirtual.ROOT);
+    Assert.assertTrue(fs.isDirectory(PathVirtual.ofString("/subdir")));
+    Assert.assertTrue(fs.isFile(PathVirtual.ofString("/subdir/file.txt")));
+
+    fs.mountArchive("files4-6.zip", PathVirtual.ofString("/subdir"));
+    Assert.assertFalse(fs.exists(PathVirtual.ofString("/subdir/file1.txt")));
+    Assert.assertFalse(fs.exists(PathVirtual.ofString("/subdir/file2.txt")));
+    Assert.assertFalse(fs.exists(PathVirtual.ofString("/subdir/file3.txt")));
+    Assert.assertTrue(fs.isFile(PathVirtual.ofString("/subdir/file4.txt")));
+    Assert.assertTrue(fs.isFile(PathVirtual.ofString("/subdir/file5.txt")));
+    Assert.assertTrue(fs.isFile(PathVirtual.ofString("/subdir/file6.txt")));
+  }
+
+  /**
+   * Shadowing works identically regardless of the types of the archives in
+   * the stack.
+   */
+
+  @Test public void testShadowMixedArchiveTypes()
+    throws IOException,
+      FilesystemError
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+
+    fs.mountArchive("single-file-and-subdir.zip", PathVirtual.ROOT);
+    Assert.assertTrue(fs.isDirectory(PathVirtual.ofString("/subdir")));
+
+    fs.mountArchive("subdir-shadow", PathVirtual.ROOT);
+    Assert.assertTrue(fs.isFile(PathVirtual.ofString("/subdir")));
+
+    try {
+      fs.exists(PathVirtual.ofString("/subdir/file.txt"));
+      throw new UnreachableCodeException();
+    } catch (final FilesystemError e) {
+      Assert.assertEquals(Code.FS_ERROR_NOT_A_DIRECTORY, e.getCode());
+    }
+
+    fs.mountArchive("files1-3.zip", PathVirtual.ROOT);
+    Assert.assertTrue(fs.isFile(PathVirtual.ofString("/subdir")));
+    Assert.assertTrue(fs.isFile(PathVirtual.ofString("/file1.txt")));
+
+    fs.mountArchive("single-file-and-subdir", PathVirtual.ROOT);
+    Assert.assertTrue(fs.isDirectory(PathVirtual.ofString("/subdir")));
+    Assert.assertTrue(fs.isFile(PathVirtual.ofString("/subdir/file.txt")));
+    Assert.assertTrue(fs.isFile(PathVirtual.ofString("/file1.txt")));
+
+    final SortedSet<String> items =
+      fs.listDirectory(PathVirtual.ofString("/subdir"));
+    Assert.assertEquals(1, items.size());
+    Assert.assertTrue(items.contains("file.txt"));
+  }
+
+  /**
+   * Readers working on snapshots always observe a consistent filesystem,
+   * whilst archives are repeatedly mounted and unmounted.
+   */
+
+  @Test public void testSnapshotConcurrentReaders()
+    throws Throwable
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+    fs.mountArchive("files1-3.zip", PathVirtual.ROOT);
+
+    final PathVirtual file1 = PathVirtual.ofString("/file1.txt");
+    final PathVirtual file4 = PathVirtual.ofString("/file4.txt");
+    final AtomicBoolean done = new AtomicBoolean(false);
+    final AtomicReference<Throwable> error =
+      new AtomicReference<Throwable>();
+
+    final Thread[] readers = new Thread[4];
+    for (int index = 0; index < readers.length; ++index) {
+      readers[index] = new Thread(new Runnable() {
+        @Override public void run()
+        {
+          try {
+            while (done.get() == false) {
+              final FilesystemSnapshotType s = fs.snapshot();
+              try {
+                final int count = s.getMountedArchives().size();
+                Assert.assertTrue(s.isFile(file1));
+                Assert.assertEquals(count == 2, s.exists(file4));
+                Assert.assertEquals(count * 3, s
+                  .listDirectory(PathVirtual.ROOT)
+                  .size());
+                s.openFile(file1).close();
+              } finally {
+                s.release();
+              }
+            }
+          } catch (final Throwable e) {
+            error.compareAndSet(null, e);
+          }
+        }
+      });
+      readers[index].start();
+    }
+
+    try {
+      for (int index = 0; index < 200; ++index) {
+        fs.mountArchive("files4-6.zip", PathVirtual.ROOT);
+        fs.unmount(PathVirtual.ROOT);
+      }
+    } finally {
+      done.set(true);
+      for (final Thread t : readers) {
+        t.join();
+      }
+    }
+
+    final Throwable e = error.get();
+    if (e != null) {
+      throw e;
+    }
+  }
+
+  /**
+   * Snapshots are not affected by subsequent changes to the filesystem.
+   */
+
+  @Test public void testSnapshotIsolated()
+    throws IOException,
+      FilesystemError
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+    fs.mountArchive("files1-3.zip", PathVirtual.ROOT);
+
+    final FilesystemSnapshotType s = fs.snapshot();
+    final PathVirtual file1 = PathVirtual.ofString("/file1.txt");
+    final Calendar t = s.getModificationTime(file1);
+
+    final Calendar t_new = Calendar.getInstance();
+    t_new.setTimeInMillis(t.getTimeInMillis() + 100000);
+
+    fs.mountArchive("files4-6.zip", PathVirtual.ROOT);
+    fs.createDirectory(PathVirtual.ofString("/x/y"));
+    fs.updateModificationTime(file1, t_new);
+
+    Assert.assertTrue(fs.isFile(PathVirtual.ofString("/file4.txt")));
+    Assert.assertTrue(fs.isDirectory(PathVirtual.ofString("/x/y")));
+    Assert.assertEquals(t_new, fs.getModificationTime(file1));
+    Assert.assertEquals(2, fs.getMountedArchives().size());
+
+    Assert.assertFalse(s.exists(PathVirtual.ofString("/file4.txt")));
+    Assert.assertFalse(s.exists(PathVirtual.ofString("/x")));
+    Assert.assertEquals(t, s.getModificationTime(file1));
+    Assert.assertEquals(1, s.getMountedArchives().size());
+    Assert.assertEquals(3, s.listDirectory(PathVirtual.ROOT).size());
+    Assert.assertEquals(7, fs.listDirectory(PathVirtual.ROOT).size());
+    s.release();
+  }
+
+  /**
+   * Opening a file via a released snapshot fails if the archive that
+   * provided the file has been unmounted.
+   */
+
+  @Test public void testSnapshotReleasedArchiveClosed()
+    throws IOException,
+      FilesystemError
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+    fs.mountArchive("single-file.zip", PathVirtual.ROOT);
+
+    final FilesystemSnapshotType s = fs.snapshot();
+    fs.unmount(PathVirtual.ROOT);
+    s.release();
+    s.release();
+
+    Assert.assertTrue(s.isFile(PathVirtual.ofString("/file.txt")));
+
+    try {
+      s.openFile(PathVirtual.ofString("/file.txt"));
+      throw new UnreachableCodeException();
+    } catch (final FilesystemError e) {
+      Assert.assertEquals(Code.FS_ERROR_ARCHIVE_CLOSED, e.getCode());
+    }
+  }
+
+  /**
+   * Files remain readable via a snapshot after the archive that provides
+   * them has been unmounted.
+   */
+
+  @Test public void testSnapshotRetainsUnmounted()
+    throws IOException,
+      FilesystemError
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+    fs.mountArchive("single-file.zip", PathVirtual.ROOT);
+
+    final FilesystemSnapshotType s = fs.snapshot();
+    fs.unmount(PathVirtual.ROOT);
+    Assert.assertFalse(fs.exists(PathVirtual.ofString("/file.txt")));
+
+    final InputStream i = s.openFile(PathVirtual.ofString("/file.txt"));
+    s.release();
+
+    final BufferedReader b = new BufferedReader(new InputStreamReader(i));
+    Assert.assertEquals("Hello zip.", b.readLine());
+    i.close();
+  }
+
+  @Test public void testSetAsyncExecutorInvalid()
+    throws IOException
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+
+    try {
+      fs.setAsyncExecutor(FilesystemTest.EXECUTOR_CALLER, 0);
+      Assert.fail();
+    } catch (final FilesystemError e) {
+      Assert.assertEquals(Code.FS_ERROR_CONSTRAINT_ERROR, e.getCode());
+    }
+  }
+
+  @Test public void testStatAsync()
+    throws IOException,
+      FilesystemError,
+      InterruptedException,
+      ExecutionException
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+    fs.mountArchive("single-file.zip", PathVirtual.ROOT);
+
+    final PathVirtual p = PathVirtual.ofString("/file.txt");
+    final AtomicReference<FileStat> result = new AtomicReference<FileStat>();
+    final Future<FileStat> f =
+      fs.statAsync(p, new FilesystemCallbackType<FileStat>() {
+        @Override public void onFailure(
+          final FilesystemError e)
+        {
+          throw new UnreachableCodeException(e);
+        }
+
+        @Override public void onSuccess(
+          final FileStat value)
+        {
+          result.set(value);
+        }
+      });
+
+    final FileStat s = f.get();
+    Assert.assertSame(s, result.get());
+    Assert.assertEquals(p, s.getPath());
+    Assert.assertEquals(fs.getFileSize(p), s.getSize());
+  }
+
+  /**
+   * Retrieving the attributes of a directory in an archive works.
+   */
+
+  @Test public void testStatDirectory()
+    throws IOException,
+      FilesystemError
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+    final PathVirtual p = PathVirtual.ofString("/subdir");
+
+    fs.mountArchive("single-file-and-subdir.zip", PathVirtual.ROOT);
+
+    final FileStat s = fs.stat(p);
+    Assert.assertEquals(p, s.getPath());
+    Assert.assertEquals(FileStat.Type.TYPE_DIRECTORY, s.getType());
+    Assert.assertEquals(0, s.getSize());
+    Assert.assertEquals(fs.getModificationTime(p), s.getModificationTime());
+
+    final Pair<PathReal, PathVirtual> a =
+      ((Some<Pair<PathReal, PathVirtual>>) s.getArchive()).get();
+    Assert.assertEquals(PathVirtual.ROOT, a.getRight());
+    Assert.assertEquals("single-file-and-subdir.zip", a
+      .getLeft()
+      .toFile()
+      .getName());
+  }
+
+  /**
+   * Retrieving the attributes of a file works, and agrees with the
+   * individual attribute functions.
+   */
+
+  @Test public void testStatFile()
+    throws IOException,
+      FilesystemError
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+    final PathVirtual p = PathVirtual.ofString("/file.txt");
+
+    fs.mountArchive("single-file.zip", PathVirtual.ROOT);
+    fs.mountArchive("single-file", PathVirtual.ROOT);
+
+    final FileStat s = fs.stat(p);
+    Assert.assertEquals(FileStat.Type.TYPE_FILE, s.getType());
+    Assert.assertEquals(fs.getFileSize(p), s.getSize());
+    Assert.assertEquals(s.getSize(), s.getCompressedSize());
+    Assert.assertEquals(fs.getModificationTime(p), s.getModificationTime());
+
+    final Pair<PathReal, PathVirtual> a =
+      ((Some<Pair<PathReal, PathVirtual>>) s.getArchive()).get();
+    Assert.assertEquals("single-file", a.getLeft().toFile().getName());
+
+    fs.unmount(PathVirtual.ROOT);
+
+    final FileStat z = fs.stat(p);
+    Assert.assertEquals(11, z.getSize());
+    Assert.assertTrue(z.getCompressedSize() > 0);
+    final Pair<PathReal, PathVirtual> za =
+      ((Some<Pair<PathReal, PathVirtual>>) z.getArchive()).get();
+    Assert.assertEquals("single-file.zip", za.getLeft().toFile().getName());
+  }
+
+  /**
+   * Retrieving the attributes of a nonexistent object fails.
+   */
+
+  @Test(expected = FilesystemError.class) public void testStatNonexistent()
+    throws IOException,
+      FilesystemError
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+
+    try {
+      fs.stat(PathVirtual.ofString("/nonexistent"));
+    } catch (final FilesystemError e) {
+      Assert.assertEquals(Code.FS_ERROR_NONEXISTENT, e.getCode());
+      throw e;
+    }
+  }
+
+  /**
+   * Retrieving the attributes of an object takes explicitly updated
+   * modification times into account.
    */
 
-  @Test public void testMountSnapshotEmpty()
-    throws IOException
+  @Test public void testStatUpdatedTime()
+    throws IOException,
+      FilesystemError
   {
     final FSCapabilityAllType fs = FilesystemTest.makeFS();
-    Assert.assertTrue(fs.getMountedArchives().isEmpty());
+    final Calendar t = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+    t.setTimeInMillis(t.getTimeInMillis() + 100000);
+
+    fs.updateModificationTime(PathVirtual.ROOT, t);
+    Assert.assertEquals(t, fs.stat(PathVirtual.ROOT).getModificationTime());
   }
 
   /**
-   * Asking for a snapshot of the mounts of filesystem works.
+   * Retrieving the attributes of a virtual directory works.
    */
 
-  @Test public void testMountSnapshotMounts()
+  @Test public void testStatVirtualDirectory()
     throws IOException,
       FilesystemError
   {
     final FSCapabilityAllType fs = FilesystemTest.makeFS();
+    final PathVirtual p = PathVirtual.ofString("/bin");
 
-    fs.createDirectory(PathVirtual.ofString("/a"));
-    fs.createDirectory(PathVirtual.ofString("/b"));
-    fs.createDirectory(PathVirtual.ofString("/c"));
+    fs.createDirectory(p);
 
-    fs.mountArchive("single-file.zip", PathVirtual.ofString("/a"));
-    fs.mountArchive("complex.zip", PathVirtual.ofString("/a"));
-    fs.mountArchive("single-file.zip", PathVirtual.ofString("/b"));
-    fs.mountArchive("single-file.zip", PathVirtual.ofString("/c"));
-    fs.mountArchive("single-file-and-subdir.zip", PathVirtual.ofString("/c"));
+    final FileStat s = fs.stat(p);
+    Assert.assertEquals(FileStat.Type.TYPE_DIRECTORY, s.getType());
+    Assert.assertTrue(s.getArchive().isNone());
+    Assert.assertEquals(fs.getModificationTime(p), s.getModificationTime());
+  }
 
-    final Deque<Pair<PathReal, PathVirtual>> mounts = fs.getMountedArchives();
-    Assert.assertEquals(5, mounts.size());
+  /**
+   * Lookups in indexed archives do not query the archives, whilst lookups
+   * that may be satisfied by directory archives do.
+   */
 
-    {
-      final Pair<PathReal, PathVirtual> p = mounts.pop();
-      Assert.assertEquals("single-file-and-subdir.zip", p
-        .getLeft()
-        .toFile()
-        .getName());
-      Assert.assertEquals(PathVirtual.ofString("/c"), p.getRight());
-    }
+  @Test public void testStatistics()
+    throws IOException,
+      FilesystemError
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+    final PathVirtual p = PathVirtual.ofString("/file1.txt");
 
-    {
-      final Pair<PathReal, PathVirtual> p = mounts.pop();
-      Assert.assertEquals("single-file.zip", p.getLeft().toFile().getName());
-      Assert.assertEquals(PathVirtual.ofString("/c"), p.getRight());
-    }
+    fs.mountArchive("files1-3.zip", PathVirtual.ROOT);
 
-    {
-      final Pair<PathReal, PathVirtual> p = mounts.pop();
-      Assert.assertEquals("single-file.zip", p.getLeft().toFile().getName());
-      Assert.assertEquals(PathVirtual.ofString("/b"), p.getRight());
-    }
+    final FilesystemStatistics s0 = fs.getStatistics();
+    Assert.assertEquals(4, s0.getIndexEntries());
+    Assert.assertTrue(fs.exists(p));
 
-    {
-      final Pair<PathReal, PathVirtual> p = mounts.pop();
-      Assert.assertEquals("complex.zip", p.getLeft().toFile().getName());
-      Assert.assertEquals(PathVirtual.ofString("/a"), p.getRight());
-    }
+    final FilesystemStatistics s1 = fs.getStatistics();
+    Assert.assertEquals(s0.getLookups() + 2, s1.getLookups());
+    Assert.assertEquals(s0.getLookupsIndexed() + 2, s1.getLookupsIndexed());
+    Assert.assertEquals(s0.getArchiveQueries(), s1.getArchiveQueries());
 
-    {
-      final Pair<PathReal, PathVirtual> p = mounts.pop();
-      Assert.assertEquals("single-file.zip", p.getLeft().toFile().getName());
-      Assert.assertEquals(PathVirtual.ofString("/a"), p.getRight());
-    }
+    fs.mountArchive("files4-6", PathVirtual.ROOT);
+
+    final FilesystemStatistics s2 = fs.getStatistics();
+    Assert.assertEquals(4, s2.getIndexEntries());
+    Assert.assertTrue(fs.exists(p));
+
+    final FilesystemStatistics s3 = fs.getStatistics();
+    Assert.assertEquals(s2.getLookups() + 2, s3.getLookups());
+    Assert.assertEquals(s2.getLookupsIndexed(), s3.getLookupsIndexed());
+    Assert.assertEquals(s2.getArchiveQueries() + 2, s3.getArchiveQueries());
+    Assert.assertEquals(
+      s2.getArchiveQueryMisses() + 1,
+      s3.getArchiveQueryMisses());
+
+    fs.unmount(PathVirtual.ROOT);
+    fs.unmount(PathVirtual.ROOT);
+    Assert.assertEquals(0, fs.getStatistics().getIndexEntries());
   }
 
   /**
-   * The root directory always exists and is a directory.
+   * Lookups made on other threads are counted, including after the threads
+   * have terminated.
    */
 
-  @Test public void testRootExists()
-    throws IOException,
-      FilesystemError
+  @Test public void testStatisticsThreads()
+    throws Exception
   {
     final FSCapabilityAllType fs = FilesystemTest.makeFS();
+    final PathVirtual p = PathVirtual.ofString("/file1.txt");
+    fs.mountArchive("files1-3.zip", PathVirtual.ROOT);
 
-    Assert.assertTrue(fs.exists(PathVirtual.ROOT));
-    Assert.assertTrue(fs.isDirectory(PathVirtual.ROOT));
-    Assert.assertFalse(fs.isFile(PathVirtual.ROOT));
+    final FilesystemStatistics s0 = fs.getStatistics();
+
+    final ExecutorService exec = Executors.newFixedThreadPool(4);
+    try {
+      final List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+      for (int index = 0; index < 8; ++index) {
+        results.add(exec.submit(new Callable<Boolean>() {
+          @Override public Boolean call()
+            throws Exception
+          {
+            return Boolean.valueOf(fs.exists(p));
+          }
+        }));
+      }
+      for (final Future<Boolean> r : results) {
+        Assert.assertTrue(r.get().booleanValue());
+      }
+    } finally {
+      exec.shutdown();
+      Assert.assertTrue(exec.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    final FilesystemStatistics s1 = fs.getStatistics();
+    Assert.assertEquals(s0.getLookups() + 16, s1.getLookups());
+    Assert.assertEquals(s0.getLookupsIndexed() + 16, s1.getLookupsIndexed());
+    Assert.assertEquals(s0.getArchiveQueries(), s1.getArchiveQueries());
+    fs.close();
   }
 
   /**
-   * @see #testShadowEdgeCaseShadowSameMount()
+   * Files are streamed in chunks of the requested size, one chunk per
+   * request, and signals are never delivered concurrently.
    */
 
-  @Test public void testShadowEdgeCaseReverseShadowSameMount()
+  @Test public void testStreamAsync()
     throws IOException,
-      FilesystemError
+      FilesystemError,
+      InterruptedException
   {
     final FSCapabilityAllType fs = FilesystemTest.makeFS();
+    fs.mountArchive("deflated.zip", PathVirtual.ROOT);
+    final PathVirtual p = PathVirtual.ofString("/file.txt");
 
-    fs.mountArchive("single-file-and-subdir.zip", PathVirtual.ROOT);
-    Assert.assertTrue(fs.isDirectory(PathVirtual.ofString("/subdir")));
-    fs.mountArchive("subdir-shadow.zip", PathVirtual.ROOT);
-    Assert.assertFalse(fs.isDirectory(PathVirtual.ofString("/subdir")));
+    final ExecutorService exec = Executors.newFixedThreadPool(4);
+    try {
+      fs.setAsyncExecutor(exec, 1);
+
+      final StreamRecorder r = new StreamRecorder(1);
+      fs.streamFileAsync(p, 64, r);
+      Assert.assertTrue(r.finished.await(10, TimeUnit.SECONDS));
+
+      Assert.assertTrue(r.completed.get());
+      Assert.assertNull(r.error.get());
+      Assert.assertEquals(8, r.chunks.get());
+
+      final ByteBuffer expected = fs.readFileAsByteBuffer(p);
+      final byte[] data = new byte[expected.remaining()];
+      expected.get(data);
+      Assert.assertArrayEquals(data, r.data.toByteArray());
+    } finally {
+      exec.shutdown();
+    }
+    fs.close();
   }
 
   /**
-   * If a directory in an archive shadows a file, then searching for any
-   * object in that archive does not cause an error to be raised due to the
-   * original file appearing to be an ancestor.
-   * 
-   * This tests checks the case where the shadowing file is in an archive
-   * mounted at an ancestor of the shadowed directory.
+   * Subscriptions may be cancelled from within the subscriber.
    */
 
-  @Test public void testShadowEdgeCaseShadowIsAncestor()
+  @Test public void testStreamAsyncCancel()
     throws IOException,
       FilesystemError
   {
     final FSCapabilityAllType fs = FilesystemTest.makeFS();
+    fs.mountArchive("deflated.zip", PathVirtual.ROOT);
 
-    fs.createDirectory(PathVirtual.ofString("/subdir"));
-    fs.mountArchive(
-      "single-file-and-subdir.zip",
-      PathVirtual.ofString("/subdir"));
+    final StreamRecorder r = new StreamRecorder(Long.MAX_VALUE) {
+      @Override public void onNext(
+        final ByteBuffer chunk)
+      {
+        super.onNext(chunk);
+        this.getSubscription().cancel();
+      }
+    };
+    fs.streamFileAsync(PathVirtual.ofString("/file.txt"), 64, r);
 
-    fs.mountArchive("subdir-subdir-shadow.zip", PathVirtual.ROOT);
-    Assert
-      .assertFalse(fs.isDirectory(PathVirtual.ofString("/subdir/subdir")));
+    Assert.assertEquals(1, r.chunks.get());
+    Assert.assertFalse(r.completed.get());
+    Assert.assertNull(r.error.get());
+    fs.close();
+  }
+
+  @Test public void testStreamAsyncChunkSize()
+    throws IOException
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+
+    try {
+      fs.streamFileAsync(PathVirtual.ROOT, 0, new StreamRecorder(1));
+      Assert.fail();
+    } catch (final FilesystemError e) {
+      Assert.assertEquals(Code.FS_ERROR_CONSTRAINT_ERROR, e.getCode());
+    }
   }
 
   /**
-   * If a directory in an archive shadows a file, then searching for any
-   * object in that archive does not cause an error to be raised due to the
-   * original file appearing to be an ancestor.
-   * 
-   * This tests checks the case where the shadowed directory in archive
-   * <code>A</code> mounted at <code>MA</code> is shadowed by a file in an
-   * archive mounted at a child of <code>MA</code>.
+   * Empty files complete once the first chunk is requested.
    */
 
-  @Test public void testShadowEdgeCaseShadowIsChild()
+  @Test public void testStreamAsyncEmpty()
     throws IOException,
       FilesystemError
   {
     final FSCapabilityAllType fs = FilesystemTest.makeFS();
+    fs.createDirectory(PathVirtual.ofString("/x"));
 
-    fs.mountArchive("single-file-in-subdir-subdir.zip", PathVirtual.ROOT);
-    Assert.assertTrue(fs.isDirectory(PathVirtual.ofString("/subdir")));
-    Assert.assertTrue(fs.isDirectory(PathVirtual.ofString("/subdir/subdir")));
-    Assert.assertTrue(fs.isFile(PathVirtual
-      .ofString("/subdir/subdir/file.txt")));
+    final File dir = new TestData.TemporaryDirectory().getFile();
+    final File f = new File(dir, "empty.txt");
+    Assert.assertTrue(f.createNewFile());
+    TestData.deleteOnExit(f);
+    fs.mountArchiveFromAnywhere(
+      dir,
+      PathVirtual.ofString("/x"));
 
-    fs.mountArchive("subdir-shadow.zip", PathVirtual.ofString("/subdir"));
-    Assert.assertTrue(fs.isDirectory(PathVirtual.ofString("/subdir")));
-    Assert
-      .assertFalse(fs.isDirectory(PathVirtual.ofString("/subdir/subdir")));
+    final StreamRecorder r = new StreamRecorder(1);
+    fs.streamFileAsync(PathVirtual.ofString("/x/empty.txt"), 64, r);
+    Assert.assertEquals(0, r.chunks.get());
+    Assert.assertTrue(r.completed.get());
   }
 
-  /**
-   * If a directory in an archive shadows a file, then searching for any
-   * object in that archive does not cause an error to be raised due to the
-   * original file appearing to be an ancestor.
-   * 
-   * This tests checks the case where the shadowing file is in an archive
-   * mounted at the same mount point as the archive containing the shadowed
-   * directory.
-   */
-
-  @Test public void testShadowEdgeCaseShadowSameMount()
+  @Test public void testStreamAsyncNonexistent()
     throws IOException,
       FilesystemError
   {
     final FSCapabilityAllType fs = FilesystemTest.makeFS();
 
-    fs.mountArchive("subdir-shadow.zip", PathVirtual.ROOT);
-    Assert.assertFalse(fs.isDirectory(PathVirtual.ofString("/subdir")));
-    fs.mountArchive("single-file-and-subdir.zip", PathVirtual.ROOT);
-    Assert.assertTrue(fs.isDirectory(PathVirtual.ofString("/subdir")));
-    Assert
-      .assertFalse(fs.exists(PathVirtual.ofString("/subdir/nonexistent")));
+    final StreamRecorder r = new StreamRecorder(1);
+    fs.streamFileAsync(PathVirtual.ofString("/nonexistent"), 64, r);
+    Assert.assertFalse(r.completed.get());
+    Assert.assertEquals(Code.FS_ERROR_NONEXISTENT, r.error.get().getCode());
   }
 
-  @Test public void testShadowExample()
+  @Test public void testStreamAsyncRequestInvalid()
     throws IOException,
       FilesystemError
   {
     final FSCapabilityAllType fs = FilesystemTest.makeFS();
-
-    fs.createDirectory(PathVirtual.ofString("/subdir"));
-    Assert.assertTrue(fs.isDirectory(PathVirtual.ofString("/subdir")));
-
-    fs.mountArchive("files1-3.zip", PathVirtual.ofString("/subdir"));
-    Assert.assertTrue(fs.isFile(PathVirtual.ofString("/subdir/file1.txt")));
-    Assert.assertTrue(fs.isFile(PathVirtual.ofString("/subdir/file2.txt")));
-    Assert.assertTrue(fs.isFile(PathVirtual.ofString("/subdir/file3.txt")));
-
-    fs.mountArchive("subdir-shadow.zip", PathVirtual.ROOT);
-    Assert.assertFalse(fs.isDirectory(PathVirtual.ofString("/subdir")));
-
-    fs.mountArchive("single-file-and-subdir.zip", PathVirtual.ROOT);
-    Assert.assertTrue(fs.isDirectory(PathVirtual.ofString("/subdir")));
-    Assert.assertTrue(fs.isFile(PathVirtual.ofString("/subdir/file.txt")));
-
-    fs.mountArchive("files4-6.zip", PathVirtual.ofString("/subdir"));
-    Assert.assertFalse(fs.exists(PathVirtual.ofString("/subdir/file1.txt")));
-    Assert.assertFalse(fs.exists(PathVirtual.ofString("/subdir/file2.txt")));
-    Assert.assertFalse(fs.exists(PathVirtual.ofString("/subdir/file3.txt")));
-    Assert.assertTrue(fs.isFile(PathVirtual.ofString("/subdir/file4.txt")));
-    Assert.assertTrue(fs.isFile(PathVirtual.ofString("/subdir/file5.txt")));
-    Assert.assertTrue(fs.isFile(PathVirtual.ofString("/subdir/file6.txt")));
+    fs.mountArchive("deflated.zip", PathVirtual.ROOT);
+
+    final StreamRecorder r = new StreamRecorder(0);
+    fs.streamFileAsync(PathVirtual.ofString("/file.txt"), 64, r);
+    Assert.assertEquals(0, r.chunks.get());
+    Assert.assertEquals(
+      Code.FS_ERROR_CONSTRAINT_ERROR,
+      r.error.get().getCode());
   }
 
   /**
@@ -2035,6 +3900,51 @@ import com.io7m.jvvfs.tests.ValidNameGenerator;
     Assert.assertTrue(fs.isDirectory(PathVirtual.ROOT));
   }
 
+  /**
+   * Unmounting an archive that hides a directory with a file makes the
+   * directory accessible again.
+   */
+
+  @Test public void testUnmountRevealsShadowed()
+    throws IOException,
+      FilesystemError
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+
+    fs.mountArchive("single-file-and-subdir.zip", PathVirtual.ROOT);
+    fs.mountArchive("subdir-shadow.zip", PathVirtual.ROOT);
+    Assert.assertTrue(fs.isFile(PathVirtual.ofString("/subdir")));
+
+    fs.unmount(PathVirtual.ROOT);
+    Assert.assertTrue(fs.isDirectory(PathVirtual.ofString("/subdir")));
+    Assert.assertTrue(fs.isFile(PathVirtual.ofString("/subdir/file.txt")));
+
+    final SortedSet<String> items =
+      fs.listDirectory(PathVirtual.ofString("/subdir"));
+    Assert.assertEquals(1, items.size());
+    Assert.assertTrue(items.contains("file.txt"));
+  }
+
+  /**
+   * Streams opened before an archive is unmounted remain readable.
+   */
+
+  @Test public void testUnmountStreamReadable()
+    throws IOException,
+      FilesystemError
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+    fs.mountArchive("single-file.zip", PathVirtual.ROOT);
+
+    final InputStream s = fs.openFile(PathVirtual.ofString("/file.txt"));
+    fs.unmount(PathVirtual.ROOT);
+    Assert.assertFalse(fs.exists(PathVirtual.ofString("/file.txt")));
+
+    final BufferedReader b = new BufferedReader(new InputStreamReader(s));
+    Assert.assertEquals("Hello zip.", b.readLine());
+    s.close();
+  }
+
   /**
    * When a file changes time inside an archive, the newer time is used
    * instead of any explicitly given updated time.
@@ -2134,4 +4044,55 @@ import com.io7m.jvvfs.tests.ValidNameGenerator;
     final Calendar t1 = fs.getModificationTime(PathVirtual.ROOT);
     Assert.assertEquals(t0, t1);
   }
+
+  /**
+   * Updates to the times of objects are discarded when the objects become
+   * unreachable due to files in more recently mounted archives.
+   */
+
+  @Test public void testUpdateTimeDroppedShadowed()
+    throws IOException,
+      FilesystemError
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+    final PathVirtual p = PathVirtual.ofString("/subdir/x");
+
+    fs.createDirectory(p);
+    final Calendar t = fs.getModificationTime(p);
+    final Calendar t0 = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+    t0.setTimeInMillis(0);
+    fs.updateModificationTime(p, t0);
+    Assert.assertEquals(t0, fs.getModificationTime(p));
+
+    fs.mountArchive("subdir-shadow.zip", PathVirtual.ROOT);
+    Assert.assertTrue(fs.isFile(PathVirtual.ofString("/subdir")));
+    fs.unmount(PathVirtual.ROOT);
+
+    Assert.assertTrue(fs.isDirectory(p));
+    Assert.assertEquals(t, fs.getModificationTime(p));
+  }
+
+  /**
+   * Updates to the times of objects are discarded when the archives that
+   * provide the objects are unmounted.
+   */
+
+  @Test public void testUpdateTimeDroppedUnmount()
+    throws IOException,
+      FilesystemError
+  {
+    final FSCapabilityAllType fs = FilesystemTest.makeFS();
+    final PathVirtual p = PathVirtual.ofString("/file1.txt");
+
+    fs.mountArchive("files1-3.zip", PathVirtual.ROOT);
+    final Calendar t = fs.getModificationTime(p);
+    final Calendar t0 = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+    t0.setTimeInMillis(0);
+    fs.updateModificationTime(p, t0);
+    Assert.assertEquals(t0, fs.getModificationTime(p));
+
+    fs.unmount(PathVirtual.ROOT);
+    fs.mountArchive("files1-3.zip", PathVirtual.ROOT);
+    Assert.assertEquals(t, fs.getModificationTime(p));
+  }
 }
@@ -136,6 +136,7 @@ public final class TestData
     TestData.zip_list.add("encrypted.zip");
     TestData.zip_list.add("files1-3.zip");
     TestData.zip_list.add("files4-6.zip");
+    TestData.zip_list.add("deflated.zip");
     TestData.zip_list.add("unknown.unknown");
 
     TestData.zip_unpack_map.put("single-file.zip", "single-file");
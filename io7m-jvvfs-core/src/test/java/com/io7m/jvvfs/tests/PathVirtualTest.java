@@ -204,6 +204,43 @@ public final class PathVirtualTest
       });
   }
 
+  @SuppressWarnings("static-method") @Test public void testInternContent()
+  {
+    PathVirtualTest
+      .runWithNameListGenerator(new AbstractCharacteristic<List<String>>() {
+        @Override protected void doSpecify(
+          final List<String> names)
+          throws Throwable
+        {
+          final PathVirtual p0 = PathVirtual.ofNames(names);
+          final PathVirtual p1 = PathVirtual.ofNames(names);
+          Assert.assertNotSame(p0, p1);
+          Assert.assertSame(p0.intern(), p1.intern());
+          Assert.assertEquals(p0, p0.intern());
+        }
+      });
+  }
+
+  @SuppressWarnings("static-method") @Test public void testInternDistinct()
+  {
+    PathVirtualTest
+      .runWithGenerator(new AbstractCharacteristic<PathVirtual>() {
+        @Override protected void doSpecify(
+          final PathVirtual p0)
+          throws Throwable
+        {
+          final PathVirtual p1 = p0.appendName("x");
+          Assert.assertNotSame(p0.intern(), p1.intern());
+        }
+      });
+  }
+
+  @SuppressWarnings("static-method") @Test public void testInternRoot()
+    throws FilesystemError
+  {
+    Assert.assertSame(PathVirtual.ROOT, PathVirtual.ofString("/").intern());
+  }
+
   @SuppressWarnings("static-method") @Test public
     void
     testIsAncestorOfAppend()
@@ -420,6 +457,22 @@ public final class PathVirtualTest
     PathVirtual.ofString("");
   }
 
+  @SuppressWarnings("static-method") @Test(expected = FilesystemError.class) public
+    void
+    testOfStringInvalidEmptyName()
+      throws FilesystemError
+  {
+    PathVirtual.ofString("/a//b");
+  }
+
+  @SuppressWarnings("static-method") @Test(expected = FilesystemError.class) public
+    void
+    testOfStringInvalidName()
+      throws FilesystemError
+  {
+    PathVirtual.ofString("/a/b/../c");
+  }
+
   @SuppressWarnings("static-method") @Test public void testOfStringLax()
   {
     PathVirtualTest
@@ -446,6 +499,16 @@ public final class PathVirtualTest
       });
   }
 
+  @SuppressWarnings("static-method") @Test public
+    void
+    testOfStringLaxNoLeadingSlash()
+      throws FilesystemError
+  {
+    final PathVirtual p = PathVirtual.ofStringLax("a//b/");
+    Assert.assertEquals(PathVirtual.ofString("/a/b"), p);
+    Assert.assertEquals("/a/b", p.toString());
+  }
+
   @SuppressWarnings("static-method") @Test public void testOfStringLaxRoot()
     throws FilesystemError
   {
@@ -470,6 +533,17 @@ public final class PathVirtualTest
     Assert.assertEquals(p.toString(), "/");
   }
 
+  @SuppressWarnings("static-method") @Test public
+    void
+    testOfStringTrailingSlash()
+      throws FilesystemError
+  {
+    final PathVirtual p = PathVirtual.ofString("/a/b//");
+    Assert.assertEquals(PathVirtual.ofString("/a/b"), p);
+    Assert.assertEquals("/a/b", p.toString());
+    Assert.assertEquals(2, p.length());
+  }
+
   @SuppressWarnings("static-method") @Test public void testOrderingGreater()
     throws FilesystemError
   {
@@ -627,6 +701,31 @@ public final class PathVirtualTest
       });
   }
 
+  @SuppressWarnings("static-method") @Test public
+    void
+    testSubtractConsistentWithOfNames()
+  {
+    PathVirtualTest
+      .runWithPairGenerator(new AbstractCharacteristic<Pair<PathVirtual, PathVirtual>>() {
+        @Override protected void doSpecify(
+          final Pair<PathVirtual, PathVirtual> p)
+          throws Throwable
+        {
+          final PathVirtual p0 = p.getLeft();
+          final PathVirtual p1 = p0.append(p.getRight());
+          final PathVirtual pr = p1.subtract(p0);
+
+          final PathVirtual px = PathVirtual.ofString(pr.toString());
+          Assert.assertEquals(px, pr);
+          Assert.assertEquals(pr, px);
+          Assert.assertEquals(px.hashCode(), pr.hashCode());
+          Assert.assertEquals(0, px.compareTo(pr));
+          Assert.assertEquals(0, pr.compareTo(px));
+          Assert.assertEquals(px.getBaseName(), pr.getBaseName());
+        }
+      });
+  }
+
   @SuppressWarnings("static-method") @Test public void testSubtractFromRoot()
   {
     PathVirtualTest
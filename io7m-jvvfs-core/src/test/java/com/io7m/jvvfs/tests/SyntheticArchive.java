@@ -0,0 +1,277 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jvvfs.tests;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import com.io7m.jvvfs.PathVirtual;
+
+/**
+ * <p>
+ * A synthetic archive: a set of files, and the directories that contain
+ * them, that can be written as a directory tree or as a zip file.
+ * </p>
+ * <p>
+ * The contents of each file are pseudo-random but repeatable, determined by
+ * the path of the file and the <i>layer</i> of the archive. Archives that
+ * shadow the files or directories of another archive are on the layer above
+ * it, so the contents of a file show which archive provided it.
+ * </p>
+ */
+
+public final class SyntheticArchive
+{
+  private final SortedSet<PathVirtual> directories;
+  private final SortedSet<PathVirtual> files;
+  private final int                    layer;
+  private final int                    size;
+
+  SyntheticArchive(
+    final int in_layer,
+    final SortedSet<PathVirtual> in_files,
+    final SortedSet<PathVirtual> in_directories,
+    final int in_size)
+  {
+    this.layer = in_layer;
+    this.files = Collections.unmodifiableSortedSet(in_files);
+    this.directories = Collections.unmodifiableSortedSet(in_directories);
+    this.size = in_size;
+  }
+
+  /**
+   * @param path
+   *          The path of a file
+   * @return The contents of the file at <code>path</code> in this archive
+   */
+
+  public byte[] getContents(
+    final PathVirtual path)
+  {
+    final Random r =
+      new Random((((long) this.layer) << 32) ^ path.toString().hashCode());
+    final byte[] data = new byte[this.size];
+    for (int index = 0; index < this.size; ++index) {
+      data[index] = (byte) ('a' + r.nextInt(16));
+    }
+    return data;
+  }
+
+  /**
+   * @return The directories of the archive, not including the root
+   */
+
+  public SortedSet<PathVirtual> getDirectories()
+  {
+    return this.directories;
+  }
+
+  /**
+   * @return The size of each file in the archive
+   */
+
+  public int getFileSize()
+  {
+    return this.size;
+  }
+
+  /**
+   * @return The files of the archive
+   */
+
+  public SortedSet<PathVirtual> getFiles()
+  {
+    return this.files;
+  }
+
+  /**
+   * @return The layer of the archive
+   */
+
+  public int getLayer()
+  {
+    return this.layer;
+  }
+
+  /**
+   * @param directory
+   *          A directory of this archive
+   * @return An archive on the layer above this one, that contains a single
+   *         file in place of <code>directory</code>, hiding everything below
+   *         it
+   */
+
+  public SyntheticArchive shadowDirectory(
+    final PathVirtual directory)
+  {
+    if (this.directories.contains(directory) == false) {
+      throw new IllegalArgumentException("Not a directory: " + directory);
+    }
+
+    final SortedSet<PathVirtual> shadow_files = new TreeSet<PathVirtual>();
+    shadow_files.add(directory);
+    final SortedSet<PathVirtual> shadow_directories =
+      new TreeSet<PathVirtual>();
+    for (final PathVirtual d : this.directories) {
+      if (d.isAncestorOf(directory)) {
+        shadow_directories.add(d);
+      }
+    }
+
+    return new SyntheticArchive(
+      this.layer + 1,
+      shadow_files,
+      shadow_directories,
+      this.size);
+  }
+
+  /**
+   * @param count
+   *          The number of files to shadow
+   * @return An archive on the layer above this one, that contains
+   *         <code>count</code> of the files of this archive, spread evenly
+   *         over the files in path order
+   */
+
+  public SyntheticArchive shadowFiles(
+    final int count)
+  {
+    if ((count < 0) || (count > this.files.size())) {
+      throw new IllegalArgumentException("Invalid count: " + count);
+    }
+
+    final List<PathVirtual> all = new ArrayList<PathVirtual>(this.files);
+    final SortedSet<PathVirtual> shadow_files = new TreeSet<PathVirtual>();
+    for (int index = 0; index < count; ++index) {
+      shadow_files.add(all.get((int) ((((long) index) * all.size()) / count)));
+    }
+
+    final SortedSet<PathVirtual> shadow_directories =
+      new TreeSet<PathVirtual>();
+    for (final PathVirtual d : this.directories) {
+      for (final PathVirtual f : shadow_files) {
+        if (d.isAncestorOf(f)) {
+          shadow_directories.add(d);
+          break;
+        }
+      }
+    }
+
+    return new SyntheticArchive(
+      this.layer + 1,
+      shadow_files,
+      shadow_directories,
+      this.size);
+  }
+
+  /**
+   * Write the archive as a tree of files below <code>directory</code>.
+   * 
+   * @param directory
+   *          The directory, which will be created if necessary
+   * @throws IOException
+   *           On I/O errors
+   */
+
+  public void writeDirectory(
+    final File directory)
+    throws IOException
+  {
+    for (final PathVirtual d : this.directories) {
+      final File f = new File(directory, d.toString());
+      if ((f.isDirectory() == false) && (f.mkdirs() == false)) {
+        throw new IOException("Could not create directory " + f);
+      }
+    }
+    if ((directory.isDirectory() == false) && (directory.mkdirs() == false)) {
+      throw new IOException("Could not create directory " + directory);
+    }
+
+    for (final PathVirtual p : this.files) {
+      final OutputStream s =
+        new FileOutputStream(new File(directory, p.toString()));
+      try {
+        s.write(this.getContents(p));
+      } finally {
+        s.close();
+      }
+    }
+  }
+
+  /**
+   * Write the archive as a zip file, with an entry for each directory
+   * followed by an entry for each file.
+   * 
+   * @param file
+   *          The zip file
+   * @param method
+   *          The compression method of files, either
+   *          {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}
+   * @throws IOException
+   *           On I/O errors
+   */
+
+  public void writeZip(
+    final File file,
+    final int method)
+    throws IOException
+  {
+    final ZipOutputStream z =
+      new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    try {
+      for (final PathVirtual d : this.directories) {
+        final ZipEntry e = new ZipEntry(d.toString().substring(1) + "/");
+        e.setMethod(ZipEntry.STORED);
+        e.setSize(0);
+        e.setCompressedSize(0);
+        e.setCrc(0);
+        z.putNextEntry(e);
+        z.closeEntry();
+      }
+
+      for (final PathVirtual p : this.files) {
+        final byte[] data = this.getContents(p);
+        final ZipEntry e = new ZipEntry(p.toString().substring(1));
+        e.setMethod(method);
+        if (method == ZipEntry.STORED) {
+          final CRC32 crc = new CRC32();
+          crc.update(data);
+          e.setSize(data.length);
+          e.setCompressedSize(data.length);
+          e.setCrc(crc.getValue());
+        }
+        z.putNextEntry(e);
+        z.write(data);
+        z.closeEntry();
+      }
+    } finally {
+      z.close();
+    }
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jvvfs.tests;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import net.java.quickcheck.Generator;
+
+import com.io7m.jvvfs.FilesystemError;
+import com.io7m.jvvfs.PathVirtual;
+
+/**
+ * <p>
+ * A generator of synthetic archives of a given shape.
+ * </p>
+ * <p>
+ * Each generated archive holds <code>entries</code> files, each of which is
+ * placed below <code>depth</code> directories. Each directory has
+ * <code>fanout</code> subdirectories, and file <code>i</code> is placed in
+ * the directories chosen by the successive digits of <code>i</code> in base
+ * <code>fanout</code>, so that files are spread evenly over the tree. The
+ * names of files and directories are random valid names.
+ * </p>
+ */
+
+public final class SyntheticArchiveGenerator implements
+  Generator<SyntheticArchive>
+{
+  private final int                depth;
+  private final int                entries;
+  private final int                fanout;
+  private final ValidNameGenerator names;
+  private final int                size;
+
+  /**
+   * Construct a generator.
+   * 
+   * @param in_entries
+   *          The number of files in each archive
+   * @param in_depth
+   *          The number of directories above each file
+   * @param in_fanout
+   *          The number of subdirectories of each directory
+   * @param in_size
+   *          The size of each file
+   */
+
+  public SyntheticArchiveGenerator(
+    final int in_entries,
+    final int in_depth,
+    final int in_fanout,
+    final int in_size)
+  {
+    if (in_entries < 0) {
+      throw new IllegalArgumentException("Invalid entry count");
+    }
+    if (in_depth < 0) {
+      throw new IllegalArgumentException("Invalid depth");
+    }
+    if (in_fanout < 1) {
+      throw new IllegalArgumentException("Invalid fanout");
+    }
+    if (in_size < 0) {
+      throw new IllegalArgumentException("Invalid size");
+    }
+
+    this.entries = in_entries;
+    this.depth = in_depth;
+    this.fanout = in_fanout;
+    this.size = in_size;
+    this.names = new ValidNameGenerator();
+  }
+
+  /**
+   * @return <code>count</code> distinct names that are not in
+   *         <code>used</code>, which are added to <code>used</code>.
+   */
+
+  private List<String> distinctNames(
+    final int count,
+    final Set<String> used)
+  {
+    final List<String> r = new ArrayList<String>(count);
+    while (r.size() < count) {
+      final String name = this.names.next();
+      if (used.add(name)) {
+        r.add(name);
+      }
+    }
+    return r;
+  }
+
+  @Override public SyntheticArchive next()
+  {
+    final Set<String> used = new HashSet<String>();
+
+    /**
+     * Directories at the same level share names, so that the directories of
+     * an archive look alike at each level.
+     */
+
+    final List<List<String>> levels = new ArrayList<List<String>>();
+    for (int level = 0; level < this.depth; ++level) {
+      levels.add(this.distinctNames(this.fanout, used));
+    }
+    final List<String> file_names = this.distinctNames(this.entries, used);
+
+    final SortedSet<PathVirtual> files = new TreeSet<PathVirtual>();
+    final SortedSet<PathVirtual> directories = new TreeSet<PathVirtual>();
+
+    try {
+      for (int index = 0; index < this.entries; ++index) {
+        final List<String> components = new ArrayList<String>();
+        int digits = index;
+        for (int level = 0; level < this.depth; ++level) {
+          components.add(levels.get(level).get(digits % this.fanout));
+          digits = digits / this.fanout;
+          directories.add(PathVirtual.ofNames(components));
+        }
+        components.add(file_names.get(index));
+        files.add(PathVirtual.ofNames(components));
+      }
+    } catch (final FilesystemError e) {
+      throw new AssertionError("Invalid name generated, report this bug!");
+    }
+
+    return new SyntheticArchive(0, files, directories, this.size);
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jvvfs.tests;
+
+import java.util.Arrays;
+
+import net.java.quickcheck.QuickCheck;
+import net.java.quickcheck.characteristic.AbstractCharacteristic;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jvvfs.PathVirtual;
+
+@SuppressWarnings("static-method") public final class SyntheticArchiveGeneratorTest
+{
+  @Test(expected = IllegalArgumentException.class) public
+    void
+    testInvalidDepth()
+  {
+    new SyntheticArchiveGenerator(1, -1, 1, 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class) public
+    void
+    testInvalidEntries()
+  {
+    new SyntheticArchiveGenerator(-1, 0, 1, 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class) public
+    void
+    testInvalidFanout()
+  {
+    new SyntheticArchiveGenerator(1, 0, 0, 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class) public void testInvalidSize()
+  {
+    new SyntheticArchiveGenerator(1, 0, 1, -1);
+  }
+
+  @Test public void testShadowDirectory()
+  {
+    QuickCheck.forAll(
+      new SyntheticArchiveGenerator(64, 3, 4, 8),
+      new AbstractCharacteristic<SyntheticArchive>() {
+        @Override protected void doSpecify(
+          final SyntheticArchive a)
+          throws Throwable
+        {
+          final PathVirtual d = a.getDirectories().last();
+          final SyntheticArchive s = a.shadowDirectory(d);
+
+          Assert.assertEquals(1, s.getLayer());
+          Assert.assertEquals(1, s.getFiles().size());
+          Assert.assertTrue(s.getFiles().contains(d));
+          Assert.assertEquals(d.length() - 1, s.getDirectories().size());
+          for (final PathVirtual p : s.getDirectories()) {
+            Assert.assertTrue(p.isAncestorOf(d));
+          }
+        }
+      });
+  }
+
+  @Test(expected = IllegalArgumentException.class) public
+    void
+    testShadowDirectoryNotDirectory()
+  {
+    final SyntheticArchive a =
+      new SyntheticArchiveGenerator(64, 3, 4, 8).next();
+    a.shadowDirectory(a.getFiles().first());
+  }
+
+  @Test public void testShadowFiles()
+  {
+    QuickCheck.forAll(
+      new SyntheticArchiveGenerator(64, 3, 4, 8),
+      new AbstractCharacteristic<SyntheticArchive>() {
+        @Override protected void doSpecify(
+          final SyntheticArchive a)
+          throws Throwable
+        {
+          final SyntheticArchive s = a.shadowFiles(16);
+
+          Assert.assertEquals(1, s.getLayer());
+          Assert.assertEquals(16, s.getFiles().size());
+          Assert.assertTrue(a.getFiles().containsAll(s.getFiles()));
+          Assert.assertTrue(a.getDirectories().containsAll(
+            s.getDirectories()));
+
+          for (final PathVirtual p : s.getFiles()) {
+            Assert.assertFalse(Arrays.equals(
+              a.getContents(p),
+              s.getContents(p)));
+          }
+        }
+      });
+  }
+
+  @Test(expected = IllegalArgumentException.class) public
+    void
+    testShadowFilesTooMany()
+  {
+    new SyntheticArchiveGenerator(64, 3, 4, 8).next().shadowFiles(65);
+  }
+
+  @Test public void testShape()
+  {
+    QuickCheck.forAll(
+      new SyntheticArchiveGenerator(100, 3, 4, 8),
+      new AbstractCharacteristic<SyntheticArchive>() {
+        @Override protected void doSpecify(
+          final SyntheticArchive a)
+          throws Throwable
+        {
+          Assert.assertEquals(0, a.getLayer());
+          Assert.assertEquals(100, a.getFiles().size());
+          Assert.assertTrue(a.getDirectories().size() <= (4 + 16 + 64));
+
+          for (final PathVirtual p : a.getFiles()) {
+            Assert.assertEquals(4, p.length());
+            Assert.assertEquals(8, a.getContents(p).length);
+            Assert.assertArrayEquals(a.getContents(p), a.getContents(p));
+
+            int ancestors = 0;
+            for (final PathVirtual d : a.getDirectories()) {
+              if (d.isAncestorOf(p)) {
+                ++ancestors;
+              }
+            }
+            Assert.assertEquals(3, ancestors);
+          }
+        }
+      });
+  }
+
+  @Test public void testShapeFlat()
+  {
+    final SyntheticArchive a =
+      new SyntheticArchiveGenerator(100, 0, 4, 8).next();
+
+    Assert.assertEquals(100, a.getFiles().size());
+    Assert.assertTrue(a.getDirectories().isEmpty());
+    for (final PathVirtual p : a.getFiles()) {
+      Assert.assertEquals(1, p.length());
+    }
+  }
+}
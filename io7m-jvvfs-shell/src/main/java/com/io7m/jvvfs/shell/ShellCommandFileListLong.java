@@ -18,10 +18,11 @@ package com.io7m.jvvfs.shell;
 
 import java.io.PrintStream;
 import java.util.Calendar;
-import java.util.SortedSet;
+import java.util.SortedMap;
 
 import com.io7m.jfunctional.PartialFunctionType;
 import com.io7m.jlog.LogUsableType;
+import com.io7m.jvvfs.FileStat;
 import com.io7m.jvvfs.FilesystemError;
 import com.io7m.jvvfs.FilesystemType;
 import com.io7m.jvvfs.PathVirtual;
@@ -81,33 +82,40 @@ final class ShellCommandFileListLong extends ShellCommand
     final FilesystemType fs)
     throws FilesystemError
   {
-    final SortedSet<String> items = fs.listDirectory(this.path);
+    final SortedMap<String, FileStat> items =
+      fs.listDirectoryDetailed(this.path);
 
     int longest = 16;
-    for (final String name : items) {
+    for (final String name : items.keySet()) {
       longest = Math.max(name.length(), longest);
     }
 
-    for (final String name : items) {
-      final PathVirtual p = this.path.appendName(name);
-      final Calendar t = fs.getModificationTime(p);
+    for (final String name : items.keySet()) {
+      final FileStat st = items.get(name);
+      final Calendar t = st.getModificationTime();
 
       out.print(name);
-      if (fs.isDirectory(p)) {
-        out.print("/");
-        out.print(" ");
-        ShellCommand.printPadSpace(out, longest, name.length() + 1);
-        out.print(" ");
-        ShellCommand.printCalendarStamp(out, t);
-        out.print(" ");
-      } else {
-        out.print(" ");
-        ShellCommand.printPadSpace(out, longest, name.length());
-        out.print(" ");
-        ShellCommand.printCalendarStamp(out, t);
-        out.print(" ");
-        final long s = fs.getFileSize(p);
-        out.print(s);
+      switch (st.getType()) {
+        case TYPE_DIRECTORY:
+        {
+          out.print("/");
+          out.print(" ");
+          ShellCommand.printPadSpace(out, longest, name.length() + 1);
+          out.print(" ");
+          ShellCommand.printCalendarStamp(out, t);
+          out.print(" ");
+          break;
+        }
+        case TYPE_FILE:
+        {
+          out.print(" ");
+          ShellCommand.printPadSpace(out, longest, name.length());
+          out.print(" ");
+          ShellCommand.printCalendarStamp(out, t);
+          out.print(" ");
+          out.print(st.getSize());
+          break;
+        }
       }
       out.println();
     }